@@ -20,6 +20,7 @@ import org.monte.media.av.CodecChain;
 import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys;
 import org.monte.media.av.MovieReader;
+import org.monte.media.av.ReadAheadMovieReader;
 import org.monte.media.av.Registry;
 import org.monte.media.av.codec.audio.AudioFormatKeys;
 import org.monte.media.av.codec.video.VideoFormatKeys;
@@ -54,8 +55,18 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.DataClassKey;
 
 class PlayerEngine extends AbstractPlayer {
     private static final int PLAYER_RATE = 60;
+    /**
+     * The number of samples per track that are read ahead on a background
+     * thread.
+     */
+    private static final int READ_AHEAD = 8;
     private final MonteMediaPlayer player;
     private final MonteMedia media;
+    /**
+     * The reader of the movie. The reader reads ahead on a background thread.
+     * Calls to {@link MovieReader#setMovieReadTime} discard the samples that
+     * have been read ahead.
+     */
     private MovieReader reader;
     /**
      * Method {@link #seek(Rational)} sets the seek time to a non-null value.
@@ -114,7 +125,16 @@ class PlayerEngine extends AbstractPlayer {
             tmpReader.close();
         }
 
-        reader = Registry.getInstance().getReader(new File(new URI(media.getSource())));
+        MovieReader fileReader = Registry.getInstance().getReader(new File(new URI(media.getSource())));
+        if (fileReader == null) {
+            throw new IOException("Could not find a reader for the movie.");
+        }
+        try {
+            reader = new ReadAheadMovieReader(fileReader, READ_AHEAD);
+        } catch (IOException | RuntimeException e) {
+            fileReader.close();
+            throw e;
+        }
         List<TrackInterface> tracks = new ArrayList<>();
         int mediaWidth = 0, mediaHeight = 0;
         int trackWidth = 0, trackHeight = 0;
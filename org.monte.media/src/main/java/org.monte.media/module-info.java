@@ -28,7 +28,7 @@
  * <tr><td>Run Length</td><td>AVI</td><td>Run Length
  * Encoding</td><td>Encode</td></tr>
  * <tr><td>ZMBV</td><td>AVI</td><td>DosBox Capture
- * Codec</td><td>Decode</td></tr>
+ * Codec</td><td>Decode, Encode</td></tr>
  * <tr><td>TSCC</td><td>AVI, MOV</td><td>TechSmith Screen Capture
  * Codec</td><td>Decode, Encode</td></tr>
  * <tr><td>MJPG</td><td>AVI, MOV</td><td>Motion JPEG</td><td>Decode,
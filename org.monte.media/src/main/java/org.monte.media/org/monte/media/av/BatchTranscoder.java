@@ -0,0 +1,526 @@
+/*
+ * @(#)BatchTranscoder.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
+
+/**
+ * Converts many movies in the background.
+ * <p>
+ * A job either remuxes a movie into another container (see {@link Remuxer}),
+ * or transcodes its video track (see {@link ParallelTranscoder}). Remux jobs
+ * are limited by I/O, and transcode jobs are limited by the CPU. The batch
+ * transcoder runs both kinds of jobs at the same time, each kind with its
+ * own limit:
+ * <ul>
+ *     <li>Up to {@link #getIoThreads()} remux jobs run at the same time.</li>
+ *     <li>Transcode jobs share {@link #getCpuThreads()} threads. A job gets
+ *     more than one thread, if there are fewer queued jobs than free threads.
+ *     This keeps all cores busy at the end of a batch.</li>
+ *     <li>Transcode jobs share a memory budget. The memory of a job is
+ *     estimated from the size of its decoded frames and from the number of
+ *     its threads. A job that does not fit into the free memory waits until
+ *     other jobs complete. Jobs that are larger than the budget run alone.</li>
+ * </ul>
+ * Jobs of the same kind start in the order in which they were submitted.
+ * <p>
+ * The transcoder reports the throughput of each completed job, the queue
+ * depth, and an estimate of the remaining time, which is based on the
+ * throughput of the completed jobs.
+ *
+ * @author Werner Randelshofer
+ */
+public class BatchTranscoder implements AutoCloseable {
+    /**
+     * The number of decoded frames that are held in memory by each thread of
+     * a transcode job.
+     */
+    private static final int FRAMES_PER_THREAD = 3;
+
+    public enum Kind {
+        /**
+         * Copies the samples into another container.
+         */
+        REMUX,
+        /**
+         * Decodes and encodes the video track.
+         */
+        TRANSCODE
+    }
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    /**
+     * A job of the batch transcoder.
+     */
+    public static class Job {
+        private final File source;
+        private final File target;
+        private final Format videoFormat;
+        private final Kind kind;
+        private final CompletableFuture<Job> completion = new CompletableFuture<>();
+        private long sourceBytes;
+        private long frameCount;
+        private long frameBytes;
+        private volatile State state = State.QUEUED;
+        private volatile int threads;
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private volatile Throwable exception;
+
+        private Job(File source, File target, Format videoFormat) {
+            this.source = source;
+            this.target = target;
+            this.videoFormat = videoFormat;
+            this.kind = videoFormat == null ? Kind.REMUX : Kind.TRANSCODE;
+        }
+
+        public File getSource() {
+            return source;
+        }
+
+        public File getTarget() {
+            return target;
+        }
+
+        /**
+         * Returns the format of the video track in the target movie, or null
+         * for a remux job.
+         */
+        public Format getVideoFormat() {
+            return videoFormat;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Returns the size of the source file in bytes.
+         */
+        public long getSourceBytes() {
+            return sourceBytes;
+        }
+
+        /**
+         * Returns the number of frames of the video track of the source movie.
+         */
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Returns the number of threads that the job uses, or 0 if the job
+         * has not been started.
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * Returns the estimated number of bytes, that the job needs for
+         * decoded frames, when it runs with the specified number of threads.
+         */
+        public long getMemoryEstimate(int threads) {
+            return kind == Kind.REMUX ? 0 : frameBytes * FRAMES_PER_THREAD * threads;
+        }
+
+        /**
+         * Returns the time that the job has been running, or null if the job
+         * has not been started.
+         */
+        public Duration getElapsedTime() {
+            long start = startNanos;
+            if (start == 0) {
+                return null;
+            }
+            long end = endNanos;
+            return Duration.ofNanos((end == 0 ? System.nanoTime() : end) - start);
+        }
+
+        /**
+         * Returns the number of source bytes per second, or 0 if the job has
+         * not completed successfully.
+         */
+        public double getBytesPerSecond() {
+            return state == State.DONE ? sourceBytes * 1e9 / Math.max(1, endNanos - startNanos) : 0;
+        }
+
+        /**
+         * Returns the number of frames per second, or 0 if the job has not
+         * completed successfully.
+         */
+        public double getFramesPerSecond() {
+            return state == State.DONE ? frameCount * 1e9 / Math.max(1, endNanos - startNanos) : 0;
+        }
+
+        /**
+         * Returns the exception of a failed job, or null.
+         */
+        public Throwable getException() {
+            return exception;
+        }
+
+        /**
+         * Returns a future that completes when the job is done, has failed,
+         * or has been cancelled.
+         */
+        public CompletableFuture<Job> getCompletion() {
+            return completion;
+        }
+
+        @Override
+        public String toString() {
+            return "Job{" + kind + " " + source + " -> " + target + ", " + state + '}';
+        }
+    }
+
+    private final ArrayDeque<Job> queue = new ArrayDeque<>();
+    private final List<Job> running = new ArrayList<>();
+    private final List<Job> completed = new ArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, BatchTranscoder.this + "-job");
+        t.setDaemon(true);
+        return t;
+    });
+    private int cpuThreads = Runtime.getRuntime().availableProcessors();
+    private int ioThreads = 2;
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private int usedCpuThreads;
+    private int usedIoThreads;
+    private long usedMemory;
+    private boolean closed;
+
+    /**
+     * Creates a new instance.
+     */
+    public BatchTranscoder() {
+    }
+
+    /**
+     * Sets the number of threads that are shared by transcode jobs. The
+     * default value is the number of available processors.
+     *
+     * @param newValue the new value, must be at least 1
+     */
+    public synchronized void setCpuThreads(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("cpuThreads must be at least 1, cpuThreads=" + newValue);
+        }
+        cpuThreads = newValue;
+        schedule();
+    }
+
+    public synchronized int getCpuThreads() {
+        return cpuThreads;
+    }
+
+    /**
+     * Sets the number of remux jobs that may run at the same time. The
+     * default value is 2.
+     *
+     * @param newValue the new value, must be at least 1
+     */
+    public synchronized void setIoThreads(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("ioThreads must be at least 1, ioThreads=" + newValue);
+        }
+        ioThreads = newValue;
+        schedule();
+    }
+
+    public synchronized int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Sets the number of bytes that transcode jobs may use for decoded
+     * frames. The default value is half of the maximal heap size.
+     *
+     * @param newValue the new value in bytes, must be at least 1
+     */
+    public synchronized void setMemoryBudget(long newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("memoryBudget must be at least 1, memoryBudget=" + newValue);
+        }
+        memoryBudget = newValue;
+        schedule();
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Submits a job.
+     * <p>
+     * The source movie is opened for determining the size of its frames. If
+     * the source movie can not be opened, the job fails immediately.
+     *
+     * @param source      the source movie file
+     * @param target      the target movie file. The container format is
+     *                    determined by the file name extension.
+     * @param videoFormat the format of the video track in the target movie,
+     *                    or null for copying the samples without transcoding
+     * @return the job
+     * @throws IllegalStateException if the batch transcoder has been closed
+     */
+    public Job submit(File source, File target, Format videoFormat) {
+        Job job = new Job(source, target, videoFormat);
+        try {
+            probe(job);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("BatchTranscoder has been closed");
+                }
+                complete(job, State.FAILED, e);
+            }
+            job.completion.complete(job);
+            return job;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("BatchTranscoder has been closed");
+            }
+            queue.add(job);
+            schedule();
+        }
+        return job;
+    }
+
+    private static void probe(Job job) throws IOException {
+        job.sourceBytes = job.source.length();
+        try (MovieReader in = Registry.getInstance().getReader(job.source)) {
+            if (in == null) {
+                throw new IOException("Can not read " + job.source);
+            }
+            int track = in.findTrack(0, new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO));
+            if (track >= 0) {
+                Format f = in.getFormat(track);
+                job.frameCount = in.getSampleCount(track);
+                job.frameBytes = 4L * f.get(WidthKey, 0) * f.get(HeightKey, 0);
+            } else if (job.kind == Kind.TRANSCODE) {
+                throw new IOException("Could not find a video track in " + job.source);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of queued jobs.
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the running jobs.
+     */
+    public synchronized List<Job> getRunningJobs() {
+        return new ArrayList<>(running);
+    }
+
+    /**
+     * Returns the completed jobs, including failed and cancelled jobs, in the
+     * order of their completion.
+     */
+    public synchronized List<Job> getCompletedJobs() {
+        return new ArrayList<>(completed);
+    }
+
+    /**
+     * Returns the number of bytes that are reserved by the running jobs.
+     */
+    public synchronized long getUsedMemory() {
+        return usedMemory;
+    }
+
+    /**
+     * Estimates the time until all queued and running jobs are completed.
+     * <p>
+     * The estimate is based on the throughput of the completed jobs. Remux
+     * jobs and transcode jobs run concurrently, and are estimated separately.
+     *
+     * @return the estimate, or null if no job of a kind with remaining work
+     * has been completed yet
+     */
+    public synchronized Duration getEstimatedTimeRemaining() {
+        // Throughput of a remux job, and of a single thread of a transcode job
+        double[] bytes = new double[2], nanos = new double[2], remaining = new double[2];
+        for (Job job : completed) {
+            if (job.state == State.DONE) {
+                int k = job.kind.ordinal();
+                bytes[k] += job.sourceBytes;
+                nanos[k] += (double) (job.endNanos - job.startNanos) * (job.kind == Kind.REMUX ? 1 : job.threads);
+            }
+        }
+        for (Job job : queue) {
+            remaining[job.kind.ordinal()] += job.sourceBytes;
+        }
+        long now = System.nanoTime();
+        for (Job job : running) {
+            int k = job.kind.ordinal();
+            double done = nanos[k] == 0 ? 0 : (now - job.startNanos) * (job.kind == Kind.REMUX ? 1 : job.threads) * bytes[k] / nanos[k];
+            remaining[k] += Math.max(0, job.sourceBytes - done);
+        }
+        double eta = 0;
+        for (Kind kind : Kind.values()) {
+            int k = kind.ordinal();
+            if (remaining[k] > 0) {
+                if (bytes[k] == 0) {
+                    return null;
+                }
+                int slots = kind == Kind.REMUX ? ioThreads : cpuThreads;
+                eta = Math.max(eta, remaining[k] * nanos[k] / bytes[k] / slots);
+            }
+        }
+        return Duration.ofNanos((long) eta);
+    }
+
+    /**
+     * Waits until all submitted jobs are completed.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (!queue.isEmpty() || !running.isEmpty()) {
+            wait();
+        }
+    }
+
+    /**
+     * Cancels all queued jobs, and waits until the running jobs are
+     * completed.
+     */
+    @Override
+    public void close() {
+        List<Job> cancelled = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Job job; (job = queue.poll()) != null; ) {
+                complete(job, State.CANCELLED, null);
+                cancelled.add(job);
+            }
+        }
+        for (Job job : cancelled) {
+            job.completion.complete(job);
+        }
+        try {
+            awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Starts queued jobs, as long as there are free resources.
+     */
+    private void schedule() {
+        int queuedCpuJobs = 0;
+        for (Job job : queue) {
+            if (job.kind == Kind.TRANSCODE) {
+                queuedCpuJobs++;
+            }
+        }
+        boolean ioBlocked = false, cpuBlocked = false;
+        for (Iterator<Job> i = queue.iterator(); i.hasNext(); ) {
+            Job job = i.next();
+            if (job.kind == Kind.REMUX) {
+                if (ioBlocked || usedIoThreads >= ioThreads) {
+                    ioBlocked = true;
+                    continue;
+                }
+                usedIoThreads++;
+                job.threads = 1;
+            } else {
+                if (cpuBlocked || usedCpuThreads >= cpuThreads) {
+                    cpuBlocked = true;
+                    continue;
+                }
+                // Distribute the free threads among the queued jobs, and
+                // reduce the threads until the job fits into the memory
+                int threads = Math.max(1, (cpuThreads - usedCpuThreads) / queuedCpuJobs);
+                while (threads > 1 && usedMemory + job.getMemoryEstimate(threads) > memoryBudget) {
+                    threads--;
+                }
+                if (usedMemory + job.getMemoryEstimate(threads) > memoryBudget && usedMemory > 0) {
+                    cpuBlocked = true;
+                    continue;
+                }
+                queuedCpuJobs--;
+                usedCpuThreads += threads;
+                usedMemory += job.getMemoryEstimate(threads);
+                job.threads = threads;
+            }
+            i.remove();
+            running.add(job);
+            job.state = State.RUNNING;
+            job.startNanos = System.nanoTime();
+            executor.execute(() -> run(job));
+        }
+    }
+
+    private void run(Job job) {
+        Throwable exception = null;
+        try {
+            if (job.kind == Kind.REMUX) {
+                Remuxer.remux(job.source, job.target);
+            } else {
+                ParallelTranscoder t = new ParallelTranscoder();
+                t.setParallelism(job.threads);
+                t.transcode(job.source, job.target, job.videoFormat);
+            }
+        } catch (Throwable e) {
+            exception = e;
+        }
+        synchronized (this) {
+            running.remove(job);
+            if (job.kind == Kind.REMUX) {
+                usedIoThreads--;
+            } else {
+                usedCpuThreads -= job.threads;
+                usedMemory -= job.getMemoryEstimate(job.threads);
+            }
+            complete(job, exception == null ? State.DONE : State.FAILED, exception);
+            schedule();
+        }
+        job.completion.complete(job);
+    }
+
+    /**
+     * Marks a job as completed. Must be called while holding the lock.
+     * <p>
+     * The caller must complete {@code job.completion} after releasing the
+     * lock, because dependent stages of the future run on the completing
+     * thread, and may call back into this batch transcoder.
+     */
+    private void complete(Job job, State state, Throwable exception) {
+        job.endNanos = System.nanoTime();
+        job.exception = exception;
+        job.state = state;
+        completed.add(job);
+        notifyAll();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * @(#)DecodedFrameCache.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A least-recently-used cache of decoded video frames, bounded by the number
+ * of bytes that the frames occupy.
+ * <p>
+ * Each entry holds a private copy of a decoded image, and optionally a
+ * snapshot of the codec state after the image has been decoded
+ * (see {@link RestorableCodec}). Movie readers use the cache for seeking: a
+ * cached frame can be returned without decoding, and a cached codec snapshot
+ * can be used as a starting point for decoding the frames that follow it.
+ * <p>
+ * The size of a codec snapshot is estimated with the size of the image.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Werner Randelshofer
+ */
+public class DecodedFrameCache {
+    private record Key(int track, long sample) {
+    }
+
+    /**
+     * A cache entry.
+     *
+     * @param image    a private copy of the decoded image
+     * @param snapshot the codec state after decoding the image, or null
+     * @param size     the estimated size of the entry in bytes
+     */
+    public record Entry(BufferedImage image, Object snapshot, long size) {
+    }
+
+    private long maxSize;
+    private long size;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Index over the cached samples of each track, for searching the closest
+     * snapshot before a sample.
+     */
+    private final Map<Integer, TreeMap<Long, Entry>> snapshots = new HashMap<>();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximal size of the cache in bytes, 0 disables the
+     *                cache
+     */
+    public DecodedFrameCache(long maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the maximal size of the cache in bytes. Evicts least recently used
+     * entries if the cache is larger than the new size.
+     *
+     * @param newValue the new value, 0 disables the cache
+     * @throws IllegalArgumentException if the value is negative
+     */
+    public void setMaxSize(long newValue) {
+        if (newValue < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative, maxSize=" + newValue);
+        }
+        maxSize = newValue;
+        evict();
+    }
+
+    /**
+     * Returns the maximal size of the cache in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current estimated size of the cache in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns true if the cache can hold entries.
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Gets the entry of the specified sample.
+     *
+     * @param track  the track number
+     * @param sample the sample index
+     * @return the entry or null
+     */
+    public Entry get(int track, long sample) {
+        return entries.get(new Key(track, sample));
+    }
+
+    /**
+     * Finds the entry with the highest sample index in the range
+     * {@code [fromSample, toSample)} of the specified track, that has a codec
+     * snapshot.
+     *
+     * @param track      the track number
+     * @param fromSample the lowest sample index (inclusive)
+     * @param toSample   the highest sample index (exclusive)
+     * @return the sample index of the entry, or -1 if no entry was found
+     */
+    public long findSnapshot(int track, long fromSample, long toSample) {
+        TreeMap<Long, Entry> trackSnapshots = snapshots.get(track);
+        if (trackSnapshots == null) {
+            return -1;
+        }
+        Map.Entry<Long, Entry> e = trackSnapshots.lowerEntry(toSample);
+        if (e == null || e.getKey() < fromSample) {
+            return -1;
+        }
+        // Touch the entry, so that it becomes the most recently used one
+        entries.get(new Key(track, e.getKey()));
+        return e.getKey();
+    }
+
+    /**
+     * Puts a copy of the specified image into the cache.
+     *
+     * @param track    the track number
+     * @param sample   the sample index
+     * @param image    the decoded image, the cache makes a copy of it
+     * @param snapshot the codec state after decoding the image, or null
+     */
+    public void put(int track, long sample, BufferedImage image, Object snapshot) {
+        long imageSize = sizeOf(image);
+        long entrySize = snapshot == null ? imageSize : imageSize * 2;
+        if (entrySize > maxSize) {
+            return;
+        }
+        Entry entry = new Entry(copyImage(image, null), snapshot, entrySize);
+        remove(new Key(track, sample));
+        entries.put(new Key(track, sample), entry);
+        if (snapshot != null) {
+            snapshots.computeIfAbsent(track, k -> new TreeMap<>()).put(sample, entry);
+        }
+        size += entrySize;
+        evict();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        entries.clear();
+        snapshots.clear();
+        size = 0;
+    }
+
+    private void remove(Key key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            size -= old.size();
+            TreeMap<Long, Entry> trackSnapshots = snapshots.get(key.track());
+            if (trackSnapshots != null) {
+                trackSnapshots.remove(key.sample());
+            }
+        }
+    }
+
+    private void evict() {
+        for (Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator(); size > maxSize && i.hasNext(); ) {
+            Map.Entry<Key, Entry> e = i.next();
+            i.remove();
+            size -= e.getValue().size();
+            TreeMap<Long, Entry> trackSnapshots = snapshots.get(e.getKey().track());
+            if (trackSnapshots != null) {
+                trackSnapshots.remove(e.getKey().sample());
+            }
+        }
+    }
+
+    /**
+     * Copies an image.
+     *
+     * @param src the source image
+     * @param dst an image that is reused if it has the same size, type and
+     *            color model as the source image, or null
+     * @return the copy
+     */
+    public static BufferedImage copyImage(BufferedImage src, BufferedImage dst) {
+        if (dst != null && dst != src
+                && dst.getWidth() == src.getWidth() && dst.getHeight() == src.getHeight()
+                && dst.getType() == src.getType() && dst.getColorModel().equals(src.getColorModel())
+                && dst.getSampleModel().equals(src.getSampleModel())) {
+            dst.getRaster().setRect(src.getRaster());
+            return dst;
+        }
+        WritableRaster raster = src.copyData(src.getRaster().createCompatibleWritableRaster());
+        return new BufferedImage(src.getColorModel(), raster, src.isAlphaPremultiplied(), null);
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer db = image.getRaster().getDataBuffer();
+        return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+    }
+}
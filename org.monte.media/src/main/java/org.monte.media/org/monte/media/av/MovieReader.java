@@ -144,6 +144,10 @@ public interface MovieReader extends AutoCloseable {
     /**
      * Sets the read time of all tracks to the closest sync sample before or
      * at the specified time.
+     * <p>
+     * {@link #read(int, Buffer)} delivers the samples starting at the sync
+     * sample. {@link #read(int, BufferedImage)} decodes the samples from the
+     * sync sample on, and delivers the image at the specified time.
      *
      * @param newValue Time in seconds.
      */
@@ -154,4 +158,35 @@ public interface MovieReader extends AutoCloseable {
      */
     Rational getReadTime(int track) throws IOException;
 
+    /**
+     * Sets whether the reader only delivers sync samples.
+     * <p>
+     * If this is set to true, {@link #read(int, Buffer)} and
+     * {@link #read(int, BufferedImage)} skip all samples that are not sync
+     * samples. The skipped samples are neither read nor decoded. This is
+     * useful for fast-forward playback, and for creating overviews of a movie.
+     * <p>
+     * The read positions are not changed.
+     * <p>
+     * The default implementation only supports the value false.
+     *
+     * @param newValue true if only sync samples shall be delivered
+     * @throws UnsupportedOperationException if newValue is true and the
+     *                                       reader does not support this mode
+     */
+    default void setKeyframesOnly(boolean newValue) throws IOException {
+        if (newValue) {
+            throw new UnsupportedOperationException("This reader can not skip samples that are not sync samples.");
+        }
+    }
+
+    /**
+     * Returns true if the reader only delivers sync samples.
+     * <p>
+     * The default implementation returns false.
+     */
+    default boolean isKeyframesOnly() {
+        return false;
+    }
+
 }
@@ -0,0 +1,326 @@
+/*
+ * @(#)MovieThumbnailer.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av;
+
+import org.monte.media.avi.AVIReader;
+import org.monte.media.math.Rational;
+import org.monte.media.quicktime.QuickTimeReader;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+
+/**
+ * Extracts thumbnail images from the first video track of a movie.
+ * <p>
+ * The requested times are grouped by the sync sample that precedes them.
+ * The movie is opened once. Each group is decoded by one thread with its
+ * own reader and codec, and the groups are decoded in parallel. The readers
+ * of the threads share the input and the meta-data of the movie. Within a
+ * group, the frames are decoded in ascending order, so that each frame is
+ * decoded at most once.
+ * <p>
+ * By default, the thumbnailer delivers the sync sample that precedes each
+ * requested time. This is much faster than decoding the exact frame,
+ * because no delta frames need to be decoded. Use {@link #setExact} for
+ * decoding the exact frames.
+ * <p>
+ * The thumbnails can be arranged in a grid or in a filmstrip with
+ * {@link #createContactSheet}.
+ *
+ * @author Werner Randelshofer
+ */
+public class MovieThumbnailer {
+    /**
+     * A requested thumbnail.
+     *
+     * @param index  the index in the list of requested times
+     * @param sample the sample that is decoded for the thumbnail
+     * @param time   the time of the sample
+     */
+    private record Request(int index, long sample, Rational time) {
+    }
+
+    private int maxWidth = 160;
+    private int maxHeight = 120;
+    private boolean exact;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates a new instance.
+     */
+    public MovieThumbnailer() {
+    }
+
+    /**
+     * Sets the bounding box of the thumbnails. Thumbnails are scaled down to
+     * fit into the bounding box, preserving the aspect ratio of the video.
+     * They are never scaled up.
+     *
+     * @param maxWidth  the maximal width of a thumbnail
+     * @param maxHeight the maximal height of a thumbnail
+     */
+    public void setMaxSize(int maxWidth, int maxHeight) {
+        if (maxWidth < 1 || maxHeight < 1) {
+            throw new IllegalArgumentException("maxWidth and maxHeight must be at least 1, maxWidth=" + maxWidth + ", maxHeight=" + maxHeight);
+        }
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Sets whether the exact frames at the requested times are decoded, or
+     * the sync samples that precede the requested times. The default value
+     * is false.
+     *
+     * @param newValue true for decoding the exact frames
+     */
+    public void setExact(boolean newValue) {
+        exact = newValue;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Sets the maximal number of threads that decode in parallel. The default
+     * value is the number of available processors.
+     *
+     * @param newValue the new value, must be at least 1
+     */
+    public void setParallelism(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, parallelism=" + newValue);
+        }
+        parallelism = newValue;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Extracts thumbnails at the specified times.
+     *
+     * @param file  a movie file
+     * @param times the requested times in seconds
+     * @return a list with one thumbnail for each requested time. Requested
+     * times that map to the same sample share the same image.
+     * @throws IOException if the movie can not be read or decoded
+     */
+    public List<BufferedImage> extract(File file, List<Rational> times) throws IOException {
+        if (times.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Group the requests by the sync sample that precedes them
+        try (MovieReader in = Registry.getInstance().getReader(file)) {
+            if (in == null) {
+                throw new IOException("Could not find a reader for " + file);
+            }
+            TreeMap<Rational, List<Request>> groups = new TreeMap<>();
+            int track = findVideoTrack(in, file);
+            for (int i = 0, n = times.size(); i < n; i++) {
+                Rational time = times.get(i);
+                in.setMovieReadTime(time);
+                Rational keyframeTime = in.getReadTime(track);
+                Request r;
+                if (exact) {
+                    long sample = in.findSampleAtTime(track, time);
+                    r = new Request(i, sample, in.getSampleTime(track, sample));
+                } else {
+                    r = new Request(i, in.findSampleAtTime(track, keyframeTime), keyframeTime);
+                }
+                groups.computeIfAbsent(keyframeTime, k -> new ArrayList<>()).add(r);
+            }
+            for (List<Request> group : groups.values()) {
+                group.sort(Comparator.comparingLong(Request::sample));
+            }
+
+            // Decode the groups in parallel
+            BufferedImage[] thumbnails = new BufferedImage[times.size()];
+            ConcurrentLinkedQueue<List<Request>> queue = new ConcurrentLinkedQueue<>(groups.values());
+            int threads = Math.min(parallelism, groups.size());
+            List<MovieReader> readers = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, MovieThumbnailer.this + "-worker");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    MovieReader reader = createWorkerReader(in, file);
+                    readers.add(reader);
+                    tasks.add(() -> {
+                        decodeGroups(reader, file, track, queue, thumbnails);
+                        return null;
+                    });
+                }
+                for (Future<Void> f : executor.invokeAll(tasks)) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting thumbnails from " + file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioe) {
+                    throw ioe;
+                }
+                throw new IOException("Could not extract thumbnails from " + file, e.getCause());
+            } finally {
+                executor.shutdownNow();
+                for (MovieReader reader : readers) {
+                    reader.close();
+                }
+            }
+            return new ArrayList<>(Arrays.asList(thumbnails));
+        }
+    }
+
+    /**
+     * Creates a reader for a worker thread. The reader shares the input and
+     * the meta-data with the specified reader, and has its own read
+     * positions and codecs. Falls back to opening the file again, if the
+     * reader does not support sharing.
+     */
+    private static MovieReader createWorkerReader(MovieReader in, File file) throws IOException {
+        if (in instanceof AVIReader) {
+            return new AVIReader((AVIReader) in);
+        } else if (in instanceof QuickTimeReader) {
+            return new QuickTimeReader((QuickTimeReader) in);
+        }
+        return Registry.getInstance().getReader(file);
+    }
+
+    /**
+     * Decodes groups from the queue until the queue is empty.
+     */
+    private void decodeGroups(MovieReader in, File file, int track, ConcurrentLinkedQueue<List<Request>> queue, BufferedImage[] thumbnails) throws IOException {
+        BufferedImage img = null;
+        for (List<Request> group; (group = queue.poll()) != null; ) {
+            Request previous = null;
+            for (Request r : group) {
+                if (previous != null && previous.sample() == r.sample()) {
+                    thumbnails[r.index()] = thumbnails[previous.index()];
+                    continue;
+                }
+                in.setMovieReadTime(r.time());
+                img = in.read(track, img);
+                if (img == null) {
+                    throw new IOException("Could not decode sample " + r.sample() + " of " + file);
+                }
+                thumbnails[r.index()] = createThumbnail(img, maxWidth, maxHeight);
+                previous = r;
+            }
+        }
+    }
+
+    private static int findVideoTrack(MovieReader in, File file) throws IOException {
+        int track = in.findTrack(0, new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO));
+        if (track < 0) {
+            throw new IOException("Could not find a video track in " + file);
+        }
+        return track;
+    }
+
+    /**
+     * Scales an image down, so that it fits into the specified bounding box.
+     * The aspect ratio is preserved. Large reductions are performed in steps
+     * of one half, to avoid aliasing artifacts.
+     *
+     * @param img       an image
+     * @param maxWidth  the maximal width
+     * @param maxHeight the maximal height
+     * @return a new RGB image
+     */
+    public static BufferedImage createThumbnail(BufferedImage img, int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min(maxWidth / (double) img.getWidth(), maxHeight / (double) img.getHeight()));
+        int width = Math.max(1, (int) Math.round(img.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(img.getHeight() * scale));
+
+        BufferedImage current = img;
+        do {
+            int w = Math.max(width, current.getWidth() / 2);
+            int h = Math.max(height, current.getHeight() / 2);
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = next;
+        } while (current.getWidth() != width || current.getHeight() != height);
+        return current;
+    }
+
+    /**
+     * Arranges thumbnails in a grid. All cells of the grid have the size of
+     * the largest thumbnail. Smaller thumbnails are centered in their cells.
+     * <p>
+     * For a filmstrip, specify the number of thumbnails as the number of
+     * columns.
+     *
+     * @param thumbnails the thumbnails, may contain null elements for empty
+     *                   cells
+     * @param columns    the number of columns
+     * @param gap        the gap between cells and around the grid in pixels
+     * @param background the background color
+     * @return the contact sheet
+     */
+    public static BufferedImage createContactSheet(List<BufferedImage> thumbnails, int columns, int gap, Color background) {
+        if (columns < 1) {
+            throw new IllegalArgumentException("columns must be at least 1, columns=" + columns);
+        }
+        int cellWidth = 1, cellHeight = 1;
+        for (BufferedImage t : thumbnails) {
+            if (t != null) {
+                cellWidth = Math.max(cellWidth, t.getWidth());
+                cellHeight = Math.max(cellHeight, t.getHeight());
+            }
+        }
+        int rows = Math.max(1, (thumbnails.size() + columns - 1) / columns);
+        int cols = Math.max(1, Math.min(columns, thumbnails.size()));
+        BufferedImage sheet = new BufferedImage(gap + cols * (cellWidth + gap), gap + rows * (cellHeight + gap), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = sheet.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, sheet.getWidth(), sheet.getHeight());
+        for (int i = 0, n = thumbnails.size(); i < n; i++) {
+            BufferedImage t = thumbnails.get(i);
+            if (t != null) {
+                int x = gap + (i % columns) * (cellWidth + gap) + (cellWidth - t.getWidth()) / 2;
+                int y = gap + (i / columns) * (cellHeight + gap) + (cellHeight - t.getHeight()) / 2;
+                g.drawImage(t, x, y, null);
+            }
+        }
+        g.dispose();
+        return sheet;
+    }
+}
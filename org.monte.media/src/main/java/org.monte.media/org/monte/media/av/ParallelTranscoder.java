@@ -0,0 +1,367 @@
+/*
+ * @(#)ParallelTranscoder.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+import org.monte.media.math.Rational;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+import static org.monte.media.av.BufferFlag.KEYFRAME;
+import static org.monte.media.av.FormatKeys.FrameRateKey;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.FormatKeys.MimeTypeKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.FrameSizeKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.SampleRateKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.CompressorNameKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.PaletteKey;
+
+/**
+ * Transcodes the video track of a movie on multiple threads.
+ * <p>
+ * The transcoder splits the video track at sync samples into segments. Each
+ * segment is decoded and encoded by one thread, with its own reader and its
+ * own encoder. The encoder is reset at the start of each segment, so that
+ * each segment starts with a sync sample. This works with all encoders that
+ * produce a sync sample after a reset, such as PNG, JPEG, Animation,
+ * TechSmith and H.264.
+ * <p>
+ * The encoded segments are buffered in temporary files, and are copied into
+ * the target movie in their original order, as soon as they are available.
+ * The sample durations of the source movie are preserved. Audio tracks are
+ * copied without transcoding, see {@link Remuxer}.
+ *
+ * @author Werner Randelshofer
+ */
+public class ParallelTranscoder {
+    /**
+     * An encoded sample in the temporary file of a segment.
+     */
+    private record EncodedSample(long offset, int length, Rational time, Rational duration, boolean isSync) {
+    }
+
+    /**
+     * An encoded segment.
+     */
+    private record EncodedSegment(FileChannel channel, List<EncodedSample> samples, Object header) {
+    }
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int segmentsPerThread = 4;
+
+    /**
+     * Creates a new instance.
+     */
+    public ParallelTranscoder() {
+    }
+
+    /**
+     * Sets the maximal number of threads that transcode in parallel. The
+     * default value is the number of available processors.
+     *
+     * @param newValue the new value, must be at least 1
+     */
+    public void setParallelism(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, parallelism=" + newValue);
+        }
+        parallelism = newValue;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of segments per thread. More segments balance the load
+     * better, but each segment starts with a sync sample, which makes the
+     * target movie larger. The default value is 4.
+     *
+     * @param newValue the new value, must be at least 1
+     */
+    public void setSegmentsPerThread(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("segmentsPerThread must be at least 1, segmentsPerThread=" + newValue);
+        }
+        segmentsPerThread = newValue;
+    }
+
+    public int getSegmentsPerThread() {
+        return segmentsPerThread;
+    }
+
+    /**
+     * Transcodes the video track of the source movie into the target movie.
+     *
+     * @param source      the source movie file
+     * @param target      the target movie file. The container format is
+     *                    determined by the file name extension.
+     * @param videoFormat the format of the video track in the target movie.
+     *                    Properties that are not specified, are taken from
+     *                    the source movie.
+     * @throws IOException if the movie can not be transcoded
+     */
+    public void transcode(File source, File target, Format videoFormat) throws IOException {
+        try (MovieReader in = Registry.getInstance().getReader(source)) {
+            int videoTrack = -1;
+            List<Integer> audioTracks = new ArrayList<>();
+            for (int t = 0, n = in.getTrackCount(); t < n; t++) {
+                if (in.getFormat(t).get(MediaTypeKey) == FormatKeys.MediaType.VIDEO) {
+                    if (videoTrack != -1) {
+                        throw new IOException("Can not transcode more than one video track in " + source);
+                    }
+                    videoTrack = t;
+                } else {
+                    audioTracks.add(t);
+                }
+            }
+            if (videoTrack == -1) {
+                throw new IOException("Could not find a video track in " + source);
+            }
+            if (!audioTracks.isEmpty() && !(in instanceof StreamCopySource)) {
+                throw new IOException("Can not copy the audio tracks of " + source);
+            }
+            if (in.getSampleCount(videoTrack) == 0) {
+                throw new IOException("The video track of " + source + " is empty");
+            }
+
+            MovieWriter w = Registry.getInstance().getWriter(target);
+            if (w == null) {
+                throw new IOException("Can not write " + target);
+            }
+            try {
+                if (!(w instanceof StreamCopySink out)) {
+                    throw new IOException("Can not copy samples into " + target);
+                }
+                String targetMimeType = out.getFileFormat().get(MimeTypeKey);
+                Format tf = videoFormat.append(in.getFormat(videoTrack).removeKeys(PaletteKey, CompressorNameKey))
+                        .prepend(MimeTypeKey, targetMimeType,
+                                FrameRateKey, in.getSampleDuration(videoTrack, 0).inverse());
+                int outVideoTrack = out.addTrack(tf);
+
+                int[] outAudioTracks = new int[audioTracks.size()];
+                for (int i = 0; i < outAudioTracks.length; i++) {
+                    Format af = in.getFormat(audioTracks.get(i));
+                    Format taf = Remuxer.toTargetFormat(af, targetMimeType);
+                    if (taf == null) {
+                        throw new IOException("Can not copy audio track " + audioTracks.get(i) + " with format " + af + " into " + targetMimeType);
+                    }
+                    outAudioTracks[i] = out.addTrack(taf);
+                }
+
+                transcode(source, in, videoTrack, audioTracks, out, outVideoTrack, outAudioTracks);
+            } finally {
+                w.close();
+            }
+        }
+    }
+
+    private void transcode(File source, MovieReader in, int videoTrack, List<Integer> audioTracks,
+                           StreamCopySink out, int outVideoTrack, int[] outAudioTracks) throws IOException {
+        long[] bounds = findSegmentBounds(in, videoTrack, parallelism * segmentsPerThread);
+        int segmentCount = bounds.length - 1;
+        List<CompletableFuture<EncodedSegment>> results = new ArrayList<>();
+        for (int i = 0; i < segmentCount; i++) {
+            results.add(new CompletableFuture<>());
+        }
+        Format encoderFormat = out.getFormat(outVideoTrack);
+
+        AtomicInteger nextSegment = new AtomicInteger();
+        int threads = Math.min(parallelism, segmentCount);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, ParallelTranscoder.this + "-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    try (MovieReader r = Registry.getInstance().getReader(source)) {
+                        Codec encoder = SmartCutEditor.createEncoder(encoderFormat);
+                        if (encoder == null) {
+                            throw new IOException("Can not encode " + encoderFormat);
+                        }
+                        for (int s; (s = nextSegment.getAndIncrement()) < segmentCount; ) {
+                            EncodedSegment seg = encodeSegment(r, videoTrack, encoder, bounds[s], bounds[s + 1]);
+                            if (!results.get(s).complete(seg)) {
+                                // Transcoding has been aborted, nobody will copy this segment
+                                seg.channel().close();
+                                break;
+                            }
+                        }
+                    } catch (Throwable e) {
+                        for (CompletableFuture<EncodedSegment> f : results) {
+                            f.completeExceptionally(e);
+                        }
+                    }
+                });
+            }
+
+            // Copy the segments in order, as soon as they are available, and
+            // interleave them with the audio
+            long[] nextAudioSample = new long[outAudioTracks.length];
+            Object trackHeader = null;
+            for (int s = 0; s < segmentCount; s++) {
+                EncodedSegment seg = results.get(s).get();
+                try (FileChannel channel = seg.channel()) {
+                    // Each segment has its own encoder. The segments can only
+                    // share the track header of the first segment, if all
+                    // encoders produced the same header, for example the same
+                    // H.264 SPS and PPS.
+                    if (s == 0) {
+                        trackHeader = seg.header();
+                        out.setTrackHeader(outVideoTrack, trackHeader);
+                    } else if (!Objects.deepEquals(trackHeader, seg.header())) {
+                        throw new IOException("Segment " + s + " of " + source
+                                + " has been encoded with a different track header than segment 0");
+                    }
+                    for (EncodedSample sample : seg.samples()) {
+                        copyAudio((StreamCopySource) in, audioTracks, out, outAudioTracks, nextAudioSample, sample.time());
+                        out.copySamples(outVideoTrack, 1, channel, sample.offset(), sample.length(),
+                                sample.duration(), sample.isSync());
+                    }
+                }
+            }
+            if (!audioTracks.isEmpty()) {
+                copyAudio((StreamCopySource) in, audioTracks, out, outAudioTracks, nextAudioSample, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transcoding " + source, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException("Could not transcode " + source, e.getCause());
+        } finally {
+            // Workers that complete a segment after this point close its
+            // temporary file themselves
+            for (CompletableFuture<EncodedSegment> f : results) {
+                f.completeExceptionally(new IOException("Transcoding has been aborted"));
+            }
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Close the temporary files of segments that have not been copied
+            for (CompletableFuture<EncodedSegment> f : results) {
+                if (!f.isCompletedExceptionally()) {
+                    f.join().channel().close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the track at sync samples into up to {@code count} segments of
+     * about the same duration.
+     *
+     * @return the index of the first sample of each segment, followed by the
+     * number of samples
+     */
+    private static long[] findSegmentBounds(MovieReader in, int track, int count) throws IOException {
+        Rational duration = in.getTrackDuration(track);
+        TreeSet<Long> bounds = new TreeSet<>();
+        bounds.add(0L);
+        for (int i = 1; i < count; i++) {
+            in.setMovieReadTime(duration.multiply(new Rational(i, count)));
+            bounds.add(in.findSampleAtTime(track, in.getReadTime(track)));
+        }
+        bounds.add((long) in.getSampleCount(track));
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Decodes the samples in the range {@code [from, to)} and encodes them
+     * into a temporary file.
+     */
+    private static EncodedSegment encodeSegment(MovieReader in, int track, Codec encoder, long from, long to) throws IOException {
+        Path tmp = Files.createTempFile("transcode", ".tmp");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            List<EncodedSample> samples = new ArrayList<>();
+            Object header = null;
+            in.setMovieReadTime(in.getSampleTime(track, from));
+            encoder.reset();
+            Buffer inBuf = new Buffer();
+            Buffer outBuf = new Buffer();
+            BufferedImage img = null;
+            long offset = 0;
+            for (long i = from; i < to; i++) {
+                img = in.read(track, img);
+                if (img == null) {
+                    throw new IOException("Could not decode sample " + i + " of track " + track);
+                }
+                Rational duration = in.getSampleDuration(track, i);
+                inBuf.format = encoder.getInputFormat();
+                inBuf.data = img;
+                inBuf.sampleCount = 1;
+                inBuf.sampleDuration = duration;
+                inBuf.sequenceNumber = i;
+                inBuf.clearFlags();
+                encoder.process(inBuf, outBuf);
+                if (outBuf.isFlag(DISCARD)) {
+                    throw new IOException("Could not encode sample " + i + " of track " + track, outBuf.exception);
+                }
+                if (header == null) {
+                    header = outBuf.header;
+                }
+                ByteBuffer bb = ByteBuffer.wrap((byte[]) outBuf.data, outBuf.offset, outBuf.length);
+                while (bb.hasRemaining()) {
+                    channel.write(bb);
+                }
+                samples.add(new EncodedSample(offset, outBuf.length, in.getSampleTime(track, i), duration,
+                        outBuf.isFlag(KEYFRAME)));
+                offset += outBuf.length;
+            }
+            return new EncodedSegment(channel, samples, header);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the audio samples that start before the specified time.
+     *
+     * @param time the time, or null for copying all remaining samples
+     */
+    private static void copyAudio(StreamCopySource in, List<Integer> audioTracks, StreamCopySink out, int[] outAudioTracks,
+                                  long[] nextSample, Rational time) throws IOException {
+        for (int i = 0; i < outAudioTracks.length; i++) {
+            int t = audioTracks.get(i);
+            Format f = out.getFormat(outAudioTracks[i]);
+            int frameSize = f.get(FrameSizeKey);
+            Rational frameDuration = f.get(SampleRateKey).inverse();
+            for (long count = in.getSampleCount(t); nextSample[i] < count
+                    && (time == null || in.getSampleTime(t, nextSample[i]).compareTo(time) <= 0); ) {
+                Remuxer.AudioRun run = Remuxer.findAudioRun(in, t, nextSample[i], frameSize);
+                out.copySamples(outAudioTracks[i], (int) run.frameCount(), in.getFileChannel(), run.offset(),
+                        run.frameCount() * frameSize, frameDuration, true);
+                nextSample[i] = run.nextSample();
+            }
+        }
+    }
+}
@@ -0,0 +1,584 @@
+/*
+ * @(#)ReadAheadMovieReader.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av;
+
+import org.monte.media.math.Rational;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.monte.media.av.BufferFlag.END_OF_MEDIA;
+
+/**
+ * Wraps a {@link MovieReader} and reads ahead on a background thread.
+ * <p>
+ * The background thread keeps a lookahead window of up to {@code lookahead}
+ * samples per track. A track takes part in read-ahead as soon as it has been
+ * read for the first time:
+ * <ul>
+ *     <li>If the track is read with {@link #read(int, Buffer)}, the background
+ *     thread prefetches compressed samples.</li>
+ *     <li>If the track is read with {@link #read(int, BufferedImage)}, the
+ *     background thread decodes images ahead. Images that are passed back to
+ *     {@code read} are pooled and reused for decoding.</li>
+ * </ul>
+ * A track can only be read in one of these ways, until
+ * {@link #setMovieReadTime} is called. {@code setMovieReadTime} cancels the
+ * read-ahead and discards the lookahead window.
+ * <p>
+ * The wrapped reader must not be used directly while it is wrapped. All
+ * calls to it are serialized by this class.
+ * <p>
+ * The effectiveness of the lookahead window can be monitored with
+ * {@link #getHitRate()}.
+ *
+ * @author Werner Randelshofer
+ */
+public class ReadAheadMovieReader implements MovieReader {
+    private enum Mode {
+        NONE, SAMPLES, IMAGES
+    }
+
+    /**
+     * A sample or an image in the lookahead window.
+     */
+    private static class Entry {
+        final Buffer buffer;
+        final BufferedImage image;
+        /**
+         * The read time of the track after this entry has been read.
+         */
+        final Rational readTime;
+        final boolean isEndOfMedia;
+
+        Entry(Buffer buffer, BufferedImage image, Rational readTime, boolean isEndOfMedia) {
+            this.buffer = buffer;
+            this.image = image;
+            this.readTime = readTime;
+            this.isEndOfMedia = isEndOfMedia;
+        }
+    }
+
+    private static class TrackState {
+        Mode mode = Mode.NONE;
+        final ArrayDeque<Entry> window = new ArrayDeque<>();
+        final ArrayDeque<BufferedImage> imagePool = new ArrayDeque<>();
+        /**
+         * The read time of the track as seen by the caller. The value null
+         * indicates that the wrapped reader has not read ahead on this track.
+         */
+        Rational readTime;
+        boolean isEndOfMedia;
+    }
+
+    private final MovieReader reader;
+    /**
+     * Serializes all calls to the wrapped reader. If both locks are
+     * needed, then this lock must be acquired before {@link #lock}.
+     */
+    private final Object readerLock = new Object();
+    /**
+     * Guards the lookahead windows, the state of the tracks and the metrics.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition lockCondition = lock.newCondition();
+    private final ExecutorService worker;
+    private final TrackState[] tracks;
+    private int lookahead;
+    /**
+     * Incremented on each {@link #setMovieReadTime}, so that samples which
+     * have been read before can be discarded.
+     */
+    private long generation;
+    private boolean isClosed;
+    private IOException failure;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param reader    the wrapped reader
+     * @param lookahead the maximal number of samples that are read ahead
+     *                  per track
+     * @throws IOException if the wrapped reader fails
+     */
+    public ReadAheadMovieReader(MovieReader reader, int lookahead) throws IOException {
+        if (lookahead < 1) {
+            throw new IllegalArgumentException("lookahead must be at least 1, lookahead=" + lookahead);
+        }
+        this.reader = reader;
+        this.lookahead = lookahead;
+        tracks = new TrackState[reader.getTrackCount()];
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i] = new TrackState();
+        }
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, ReadAheadMovieReader.this + "-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.execute(this::run);
+    }
+
+    /**
+     * Returns the maximal number of samples that are read ahead per track.
+     */
+    public int getLookahead() {
+        lock.lock();
+        try {
+            return lookahead;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximal number of samples that are read ahead per track.
+     * Samples that have already been read ahead are kept, if the window
+     * shrinks.
+     *
+     * @param newValue the new value, must be at least 1
+     */
+    public void setLookahead(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("lookahead must be at least 1, lookahead=" + newValue);
+        }
+        lock.lock();
+        try {
+            lookahead = newValue;
+            lockCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of reads that were served from the lookahead window
+     * without waiting.
+     */
+    public long getHitCount() {
+        lock.lock();
+        try {
+            return hitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of reads that had to wait for the background thread.
+     */
+    public long getMissCount() {
+        lock.lock();
+        try {
+            return missCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the fraction of reads that were served from the lookahead window
+     * without waiting. Returns 0 if nothing has been read yet.
+     */
+    public double getHitRate() {
+        lock.lock();
+        try {
+            long total = hitCount + missCount;
+            return total == 0 ? 0.0 : hitCount / (double) total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resets the hit and miss counts.
+     */
+    public void resetMetrics() {
+        lock.lock();
+        try {
+            hitCount = missCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The read-ahead loop of the background thread.
+     */
+    private void run() {
+        while (true) {
+            int track;
+            long gen;
+            Mode mode;
+            BufferedImage img;
+            lock.lock();
+            try {
+                while (true) {
+                    if (isClosed || failure != null) {
+                        return;
+                    }
+                    track = findTrackToReadAhead();
+                    if (track >= 0) {
+                        break;
+                    }
+                    lockCondition.awaitUninterruptibly();
+                }
+                TrackState ts = tracks[track];
+                gen = generation;
+                mode = ts.mode;
+                img = ts.imagePool.poll();
+            } finally {
+                lock.unlock();
+            }
+
+            synchronized (readerLock) {
+                try {
+                    Rational readTimeBefore = null;
+                    Entry entry;
+                    lock.lock();
+                    try {
+                        if (gen != generation) {
+                            continue;
+                        }
+                        if (tracks[track].readTime == null) {
+                            readTimeBefore = reader.getReadTime(track);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (mode == Mode.SAMPLES) {
+                        Buffer buf = new Buffer();
+                        reader.read(track, buf);
+                        boolean isEndOfMedia = buf.isFlag(END_OF_MEDIA);
+                        entry = new Entry(buf, null, isEndOfMedia ? null : reader.getReadTime(track), isEndOfMedia);
+                    } else {
+                        BufferedImage image = reader.read(track, img);
+                        boolean isEndOfMedia = image == null;
+                        entry = new Entry(null, image, isEndOfMedia ? null : reader.getReadTime(track), isEndOfMedia);
+                    }
+
+                    lock.lock();
+                    try {
+                        TrackState ts = tracks[track];
+                        if (gen == generation) {
+                            if (ts.readTime == null) {
+                                ts.readTime = readTimeBefore;
+                            }
+                            ts.window.add(entry);
+                            ts.isEndOfMedia = entry.isEndOfMedia;
+                        }
+                        lockCondition.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    lock.lock();
+                    try {
+                        failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                        lockCondition.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the track with the smallest lookahead window that is not full.
+     * Must be called while holding the lock.
+     *
+     * @return a track index or -1
+     */
+    private int findTrackToReadAhead() {
+        int found = -1;
+        for (int i = 0; i < tracks.length; i++) {
+            TrackState ts = tracks[i];
+            if (ts.mode != Mode.NONE && !ts.isEndOfMedia && ts.window.size() < lookahead
+                    && (found == -1 || ts.window.size() < tracks[found].window.size())) {
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Takes the next entry from the lookahead window of a track. Waits until
+     * the background thread has read the entry if necessary.
+     */
+    private Entry take(int track, Mode mode, BufferedImage returnedImage) throws IOException {
+        lock.lock();
+        try {
+            if (isClosed) {
+                throw new IOException("Reader is closed.");
+            }
+            TrackState ts = tracks[track];
+            if (ts.mode != mode) {
+                if (ts.mode != Mode.NONE) {
+                    throw new IllegalStateException("Track " + track + " is read as " + ts.mode
+                            + ". Call setMovieReadTime before reading it as " + mode + ".");
+                }
+                ts.mode = mode;
+                lockCondition.signalAll();
+            }
+            if (returnedImage != null && ts.imagePool.size() <= lookahead) {
+                ts.imagePool.add(returnedImage);
+            }
+
+            Entry entry = ts.window.peek();
+            if (entry == null) {
+                missCount++;
+                while ((entry = ts.window.peek()) == null && failure == null && !isClosed) {
+                    lockCondition.awaitUninterruptibly();
+                }
+                if (entry == null) {
+                    throw failure != null ? new IOException("Read-ahead failed.", failure) : new IOException("Reader is closed.");
+                }
+            } else if (!entry.isEndOfMedia) {
+                hitCount++;
+            }
+            if (!entry.isEndOfMedia) {
+                // The end of media entry stays in the window.
+                ts.window.poll();
+                ts.readTime = entry.readTime;
+                lockCondition.signalAll();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void read(int track, Buffer buffer) throws IOException {
+        Entry entry = take(track, Mode.SAMPLES, null);
+        Buffer b = entry.buffer;
+        buffer.setMetaTo(b);
+        buffer.data = b.data;
+        buffer.offset = b.offset;
+        buffer.length = b.length;
+        buffer.header = b.header;
+        buffer.headerOffset = b.headerOffset;
+        buffer.headerLength = b.headerLength;
+    }
+
+    @Override
+    public BufferedImage read(int track, BufferedImage img) throws IOException {
+        return take(track, Mode.IMAGES, img).image;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method cancels the read-ahead of all tracks and discards the
+     * lookahead windows.
+     */
+    @Override
+    public void setMovieReadTime(Rational newValue) throws IOException {
+        synchronized (readerLock) {
+            cancelReadAhead();
+            reader.setMovieReadTime(newValue);
+        }
+    }
+
+    /**
+     * Cancels the read-ahead of all tracks and discards the lookahead
+     * windows. The caller must hold the reader lock.
+     */
+    private void cancelReadAhead() {
+        lock.lock();
+        try {
+            generation++;
+            for (TrackState ts : tracks) {
+                for (Entry e : ts.window) {
+                    if (e.image != null && ts.imagePool.size() <= lookahead) {
+                        ts.imagePool.add(e.image);
+                    }
+                }
+                ts.window.clear();
+                ts.mode = Mode.NONE;
+                ts.readTime = null;
+                ts.isEndOfMedia = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method cancels the read-ahead of all tracks and discards the
+     * lookahead windows. The reader continues at the sync sample before or
+     * at the earliest read time of all tracks.
+     */
+    @Override
+    public void setKeyframesOnly(boolean newValue) throws IOException {
+        synchronized (readerLock) {
+            if (newValue == reader.isKeyframesOnly()) {
+                return;
+            }
+            Rational readTime = null;
+            for (int i = 0; i < tracks.length; i++) {
+                Rational trackTime = getReadTime(i);
+                if (readTime == null || trackTime.compareTo(readTime) < 0) {
+                    readTime = trackTime;
+                }
+            }
+            reader.setKeyframesOnly(newValue);
+            cancelReadAhead();
+            if (readTime != null) {
+                reader.setMovieReadTime(readTime);
+            }
+        }
+    }
+
+    @Override
+    public boolean isKeyframesOnly() {
+        synchronized (readerLock) {
+            return reader.isKeyframesOnly();
+        }
+    }
+
+    @Override
+    public Rational getReadTime(int track) throws IOException {
+        synchronized (readerLock) {
+            lock.lock();
+            try {
+                if (tracks[track].readTime != null) {
+                    return tracks[track].readTime;
+                }
+            } finally {
+                lock.unlock();
+            }
+            return reader.getReadTime(track);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns the track with the earliest read time.
+     */
+    @Override
+    public int nextTrack() throws IOException {
+        int found = -1;
+        Rational foundTime = null;
+        for (int i = 0; i < tracks.length; i++) {
+            Rational readTime = getReadTime(i);
+            if (readTime.compareTo(getTrackDuration(i)) < 0
+                    && (foundTime == null || readTime.compareTo(foundTime) < 0)) {
+                found = i;
+                foundTime = readTime;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            isClosed = true;
+            lockCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        worker.shutdown();
+        try {
+            worker.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (readerLock) {
+            reader.close();
+        }
+    }
+
+    @Override
+    public int getSampleCount(int track) throws IOException {
+        synchronized (readerLock) {
+            return reader.getSampleCount(track);
+        }
+    }
+
+    @Override
+    public int getTrackCount() throws IOException {
+        return tracks.length;
+    }
+
+    @Override
+    public int findTrack(int fromTrack, Format format) throws IOException {
+        synchronized (readerLock) {
+            return reader.findTrack(fromTrack, format);
+        }
+    }
+
+    @Override
+    public Rational getMovieDuration() throws IOException {
+        synchronized (readerLock) {
+            return reader.getMovieDuration();
+        }
+    }
+
+    @Override
+    public Rational getTrackDuration(int track) throws IOException {
+        synchronized (readerLock) {
+            return reader.getTrackDuration(track);
+        }
+    }
+
+    @Override
+    public long findSampleAtTime(int track, Rational seconds) throws IOException {
+        synchronized (readerLock) {
+            return reader.findSampleAtTime(track, seconds);
+        }
+    }
+
+    @Override
+    public Rational getSampleTime(int track, long sample) throws IOException {
+        synchronized (readerLock) {
+            return reader.getSampleTime(track, sample);
+        }
+    }
+
+    @Override
+    public Rational getSampleDuration(int track, long sample) throws IOException {
+        synchronized (readerLock) {
+            return reader.getSampleDuration(track, sample);
+        }
+    }
+
+    @Override
+    public Format getFileFormat() throws IOException {
+        synchronized (readerLock) {
+            return reader.getFileFormat();
+        }
+    }
+
+    @Override
+    public Format getFormat(int track) throws IOException {
+        synchronized (readerLock) {
+            return reader.getFormat(track);
+        }
+    }
+
+    @Override
+    public long getChunkCount(int track) throws IOException {
+        synchronized (readerLock) {
+            return reader.getChunkCount(track);
+        }
+    }
+}
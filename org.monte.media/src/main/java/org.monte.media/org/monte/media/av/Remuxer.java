@@ -0,0 +1,302 @@
+/*
+ * @(#)Remuxer.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+import org.monte.media.math.Rational;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+import static org.monte.media.av.BufferFlag.KEYFRAME;
+import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.FrameRateKey;
+import static org.monte.media.av.FormatKeys.MIME_AVI;
+import static org.monte.media.av.FormatKeys.MIME_MP4;
+import static org.monte.media.av.FormatKeys.MIME_QUICKTIME;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.FormatKeys.MimeTypeKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.ByteOrderKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.ChannelsKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.ENCODING_AVI_PCM;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.ENCODING_QUICKTIME_RAW_PCM;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.ENCODING_QUICKTIME_SOWT_PCM;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.FrameSizeKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.SampleRateKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.SampleSizeInBitsKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.SignedKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVC1;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_MJPG;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_PNG;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_QUICKTIME_JPEG;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_QUICKTIME_PNG;
+
+/**
+ * Copies the tracks of a movie into a movie with a different container
+ * format, without decoding and encoding the samples.
+ * <p>
+ * The following encodings can be copied between AVI, QuickTime and MP4:
+ * <table><caption>Copyable encodings</caption>
+ * <tr><th>AVI</th><th>QuickTime, MP4</th></tr>
+ * <tr><td>MJPG</td><td>jpeg</td></tr>
+ * <tr><td>png</td><td>png</td></tr>
+ * <tr><td>tscc</td><td>tscc</td></tr>
+ * <tr><td>16-bit PCM</td><td>sowt</td></tr>
+ * <tr><td>8-bit PCM</td><td>raw</td></tr>
+ * </table>
+ * <p>
+ * Between files of the same container format, all encodings can be copied.
+ * H.264 can be copied between QuickTime and MP4 files, if the source track
+ * has a decoder configuration.
+ * <p>
+ * If the source movie has been read from a file, the sample data is copied
+ * from the file channel of the source movie with
+ * {@link FileChannel#transferTo}. Otherwise, the samples are read into a
+ * buffer.
+ * <p>
+ * AVI tracks have a fixed frame rate. When a movie with variable frame
+ * durations is copied into an AVI file, all frames get the duration of the
+ * first frame.
+ *
+ * @author Werner Randelshofer
+ */
+public class Remuxer {
+    /**
+     * Prevent instance creation.
+     */
+    private Remuxer() {
+    }
+
+    /**
+     * Returns the format of a track in the target container, into which the
+     * samples of a track with the specified format can be copied.
+     *
+     * @param source         the format of the source track
+     * @param targetMimeType the mime type of the target container
+     * @return the target format or null if the samples can not be copied
+     */
+    public static Format toTargetFormat(Format source, String targetMimeType) {
+        String enc = source.get(EncodingKey);
+        String sourceMimeType = source.get(MimeTypeKey);
+        if (enc == null) {
+            return null;
+        }
+        String targetEnc;
+        if (targetMimeType.equals(sourceMimeType)) {
+            targetEnc = enc;
+        } else if (MIME_AVI.equals(targetMimeType)) {
+            targetEnc = switch (source.get(MediaTypeKey, FormatKeys.MediaType.VIDEO)) {
+                case VIDEO -> switch (enc) {
+                    case ENCODING_QUICKTIME_JPEG -> ENCODING_AVI_MJPG;
+                    case ENCODING_QUICKTIME_PNG, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE -> enc;
+                    default -> null;
+                };
+                case AUDIO -> switch (enc) {
+                    case ENCODING_QUICKTIME_SOWT_PCM, ENCODING_QUICKTIME_RAW_PCM -> ENCODING_AVI_PCM;
+                    default -> null;
+                };
+                default -> null;
+            };
+        } else if (MIME_QUICKTIME.equals(targetMimeType) || MIME_MP4.equals(targetMimeType)) {
+            if (MIME_AVI.equals(sourceMimeType)) {
+                targetEnc = switch (source.get(MediaTypeKey, FormatKeys.MediaType.VIDEO)) {
+                    case VIDEO -> switch (enc) {
+                        case ENCODING_AVI_MJPG -> ENCODING_QUICKTIME_JPEG;
+                        case ENCODING_AVI_PNG, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE -> enc;
+                        default -> null;
+                    };
+                    case AUDIO -> !ENCODING_AVI_PCM.equals(enc) ? null
+                            : switch (source.get(SampleSizeInBitsKey, 16)) {
+                        case 8 -> ENCODING_QUICKTIME_RAW_PCM;
+                        case 16 -> ENCODING_QUICKTIME_SOWT_PCM;
+                        default -> null;
+                    };
+                    default -> null;
+                };
+            } else {
+                // QuickTime and MP4 share the same sample descriptions
+                targetEnc = enc;
+            }
+        } else {
+            targetEnc = null;
+        }
+        if (targetEnc == null) {
+            return null;
+        }
+        Format target = source.prepend(MimeTypeKey, targetMimeType, EncodingKey, targetEnc);
+        if (source.get(MediaTypeKey) == FormatKeys.MediaType.AUDIO) {
+            int sampleSize = source.get(SampleSizeInBitsKey, 16);
+            int frameSize = source.get(FrameSizeKey, 0);
+            if (frameSize <= 0) {
+                frameSize = (sampleSize + 7) / 8 * source.get(ChannelsKey, 1);
+            }
+            target = target.prepend(FrameSizeKey, frameSize,
+                    SignedKey, sampleSize != 8,
+                    FrameRateKey, source.get(SampleRateKey));
+            if (!targetEnc.equals(enc)) {
+                target = target.prepend(ByteOrderKey, ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * A run of audio frames that are stored contiguously in a movie file.
+     *
+     * @param offset     the position of the first frame in the file
+     * @param frameCount the number of frames
+     * @param nextSample the index of the first sample after the run
+     */
+    record AudioRun(long offset, long frameCount, long nextSample) {
+    }
+
+    /**
+     * Finds the run of contiguously stored audio samples that starts at the
+     * specified sample.
+     *
+     * @param in        the source movie
+     * @param track     the audio track
+     * @param sample    the first sample of the run
+     * @param frameSize the size of an audio frame in bytes
+     * @return the run
+     * @throws IOException if the sample table can not be read
+     */
+    static AudioRun findAudioRun(StreamCopySource in, int track, long sample, int frameSize) throws IOException {
+        long offset = in.getSampleOffset(track, sample);
+        long firstLength = in.getSampleLength(track, sample);
+        long end = offset + firstLength;
+        long next = sample + 1;
+        for (long count = in.getSampleCount(track); next < count && in.getSampleOffset(track, next) == end; next++) {
+            end += in.getSampleLength(track, next);
+        }
+        if (firstLength < frameSize) {
+            // QuickTime files with a sample size of 1 store one frame per
+            // sample, regardless of the frame size
+            return new AudioRun(offset, next - sample, next);
+        }
+        return new AudioRun(offset, (end - offset) / frameSize, next);
+    }
+
+    /**
+     * Copies the tracks of the source file into the target file. The
+     * container format of the target file is determined by its file name
+     * extension.
+     *
+     * @param source the source file
+     * @param target the target file
+     * @throws IOException if a track can not be copied, or if reading or
+     *                     writing fails
+     */
+    public static void remux(File source, File target) throws IOException {
+        try (MovieReader in = Registry.getInstance().getReader(source)) {
+            if (!(in instanceof StreamCopySource src)) {
+                throw new IOException("Can not copy samples from " + source);
+            }
+            MovieWriter out = Registry.getInstance().getWriter(target);
+            if (out == null) {
+                throw new IOException("Can not write " + target);
+            }
+            try {
+                if (!(out instanceof StreamCopySink sink)) {
+                    throw new IOException("Can not copy samples into " + target);
+                }
+                remux(src, sink);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Copies all tracks of the source movie into the target movie. The
+     * target movie must not have any tracks yet. The target movie is not
+     * closed.
+     *
+     * @param in  the source movie
+     * @param out the target movie
+     * @throws IOException if a track can not be copied, or if reading or
+     *                     writing fails
+     */
+    public static void remux(StreamCopySource in, StreamCopySink out) throws IOException {
+        String targetMimeType = out.getFileFormat().get(MimeTypeKey);
+        int trackCount = in.getTrackCount();
+        int[] outTracks = new int[trackCount];
+        boolean[] isAudio = new boolean[trackCount];
+        Rational[] audioSampleDuration = new Rational[trackCount];
+        int[] frameSize = new int[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            Format f = in.getFormat(t);
+            Format tf = toTargetFormat(f, targetMimeType);
+            if (tf == null) {
+                throw new IOException("Can not copy track " + t + " with format " + f + " into " + targetMimeType);
+            }
+            isAudio[t] = f.get(MediaTypeKey) == FormatKeys.MediaType.AUDIO;
+            if (isAudio[t]) {
+                audioSampleDuration[t] = tf.get(SampleRateKey).inverse();
+                frameSize[t] = tf.get(FrameSizeKey);
+            } else if (in.getSampleCount(t) > 0) {
+                // Derive the frame rate from the first frame, because the
+                // readers do not agree on the meaning of the frame rate key
+                tf = tf.prepend(FrameRateKey, in.getSampleDuration(t, 0).inverse());
+            }
+            Object header = in.getTrackHeader(t);
+            if (header == null && ENCODING_AVC1.equals(f.get(EncodingKey))) {
+                throw new IOException("Can not copy track " + t + " without decoder configuration");
+            }
+            outTracks[t] = out.addTrack(tf);
+            out.setTrackHeader(outTracks[t], header);
+        }
+
+        FileChannel channel = in.getFileChannel();
+        if (channel == null) {
+            in.setKeyframesOnly(false);
+            in.setMovieReadTime(new Rational(0, 1));
+        }
+        Buffer buf = new Buffer();
+        long[] next = new long[trackCount];
+        while (true) {
+            // Interleave the tracks by the time of their next sample
+            int t = -1;
+            Rational time = null;
+            for (int i = 0; i < trackCount; i++) {
+                if (next[i] < in.getSampleCount(i)) {
+                    Rational ti = in.getSampleTime(i, next[i]);
+                    if (time == null || ti.compareTo(time) < 0) {
+                        t = i;
+                        time = ti;
+                    }
+                }
+            }
+            if (t == -1) {
+                break;
+            }
+
+            long sample = next[t]++;
+            if (channel != null && isAudio[t]) {
+                // Copy all audio samples that are stored contiguously in
+                // the file with a single transfer
+                AudioRun run = findAudioRun(in, t, sample, frameSize[t]);
+                next[t] = run.nextSample();
+                out.copySamples(outTracks[t], (int) run.frameCount(), channel, run.offset(), run.frameCount() * frameSize[t],
+                        audioSampleDuration[t], true);
+            } else if (channel != null) {
+                out.copySamples(outTracks[t], 1, channel, in.getSampleOffset(t, sample), in.getSampleLength(t, sample),
+                        in.getSampleDuration(t, sample), in.isSyncSample(t, sample));
+            } else {
+                in.read(t, buf);
+                if (buf.isFlag(DISCARD)) {
+                    throw new IOException("Could not read sample " + sample + " of track " + t);
+                }
+                int sampleCount = isAudio[t] ? buf.length / frameSize[t] : 1;
+                Rational duration = isAudio[t] ? audioSampleDuration[t] : in.getSampleDuration(t, sample);
+                out.copySamples(outTracks[t], sampleCount, (byte[]) buf.data, buf.offset, buf.length,
+                        duration, isAudio[t] || buf.isFlag(KEYFRAME));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * @(#)RestorableCodec.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+/**
+ * A {@link Codec} that can capture and restore the state of its decoder.
+ * <p>
+ * A delta codec decodes a frame on top of the frame that it has decoded
+ * before. A movie reader can capture the state of the codec after it has
+ * decoded a frame, and restore it later. This allows the reader to continue
+ * decoding after that frame, without having to decode all frames since the
+ * preceding key frame again.
+ *
+ * @author Werner Randelshofer
+ */
+public interface RestorableCodec extends Codec {
+    /**
+     * Creates a snapshot of the decoder state.
+     * <p>
+     * The snapshot does not share mutable data with the codec. It can be
+     * restored any number of times.
+     *
+     * @return the snapshot, or null if the codec has not decoded anything yet
+     */
+    Object createSnapshot();
+
+    /**
+     * Restores the decoder state from a snapshot that was created by this
+     * codec with the same input and output formats.
+     *
+     * @param snapshot a snapshot created by {@link #createSnapshot()}
+     * @throws IllegalArgumentException if the snapshot was not created by a
+     *                                  codec of this type
+     */
+    void restoreSnapshot(Object snapshot);
+}
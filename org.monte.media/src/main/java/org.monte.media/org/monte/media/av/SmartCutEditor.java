@@ -0,0 +1,475 @@
+/*
+ * @(#)SmartCutEditor.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+import org.monte.media.math.Rational;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+import static org.monte.media.av.BufferFlag.KEYFRAME;
+import static org.monte.media.av.FormatKeys.DataClassKey;
+import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.FrameRateKey;
+import static org.monte.media.av.FormatKeys.MIME_AVI;
+import static org.monte.media.av.FormatKeys.MIME_JAVA;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.FormatKeys.MimeTypeKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.ChannelsKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.FrameSizeKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.SampleRateKey;
+import static org.monte.media.av.codec.audio.AudioFormatKeys.SampleSizeInBitsKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.CompressorNameKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DepthKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVC1;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.PaletteKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
+
+/**
+ * Trims and concatenates movies, decoding and encoding as few frames as
+ * possible.
+ * <p>
+ * The editor writes a list of segments into a new movie. A segment is a time
+ * range of a movie file. All segments must have the same tracks with the same
+ * formats.
+ * <p>
+ * Each video track is written in one of the following ways:
+ * <dl>
+ *     <dt>Copy with edit list</dt>
+ *     <dd>If the samples of the track can be copied into the target
+ *     container (see {@link Remuxer}), and the target container supports
+ *     edit lists, then the editor copies all frames from the sync sample
+ *     preceding the start of a segment up to the end of the segment. An edit
+ *     list hides the frames before the start of the segment. No frames are
+ *     decoded. This is used for QuickTime and MP4 files, and is the only way
+ *     to cut H.264 tracks.</dd>
+ *     <dt>Smart cut</dt>
+ *     <dd>If the samples can be copied, but the container does not support
+ *     edit lists, then the editor decodes the partial group of pictures at
+ *     the start of a segment, and encodes it again, starting with a sync
+ *     sample. All following groups of pictures are copied. This is used for
+ *     AVI files.</dd>
+ *     <dt>Transcode</dt>
+ *     <dd>If the samples can not be copied, or if they can not be encoded
+ *     again, then the editor decodes all frames of a segment, and encodes
+ *     them with the transcode encoding. This is used for example when a
+ *     ZMBV track is cut into a QuickTime file, because QuickTime can not
+ *     hold ZMBV samples, or when an H.264 track is cut into an AVI file.</dd>
+ * </dl>
+ * Audio tracks are copied with the precision of a single audio frame.
+ * <p>
+ * Since samples are looked up in the sample tables of the readers, the time
+ * needed for cutting a short clip out of a long movie does not depend on the
+ * length of the movie.
+ *
+ * @author Werner Randelshofer
+ */
+public class SmartCutEditor {
+    /**
+     * A segment of a movie file.
+     *
+     * @param file  the movie file
+     * @param start the start time in seconds
+     * @param end   the end time in seconds, or null for the end of the movie
+     */
+    public record Segment(File file, Rational start, Rational end) {
+        public Segment {
+            Objects.requireNonNull(file, "file");
+            Objects.requireNonNull(start, "start");
+            if (start.compareTo(Rational.ZERO) < 0) {
+                throw new IllegalArgumentException("start must not be negative, start=" + start);
+            }
+            if (end != null && end.compareTo(start) <= 0) {
+                throw new IllegalArgumentException("end must be larger than start, start=" + start + ", end=" + end);
+            }
+        }
+    }
+
+    private enum Mode {
+        COPY_WITH_EDITS, SMART_CUT, TRANSCODE, AUDIO
+    }
+
+    /**
+     * Holds the state of a track of the target movie.
+     */
+    private static class TrackState {
+        Mode mode;
+        int outTrack;
+        Format sourceFormat;
+        Object header;
+        Codec encoder;
+        int frameSize;
+        Rational sampleRate;
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+    private boolean editListsEnabled = true;
+    private String transcodeEncoding = ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+
+    /**
+     * Creates a new instance.
+     */
+    public SmartCutEditor() {
+    }
+
+    /**
+     * Appends a segment.
+     *
+     * @param file  a movie file
+     * @param start the start time in seconds
+     * @param end   the end time in seconds, or null for the end of the movie
+     */
+    public void addSegment(File file, Rational start, Rational end) {
+        segments.add(new Segment(file, start, end));
+    }
+
+    /**
+     * Returns an unmodifiable list of the segments.
+     */
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Removes all segments.
+     */
+    public void clear() {
+        segments.clear();
+    }
+
+    /**
+     * Sets whether edit lists are used, if the target container supports
+     * them. The default value is true.
+     * <p>
+     * If edit lists are disabled, H.264 tracks can not be cut.
+     *
+     * @param newValue the new value
+     */
+    public void setEditListsEnabled(boolean newValue) {
+        editListsEnabled = newValue;
+    }
+
+    public boolean isEditListsEnabled() {
+        return editListsEnabled;
+    }
+
+    /**
+     * Sets the encoding for video tracks that can not be copied. The default
+     * value is {@link org.monte.media.av.codec.video.VideoFormatKeys#ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE}.
+     *
+     * @param newValue the new value
+     */
+    public void setTranscodeEncoding(String newValue) {
+        transcodeEncoding = Objects.requireNonNull(newValue, "transcodeEncoding");
+    }
+
+    public String getTranscodeEncoding() {
+        return transcodeEncoding;
+    }
+
+    /**
+     * Writes a time range of a movie into a new movie.
+     *
+     * @param source the source movie file
+     * @param target the target movie file. The container format is determined
+     *               by the file name extension.
+     * @param start  the start time in seconds
+     * @param end    the end time in seconds, or null for the end of the movie
+     * @throws IOException if a track can not be written, or if reading or
+     *                     writing fails
+     */
+    public static void trim(File source, File target, Rational start, Rational end) throws IOException {
+        SmartCutEditor editor = new SmartCutEditor();
+        editor.addSegment(source, start, end);
+        editor.write(target);
+    }
+
+    /**
+     * Writes all segments one after the other into a new movie.
+     *
+     * @param target the target movie file. The container format is determined
+     *               by the file name extension.
+     * @throws IOException           if a track can not be written, or if
+     *                               reading or writing fails
+     * @throws IllegalStateException if no segments have been added
+     */
+    public void write(File target) throws IOException {
+        if (segments.isEmpty()) {
+            throw new IllegalStateException("No segments have been added.");
+        }
+        MovieWriter w = Registry.getInstance().getWriter(target);
+        if (w == null) {
+            throw new IOException("Can not write " + target);
+        }
+        try {
+            if (!(w instanceof StreamCopySink out)) {
+                throw new IOException("Can not copy samples into " + target);
+            }
+            TrackState[] tracks = null;
+            for (Segment seg : segments) {
+                try (MovieReader r = Registry.getInstance().getReader(seg.file())) {
+                    if (!(r instanceof StreamCopySource in) || in.getFileChannel() == null) {
+                        throw new IOException("Can not copy samples from " + seg.file());
+                    }
+                    if (tracks == null) {
+                        tracks = addTracks(in, out);
+                    } else {
+                        checkTracks(in, tracks, seg.file());
+                    }
+                    Rational end = seg.end() == null ? in.getMovieDuration() : Rational.min(seg.end(), in.getMovieDuration());
+                    if (end.compareTo(seg.start()) <= 0) {
+                        continue;
+                    }
+                    for (int t = 0; t < tracks.length; t++) {
+                        if (tracks[t].mode == Mode.AUDIO) {
+                            writeAudio(in, t, out, tracks[t], seg.start(), end);
+                        } else {
+                            writeVideo(in, t, out, tracks[t], seg.start(), end);
+                        }
+                    }
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private TrackState[] addTracks(StreamCopySource in, StreamCopySink out) throws IOException {
+        String targetMimeType = out.getFileFormat().get(MimeTypeKey);
+        boolean edits = editListsEnabled && !MIME_AVI.equals(targetMimeType);
+        TrackState[] tracks = new TrackState[in.getTrackCount()];
+        for (int t = 0; t < tracks.length; t++) {
+            TrackState ts = tracks[t] = new TrackState();
+            Format f = ts.sourceFormat = in.getFormat(t);
+            Format tf = Remuxer.toTargetFormat(f, targetMimeType);
+            ts.header = in.getTrackHeader(t);
+            if (f.get(MediaTypeKey) == FormatKeys.MediaType.AUDIO) {
+                if (tf == null) {
+                    throw new IOException("Can not copy audio track " + t + " with format " + f + " into " + targetMimeType);
+                }
+                ts.mode = Mode.AUDIO;
+                ts.frameSize = tf.get(FrameSizeKey);
+                ts.sampleRate = tf.get(SampleRateKey);
+            } else {
+                if (tf != null && ENCODING_AVC1.equals(tf.get(EncodingKey)) && (ts.header == null || !edits)) {
+                    tf = null;
+                }
+                if (tf != null) {
+                    ts.mode = edits ? Mode.COPY_WITH_EDITS : Mode.SMART_CUT;
+                }
+                if (ts.mode == Mode.SMART_CUT && Registry.getInstance().getEncoder(tf.prepend(DataClassKey, byte[].class)) == null) {
+                    ts.mode = null;
+                }
+                if (ts.mode == null) {
+                    if (Registry.getInstance().getDecoder(f) == null) {
+                        throw new IOException("Can neither copy nor decode track " + t + " with format " + f);
+                    }
+                    ts.mode = Mode.TRANSCODE;
+                    ts.header = null;
+                    tf = f.prepend(MimeTypeKey, targetMimeType, EncodingKey, transcodeEncoding, DepthKey, 24)
+                            .removeKeys(PaletteKey, CompressorNameKey);
+                }
+                if (in.getSampleCount(t) > 0) {
+                    tf = tf.prepend(FrameRateKey, in.getSampleDuration(t, 0).inverse());
+                }
+            }
+            ts.outTrack = out.addTrack(tf);
+            out.setTrackHeader(ts.outTrack, ts.header);
+            if (ts.mode == Mode.SMART_CUT || ts.mode == Mode.TRANSCODE) {
+                ts.encoder = createEncoder(out.getFormat(ts.outTrack));
+                if (ts.encoder == null) {
+                    throw new IOException("Can not encode track " + t + " with format " + out.getFormat(ts.outTrack));
+                }
+            }
+        }
+        return tracks;
+    }
+
+    /**
+     * Creates an encoder from {@link BufferedImage} into the specified
+     * format.
+     *
+     * @param format the format of a video track of a movie writer
+     * @return the encoder or null
+     */
+    static Codec createEncoder(Format format) {
+        Codec codec = Registry.getInstance().getEncoder(format.prepend(DataClassKey, byte[].class));
+        if (codec == null) {
+            return null;
+        }
+        codec.setInputFormat(format.prepend(MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE,
+                DataClassKey, BufferedImage.class));
+        if (codec.setOutputFormat(format.prepend(DataClassKey, byte[].class)) == null) {
+            return null;
+        }
+        return codec;
+    }
+
+    /**
+     * Checks if the tracks of a segment match the tracks of the first
+     * segment.
+     */
+    private static void checkTracks(StreamCopySource in, TrackState[] tracks, File file) throws IOException {
+        if (in.getTrackCount() != tracks.length) {
+            throw new IOException("Segment " + file + " has " + in.getTrackCount() + " tracks instead of " + tracks.length);
+        }
+        for (int t = 0; t < tracks.length; t++) {
+            Format f = in.getFormat(t);
+            Format expected = tracks[t].sourceFormat;
+            boolean matches = switch (tracks[t].mode) {
+                case AUDIO -> equals(f, expected, MediaTypeKey, EncodingKey, SampleRateKey, ChannelsKey, SampleSizeInBitsKey);
+                case TRANSCODE -> equals(f, expected, MediaTypeKey, WidthKey, HeightKey);
+                default -> equals(f, expected, MediaTypeKey, EncodingKey, WidthKey, HeightKey, DepthKey)
+                        && Objects.equals(in.getTrackHeader(t), tracks[t].header);
+            };
+            if (!matches) {
+                throw new IOException("Track " + t + " of segment " + file + " has format " + f + " instead of " + expected);
+            }
+        }
+    }
+
+    private static boolean equals(Format a, Format b, FormatKey<?>... keys) {
+        for (FormatKey<?> key : keys) {
+            if (!Objects.equals(a.get(key), b.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeVideo(StreamCopySource in, int track, StreamCopySink out, TrackState ts,
+                                   Rational start, Rational end) throws IOException {
+        long count = in.getSampleCount(track);
+        if (count == 0) {
+            return;
+        }
+        long first = in.findSampleAtTime(track, start);
+        long last = in.findSampleAtTime(track, end);
+        if (in.getSampleTime(track, last).compareTo(end) < 0) {
+            last++;
+        }
+        if (last <= first) {
+            return;
+        }
+
+        switch (ts.mode) {
+            case COPY_WITH_EDITS -> {
+                long sync = findSyncSample(in, track, first);
+                Rational mediaTime = out.getMediaEndTime(ts.outTrack).add(start.subtract(in.getSampleTime(track, sync)));
+                Rational trackEnd = in.getSampleTime(track, last - 1).add(in.getSampleDuration(track, last - 1));
+                copy(in, track, out, ts, sync, last);
+                if (!out.addEdit(ts.outTrack, mediaTime, Rational.min(end, trackEnd).subtract(start))) {
+                    throw new IOException("Could not add edit to track " + ts.outTrack);
+                }
+            }
+            case SMART_CUT -> {
+                long sync = findSyncSample(in, track, first);
+                long copyFrom = first;
+                if (sync < first) {
+                    // Encode the partial group of pictures up to the next
+                    // sync sample
+                    copyFrom = first + 1;
+                    while (copyFrom < last && !in.isSyncSample(track, copyFrom)) {
+                        copyFrom++;
+                    }
+                    encode(in, track, out, ts, first, copyFrom);
+                }
+                copy(in, track, out, ts, copyFrom, last);
+            }
+            case TRANSCODE -> encode(in, track, out, ts, first, last);
+            default -> throw new IllegalStateException("Unexpected mode " + ts.mode);
+        }
+    }
+
+    private static long findSyncSample(StreamCopySource in, int track, long sample) throws IOException {
+        while (sample > 0 && !in.isSyncSample(track, sample)) {
+            sample--;
+        }
+        return sample;
+    }
+
+    /**
+     * Copies the samples in the range {@code [from, to)}.
+     */
+    private static void copy(StreamCopySource in, int track, StreamCopySink out, TrackState ts,
+                             long from, long to) throws IOException {
+        FileChannel channel = in.getFileChannel();
+        for (long i = from; i < to; i++) {
+            out.copySamples(ts.outTrack, 1, channel, in.getSampleOffset(track, i), in.getSampleLength(track, i),
+                    in.getSampleDuration(track, i), in.isSyncSample(track, i));
+        }
+    }
+
+    /**
+     * Decodes the samples in the range {@code [from, to)} and encodes them
+     * again. The first encoded sample is a sync sample.
+     */
+    private static void encode(StreamCopySource in, int track, StreamCopySink out, TrackState ts,
+                               long from, long to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        in.setMovieReadTime(in.getSampleTime(track, from));
+        ts.encoder.reset();
+        Buffer inBuf = new Buffer();
+        Buffer outBuf = new Buffer();
+        BufferedImage img = null;
+        for (long i = from; i < to; i++) {
+            img = in.read(track, img);
+            if (img == null) {
+                throw new IOException("Could not decode sample " + i + " of track " + track);
+            }
+            Rational duration = in.getSampleDuration(track, i);
+            inBuf.format = ts.encoder.getInputFormat();
+            inBuf.data = img;
+            inBuf.sampleCount = 1;
+            inBuf.sampleDuration = duration;
+            inBuf.sequenceNumber = i;
+            inBuf.clearFlags();
+            ts.encoder.process(inBuf, outBuf);
+            if (outBuf.isFlag(DISCARD)) {
+                throw new IOException("Could not encode sample " + i + " of track " + track, outBuf.exception);
+            }
+            out.copySamples(ts.outTrack, 1, (byte[]) outBuf.data, outBuf.offset, outBuf.length,
+                    duration, outBuf.isFlag(KEYFRAME));
+        }
+    }
+
+    /**
+     * Copies the audio frames from {@code start} to {@code end}.
+     */
+    private static void writeAudio(StreamCopySource in, int track, StreamCopySink out, TrackState ts,
+                                   Rational start, Rational end) throws IOException {
+        FileChannel channel = in.getFileChannel();
+        Rational frameDuration = ts.sampleRate.inverse();
+        long startFrame = start.multiply(ts.sampleRate).longValue();
+        long endFrame = end.multiply(ts.sampleRate).longValue();
+        long count = in.getSampleCount(track);
+        for (long sample = count == 0 ? 0 : in.findSampleAtTime(track, start); sample < count; ) {
+            Remuxer.AudioRun run = Remuxer.findAudioRun(in, track, sample, ts.frameSize);
+            long runStart = in.getSampleTime(track, sample).multiply(ts.sampleRate).round(1).longValue();
+            if (runStart >= endFrame) {
+                break;
+            }
+            long from = Math.max(startFrame, runStart);
+            long to = Math.min(endFrame, runStart + run.frameCount());
+            if (to > from) {
+                out.copySamples(ts.outTrack, (int) (to - from), channel, run.offset() + (from - runStart) * ts.frameSize,
+                        (to - from) * ts.frameSize, frameDuration, true);
+            }
+            sample = run.nextSample();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * @(#)StreamCopySink.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+import org.monte.media.math.Rational;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link MovieWriter} that can write already encoded samples that are
+ * copied from another movie.
+ * <p>
+ * The writer does not inspect the sample data. The data must match the
+ * format of the track. See {@link Remuxer}.
+ *
+ * @author Werner Randelshofer
+ */
+public interface StreamCopySink extends MovieWriter {
+    /**
+     * Copies encoded samples from a file channel into a track.
+     *
+     * @param track          the track number
+     * @param sampleCount    the number of samples
+     * @param in             the file channel
+     * @param position       the position of the sample data in the file
+     * @param length         the length of the sample data, must be
+     *                       dividable by {@code sampleCount}
+     * @param sampleDuration the duration of a single sample in seconds
+     * @param isSync         whether the samples are sync samples
+     * @throws IOException if reading or writing fails
+     */
+    void copySamples(int track, int sampleCount, FileChannel in, long position, long length, Rational sampleDuration, boolean isSync) throws IOException;
+
+    /**
+     * Copies encoded samples from a byte array into a track.
+     *
+     * @param track          the track number
+     * @param sampleCount    the number of samples
+     * @param data           the sample data
+     * @param off            the offset of the sample data
+     * @param len            the length of the sample data, must be
+     *                       dividable by {@code sampleCount}
+     * @param sampleDuration the duration of a single sample in seconds
+     * @param isSync         whether the samples are sync samples
+     * @throws IOException if writing fails
+     */
+    void copySamples(int track, int sampleCount, byte[] data, int off, int len, Rational sampleDuration, boolean isSync) throws IOException;
+
+    /**
+     * Sets codec specific header data of a track, as returned by
+     * {@link StreamCopySource#getTrackHeader}.
+     *
+     * @param track  the track number
+     * @param header the header or null
+     * @throws IllegalArgumentException if the header is not supported by
+     *                                  the track
+     */
+    void setTrackHeader(int track, Object header);
+
+    /**
+     * Returns the duration of the media that has been written into a track
+     * so far. This is the media time of the next sample.
+     *
+     * @param track the track number
+     * @return the duration in seconds
+     */
+    Rational getMediaEndTime(int track);
+
+    /**
+     * Appends an edit to the edit list of a track. An edit presents a
+     * portion of the media of the track. If a track has an edit list, only
+     * the edited portions of the media are presented, one after the other.
+     *
+     * @param track     the track number
+     * @param mediaTime the start time of the edit in the media in seconds
+     * @param duration  the duration of the edit in seconds
+     * @return true if the edit was added, false if the container does not
+     * support edit lists
+     */
+    boolean addEdit(int track, Rational mediaTime, Rational duration);
+}
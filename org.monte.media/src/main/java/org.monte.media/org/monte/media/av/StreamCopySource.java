@@ -0,0 +1,71 @@
+/*
+ * @(#)StreamCopySource.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link MovieReader} that gives access to the location of the encoded
+ * sample data in the movie file.
+ * <p>
+ * This allows copying samples into another movie without decoding them,
+ * see {@link Remuxer}.
+ *
+ * @author Werner Randelshofer
+ */
+public interface StreamCopySource extends MovieReader {
+    /**
+     * Returns the file channel of the movie file.
+     *
+     * @return the file channel, or null if the movie was not read from a
+     * file
+     */
+    FileChannel getFileChannel();
+
+    /**
+     * Returns the position of the data of the specified sample in the movie
+     * file.
+     *
+     * @param track  the track number
+     * @param sample the sample index
+     * @return the position in bytes
+     * @throws IOException if the sample table can not be read
+     */
+    long getSampleOffset(int track, long sample) throws IOException;
+
+    /**
+     * Returns the length of the data of the specified sample.
+     *
+     * @param track  the track number
+     * @param sample the sample index
+     * @return the length in bytes
+     * @throws IOException if the sample table can not be read
+     */
+    long getSampleLength(int track, long sample) throws IOException;
+
+    /**
+     * Returns true if the specified sample is a sync sample.
+     *
+     * @param track  the track number
+     * @param sample the sample index
+     * @return true if sync sample
+     * @throws IOException if the sample table can not be read
+     */
+    boolean isSyncSample(int track, long sample) throws IOException;
+
+    /**
+     * Returns codec specific header data of a track, that is needed for
+     * decoding the samples, but that is not part of the sample data.
+     * <p>
+     * This is the same kind of object that encoders put into
+     * {@link Buffer#header}.
+     *
+     * @param track the track number
+     * @return the header or null
+     * @throws IOException if the track header can not be read
+     */
+    Object getTrackHeader(int track) throws IOException;
+}
@@ -4,6 +4,7 @@
  */
 package org.monte.media.av.codec.video;
 
+import org.monte.media.io.GatheringImageInputStream;
 import org.monte.media.io.ImageInputStreamAdapter;
 import org.monte.media.jfif.JFIFInputStream;
 
@@ -77,9 +78,85 @@ public class AVIBMPDIB {
         return prependDHTSeg(jpgWithoutDHT, 0, jpgWithoutDHT.length);
     }
 
+    /**
+     * Returns a stream with the JPEG image in the specified bytes. If the
+     * image has no DHT segment, the stream inserts the MJPG DHT segment
+     * after the SOI segment.
+     * <p>
+     * The bytes are not copied.
+     *
+     * @param jpgWithoutDHT the array that contains the image
+     * @param offset        the offset of the image in the array
+     * @param length        the length of the image
+     * @return a stream with the image
+     */
     public static ImageInputStream prependDHTSeg(byte[] jpgWithoutDHT, int offset, int length) {
-        return prependDHTSeg(new ByteArrayInputStream(jpgWithoutDHT, offset, length));
+        GatheringImageInputStream in = new GatheringImageInputStream();
+        prependDHTSeg(jpgWithoutDHT, offset, length, in);
+        return in;
+    }
+
+    /**
+     * Sets up a gathering stream with the JPEG image in the specified bytes.
+     * If the image has no DHT segment, the MJPG DHT segment is inserted after
+     * the SOI segment.
+     * <p>
+     * The bytes are not copied. The gathering stream can be reused for the
+     * next image.
+     *
+     * @param jpgWithoutDHT the array that contains the image
+     * @param offset        the offset of the image in the array
+     * @param length        the length of the image
+     * @param in            the gathering stream, it is cleared by this
+     *                      method
+     */
+    public static void prependDHTSeg(byte[] jpgWithoutDHT, int offset, int length, GatheringImageInputStream in) {
+        in.clear();
+        if (hasDHTSeg(jpgWithoutDHT, offset, length) || length < JFIFSOISeg.length) {
+            in.add(jpgWithoutDHT, offset, length);
+        } else {
+            in.add(JFIFSOISeg, 0, JFIFSOISeg.length);
+            in.add(MJPGDHTSeg, 0, MJPGDHTSeg.length);
+            in.add(jpgWithoutDHT, offset + JFIFSOISeg.length, length - JFIFSOISeg.length);
+        }
+    }
 
+    /**
+     * Returns true if the JPEG image has a DHT segment before its first
+     * scan.
+     * <p>
+     * Only the headers of the segments before the first SOS segment are
+     * read. A baseline JPEG image must define its Huffman tables before the
+     * first scan. If the image is malformed, this method returns false.
+     * Inserting the MJPG DHT segment is harmless, because a DHT segment in
+     * the image replaces the tables.
+     *
+     * @param b      the array that contains the image
+     * @param offset the offset of the image in the array
+     * @param length the length of the image
+     * @return true if the image has a DHT segment
+     */
+    public static boolean hasDHTSeg(byte[] b, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset + JFIFSOISeg.length; i + 4 <= end; ) {
+            int marker = ((b[i] & 0xff) << 8) | (b[i + 1] & 0xff);
+            if (marker == 0xffff) {
+                // Fill byte
+                i++;
+            } else if (marker == JFIFInputStream.DHT_MARKER) {
+                return true;
+            } else if (marker == JFIFInputStream.SOS_MARKER || marker == JFIFInputStream.EOI_MARKER
+                    || (marker & 0xff00) != 0xff00) {
+                return false;
+            } else if (marker == JFIFInputStream.TEM_MARKER
+                    || marker >= JFIFInputStream.RST0_MARKER && marker <= JFIFInputStream.SOI_MARKER) {
+                // Segments without length
+                i += 2;
+            } else {
+                i += 2 + (((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff));
+            }
+        }
+        return false;
     }
 
     public static ImageInputStream prependDHTSeg(ByteArrayInputStream inWithoutDHT) {
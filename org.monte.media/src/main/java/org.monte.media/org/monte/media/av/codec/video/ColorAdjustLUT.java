@@ -0,0 +1,204 @@
+/*
+ * @(#)ColorAdjustLUT.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av.codec.video;
+
+import org.monte.media.interpolator.BezierInterpolator;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sqrt;
+import static org.monte.media.util.MathUtil.clamp;
+
+/**
+ * A {@link ColorAdjustModel} that has been compiled into lookup tables.
+ * <p>
+ * The adjustments are applied in three stages:
+ * <ol>
+ *     <li>The quadratic white balance adjusts each channel separately.</li>
+ *     <li>The temperature and tint white balance and the saturation mix the
+ *     channels.</li>
+ *     <li>Highlights and shadows, brightness, exposure, contrast and levels
+ *     adjust each channel separately.</li>
+ * </ol>
+ * If the second stage does not change the colors, all stages are compiled
+ * into one table with 256 entries per channel. Otherwise, the first stage is
+ * compiled together with the contributions of each channel to the luma and
+ * chroma components into one table per channel, the mixing of the
+ * components is computed in fixed-point arithmetic, and the third stage is
+ * compiled into a table with {@value #ONE} + 1 entries.
+ *
+ * @author Werner Randelshofer
+ */
+class ColorAdjustLUT {
+    /**
+     * The fixed-point value of 1.0 in the second stage.
+     */
+    private static final int ONE = 1 << 12;
+
+    /**
+     * If {@link #curve} is null, holds the output value of each channel
+     * shifted to its position in the pixel. Otherwise, holds the
+     * contribution of each channel value to the luma Y and the chroma
+     * components Cb and Cr, 3 entries per channel value.
+     */
+    private final int[] red, green, blue;
+    /**
+     * The table of the third stage, or null if the channels do not mix.
+     */
+    private final int[] curve;
+
+    private final float whitePoint;
+    private final float blackPoint;
+    private final float invLevelsExtent;
+    private final float saturation;
+    private final float cbShift, crShift;
+    private final BezierInterpolator hilightsAndShadows;
+    private final float brightness;
+    private final float exposure;
+    private final float contrast;
+    private final boolean becAdjust;
+
+    /**
+     * Compiles the specified model.
+     */
+    ColorAdjustLUT(ColorAdjustModel model) {
+        whitePoint = max(model.getWhitePoint(), model.getBlackPoint());
+        blackPoint = min(model.getBlackPoint(), model.getWhitePoint());
+        invLevelsExtent = whitePoint == 1 && blackPoint == 0 || whitePoint - blackPoint == 0
+                ? -1 : 1f / (whitePoint - blackPoint);
+
+        saturation = model.getSaturation() * 2;
+        float invsqrt2 = (float) (1.0 / sqrt(2.0));
+        boolean TT = model.isWhiteBalanceTTEnabled();
+        if (TT) {
+            cbShift = (-model.getTemperature() - model.getTint()) * invsqrt2;
+            crShift = (model.getTemperature() - model.getTint()) * invsqrt2;
+        } else {
+            cbShift = crShift = 0;
+        }
+
+        if (model.getShadows() == 0 && model.getHighlights() == 0) {
+            hilightsAndShadows = null;
+        } else {
+            hilightsAndShadows = new BezierInterpolator(new double[][]{//
+                    {0, 0},//
+                    {0.5f - model.getShadows() * 0.5f,//
+                            0.5f},//
+                    {0.5, 0.5},
+                    {0.5f + model.getHighlights() * 0.5f,//
+                            0.5f}, //
+                    {1, 1}//
+            });
+        }
+        brightness = model.getBrightness();
+        float e = 1f + model.getExposure();
+        exposure = e * e;
+        contrast = 1f + model.getContrast();
+        becAdjust = (model.getBrightness() != 0 || model.getExposure() != 0 || model.getContrast() != 0);
+
+        boolean QM = model.isWhiteBalanceQMEnabled();
+        float[] wbqm = (QM) ? model.getWhiteBalanceQM() : new float[]{0, 1, 0, 1};
+
+        // First stage. Note: QM operates on rgb values in the range [0,255]
+        float[][] in = new float[3][256];
+        for (int v = 0; v < 256; v++) {
+            in[0][v] = (v * v * wbqm[0] + v * wbqm[1]) * (1f / 255f);
+            in[1][v] = v * (1f / 255f);
+            in[2][v] = (v * v * wbqm[2] + v * wbqm[3]) * (1f / 255f);
+        }
+
+        if (!TT || cbShift == 0 && crShift == 0 && saturation == 1) {
+            red = new int[256];
+            green = new int[256];
+            blue = new int[256];
+            curve = null;
+            for (int v = 0; v < 256; v++) {
+                // the conversion to YCC and back clamps the values
+                red[v] = adjustLevels(TT ? clamp(in[0][v], 0, 1) : in[0][v]) << 16;
+                green[v] = adjustLevels(TT ? clamp(in[1][v], 0, 1) : in[1][v]) << 8;
+                blue[v] = adjustLevels(TT ? clamp(in[2][v], 0, 1) : in[2][v]);
+            }
+            return;
+        }
+
+        // Second stage, see ColorModels.RGBtoYCC:
+        // Y = 0.3 R + 0.6 G + 0.1 B, Cb = (B - Y) / 2, Cr = (R - Y) / 1.6,
+        // and the white balance shifts and scales Cb and Cr.
+        red = new int[256 * 3];
+        green = new int[256 * 3];
+        blue = new int[256 * 3];
+        for (int v = 0, i = 0; v < 256; v++, i += 3) {
+            float r = clamp(in[0][v], 0, 1) * ONE;
+            float g = clamp(in[1][v], 0, 1) * ONE;
+            float b = clamp(in[2][v], 0, 1) * ONE;
+            red[i] = Math.round(0.3f * r);
+            red[i + 1] = Math.round((-0.15f * r + cbShift * ONE) * saturation);
+            red[i + 2] = Math.round((0.7f / 1.6f * r + crShift * ONE) * saturation);
+            green[i] = Math.round(0.6f * g);
+            green[i + 1] = Math.round(-0.3f * g * saturation);
+            green[i + 2] = Math.round(-0.6f / 1.6f * g * saturation);
+            blue[i] = Math.round(0.1f * b);
+            blue[i + 1] = Math.round(0.45f * b * saturation);
+            blue[i + 2] = Math.round(-0.1f / 1.6f * b * saturation);
+        }
+
+        // Third stage
+        curve = new int[ONE + 1];
+        for (int i = 0; i <= ONE; i++) {
+            curve[i] = adjustLevels(i / (float) ONE);
+        }
+    }
+
+    /**
+     * Applies the third stage to a channel value in the range [0,1].
+     *
+     * @return the adjusted value in the range [0,255]
+     */
+    private int adjustLevels(float v) {
+        if (hilightsAndShadows != null) {
+            v = hilightsAndShadows.getFraction(v);
+        }
+        if (becAdjust) {
+            v = clamp(((v - 0.5f) * contrast + 0.5f) * exposure + brightness, 0, 1);
+        }
+        if (invLevelsExtent != -1) {
+            v = (max(min(v, whitePoint), blackPoint) - blackPoint) * invLevelsExtent;
+        }
+        return clamp((int) (v * 255), 0, 255);
+    }
+
+    /**
+     * Adjusts the colors of the specified range of pixels.
+     *
+     * @param in   the RGB input pixels
+     * @param out  the RGB output pixels
+     * @param from the index of the first pixel
+     * @param to   the index after the last pixel
+     */
+    void apply(int[] in, int[] out, int from, int to) {
+        if (curve == null) {
+            for (int i = from; i < to; i++) {
+                int p = in[i];
+                out[i] = red[(p >>> 16) & 0xff] | green[(p >>> 8) & 0xff] | blue[p & 0xff];
+            }
+            return;
+        }
+
+        final int half = ONE / 2;
+        for (int i = from; i < to; i++) {
+            int p = in[i];
+            int r = ((p >>> 16) & 0xff) * 3, g = ((p >>> 8) & 0xff) * 3, b = (p & 0xff) * 3;
+            int y = red[r] + green[g] + blue[b];
+            int cb = max(-half, min(red[r + 1] + green[g + 1] + blue[b + 1], half));
+            int cr = max(-half, min(red[r + 2] + green[g + 2] + blue[b + 2], half));
+            // see ColorModels.YCCtoRGB, the divisions by 0.625 and 6 are
+            // computed as multiplications with 16-bit fractions
+            int rr = y + (cr * 104858 >> 16);
+            int bb = y + cb * 2;
+            int gg = (y * 10 - rr * 3 - bb) * 10923 >> 16;
+            out[i] = curve[max(0, min(rr, ONE))] << 16 | curve[max(0, min(gg, ONE))] << 8 | curve[max(0, min(bb, ONE))];
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * @(#)ColorQuantizerCodec.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av.codec.video;
+
+import org.monte.media.av.Buffer;
+import org.monte.media.av.Format;
+import org.monte.media.av.FormatKeys.MediaType;
+import org.monte.media.color.ColorQuantizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.MIME_JAVA;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.FormatKeys.MimeTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DepthKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
+
+/**
+ * Converts a buffered image into an image with a palette of up to 256
+ * colors.
+ * <p>
+ * The colors are reduced with a {@link ColorQuantizer}. The palette is
+ * reused across frames as long as it represents the colors of the frames
+ * well, and colors keep their index when a new palette is computed. The
+ * output of this codec can be fed into the 8-bit paths of encoders like
+ * {@link TechSmithCodec}.
+ *
+ * @author Werner Randelshofer
+ */
+public class ColorQuantizerCodec extends AbstractVideoCodec {
+
+    private final ColorQuantizer quantizer = new ColorQuantizer();
+
+    public ColorQuantizerCodec() {
+        super(new Format[]{
+                        new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                                EncodingKey, ENCODING_BUFFERED_IMAGE), //
+                },
+                new Format[]{
+                        new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                                EncodingKey, ENCODING_BUFFERED_IMAGE, DepthKey, 8), //
+                }//
+        );
+        name = "Quantize Colors";
+    }
+
+    @Override
+    public Format setInputFormat(Format f) {
+        Format fNew = super.setInputFormat(f);
+        outputFormat = fNew == null ? null : fNew.prepend(DepthKey, 8);
+        return fNew;
+    }
+
+    @Override
+    public Format setOutputFormat(Format f) {
+        // This codec always produces the input format with a depth of 8 bits.
+        outputFormat = inputFormat == null ? null : inputFormat.prepend(DepthKey, 8);
+        return outputFormat;
+    }
+
+    @Override
+    public int process(Buffer in, Buffer out) {
+        out.setMetaTo(in);
+        out.format = outputFormat;
+        if (in.isFlag(DISCARD)) {
+            return CODEC_OK;
+        }
+        BufferedImage imgIn = (BufferedImage) in.data;
+        if (imgIn == null) {
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+
+        WritableRaster raster = null;
+        if (out.data instanceof BufferedImage) {
+            BufferedImage imgOut = (BufferedImage) out.data;
+            if (imgOut.getWidth() == imgIn.getWidth()//
+                    && imgOut.getHeight() == imgIn.getHeight()//
+                    && imgOut.getType() == BufferedImage.TYPE_BYTE_INDEXED
+                    && imgOut.getSampleModel() instanceof PixelInterleavedSampleModel
+                    && imgOut.getSampleModel().getNumBands() == 1) {
+                raster = imgOut.getRaster();
+            }
+        }
+        if (raster == null) {
+            raster = new BufferedImage(imgIn.getWidth(), imgIn.getHeight(), BufferedImage.TYPE_BYTE_INDEXED).getRaster();
+        }
+
+        PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+        DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+        int offset = db.getOffset() + sm.getOffset(
+                -raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+        quantizer.quantize(imgIn, db.getData(), offset, sm.getScanlineStride());
+
+        if (out.data instanceof BufferedImage && ((BufferedImage) out.data).getRaster() == raster
+                && ((BufferedImage) out.data).getColorModel() == quantizer.getColorModel()) {
+            return CODEC_OK;
+        }
+        out.data = new BufferedImage(quantizer.getColorModel(), raster, false, null);
+        return CODEC_OK;
+    }
+
+    @Override
+    public void reset() {
+        quantizer.reset();
+    }
+
+    public ColorQuantizer.Dither getDither() {
+        return quantizer.getDither();
+    }
+
+    public void setDither(ColorQuantizer.Dither dither) {
+        quantizer.setDither(dither);
+    }
+
+    public int getMaxColors() {
+        return quantizer.getMaxColors();
+    }
+
+    /**
+     * Sets the maximal number of colors of the palette.
+     *
+     * @param maxColors the number of colors in the range [2, 256]
+     */
+    public void setMaxColors(int maxColors) {
+        quantizer.setMaxColors(maxColors);
+    }
+
+    public boolean isReusePalette() {
+        return quantizer.isReusePalette();
+    }
+
+    /**
+     * Sets whether the palette of the previous frame is reused if it still
+     * represents the colors of the frame well.
+     */
+    public void setReusePalette(boolean reusePalette) {
+        quantizer.setReusePalette(reusePalette);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * @(#)DirtyRegionMap.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av.codec.video;
+
+import org.monte.media.util.stream.RangeStream;
+
+import java.util.Arrays;
+
+/**
+ * Detects the regions of a frame that differ from the previous frame.
+ * <p>
+ * The frame is divided into tiles of {@value #TILE_WIDTH} pixels of a
+ * scanline. A tile is dirty if at least one of its pixels differs from the
+ * previous frame. The tiles are compared with {@link Arrays#mismatch}, which
+ * compares many pixels at once. Large frames are compared in parallel.
+ * <p>
+ * Delta encoders use the map to skip clean scanlines and clean tiles without
+ * touching their pixels.
+ *
+ * @author Werner Randelshofer
+ */
+public class DirtyRegionMap {
+    /**
+     * The width of a tile in pixels.
+     */
+    public static final int TILE_WIDTH = 64;
+    /**
+     * Frames with at least this number of pixels are compared in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private int width;
+    private int height;
+    private int offset;
+    private int scanlineStride;
+    private int tilesPerRow;
+    private boolean[] dirtyTiles = new boolean[0];
+    private boolean[] dirtyRows = new boolean[0];
+    private int firstDirtyRow;
+    private int lastDirtyRow;
+
+    /**
+     * Creates a new instance. The map is empty until
+     * {@link #compute(byte[], byte[], int, int, int, int) compute} is called.
+     */
+    public DirtyRegionMap() {
+    }
+
+    /**
+     * Compares two ranges of pixels.
+     */
+    private interface Mismatch {
+        /**
+         * Returns the relative index of the first pixel in the range that
+         * differs, or -1 if all pixels are equal.
+         */
+        int mismatch(int from, int to);
+    }
+
+    /**
+     * Compares a frame with the previous frame.
+     *
+     * @param data           the pixels of the frame
+     * @param prev           the pixels of the previous frame
+     * @param width          the width of the frame in pixels
+     * @param height         the height of the frame in pixels
+     * @param offset         the offset to the first pixel in the arrays
+     * @param scanlineStride the number to add to get to the next scanline
+     */
+    public void compute(byte[] data, byte[] prev, int width, int height, int offset, int scanlineStride) {
+        compute((from, to) -> Arrays.mismatch(data, from, to, prev, from, to), width, height, offset, scanlineStride);
+    }
+
+    /**
+     * Compares a frame with the previous frame.
+     *
+     * @see #compute(byte[], byte[], int, int, int, int)
+     */
+    public void compute(short[] data, short[] prev, int width, int height, int offset, int scanlineStride) {
+        compute((from, to) -> Arrays.mismatch(data, from, to, prev, from, to), width, height, offset, scanlineStride);
+    }
+
+    /**
+     * Compares a frame with the previous frame.
+     *
+     * @see #compute(byte[], byte[], int, int, int, int)
+     */
+    public void compute(int[] data, int[] prev, int width, int height, int offset, int scanlineStride) {
+        compute((from, to) -> Arrays.mismatch(data, from, to, prev, from, to), width, height, offset, scanlineStride);
+    }
+
+    private void compute(Mismatch m, int width, int height, int offset, int scanlineStride) {
+        this.width = width;
+        this.height = height;
+        this.offset = offset;
+        this.scanlineStride = scanlineStride;
+        this.tilesPerRow = (width + TILE_WIDTH - 1) / TILE_WIDTH;
+        if (dirtyTiles.length < tilesPerRow * height) {
+            dirtyTiles = new boolean[tilesPerRow * height];
+        }
+        if (dirtyRows.length < height) {
+            dirtyRows = new boolean[height];
+        }
+
+        RangeStream rows = RangeStream.range(0, height);
+        if ((long) width * height >= PARALLEL_THRESHOLD) {
+            rows.parallel(Math.max(1, PARALLEL_THRESHOLD / 4 / Math.max(1, width)));
+        }
+        rows.forEach((lo, hi) -> {
+            for (int y = lo; y < hi; y++) {
+                int xy = offset + y * scanlineStride;
+                int xymax = xy + width;
+                boolean rowDirty = false;
+                for (int t = y * tilesPerRow; xy < xymax; xy += TILE_WIDTH, t++) {
+                    boolean dirty = m.mismatch(xy, Math.min(xy + TILE_WIDTH, xymax)) >= 0;
+                    dirtyTiles[t] = dirty;
+                    rowDirty |= dirty;
+                }
+                dirtyRows[y] = rowDirty;
+            }
+        });
+
+        firstDirtyRow = 0;
+        while (firstDirtyRow < height && !dirtyRows[firstDirtyRow]) {
+            firstDirtyRow++;
+        }
+        lastDirtyRow = height - 1;
+        while (lastDirtyRow >= firstDirtyRow && !dirtyRows[lastDirtyRow]) {
+            lastDirtyRow--;
+        }
+    }
+
+    /**
+     * Returns true if the frame is identical to the previous frame.
+     */
+    public boolean isClean() {
+        return firstDirtyRow == height;
+    }
+
+    /**
+     * Returns the index of the first dirty scanline, or the height of the
+     * frame if the frame is clean.
+     */
+    public int getFirstDirtyRow() {
+        return firstDirtyRow;
+    }
+
+    /**
+     * Returns the index of the last dirty scanline, or -1 if the frame is
+     * clean.
+     */
+    public int getLastDirtyRow() {
+        return isClean() ? -1 : lastDirtyRow;
+    }
+
+    /**
+     * Returns true if the scanline with the specified index is dirty.
+     *
+     * @param y the index of the scanline, 0 is the first scanline in the
+     *          arrays
+     */
+    public boolean isRowDirty(int y) {
+        return dirtyRows[y];
+    }
+
+    /**
+     * Returns true if the tile with the specified index is dirty.
+     *
+     * @param y     the index of the scanline
+     * @param tileX the index of the tile in the scanline
+     */
+    public boolean isTileDirty(int y, int tileX) {
+        return dirtyTiles[y * tilesPerRow + tileX];
+    }
+
+    /**
+     * Returns true if the scanline that contains the specified array index
+     * is dirty.
+     *
+     * @param xy an array index in the scanline
+     */
+    public boolean isRowDirtyAt(int xy) {
+        return dirtyRows[(xy - offset) / scanlineStride];
+    }
+
+    /**
+     * Returns the number of pixels from {@code xy} up to {@code xymax} that
+     * are equal to the previous frame. Clean scanlines and clean tiles are
+     * skipped without comparing their pixels.
+     *
+     * @param data  the pixels of the frame
+     * @param prev  the pixels of the previous frame
+     * @param xy    the array index of the first pixel
+     * @param xymax the array index after the last pixel, must be in the
+     *              same scanline as xy
+     * @return the number of equal pixels
+     */
+    public int getSkipCount(byte[] data, byte[] prev, int xy, int xymax) {
+        int start = xy;
+        int rowStart = getRowStart(xy);
+        if (!dirtyRows[(rowStart - offset) / scanlineStride]) {
+            return xymax - start;
+        }
+        int t = getTileIndex(xy, rowStart);
+        while (xy < xymax) {
+            int tileEnd = Math.min(rowStart + ((t % tilesPerRow) + 1) * TILE_WIDTH, xymax);
+            if (dirtyTiles[t]) {
+                int m = Arrays.mismatch(data, xy, tileEnd, prev, xy, tileEnd);
+                if (m >= 0) {
+                    return xy + m - start;
+                }
+            }
+            xy = tileEnd;
+            t++;
+        }
+        return xymax - start;
+    }
+
+    /**
+     * Returns the number of pixels that are equal to the previous frame.
+     *
+     * @see #getSkipCount(byte[], byte[], int, int)
+     */
+    public int getSkipCount(short[] data, short[] prev, int xy, int xymax) {
+        int start = xy;
+        int rowStart = getRowStart(xy);
+        if (!dirtyRows[(rowStart - offset) / scanlineStride]) {
+            return xymax - start;
+        }
+        int t = getTileIndex(xy, rowStart);
+        while (xy < xymax) {
+            int tileEnd = Math.min(rowStart + ((t % tilesPerRow) + 1) * TILE_WIDTH, xymax);
+            if (dirtyTiles[t]) {
+                int m = Arrays.mismatch(data, xy, tileEnd, prev, xy, tileEnd);
+                if (m >= 0) {
+                    return xy + m - start;
+                }
+            }
+            xy = tileEnd;
+            t++;
+        }
+        return xymax - start;
+    }
+
+    /**
+     * Returns the number of pixels that are equal to the previous frame.
+     *
+     * @see #getSkipCount(byte[], byte[], int, int)
+     */
+    public int getSkipCount(int[] data, int[] prev, int xy, int xymax) {
+        int start = xy;
+        int rowStart = getRowStart(xy);
+        if (!dirtyRows[(rowStart - offset) / scanlineStride]) {
+            return xymax - start;
+        }
+        int t = getTileIndex(xy, rowStart);
+        while (xy < xymax) {
+            int tileEnd = Math.min(rowStart + ((t % tilesPerRow) + 1) * TILE_WIDTH, xymax);
+            if (dirtyTiles[t]) {
+                int m = Arrays.mismatch(data, xy, tileEnd, prev, xy, tileEnd);
+                if (m >= 0) {
+                    return xy + m - start;
+                }
+            }
+            xy = tileEnd;
+            t++;
+        }
+        return xymax - start;
+    }
+
+    private int getRowStart(int xy) {
+        return xy - (xy - offset) % scanlineStride;
+    }
+
+    private int getTileIndex(int xy, int rowStart) {
+        return (rowStart - offset) / scanlineStride * tilesPerRow + (xy - rowStart) / TILE_WIDTH;
+    }
+}
@@ -7,23 +7,28 @@ package org.monte.media.av.codec.video;
 import org.monte.media.av.Buffer;
 import org.monte.media.av.Format;
 import org.monte.media.math.Rational;
+import org.monte.media.util.ByteArrays;
+import org.monte.media.util.stream.RangeStream;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
-import java.awt.image.IndexColorModel;
-import java.awt.image.Raster;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.monte.media.av.BufferFlag.DISCARD;
 import static org.monte.media.av.BufferFlag.END_OF_MEDIA;
 import static org.monte.media.av.BufferFlag.KEYFRAME;
 import static org.monte.media.av.codec.video.VideoFormatKeys.DataClassKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.FixedFrameRateKey;
-import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
-import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
 
 /**
  * This codec converts frames from a fixed frame rate into a variable frame rate
@@ -31,16 +36,73 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  * <p>
  * This codec can be used when the input source has a fixed frame rate and
  * the output sink supports a variable frame rate.
+ * <p>
+ * The codec supports images with indexed colors and with 15, 16, 24 and 32
+ * bits per pixel that store their pixels in a {@code byte}, {@code short} or
+ * {@code int} array. Other images are converted to ARGB.
+ * <p>
+ * The codec divides a frame into tiles, and computes a 64-bit hash for each
+ * tile. A frame is only compared pixel by pixel with the previous frame, if
+ * all hashes are equal. The codec holds back one frame, and recycles the
+ * image in the output buffer for the next frame that it holds back.
  *
  * @author Werner Randelshofer
  */
 public class FFRtoVFRConverter extends AbstractVideoCodec {
+    /**
+     * The width of a tile in array elements.
+     */
+    private static final int TILE_WIDTH = 256;
+    /**
+     * The height of a tile in rows.
+     */
+    private static final int TILE_HEIGHT = 16;
+    /**
+     * Frames with at least this number of array elements are hashed and
+     * compared in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
 
     private Rational timeStamp;
     private Rational duration;
-    private int[] inputColors;
-    private int[] previousColors;
-    private Object previousPixels;
+    /**
+     * The frame that is held back, or null.
+     */
+    private BufferedImage previousImage;
+    private long[] previousHashes = new long[0];
+    private long[] hashes = new long[0];
+    /**
+     * Holds the input image if it has to be converted to ARGB.
+     */
+    private BufferedImage argbImage;
+
+    /**
+     * Describes the pixels of an image as rows of array elements.
+     *
+     * @param data           a {@code byte}, {@code short} or {@code int} array
+     * @param offset         the index of the first element of the first row
+     * @param scanlineStride the number of elements to add to get to the
+     *                       next row
+     * @param rowLength      the number of elements of a row
+     * @param height         the number of rows
+     */
+    private record Rows(Object data, int offset, int scanlineStride, int rowLength, int height) {
+        int tilesPerRow() {
+            return (rowLength + TILE_WIDTH - 1) / TILE_WIDTH;
+        }
+
+        int tileCount() {
+            return tilesPerRow() * ((height + TILE_HEIGHT - 1) / TILE_HEIGHT);
+        }
+
+        RangeStream tileRows() {
+            RangeStream tileRows = RangeStream.range(0, (height + TILE_HEIGHT - 1) / TILE_HEIGHT);
+            if ((long) rowLength * height >= PARALLEL_THRESHOLD) {
+                tileRows.parallel(Math.max(1, PARALLEL_THRESHOLD / 4 / TILE_HEIGHT / Math.max(1, rowLength)));
+            }
+            return tileRows;
+        }
+    }
 
     public FFRtoVFRConverter() {
         super(new Format[]{
@@ -83,12 +145,13 @@ public class FFRtoVFRConverter extends AbstractVideoCodec {
     @Override
     public void reset() {
         this.timeStamp = null;
+        this.duration = null;
+        this.previousImage = null;
     }
 
     @Override
     public int process(Buffer in, Buffer out) {
         out.setMetaTo(in);
-        Format vf = inputFormat;
 
         if (!in.isFlag(KEYFRAME)) {
             // This codec can only process keyframes.
@@ -98,19 +161,12 @@ public class FFRtoVFRConverter extends AbstractVideoCodec {
         if (in.isFlag(END_OF_MEDIA) && in.isFlag(DISCARD)) {
             // => End of media reached. Flush buffer.
             out.setFlag(END_OF_MEDIA, true);
-            if (duration.isZero()) {
+            if (previousImage == null || duration.isZero()) {
                 out.setFlag(DISCARD, true);
             } else {
                 out.setFlag(END_OF_MEDIA, false);
                 out.setFlag(DISCARD, false);
-                IndexColorModel newColorModel = new IndexColorModel(8, 256, previousColors, 0, false, -1, DataBuffer.TYPE_BYTE);
-
-                WritableRaster newRaster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE,
-                        vf.get(WidthKey), vf.get(HeightKey), 1, null);
-                byte[] newPixels = ((DataBufferByte) newRaster.getDataBuffer()).getData();
-                System.arraycopy(previousPixels, 0, newPixels, 0, newPixels.length);
-
-                out.data = new BufferedImage(newColorModel, newRaster, false, null);
+                out.data = previousImage;
                 out.sampleDuration = duration;
                 out.timeStamp = timeStamp;
                 duration = new Rational(0, 1);
@@ -124,45 +180,228 @@ public class FFRtoVFRConverter extends AbstractVideoCodec {
         }
 
         BufferedImage inputImage = (BufferedImage) in.data;
-        byte[] inputPixels = ((DataBufferByte) inputImage.getRaster().getDataBuffer()).getData();
-        IndexColorModel inputColorModel = (IndexColorModel) inputImage.getColorModel();
-        if (inputColors == null) {
-            inputColors = new int[256];
-        }
-        inputColorModel.getRGBs(inputColors);
-
-        if (previousPixels == null) {
-            // => First image. Copy data and discard output buffer.
-            previousPixels = inputPixels.clone();
-            previousColors = inputColors.clone();
-            duration = in.sampleDuration;
-            timeStamp = in.timeStamp;
+        Rows inputRows = getRows(inputImage);
+        if (inputRows == null) {
+            inputImage = toARGB(inputImage);
+            inputRows = getRows(inputImage);
+        }
+        if (hashes.length < inputRows.tileCount()) {
+            hashes = new long[inputRows.tileCount()];
+        }
+        computeHashes(inputRows, hashes);
+
+        if (previousImage != null && isCompatible(inputImage, previousImage)
+                && Arrays.equals(hashes, 0, inputRows.tileCount(), previousHashes, 0, inputRows.tileCount())
+                && isEqual(inputRows, getRows(previousImage))) {
+            // => The image is the same as the previous image. Extend the duration of the previous image.
+            duration = duration.add(in.sampleDuration);
+            out.setFlag(DISCARD, true);
+            return CODEC_OK;
+        }
+
+        // => The image is different. Output the previous image, and hold back the new image.
+        BufferedImage recycled = out.data instanceof BufferedImage b && b != previousImage && b != in.data
+                && isCompatible(inputImage, b) ? b : null;
+        if (previousImage == null) {
             out.setFlag(DISCARD, true);
         } else {
-            // => Not the first image. Convert fixed rate to variable rate if images are the same.
-            if (Arrays.equals((byte[]) previousPixels, inputPixels)
-                    && Arrays.equals(previousColors, inputColors)) {
-                duration = duration.add(in.sampleDuration);
-                out.setFlag(DISCARD, true);
-            } else {
-                IndexColorModel newColorModel = new IndexColorModel(8, 256, previousColors, 0, false, -1, DataBuffer.TYPE_BYTE);
+            out.data = previousImage;
+            out.sampleDuration = duration;
+            out.timeStamp = timeStamp;
+        }
+        if (recycled == null) {
+            WritableRaster raster = inputImage.getRaster().createCompatibleWritableRaster();
+            recycled = new BufferedImage(inputImage.getColorModel(), raster, inputImage.isAlphaPremultiplied(), null);
+        }
+        previousImage = recycled;
+        copy(inputRows, getRows(previousImage));
+        long[] swap = previousHashes;
+        previousHashes = hashes;
+        hashes = swap;
+        duration = in.sampleDuration;
+        timeStamp = in.timeStamp;
+        return CODEC_OK;
+    }
 
-                WritableRaster newRaster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE,
-                        vf.get(WidthKey), vf.get(HeightKey), 1, null);
-                byte[] newPixels = ((DataBufferByte) newRaster.getDataBuffer()).getData();
-                System.arraycopy(previousPixels, 0, newPixels, 0, newPixels.length);
+    /**
+     * Returns the rows of the image, or null if the samples of the image are
+     * not stored in a single {@code byte}, {@code short} or {@code int}
+     * array.
+     */
+    private static Rows getRows(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        DataBuffer db = raster.getDataBuffer();
+        Object data;
+        if (db instanceof DataBufferByte dbb && dbb.getNumBanks() == 1) {
+            data = dbb.getData();
+        } else if (db instanceof DataBufferUShort dbs && dbs.getNumBanks() == 1) {
+            data = dbs.getData();
+        } else if (db instanceof DataBufferInt dbi && dbi.getNumBanks() == 1) {
+            data = dbi.getData();
+        } else {
+            return null;
+        }
 
-                out.data = new BufferedImage(newColorModel, newRaster, false, null);
-                out.sampleDuration = duration;
-                out.timeStamp = timeStamp;
-                duration = in.sampleDuration;
-                timeStamp = in.timeStamp;
-                System.arraycopy(inputPixels, 0, previousPixels, 0, inputPixels.length);
-                System.arraycopy(inputColors, 0, previousColors, 0, inputColors.length);
+        SampleModel sm = raster.getSampleModel();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+        int width = img.getWidth();
+        int height = img.getHeight();
+        if (sm instanceof SinglePixelPackedSampleModel sppsm) {
+            return new Rows(data, db.getOffset() + sppsm.getOffset(-tx, -ty), sppsm.getScanlineStride(), width, height);
+        }
+        if (sm instanceof MultiPixelPackedSampleModel mppsm) {
+            int elementBits = DataBuffer.getDataTypeSize(mppsm.getDataType());
+            if (mppsm.getBitOffset(-tx) != 0) {
+                // the rows do not start at an element boundary
+                return null;
+            }
+            int rowLength = (width * mppsm.getPixelBitStride() + elementBits - 1) / elementBits;
+            return new Rows(data, db.getOffset() + mppsm.getOffset(-tx, -ty), mppsm.getScanlineStride(), rowLength, height);
+        }
+        if (sm instanceof ComponentSampleModel csm && csm.getPixelStride() == csm.getNumBands()) {
+            int[] bandOffsets = csm.getBandOffsets();
+            boolean[] used = new boolean[bandOffsets.length];
+            for (int b = 0; b < bandOffsets.length; b++) {
+                if (csm.getBankIndices()[b] != 0 || bandOffsets[b] < 0 || bandOffsets[b] >= bandOffsets.length
+                        || used[bandOffsets[b]]) {
+                    return null;
+                }
+                used[bandOffsets[b]] = true;
+            }
+            return new Rows(data, db.getOffset() + csm.getOffset(-tx, -ty, 0) - bandOffsets[0],
+                    csm.getScanlineStride(), width * csm.getPixelStride(), height);
+        }
+        return null;
+    }
+
+    /**
+     * Converts the image to ARGB. Reuses the same image for all frames.
+     */
+    private BufferedImage toARGB(BufferedImage img) {
+        int width = img.getWidth(), height = img.getHeight();
+        if (argbImage == null || argbImage.getWidth() != width || argbImage.getHeight() != height) {
+            argbImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        int[] argb = ((DataBufferInt) argbImage.getRaster().getDataBuffer()).getData();
+        img.getRGB(0, 0, width, height, argb, 0, width);
+        return argbImage;
+    }
+
+    /**
+     * Returns true if the images have the same size, the same color model,
+     * and the same layout of their samples.
+     */
+    private static boolean isCompatible(BufferedImage a, BufferedImage b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()
+                || !a.getColorModel().equals(b.getColorModel())) {
+            return false;
+        }
+        SampleModel sa = a.getSampleModel(), sb = b.getSampleModel();
+        if (sa.getClass() != sb.getClass() || sa.getDataType() != sb.getDataType()
+                || sa.getNumBands() != sb.getNumBands() || !Arrays.equals(sa.getSampleSize(), sb.getSampleSize())) {
+            return false;
+        }
+        if (sa instanceof SinglePixelPackedSampleModel pa) {
+            return Arrays.equals(pa.getBitMasks(), ((SinglePixelPackedSampleModel) sb).getBitMasks());
+        }
+        if (sa instanceof MultiPixelPackedSampleModel pa) {
+            return pa.getPixelBitStride() == ((MultiPixelPackedSampleModel) sb).getPixelBitStride();
+        }
+        if (sa instanceof ComponentSampleModel ca) {
+            ComponentSampleModel cb = (ComponentSampleModel) sb;
+            return ca.getPixelStride() == cb.getPixelStride()
+                    && Arrays.equals(ca.getBandOffsets(), cb.getBandOffsets());
+        }
+        return false;
+    }
 
+    /**
+     * Computes a 64-bit hash for each tile.
+     */
+    private static void computeHashes(Rows rows, long[] hashes) {
+        int tilesPerRow = rows.tilesPerRow();
+        rows.tileRows().forEach((lo, hi) -> {
+            for (int tileY = lo; tileY < hi; tileY++) {
+                int y0 = tileY * TILE_HEIGHT, y1 = Math.min(rows.height, y0 + TILE_HEIGHT);
+                for (int tileX = 0; tileX < tilesPerRow; tileX++) {
+                    int x0 = tileX * TILE_WIDTH, x1 = Math.min(rows.rowLength, x0 + TILE_WIDTH);
+                    long h = tileY * 0x9e3779b97f4a7c15L + tileX;
+                    for (int y = y0; y < y1; y++) {
+                        int xy = rows.offset + y * rows.scanlineStride;
+                        h = hash(rows.data, xy + x0, xy + x1, h);
+                    }
+                    hashes[tileY * tilesPerRow + tileX] = h;
+                }
             }
+        });
+    }
 
+    /**
+     * Adds the elements from {@code from} to {@code to} to the hash.
+     */
+    private static long hash(Object data, int from, int to, long h) {
+        final long prime = 0x9e3779b97f4a7c15L;
+        int i = from;
+        if (data instanceof byte[] b) {
+            for (; i <= to - 8; i += 8) {
+                h = (Long.rotateLeft(h, 29) ^ ByteArrays.getLongLE(b, i)) * prime;
+            }
+            for (; i < to; i++) {
+                h = (Long.rotateLeft(h, 29) ^ b[i]) * prime;
+            }
+        } else if (data instanceof short[] s) {
+            for (; i <= to - 4; i += 4) {
+                long v = (s[i] & 0xffffL) | (s[i + 1] & 0xffffL) << 16 | (s[i + 2] & 0xffffL) << 32 | (long) s[i + 3] << 48;
+                h = (Long.rotateLeft(h, 29) ^ v) * prime;
+            }
+            for (; i < to; i++) {
+                h = (Long.rotateLeft(h, 29) ^ s[i]) * prime;
+            }
+        } else {
+            int[] a = (int[]) data;
+            for (; i <= to - 2; i += 2) {
+                h = (Long.rotateLeft(h, 29) ^ ((a[i] & 0xffffffffL) | (long) a[i + 1] << 32)) * prime;
+            }
+            if (i < to) {
+                h = (Long.rotateLeft(h, 29) ^ a[i]) * prime;
+            }
+        }
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Compares the elements of the rows.
+     */
+    private static boolean isEqual(Rows a, Rows b) {
+        AtomicBoolean equal = new AtomicBoolean(true);
+        a.tileRows().forEach((lo, hi) -> {
+            for (int y = lo * TILE_HEIGHT, ymax = Math.min(a.height, hi * TILE_HEIGHT); y < ymax && equal.get(); y++) {
+                int ia = a.offset + y * a.scanlineStride, ib = b.offset + y * b.scanlineStride;
+                int len = a.rowLength;
+                int mismatch;
+                if (a.data instanceof byte[] da) {
+                    mismatch = Arrays.mismatch(da, ia, ia + len, (byte[]) b.data, ib, ib + len);
+                } else if (a.data instanceof short[] da) {
+                    mismatch = Arrays.mismatch(da, ia, ia + len, (short[]) b.data, ib, ib + len);
+                } else {
+                    mismatch = Arrays.mismatch((int[]) a.data, ia, ia + len, (int[]) b.data, ib, ib + len);
+                }
+                if (mismatch >= 0) {
+                    equal.set(false);
+                }
+            }
+        });
+        return equal.get();
+    }
+
+    /**
+     * Copies the elements of the rows.
+     */
+    private static void copy(Rows from, Rows to) {
+        for (int y = 0; y < from.height; y++) {
+            System.arraycopy(from.data, from.offset + y * from.scanlineStride,
+                    to.data, to.offset + y * to.scanlineStride, from.rowLength);
         }
-        return CODEC_OK;
     }
 }
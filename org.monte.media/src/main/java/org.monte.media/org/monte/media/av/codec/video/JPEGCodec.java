@@ -15,9 +15,11 @@ import org.monte.media.util.ArrayUtil;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
@@ -51,10 +53,31 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  * <li>{@code VideoFormat} with {@code byte[].class}, same width and height as input
  * format, depth=24.</li>
  * </ul>
+ * <p>
+ * The codec reuses its image reader and writer for all frames. Frames are
+ * decoded into the image of the previous frame, if the image has the same
+ * size and type.
  *
  * @author Werner Randelshofer
  */
 public class JPEGCodec extends AbstractVideoCodec {
+    /**
+     * The image writer, it is reused for all frames.
+     */
+    private ImageWriter writer;
+    /**
+     * The write parameters for the output format.
+     */
+    private ImageWriteParam writeParam;
+    /**
+     * The image readers, they are reused for all frames.
+     */
+    private ImageReader jpegReader;
+    private MJPGImageReader mjpgReader;
+    /**
+     * The type of the image that was decoded last.
+     */
+    private int decodedImageType = BufferedImage.TYPE_CUSTOM;
 
     public JPEGCodec() {
         super(new Format[]{
@@ -107,6 +130,7 @@ public class JPEGCodec extends AbstractVideoCodec {
                 outputFormat = outputFormat.prepend(inputFormat.intersectKeys(WidthKey, HeightKey));
             }
         }
+        writeParam = null;
         return this.outputFormat;
     }
 
@@ -125,18 +149,21 @@ public class JPEGCodec extends AbstractVideoCodec {
         tmp.clear();
 
         try {
-            ImageWriter iw = ImageIO.getImageWritersByMIMEType("image/jpeg").next();
-            ImageWriteParam iwParam = iw.getDefaultWriteParam();
-            iwParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            float quality = outputFormat.get(QualityKey, 1f);
-            iwParam.setCompressionQuality(quality);
-            if (outputFormat.get(ProgressiveImageEncodingKey, Boolean.FALSE)) {
-                iwParam.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            if (writer == null) {
+                writer = ImageIO.getImageWritersByMIMEType("image/jpeg").next();
+            }
+            if (writeParam == null) {
+                writeParam = writer.getDefaultWriteParam();
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                float quality = outputFormat.get(QualityKey, 1f);
+                writeParam.setCompressionQuality(quality);
+                if (outputFormat.get(ProgressiveImageEncodingKey, Boolean.FALSE)) {
+                    writeParam.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                }
             }
-            iw.setOutput(tmp);
-            IIOImage img = new IIOImage(image, null, null);
-            iw.write(null, img, iwParam);
-            iw.dispose();
+            writer.setOutput(tmp);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+            writer.setOutput(null);
 
             out.sampleCount = 1;
             out.setFlag(KEYFRAME);
@@ -162,22 +189,40 @@ public class JPEGCodec extends AbstractVideoCodec {
             out.setFlag(DISCARD);
             return CODEC_FAILED;
         }
-        ByteArrayImageInputStream tmp = new ByteArrayImageInputStream(data);
-
         try {
             ImageReader ir;
+            ImageInputStream tmp;
             if (ENCODING_AVI_MJPG.equals(in.format.get(EncodingKey))) {
-                ir = new MJPGImageReader(new MJPGImageReaderSpi());
+                if (mjpgReader == null) {
+                    mjpgReader = new MJPGImageReader(new MJPGImageReaderSpi());
+                }
+                mjpgReader.setInput(data, in.offset, in.length);
+                ir = mjpgReader;
+                tmp = null;
             } else {
-                ir = ImageIO.getImageReadersByMIMEType("image/jpeg").next();
+                if (jpegReader == null) {
+                    jpegReader = ImageIO.getImageReadersByMIMEType("image/jpeg").next();
+                }
+                tmp = new ByteArrayImageInputStream(data, in.offset, in.length);
+                jpegReader.setInput(tmp);
+                ir = jpegReader;
             }
-            ir.setInput(tmp);
-            out.data = ir.read(0);
-            ir.dispose();
+
+            // Decode into the image of the previous frame, if it has the
+            // same size and type
+            ImageReadParam param = ir.getDefaultReadParam();
+            if (out.data instanceof BufferedImage img && img.getType() == decodedImageType
+                    && img.getWidth() == ir.getWidth(0) && img.getHeight() == ir.getHeight(0)) {
+                param.setDestination(img);
+            }
+            BufferedImage img = ir.read(0, param);
+            decodedImageType = img.getType();
+            out.data = img;
+            ir.setInput(null);
 
             out.sampleCount = 1;
             out.offset = 0;
-            out.length = (int) tmp.getStreamPosition();
+            out.length = tmp == null ? in.length : (int) tmp.getStreamPosition();
             return CODEC_OK;
         } catch (IOException ex) {
             out.exception = ex;
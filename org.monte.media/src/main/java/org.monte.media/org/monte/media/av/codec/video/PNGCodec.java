@@ -9,13 +9,11 @@ import org.monte.media.av.Buffer;
 import org.monte.media.av.Format;
 import org.monte.media.io.ByteArrayImageInputStream;
 import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ZlibCompressor;
 import org.monte.media.util.ArrayUtil;
 
-import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
@@ -35,6 +33,7 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.MIME_QUICKTIME;
 import static org.monte.media.av.codec.video.VideoFormatKeys.MediaType;
 import static org.monte.media.av.codec.video.VideoFormatKeys.MediaTypeKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.MimeTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.QualityKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
 
 /**
@@ -47,10 +46,15 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  * <li>{@code VideoFormat} with {@code byte[].class}, same width and height as input
  * format, depth=24.</li>
  * </ul>
+ * <p>
+ * Images are encoded with {@link PNGEncoder}. {@code QualityKey} selects the
+ * zlib compression level, see {@link ZlibCompressor#forQuality}.
  *
  * @author Werner Randelshofer
  */
 public class PNGCodec extends AbstractVideoCodec {
+    private final PNGEncoder encoder = new PNGEncoder();
+    private ZlibCompressor compressor;
 
     public PNGCodec() {
         super(new Format[]{
@@ -91,6 +95,10 @@ public class PNGCodec extends AbstractVideoCodec {
                 outputFormat = outputFormat.prepend(inputFormat.intersectKeys(WidthKey, HeightKey, DepthKey));
             }
         }
+        if (compressor != null) {
+            compressor.close();
+            compressor = null;
+        }
         return this.outputFormat;
     }
 
@@ -119,13 +127,16 @@ public class PNGCodec extends AbstractVideoCodec {
         ByteArrayImageOutputStream tmp = new ByteArrayImageOutputStream(ArrayUtil.reuseByteArray(out.data, 32));
         tmp.clear();
 
+        // The quality selects the zlib compression level. The compressor is
+        // created for the first frame after the output format has been set,
+        // and its pooled deflaters are reused for all following frames.
+        if (compressor == null) {
+            compressor = ZlibCompressor.forQuality(outputFormat.get(QualityKey, 1f));
+            encoder.setCompressor(compressor);
+        }
+
         try {
-            ImageWriter iw = ImageIO.getImageWritersByMIMEType("image/png").next();
-            ImageWriteParam iwParam = iw.getDefaultWriteParam();
-            iw.setOutput(tmp);
-            IIOImage img = new IIOImage(image, null, null);
-            iw.write(null, img, iwParam);
-            iw.dispose();
+            encoder.write(image, tmp);
 
             out.setFlag(KEYFRAME);
             out.header = null;
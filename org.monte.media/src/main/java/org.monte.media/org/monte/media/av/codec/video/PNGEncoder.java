@@ -0,0 +1,486 @@
+/*
+ * @(#)PNGEncoder.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.av.codec.video;
+
+import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ImageOutputStreamAdapter;
+import org.monte.media.io.ZlibCompressor;
+import org.monte.media.util.stream.RangeStream;
+
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import static java.lang.Math.abs;
+
+/**
+ * Encodes a {@code BufferedImage} into a PNG image (ISO/IEC 15948).
+ * <p>
+ * The encoder reads the pixels directly from the {@code DataBufferInt} or
+ * {@code DataBufferByte} of the image, if the image has one of the following
+ * layouts:
+ * <ul>
+ * <li>Packed 8-bit components in an {@code int}, for example
+ * {@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB} or {@code TYPE_INT_BGR}.</li>
+ * <li>Interleaved 8-bit components in a {@code byte}, for example
+ * {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR} or
+ * {@code TYPE_BYTE_GRAY}.</li>
+ * <li>8-bit indices into an {@code IndexColorModel}, for example
+ * {@code TYPE_BYTE_INDEXED}.</li>
+ * </ul>
+ * Images with other layouts are converted into ARGB pixels first.
+ * <p>
+ * Each scanline is filtered with the filter type that yields the minimal sum
+ * of absolute differences. This is the heuristic that is recommended by the
+ * PNG specification. Scanlines of indexed images are not filtered. The
+ * scanlines of large images are filtered in parallel.
+ * <p>
+ * The filtered scanlines are compressed with a {@link ZlibCompressor}, which
+ * pools its deflaters, and can compress large images in parallel.
+ * <p>
+ * The encoder reuses its buffers from image to image. This class is not
+ * thread-safe.
+ *
+ * @author Werner Randelshofer
+ */
+public class PNGEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504c5445;
+    private static final int TRNS = 0x74524e53;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454e44;
+
+    private static final int COLOR_TYPE_GRAY = 0;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+    /**
+     * Images with at least this number of pixels are filtered in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private ZlibCompressor compressor = new ZlibCompressor();
+    private boolean adaptiveFiltering = true;
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunkHeader = new byte[8];
+    private final ByteArrayImageOutputStream idat = new ByteArrayImageOutputStream(ByteOrder.BIG_ENDIAN);
+    private byte[] filtered = new byte[0];
+    private int[] argb = new int[0];
+
+    /**
+     * Reads a scanline of an image.
+     */
+    private interface RowReader {
+        /**
+         * Reads the samples of a scanline in PNG order.
+         *
+         * @param y   the index of the scanline
+         * @param row the array for the samples
+         */
+        void read(int y, byte[] row);
+    }
+
+    public PNGEncoder() {
+    }
+
+    public ZlibCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Sets the compressor for the image data. The compressor determines
+     * the compression level, and whether large images are compressed in
+     * parallel.
+     *
+     * @param compressor the compressor
+     */
+    public void setCompressor(ZlibCompressor compressor) {
+        if (compressor == null) {
+            throw new IllegalArgumentException("compressor must not be null");
+        }
+        this.compressor = compressor;
+    }
+
+    public boolean isAdaptiveFiltering() {
+        return adaptiveFiltering;
+    }
+
+    /**
+     * Sets whether a filter is chosen for each scanline. If this is false,
+     * the scanlines are not filtered. This is faster, but yields larger
+     * images for most content.
+     *
+     * @param adaptiveFiltering true for adaptive filtering
+     */
+    public void setAdaptiveFiltering(boolean adaptiveFiltering) {
+        this.adaptiveFiltering = adaptiveFiltering;
+    }
+
+    /**
+     * Writes the image as a PNG image.
+     *
+     * @param img the image
+     * @param out the output stream
+     * @throws IOException if writing to the output stream fails
+     */
+    public void write(BufferedImage img, ImageOutputStream out) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        ColorModel cm = img.getColorModel();
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+
+        int colorType;
+        int bpp;
+        RowReader reader = null;
+        IndexColorModel palette = null;
+        if (cm instanceof IndexColorModel icm && db instanceof DataBufferByte dbb
+                && sm instanceof ComponentSampleModel csm && isInterleaved(csm) && sm.getNumBands() == 1
+                && sm.getSampleSize(0) == 8) {
+            colorType = COLOR_TYPE_PALETTE;
+            bpp = 1;
+            palette = icm;
+            reader = createByteReader(dbb.getData(), dbb.getOffset(), csm, tx, ty, width);
+        } else if (cm instanceof ComponentColorModel && !cm.isAlphaPremultiplied() && db instanceof DataBufferByte dbb
+                && sm instanceof ComponentSampleModel csm && isInterleaved(csm) && is8Bit(sm)
+                && (sm.getNumBands() == 1 && cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY
+                || (sm.getNumBands() == 3 || sm.getNumBands() == 4 && cm.hasAlpha()) && cm.getColorSpace().isCS_sRGB())) {
+            bpp = sm.getNumBands();
+            colorType = bpp == 1 ? COLOR_TYPE_GRAY : bpp == 3 ? COLOR_TYPE_RGB : COLOR_TYPE_RGBA;
+            reader = createByteReader(dbb.getData(), dbb.getOffset(), csm, tx, ty, width);
+        } else {
+            int[] data;
+            int offset, scanlineStride;
+            DirectColorModel dcm;
+            if (cm instanceof DirectColorModel c && !cm.isAlphaPremultiplied() && is8Bit(c) && cm.getColorSpace().isCS_sRGB()
+                    && db instanceof DataBufferInt dbi && sm instanceof SinglePixelPackedSampleModel sppsm) {
+                dcm = c;
+                data = dbi.getData();
+                offset = dbi.getOffset() + sppsm.getOffset(-tx, -ty);
+                scanlineStride = sppsm.getScanlineStride();
+            } else {
+                dcm = (DirectColorModel) ColorModel.getRGBdefault();
+                if (argb.length < width * height) {
+                    argb = new int[width * height];
+                }
+                data = img.getRGB(0, 0, width, height, argb, 0, width);
+                offset = 0;
+                scanlineStride = width;
+            }
+            boolean hasAlpha = dcm.hasAlpha();
+            colorType = hasAlpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB;
+            bpp = hasAlpha ? 4 : 3;
+            reader = createIntReader(data, offset, scanlineStride, dcm, width);
+        }
+
+        int rowBytes = width * bpp;
+        int filteredLength = (rowBytes + 1) * height;
+        if (filtered.length < filteredLength) {
+            filtered = new byte[filteredLength];
+        }
+        filter(reader, width, height, rowBytes, bpp, adaptiveFiltering && colorType != COLOR_TYPE_PALETTE);
+
+        out.setByteOrder(ByteOrder.BIG_ENDIAN);
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        setInt(ihdr, 0, width);
+        setInt(ihdr, 4, height);
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = (byte) colorType;
+        writeChunk(out, IHDR, ihdr, 0, ihdr.length);
+        if (palette != null) {
+            writePalette(out, palette);
+        }
+        idat.clear();
+        compressor.compress(filtered, 0, filteredLength, new ImageOutputStreamAdapter(idat));
+        writeChunk(out, IDAT, idat.getBuffer(), 0, idat.size());
+        writeChunk(out, IEND, ihdr, 0, 0);
+    }
+
+    private static boolean isInterleaved(ComponentSampleModel csm) {
+        for (int bank : csm.getBankIndices()) {
+            if (bank != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean is8Bit(SampleModel sm) {
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean is8Bit(DirectColorModel cm) {
+        int[] masks = {cm.getRedMask(), cm.getGreenMask(), cm.getBlueMask(), cm.getAlphaMask()};
+        for (int i = 0; i < masks.length; i++) {
+            int mask = masks[i];
+            if ((mask != 0 || i < 3) && mask >>> Integer.numberOfTrailingZeros(mask) != 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a reader for interleaved byte samples.
+     */
+    private static RowReader createByteReader(byte[] data, int dataOffset, ComponentSampleModel csm,
+                                              int tx, int ty, int width) {
+        int[] bandOffsets = csm.getBandOffsets();
+        int pixelStride = csm.getPixelStride();
+        int scanlineStride = csm.getScanlineStride();
+        int offset = dataOffset + csm.getOffset(-tx, -ty, 0) - bandOffsets[0];
+        int bands = bandOffsets.length;
+        if (bands == 1 && pixelStride == 1) {
+            return (y, row) -> System.arraycopy(data, offset + bandOffsets[0] + y * scanlineStride, row, 0, width);
+        }
+        return (y, row) -> {
+            for (int x = 0, xy = offset + y * scanlineStride, i = 0; x < width; x++, xy += pixelStride) {
+                for (int b = 0; b < bands; b++) {
+                    row[i++] = data[xy + bandOffsets[b]];
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a reader for packed int pixels.
+     */
+    private static RowReader createIntReader(int[] data, int offset, int scanlineStride, DirectColorModel cm, int width) {
+        int rs = Integer.numberOfTrailingZeros(cm.getRedMask());
+        int gs = Integer.numberOfTrailingZeros(cm.getGreenMask());
+        int bs = Integer.numberOfTrailingZeros(cm.getBlueMask());
+        if (cm.hasAlpha()) {
+            int as = Integer.numberOfTrailingZeros(cm.getAlphaMask());
+            return (y, row) -> {
+                for (int xy = offset + y * scanlineStride, xymax = xy + width, i = 0; xy < xymax; xy++) {
+                    int v = data[xy];
+                    row[i++] = (byte) (v >>> rs);
+                    row[i++] = (byte) (v >>> gs);
+                    row[i++] = (byte) (v >>> bs);
+                    row[i++] = (byte) (v >>> as);
+                }
+            };
+        }
+        return (y, row) -> {
+            for (int xy = offset + y * scanlineStride, xymax = xy + width, i = 0; xy < xymax; xy++) {
+                int v = data[xy];
+                row[i++] = (byte) (v >>> rs);
+                row[i++] = (byte) (v >>> gs);
+                row[i++] = (byte) (v >>> bs);
+            }
+        };
+    }
+
+    /**
+     * Reads and filters all scanlines into the {@code filtered} array.
+     * <p>
+     * A filter only depends on the unfiltered samples of the current and the
+     * previous scanline. Therefore, the image can be split up into bands
+     * that are filtered in parallel.
+     */
+    private void filter(RowReader reader, int width, int height, int rowBytes, int bpp, boolean adaptive) {
+        byte[] dst = filtered;
+        RangeStream rows = RangeStream.range(0, height);
+        if ((long) width * height >= PARALLEL_THRESHOLD) {
+            rows.parallel(Math.max(1, PARALLEL_THRESHOLD / 4 / width));
+        }
+        rows.forEach((lo, hi) -> {
+            byte[] prev = new byte[rowBytes];
+            byte[] cur = new byte[rowBytes];
+            if (lo > 0 && adaptive) {
+                reader.read(lo - 1, prev);
+            }
+            for (int y = lo; y < hi; y++) {
+                reader.read(y, cur);
+                int off = y * (rowBytes + 1);
+                if (adaptive) {
+                    filterRow(cur, prev, rowBytes, bpp, dst, off);
+                    byte[] swap = prev;
+                    prev = cur;
+                    cur = swap;
+                } else {
+                    dst[off] = FILTER_NONE;
+                    System.arraycopy(cur, 0, dst, off + 1, rowBytes);
+                }
+            }
+        });
+    }
+
+    /**
+     * Filters a scanline with the filter type that yields the minimal sum of
+     * absolute differences.
+     *
+     * @param cur      the samples of the scanline
+     * @param prev     the samples of the previous scanline, all zero for the
+     *                 first scanline
+     * @param rowBytes the number of samples in a scanline
+     * @param bpp      the number of samples in a pixel
+     * @param dst      the array for the filter type and the filtered samples
+     * @param off      the offset in dst
+     */
+    private static void filterRow(byte[] cur, byte[] prev, int rowBytes, int bpp, byte[] dst, int off) {
+        // Compute the sums of absolute differences of all filter types in
+        // a single pass. The differences are interpreted as signed bytes.
+        int none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+        for (int i = 0; i < bpp; i++) {
+            int x = cur[i] & 0xff;
+            int b = prev[i] & 0xff;
+            none += abs((byte) x);
+            sub += abs((byte) x);
+            up += abs((byte) (x - b));
+            average += abs((byte) (x - (b >>> 1)));
+            paeth += abs((byte) (x - b));
+        }
+        for (int i = bpp; i < rowBytes; i++) {
+            int x = cur[i] & 0xff;
+            int a = cur[i - bpp] & 0xff;
+            int b = prev[i] & 0xff;
+            int c = prev[i - bpp] & 0xff;
+            none += abs((byte) x);
+            sub += abs((byte) (x - a));
+            up += abs((byte) (x - b));
+            average += abs((byte) (x - ((a + b) >>> 1)));
+            paeth += abs((byte) (x - paethPredictor(a, b, c)));
+        }
+
+        int filter = FILTER_NONE;
+        int best = none;
+        if (sub < best) {
+            filter = FILTER_SUB;
+            best = sub;
+        }
+        if (up < best) {
+            filter = FILTER_UP;
+            best = up;
+        }
+        if (average < best) {
+            filter = FILTER_AVERAGE;
+            best = average;
+        }
+        if (paeth < best) {
+            filter = FILTER_PAETH;
+        }
+
+        dst[off++] = (byte) filter;
+        switch (filter) {
+            case FILTER_NONE -> System.arraycopy(cur, 0, dst, off, rowBytes);
+            case FILTER_SUB -> {
+                System.arraycopy(cur, 0, dst, off, bpp);
+                for (int i = bpp; i < rowBytes; i++) {
+                    dst[off + i] = (byte) (cur[i] - cur[i - bpp]);
+                }
+            }
+            case FILTER_UP -> {
+                for (int i = 0; i < rowBytes; i++) {
+                    dst[off + i] = (byte) (cur[i] - prev[i]);
+                }
+            }
+            case FILTER_AVERAGE -> {
+                for (int i = 0; i < bpp; i++) {
+                    dst[off + i] = (byte) (cur[i] - ((prev[i] & 0xff) >>> 1));
+                }
+                for (int i = bpp; i < rowBytes; i++) {
+                    dst[off + i] = (byte) (cur[i] - (((cur[i - bpp] & 0xff) + (prev[i] & 0xff)) >>> 1));
+                }
+            }
+            default -> {
+                for (int i = 0; i < bpp; i++) {
+                    dst[off + i] = (byte) (cur[i] - prev[i]);
+                }
+                for (int i = bpp; i < rowBytes; i++) {
+                    dst[off + i] = (byte) (cur[i] - paethPredictor(cur[i - bpp] & 0xff, prev[i] & 0xff, prev[i - bpp] & 0xff));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the one of a (left), b (above) and c (upper left), which is
+     * closest to a + b - c.
+     */
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = abs(p - a);
+        int pb = abs(p - b);
+        int pc = abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Writes the PLTE chunk, and a tRNS chunk if the palette has
+     * transparent colors.
+     */
+    private void writePalette(ImageOutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] rgb = new byte[size * 3];
+        byte[] alpha = new byte[size];
+        int alphaLength = 0;
+        for (int i = 0; i < size; i++) {
+            int v = icm.getRGB(i);
+            rgb[i * 3] = (byte) (v >>> 16);
+            rgb[i * 3 + 1] = (byte) (v >>> 8);
+            rgb[i * 3 + 2] = (byte) v;
+            alpha[i] = (byte) (v >>> 24);
+            if (alpha[i] != (byte) 0xff) {
+                alphaLength = i + 1;
+            }
+        }
+        writeChunk(out, PLTE, rgb, 0, rgb.length);
+        if (alphaLength > 0) {
+            writeChunk(out, TRNS, alpha, 0, alphaLength);
+        }
+    }
+
+    private void writeChunk(ImageOutputStream out, int type, byte[] data, int off, int len) throws IOException {
+        setInt(chunkHeader, 0, len);
+        setInt(chunkHeader, 4, type);
+        crc.reset();
+        crc.update(chunkHeader, 4, 4);
+        crc.update(data, off, len);
+        out.write(chunkHeader, 0, 8);
+        out.write(data, off, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void setInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
@@ -7,6 +7,7 @@ package org.monte.media.av.codec.video;
 import org.monte.media.av.Buffer;
 import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys.MediaType;
+import org.monte.media.image.ImageResampler;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -24,12 +25,17 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
 
 /**
  * Scales a buffered image.
+ * <p>
+ * The image is scaled with an {@link ImageResampler}. Images with an
+ * {@link IndexColorModel} are scaled with {@link Graphics2D}, because
+ * filtering would produce colors that are not in the palette.
  *
  * @author Werner Randelshofer
  */
 public class ScaleImageCodec extends AbstractVideoCodec {
 
     private Object interpolationRenderingHint = RenderingHints.VALUE_INTERPOLATION_BICUBIC;
+    private final ImageResampler resampler = new ImageResampler(ImageResampler.Filter.BICUBIC);
 
     public ScaleImageCodec() {
         super(new Format[]{
@@ -84,17 +90,60 @@ public class ScaleImageCodec extends AbstractVideoCodec {
             }
 
         }
-        Graphics2D g = imgOut.createGraphics();
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolationRenderingHint);
-        g.drawImage(imgIn, 0, 0, imgOut.getWidth() - 1, imgOut.getHeight() - 1, 0, 0, imgIn.getWidth() - 1, imgIn.getHeight() - 1, null);
-        g.dispose();
+        if (imgIn.getColorModel() instanceof IndexColorModel) {
+            Graphics2D g = imgOut.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolationRenderingHint);
+            g.drawImage(imgIn, 0, 0, imgOut.getWidth() - 1, imgOut.getHeight() - 1, 0, 0, imgIn.getWidth() - 1, imgIn.getHeight() - 1, null);
+            g.dispose();
+        } else {
+            resampler.resample(imgIn, imgOut);
+        }
 
         out.data = imgOut;
 
         return CODEC_OK;
     }
 
+    /**
+     * Sets the interpolation rendering hint, and the filter that
+     * corresponds to it.
+     * <p>
+     * {@link RenderingHints#VALUE_INTERPOLATION_NEAREST_NEIGHBOR} selects
+     * the {@link ImageResampler.Filter#BOX} filter,
+     * {@link RenderingHints#VALUE_INTERPOLATION_BILINEAR} the
+     * {@link ImageResampler.Filter#BILINEAR} filter, and
+     * {@link RenderingHints#VALUE_INTERPOLATION_BICUBIC} the
+     * {@link ImageResampler.Filter#BICUBIC} filter.
+     *
+     * @param interpolationRenderingHint a value of
+     *                                   {@link RenderingHints#KEY_INTERPOLATION}
+     */
     public void setInterpolationRenderingHint(Object interpolationRenderingHint) {
         this.interpolationRenderingHint = interpolationRenderingHint;
+        if (interpolationRenderingHint == RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR) {
+            resampler.setFilter(ImageResampler.Filter.BOX);
+        } else if (interpolationRenderingHint == RenderingHints.VALUE_INTERPOLATION_BILINEAR) {
+            resampler.setFilter(ImageResampler.Filter.BILINEAR);
+        } else {
+            resampler.setFilter(ImageResampler.Filter.BICUBIC);
+        }
+    }
+
+    public ImageResampler.Filter getFilter() {
+        return resampler.getFilter();
+    }
+
+    /**
+     * Sets the filter for scaling images that do not have an
+     * {@link IndexColorModel}.
+     * <p>
+     * The {@link ImageResampler.Filter#BOX} filter scales images by a
+     * factor of 1/2 or 1/4 very fast, this is useful for proxies and
+     * thumbnails.
+     *
+     * @param filter the filter
+     */
+    public void setFilter(ImageResampler.Filter filter) {
+        resampler.setFilter(filter);
     }
 }
@@ -8,7 +8,9 @@ import org.monte.media.av.Buffer;
 import org.monte.media.av.BufferFlag;
 import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys.MediaType;
+import org.monte.media.av.RestorableCodec;
 import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ZlibCompressor;
 import org.monte.media.util.ArrayUtil;
 
 import java.awt.Rectangle;
@@ -41,6 +43,7 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_TECHSM
 import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
 import static org.monte.media.av.codec.video.VideoFormatKeys.FixedFrameRateKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.QualityKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
 
 /**
@@ -68,7 +71,9 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  * <p>
  * Compression of a frame is performed in two steps: In the first, step a frame
  * is compressed line by line from bottom to top. In the second step the
- * resulting data is compressed again using zlib compression.
+ * resulting data is compressed again using zlib compression. The
+ * {@code QualityKey} selects the zlib compression level, see
+ * {@link ZlibCompressor#forQuality}. Large frames are compressed in parallel.
  * <p>
  * Apart from the second compression step and the support for 16- and 24-bit
  * data, this encoder is identical to the {@link org.monte.media.avi.codec.video.RunLengthCodec}.
@@ -112,13 +117,20 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  *
  * @author Werner Randelshofer
  */
-public class TechSmithCodec extends AbstractVideoCodec {
+public class TechSmithCodec extends AbstractVideoCodec implements RestorableCodec {
 
     private TechSmithCodecCore state;
     private Object previousPixels;
     private int frameCounter;
     private ColorModel previousColorModel;
     private Object newPixels;
+    private ZlibCompressor compressor;
+
+    /**
+     * The decoder state: the previously decoded pixels and the palette.
+     */
+    private record Snapshot(Object pixels, int[] palette) {
+    }
 
     public TechSmithCodec() {
         super(new Format[]{
@@ -202,6 +214,10 @@ public class TechSmithCodec extends AbstractVideoCodec {
                 outputFormat = outputFormat.prepend(inputFormat.intersectKeys(WidthKey, HeightKey));
             }
         }
+        if (compressor != null) {
+            compressor.close();
+            compressor = null;
+        }
         return this.outputFormat;
     }
 
@@ -211,6 +227,28 @@ public class TechSmithCodec extends AbstractVideoCodec {
         frameCounter = 0;
     }
 
+    @Override
+    public Object createSnapshot() {
+        if (newPixels == null) {
+            return null;
+        }
+        return new Snapshot(ArrayUtil.copyOfArray(newPixels), state == null ? null : state.getPalette().clone());
+    }
+
+    @Override
+    public void restoreSnapshot(Object snapshot) {
+        if (!(snapshot instanceof Snapshot s)) {
+            throw new IllegalArgumentException("Not a snapshot of this codec: " + snapshot);
+        }
+        newPixels = ArrayUtil.copyOfArray(s.pixels());
+        if (state == null) {
+            state = new TechSmithCodecCore();
+        }
+        if (s.palette() != null) {
+            state.setPalette(s.palette());
+        }
+    }
+
     @Override
     public int process(Buffer in, Buffer out) {
         if (state == null) {
@@ -334,6 +372,13 @@ public class TechSmithCodec extends AbstractVideoCodec {
         out.setFlag(KEYFRAME, isKeyframe);
         out.clearFlag(SAME_DATA);
 
+        // The quality selects the zlib compression level. The compressor
+        // survives a reset, so that its pooled deflaters are reused.
+        if (compressor == null) {
+            compressor = ZlibCompressor.forQuality(outputFormat.get(QualityKey, 1f));
+        }
+        state.setCompressor(compressor);
+
         // Handle sub-image
         Rectangle r;
         int scanlineStride;
@@ -7,6 +7,7 @@ package org.monte.media.av.codec.video;
 import org.monte.media.io.ByteArrayImageInputStream;
 import org.monte.media.io.ImageOutputStreamAdapter;
 import org.monte.media.io.UncachedImageInputStream;
+import org.monte.media.io.ZlibCompressor;
 
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
@@ -15,7 +16,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipException;
 
@@ -171,18 +171,34 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
     private byte[] temp2;
     private int[] palette;
     private ByteBuffer bbuf;
+    private ZlibCompressor compressor = new ZlibCompressor();
+    private final DirtyRegionMap dirtyRegions = new DirtyRegionMap();
 
     public TechSmithCodecCore() {
         reset();
     }
 
+    /**
+     * Returns the compressor for the second compression step.
+     */
+    public ZlibCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Sets the compressor for the second compression step.
+     *
+     * @param compressor the compressor
+     */
+    public void setCompressor(ZlibCompressor compressor) {
+        this.compressor = compressor;
+    }
+
     private void deflateBBuf(ImageOutputStream out) throws IOException {
         if (bbuf.position() == 2) {
             out.write(bbuf.array(), 0, 2);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(new ImageOutputStreamAdapter(out));
-            defl.write(bbuf.array(), 0, bbuf.position());
-            defl.finish();
+            compressor.compress(bbuf.array(), 0, bbuf.position(), new ImageOutputStreamAdapter(out));
         }
     }
 
@@ -197,10 +213,10 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
 
         } else {
             // In the worst case, we need:
-            // +3 bytes for every 255 bytes of input data, because we can not compress them.
+            // +3 bytes for every 255 pixels of a scanline, because we can not compress them.
             // +2 bytes for each scanline for the end of scanline marker
             // +2 bytes for the end of image marker
-            needed = depth * width * height + 3 * (width / 255 + 1) + 2 * height + 2;
+            needed = depth * width * height + 3 * (width / 255 + 1) * height + 2 * height + 2;
         }
         if (bbuf == null || bbuf.capacity() < needed) {
             bbuf = ByteBuffer.allocate(needed);
@@ -595,6 +611,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             throws IOException {
 
         ensureBBufCapacity(width, height, 1);
+        dirtyRegions.compute(data, prev, width, height, offset, scanlineStride);
 
         int ymax = offset + height * scanlineStride;
         int upsideDown = ymax - scanlineStride + offset;
@@ -606,8 +623,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-            int skipCount = mismatch < 0 ? xymax - xy : mismatch;
+            int skipCount = dirtyRegions.getSkipCount(data, prev, xy, xymax);
             xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
@@ -627,9 +643,8 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int literalCount = 0;
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
-                // determine skip count
-                mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-                skipCount = mismatch < 0 ? xymax - xy : mismatch;
+                // determine skip count, a pixel that differs starts no skip run
+                skipCount = data[xy] != prev[xy] ? 0 : dirtyRegions.getSkipCount(data, prev, xy, xymax);
 
                 // determine repeat count
                 byte v = data[xy];
@@ -723,6 +738,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             throws IOException {
 
         ensureBBufCapacity(width, height, 3);
+        dirtyRegions.compute(data, prev, width, height, offset, scanlineStride);
 
         int ymax = offset + height * scanlineStride;
         int upsideDown = ymax - scanlineStride + offset;
@@ -734,12 +750,8 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = dirtyRegions.getSkipCount(data, prev, xy, xymax);
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 ++verticalOffset;
@@ -758,13 +770,8 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int literalCount = 0;
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
-                // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                // determine skip count, a pixel that differs starts no skip run
+                skipCount = data[xy] != prev[xy] ? 0 : dirtyRegions.getSkipCount(data, prev, xy, xymax);
 
                 // determine repeat count
                 byte v = data[xy];
@@ -1108,6 +1115,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             throws IOException {
 
         ensureBBufCapacity(width, height, 2);
+        dirtyRegions.compute(data, prev, width, height, offset, scanlineStride);
 
         int ymax = offset + height * scanlineStride;
         int upsideDown = ymax - scanlineStride + offset;
@@ -1119,8 +1127,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-            int skipCount = mismatch < 0 ? xymax - xy : mismatch;
+            int skipCount = dirtyRegions.getSkipCount(data, prev, xy, xymax);
             xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
@@ -1140,9 +1147,8 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int literalCount = 0;
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
-                // determine skip count
-                mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-                skipCount = mismatch < 0 ? xymax - xy : mismatch;
+                // determine skip count, a pixel that differs starts no skip run
+                skipCount = data[xy] != prev[xy] ? 0 : dirtyRegions.getSkipCount(data, prev, xy, xymax);
 
                 // determine repeat count
                 short v = data[xy];
@@ -1320,6 +1326,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
     public void encodeDelta24(ImageOutputStream out, int[] data, int[] prev, int width, int height, int offset, int scanlineStride)
             throws IOException {
         ensureBBufCapacity(width, height, 3);
+        dirtyRegions.compute(data, prev, width, height, offset, scanlineStride);
 
         int ymax = offset + height * scanlineStride;
         int upsideDown = ymax - scanlineStride + offset;
@@ -1332,8 +1339,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-            int skipCount = mismatch < 0 ? xymax - xy : mismatch;
+            int skipCount = dirtyRegions.getSkipCount(data, prev, xy, xymax);
             xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
@@ -1353,9 +1359,8 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int literalCount = 0;
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
-                // determine skip count
-                mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-                skipCount = mismatch < 0 ? xymax - xy : mismatch;
+                // determine skip count, a pixel that differs starts no skip run
+                skipCount = data[xy] != prev[xy] ? 0 : dirtyRegions.getSkipCount(data, prev, xy, xymax);
 
                 // determine repeat count
                 int v = data[xy];
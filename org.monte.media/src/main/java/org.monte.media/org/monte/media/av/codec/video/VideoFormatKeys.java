@@ -136,6 +136,13 @@ public class VideoFormatKeys extends FormatKeys {
      * Encoding quality. Value between 0 and 1.
      */
     public final static FormatKey<Float> QualityKey = new FormatKey<>("quality", Float.class);
+    /**
+     * Whether the encoder chooses the macroblock types by rate-distortion
+     * optimization.
+     * <p>
+     * This yields smaller files at the same quality, but encoding is slower.
+     */
+    public final static FormatKey<Boolean> RateDistortionOptimizationKey = new FormatKey<>("rateDistortionOptimization", Boolean.class);
     /**
      * The affine transformation matrix of the video.
      */
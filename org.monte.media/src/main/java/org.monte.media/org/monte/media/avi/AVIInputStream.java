@@ -10,6 +10,7 @@ import org.monte.media.av.codec.video.AffineTransform;
 import org.monte.media.exception.AbortException;
 import org.monte.media.exception.ParseException;
 import org.monte.media.io.ByteArrayImageInputStream;
+import org.monte.media.io.IOStreams;
 import org.monte.media.math.Rational;
 import org.monte.media.riff.RIFFChunk;
 import org.monte.media.riff.RIFFParser;
@@ -23,7 +24,9 @@ import java.awt.image.IndexColorModel;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
@@ -69,7 +72,10 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  * For detailed information about the AVI 2.0 file format see:<br>
  * <a href="http://www.the-labs.com/Video/odmlff2-avidef.pdf">OpenDML AVI File Format Extensions, Version 1.02</a><br>
  * <p>
- * FIXME - This class lacks readSample() methods.
+ * An instance of this class is not thread-safe. However, multiple instances
+ * can share the same input and the same meta-data, see
+ * {@link #AVIInputStream(AVIInputStream)}. Each of these instances can be used
+ * by a different thread.
  *
  * @author Werner Randelshofer
  */
@@ -79,6 +85,16 @@ public class AVIInputStream extends AbstractAVIStream {
      * The image input stream.
      */
     protected final ImageInputStream in;
+    /**
+     * The file channel of the input file, or null if the input is not a file.
+     * The channel is used for reading sample data with positional reads.
+     */
+    protected final FileChannel channel;
+    /**
+     * True, if this instance shares the input and the meta-data with another
+     * instance.
+     */
+    private final boolean isShared;
     /**
      * This variable is set to true when all meta-data has been read from the
      * file.
@@ -94,8 +110,10 @@ public class AVIInputStream extends AbstractAVIStream {
      * @param file the input file
      */
     public AVIInputStream(File file) throws IOException {
-
-        this.in = new FileImageInputStream(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        this.in = new FileImageInputStream(raf);
+        this.channel = raf.getChannel();
+        this.isShared = false;
         in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         this.streamOffset = 0;
     }
@@ -107,10 +125,38 @@ public class AVIInputStream extends AbstractAVIStream {
      */
     public AVIInputStream(ImageInputStream in) throws IOException {
         this.in = in;
+        this.channel = null;
+        this.isShared = false;
         this.streamOffset = in.getStreamPosition();
         in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
     }
 
+    /**
+     * Creates a new instance that shares the input and the meta-data with the
+     * specified instance.
+     * <p>
+     * The meta-data is not changed after it has been read. Therefore, the
+     * instances only read sample data from the shared input.
+     * <p>
+     * Closing the new instance does not close the input. The new instance
+     * can not be used anymore after the specified instance has been closed.
+     *
+     * @param shared the instance that owns the input
+     * @throws IOException if reading the meta-data fails
+     */
+    public AVIInputStream(AVIInputStream shared) throws IOException {
+        shared.ensureRealized();
+        this.in = shared.in;
+        this.channel = shared.channel;
+        this.isShared = true;
+        this.streamOffset = shared.streamOffset;
+        this.isRealized = true;
+        this.mainHeader = shared.mainHeader;
+        this.idx1 = shared.idx1;
+        this.moviOffset = shared.moviOffset;
+        this.tracks = shared.tracks;
+    }
+
     /**
      * Ensures that all meta-data has been read from the file.
      */
@@ -443,13 +489,37 @@ public class AVIInputStream extends AbstractAVIStream {
     public int readSample(int track, int sample, byte[] data, int off, int len) throws IOException {
         AbstractAVIStream.Track tr = tracks.get(track);
         AbstractAVIStream.Sample s = tr.samples.get(sample);
-        in.seek(s.offset);
         if (len < s.length) throw new IOException("len=" + len + " is too small. Should be at least len=" + s.length);
         int bytesRead = Math.min((int) s.length, len);
-        in.readFully(data, off, bytesRead);
+        readFully(s.offset, data, off, bytesRead);
         return bytesRead;
     }
 
+    /**
+     * Reads bytes from the specified position of the input.
+     * <p>
+     * If the input is a file, this method performs a positional read on the
+     * file channel. Otherwise, it seeks and reads on the image input stream
+     * while holding its lock, so that instances that share the stream do
+     * not interfere with each other.
+     *
+     * @param position the stream position
+     * @param b        the target array
+     * @param off      the offset in the target array
+     * @param len      the number of bytes to read
+     * @throws IOException if reading fails
+     */
+    protected void readFully(long position, byte[] b, int off, int len) throws IOException {
+        if (channel != null) {
+            IOStreams.readFully(channel, position, b, off, len);
+        } else {
+            synchronized (in) {
+                in.seek(position);
+                in.readFully(b, off, len);
+            }
+        }
+    }
+
     /**
      * Reads an AVI Stream Header and returns a Track object.
      */
@@ -770,13 +840,13 @@ public class AVIInputStream extends AbstractAVIStream {
                 tr.samples.add(s);
             }
         }
-
-        for (Track tr : tracks) {
-            tr.readIndex = 0;
-        }
     }
 
     public void close() throws IOException {
+        if (isShared) {
+            tracks = new ArrayList<>();
+            return;
+        }
         in.close();
         for (Track tr : tracks) {
             tr.samples.clear();
@@ -21,6 +21,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
@@ -574,6 +575,64 @@ public class AVIOutputStream extends AbstractAVIStream {
         }
     }
 
+    /**
+     * Copies multiple already encoded samples from a file channel into a
+     * track.
+     * <p> This method does not inspect the contents of the data. The contents
+     * has to match the format and dimensions of the media in this track.
+     *
+     * @param track       The track index.
+     * @param sampleCount The number of samples.
+     * @param in          The file channel which holds the encoded sample data.
+     * @param position    The position of the sample data in the file channel.
+     * @param length      The number of bytes to copy. Must be dividable by
+     *                    sampleCount.
+     * @param isKeyframe  Whether the samples are sync samples. All samples must
+     *                    either be sync samples or non-sync samples.
+     * @throws IOException if copying the sample data failed.
+     */
+    public void writeSamples(int track, int sampleCount, FileChannel in, long position, long length, boolean isKeyframe) throws IOException {
+        ensureStarted();
+        Track tr = tracks.get(track);
+        if (sampleCount <= 0 || length % sampleCount != 0) {
+            throw new IllegalArgumentException("length must be divisable by sampleCount length=" + length + " sampleCount=" + sampleCount + " track=" + track);
+        }
+        if (tr.mediaType == AVIMediaType.AUDIO) {
+            writeChunk(tr, sampleCount, in, position, length, isKeyframe | tr.samples.isEmpty());
+            tr.length += sampleCount;
+        } else {
+            // The first sample in a track is always a key frame
+            if (!isKeyframe && tr.samples.isEmpty()) {
+                throw new IllegalStateException("The first sample in a track must be a keyframe.\nTrack=" + track + ", " + tr.format);
+            }
+            // If a stream has palette changes, then only palette change samples can
+            // be marked as keyframe.
+            if (isKeyframe && 0 != (tr.flags & STRH_FLAG_VIDEO_PALETTE_CHANGES)) {
+                throw new IllegalStateException("Only palette changes can be marked as keyframe.\nTrack=" + track + ", " + tr.format);
+            }
+            long sampleLength = length / sampleCount;
+            for (int i = 0; i < sampleCount; i++) {
+                writeChunk(tr, 1, in, position, sampleLength, isKeyframe);
+                position += sampleLength;
+            }
+        }
+    }
+
+    private void writeChunk(Track tr, int sampleCount, FileChannel in, long position, long length, boolean isKeyframe) throws IOException {
+        DataChunk dc = new DataChunk(tr.getSampleChunkFourCC(isKeyframe), length);
+        moviChunk.add(dc);
+        ImageOutputStream mdatOut = dc.getOutputStream();
+        long offset = getRelativeStreamPosition();
+        IOStreams.copy(in, position, length, mdatOut);
+        dc.finish();
+        Sample s = new Sample(dc.chunkType, sampleCount, offset, length, isKeyframe);
+        tr.addSample(s);
+        idx1.add(s);
+        if (getRelativeStreamPosition() > 1L << 32) {
+            throw new IOException("AVI file is larger than 4 GB");
+        }
+    }
+
     /**
      * Returns the duration of the track in media time scale units.
      *
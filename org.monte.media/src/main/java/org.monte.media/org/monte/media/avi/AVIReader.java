@@ -7,10 +7,13 @@ package org.monte.media.avi;
 import org.monte.media.av.Buffer;
 import org.monte.media.av.BufferFlag;
 import org.monte.media.av.Codec;
+import org.monte.media.av.DecodedFrameCache;
 import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys.MediaType;
 import org.monte.media.av.MovieReader;
 import org.monte.media.av.Registry;
+import org.monte.media.av.RestorableCodec;
+import org.monte.media.av.StreamCopySource;
 import org.monte.media.av.codec.video.VideoFormatKeys;
 import org.monte.media.math.Rational;
 import org.monte.media.util.ArrayUtil;
@@ -20,7 +23,9 @@ import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
@@ -43,10 +48,21 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_I
 /**
  * Provides high-level support for decoding and reading audio and video samples
  * from an AVI 1.0 file.
+ * <p>
+ * A reader is not thread-safe. For reading a movie concurrently with multiple
+ * threads, create one reader per thread with {@link #AVIReader(AVIReader)}.
+ * The readers share the open file and the meta-data, but each has its own
+ * read positions and codecs.
+ * <p>
+ * After {@link #setMovieReadTime}, {@link #read(int, BufferedImage)} decodes
+ * all samples from the preceding key frame up to the requested time.
+ * A reader can keep recently decoded frames and snapshots of the codec state
+ * in a cache, see {@link #setFrameCacheSize}. This makes repeated seeks
+ * within the same group of pictures much cheaper.
  *
  * @author Werner Randelshofer
  */
-public class AVIReader extends AVIInputStream implements MovieReader {
+public class AVIReader extends AVIInputStream implements StreamCopySource {
     private static class TrackEncoder {
         /**
          * The codec.
@@ -59,6 +75,21 @@ public class AVIReader extends AVIInputStream implements MovieReader {
     private List<TrackEncoder> trackEncoders = new ArrayList<>();
     public final static Format AVI = new Format(MediaTypeKey, MediaType.FILE, MimeTypeKey, MIME_AVI);
     private Rational movieDuration = null;
+    /**
+     * The read index of each track.
+     */
+    private int[] readIndex = null;
+    /**
+     * The sample that {@link #read(int, BufferedImage)} must deliver after a
+     * seek, or -1.
+     */
+    private int[] seekIndex = null;
+    /**
+     * The sample that the codec state of each track reflects, or -1.
+     */
+    private int[] decodedIndex = null;
+    private final DecodedFrameCache frameCache = new DecodedFrameCache(0);
+    private boolean keyframesOnly;
 
     public AVIReader(ImageInputStream in) throws IOException {
         super(in);
@@ -68,6 +99,70 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         super(file);
     }
 
+    /**
+     * Creates a new instance that shares the input and the meta-data with the
+     * specified reader.
+     * <p>
+     * The new reader has its own read positions and codecs. It can be used
+     * by a different thread than the specified reader. If the specified
+     * reader was created from a file, the readers read sample data with
+     * positional reads on the file channel, and thus do not block each other.
+     * <p>
+     * The new reader can not be used anymore after the specified reader has
+     * been closed.
+     *
+     * @param reader the reader that owns the input
+     * @throws IOException if reading the meta-data fails
+     */
+    public AVIReader(AVIReader reader) throws IOException {
+        super(reader);
+    }
+
+    @Override
+    protected void ensureRealized() throws IOException {
+        super.ensureRealized();
+        if (readIndex == null) {
+            readIndex = new int[tracks.size()];
+            seekIndex = new int[tracks.size()];
+            decodedIndex = new int[tracks.size()];
+            Arrays.fill(seekIndex, -1);
+            Arrays.fill(decodedIndex, -1);
+        }
+    }
+
+
+    @Override
+    public FileChannel getFileChannel() {
+        return channel;
+    }
+
+    @Override
+    public long getSampleOffset(int track, long sample) throws IOException {
+        ensureRealized();
+        return tracks.get(track).samples.get((int) sample).offset;
+    }
+
+    @Override
+    public long getSampleLength(int track, long sample) throws IOException {
+        ensureRealized();
+        return tracks.get(track).samples.get((int) sample).length;
+    }
+
+    @Override
+    public boolean isSyncSample(int track, long sample) throws IOException {
+        ensureRealized();
+        return tracks.get(track).samples.get((int) sample).isKeyframe;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * AVI tracks do not have headers. This method always returns null.
+     */
+    @Override
+    public Object getTrackHeader(int track) {
+        return null;
+    }
 
     @Override
     public Format getFileFormat() throws IOException {
@@ -99,23 +194,25 @@ public class AVIReader extends AVIInputStream implements MovieReader {
     public void read(int track, Buffer buffer) throws IOException {
         ensureRealized();
         AbstractAVIStream.Track tr = tracks.get(track);
-        int sampleIndex = tr.readIndex;
+        if (keyframesOnly) {
+            readIndex[track] = findNextKeyframe(track, readIndex[track]);
+        }
+        int sampleIndex = readIndex[track];
         if (sampleIndex >= tr.samples.size()) {
             buffer.setFlagsTo(END_OF_MEDIA, DISCARD);
             buffer.length = 0;
             return;
         }
 
-        buffer.sequenceNumber = tr.readIndex;
-        AbstractAVIStream.Sample s = tr.samples.get((int) tr.readIndex);
+        buffer.sequenceNumber = sampleIndex;
+        AbstractAVIStream.Sample s = tr.samples.get(sampleIndex);
 
         // FIXME - This should be done using AVIInputStream.readPalette()
         if (s.header != null) {
             byte[] b;
             buffer.header = b = ArrayUtil.reuseByteArray(buffer.header, (int) s.header.length);
             buffer.headerLength = (int) s.header.length;
-            in.seek(s.header.offset);
-            in.readFully(b, 0, (int) s.header.length);
+            readFully(s.header.offset, b, 0, (int) s.header.length);
         } else {
             buffer.headerLength = 0;
         }
@@ -146,9 +243,8 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         buffer.timeStamp = new Rational((s.timeStamp + tr.startTime) * tr.scale, tr.rate);
         buffer.flags = s.isKeyframe ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
 
-
-        tr.readIndex++;
-
+        readIndex[track]++;
+        seekIndex[track] = -1;
     }
 
     /**
@@ -193,6 +289,7 @@ public class AVIReader extends AVIInputStream implements MovieReader {
      * @throws IOException
      */
     public BufferedImage read(int track, BufferedImage img) throws IOException {
+        ensureRealized();
         AbstractAVIStream.Track tr = tracks.get(track);
         TrackEncoder tre = getTrackEncoder(track);
         if (tre.inputBuffer == null) {
@@ -201,18 +298,113 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         if (tre.codec == null) {
             createCodec(track);
         }
+        int target = keyframesOnly ? findNextKeyframe(track, readIndex[track]) : max(readIndex[track], seekIndex[track]);
+        seekIndex[track] = -1;
+        if (target < tr.samples.size()) {
+            DecodedFrameCache.Entry cached = frameCache.get(track, target);
+            if (cached != null) {
+                restoreCodec(track, target, cached.snapshot());
+                readIndex[track] = target + 1;
+                return DecodedFrameCache.copyImage(cached.image(), img);
+            }
+            readIndex[track] = findDecodeStart(track, target);
+        }
+
         Buffer buf = new Buffer();
         buf.data = img;
         do {
             read(track, tre.inputBuffer);
             tre.codec.process(tre.inputBuffer, buf);
-        } while (buf.isFlag(DISCARD) && !buf.isFlag(END_OF_MEDIA));
+            decodedIndex[track] = buf.isFlag(DISCARD) ? -1 : (int) tre.inputBuffer.sequenceNumber;
+        } while ((buf.isFlag(DISCARD) || readIndex[track] <= target) && !buf.isFlag(END_OF_MEDIA));
 
         if (tre.inputBuffer.isFlag(END_OF_MEDIA)) {
             return null;
         }
 
-        return (BufferedImage) buf.data;
+        BufferedImage image = (BufferedImage) buf.data;
+        if (frameCache.isEnabled()) {
+            frameCache.put(track, decodedIndex[track], image,
+                    tre.codec instanceof RestorableCodec rc ? rc.createSnapshot() : null);
+        }
+        return image;
+    }
+
+    /**
+     * Returns the sample from which decoding must start, so that the codec
+     * state reflects the sample before the target sample. Restores the codec
+     * state from the frame cache if possible.
+     */
+    private int findDecodeStart(int track, int target) {
+        int decoded = decodedIndex[track];
+        if (decoded >= 0 && decoded == target - 1) {
+            return target;
+        }
+        List<Sample> samples = tracks.get(track).samples;
+        int keyframe = target;
+        while (keyframe > 0 && !samples.get(keyframe).isKeyframe) {
+            keyframe--;
+        }
+        if (decoded >= keyframe && decoded < target) {
+            return decoded + 1;
+        }
+        if (getTrackEncoder(track).codec instanceof RestorableCodec) {
+            long cached = frameCache.findSnapshot(track, keyframe, target);
+            if (cached >= 0) {
+                restoreCodec(track, (int) cached, frameCache.get(track, cached).snapshot());
+                return (int) cached + 1;
+            }
+        }
+        return keyframe;
+    }
+
+    private void restoreCodec(int track, int sample, Object snapshot) {
+        if (snapshot != null && getTrackEncoder(track).codec instanceof RestorableCodec rc) {
+            rc.restoreSnapshot(snapshot);
+            decodedIndex[track] = sample;
+        } else {
+            decodedIndex[track] = -1;
+        }
+    }
+
+    /**
+     * Returns the index of the first key frame at or after the specified
+     * sample, or the number of samples if there is none.
+     */
+    private int findNextKeyframe(int track, int sample) {
+        List<Sample> samples = tracks.get(track).samples;
+        while (sample < samples.size() && !samples.get(sample).isKeyframe) {
+            sample++;
+        }
+        return sample;
+    }
+
+    @Override
+    public void setKeyframesOnly(boolean newValue) {
+        keyframesOnly = newValue;
+    }
+
+    @Override
+    public boolean isKeyframesOnly() {
+        return keyframesOnly;
+    }
+
+    /**
+     * Sets the maximal size of the cache for decoded frames and codec
+     * snapshots in bytes. The cache is disabled by default.
+     *
+     * @param newValue the maximal size in bytes, 0 disables the cache
+     */
+    public void setFrameCacheSize(long newValue) {
+        frameCache.setMaxSize(newValue);
+    }
+
+    /**
+     * Returns the maximal size of the cache for decoded frames and codec
+     * snapshots in bytes.
+     */
+    public long getFrameCacheSize() {
+        return frameCache.getMaxSize();
     }
 
     private void createCodec(int track) throws IOException {
@@ -245,11 +437,16 @@ public class AVIReader extends AVIInputStream implements MovieReader {
 
     @Override
     public Rational getReadTime(int track) throws IOException {
+        ensureRealized();
         AbstractAVIStream.Track tr = tracks.get(track);
-        if (tr.samples.size() > tr.readIndex) {
-            AbstractAVIStream.Sample s = tr.samples.get((int) tr.readIndex);
+        if (tr.samples.size() > readIndex[track]) {
+            AbstractAVIStream.Sample s = tr.samples.get(readIndex[track]);
             return new Rational((s.timeStamp + tr.startTime) * tr.scale, tr.rate);
         }
+        if (!tr.samples.isEmpty()) {
+            // we are at the end of the track
+            return getSampleTime(track, readIndex[track]);
+        }
         return new Rational(0, 1);
     }
 
@@ -265,15 +462,15 @@ public class AVIReader extends AVIInputStream implements MovieReader {
                 continue;
             }
 
-            AbstractAVIStream.Sample currentSample = tr.readIndex < tr.samples.size() ? tr.samples.get((int) tr.readIndex) : tr.samples.get(tr.samples.size() - 1);
+            AbstractAVIStream.Sample currentSample = readIndex[i] < tr.samples.size() ? tr.samples.get(readIndex[i]) : tr.samples.get(tr.samples.size() - 1);
 
             long readTimeStamp = currentSample.timeStamp;
-            if (tr.readIndex >= tr.samples.size()) {
+            if (readIndex[i] >= tr.samples.size()) {
                 readTimeStamp += currentSample.duration;
             }
 
             Rational trts = new Rational((readTimeStamp + tr.startTime) * tr.scale, tr.rate);
-            if (trts.compareTo(ts) < 0 && tr.readIndex < tr.samples.size()) {
+            if (trts.compareTo(ts) < 0 && readIndex[i] < tr.samples.size()) {
                 ts = trts;
                 nextTrack = i;
             }
@@ -312,7 +509,8 @@ public class AVIReader extends AVIInputStream implements MovieReader {
     }
 
     @Override
-    public long findSampleAtTime(int track, Rational time) {
+    public long findSampleAtTime(int track, Rational time) throws IOException {
+        ensureRealized();
         AbstractAVIStream.Track tr = tracks.get(track);
         Sample key = new Sample(0, 0, 0, 0, false);
         key.timeStamp = time.multiply(new Rational(tr.rate, tr.scale)).longValue();
@@ -354,9 +552,11 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         ensureRealized();
         for (int t = 0, n = tracks.size(); t < n; t++) {
             AbstractAVIStream.Track tr = tracks.get(t);
-            int sample = (int) min(findSampleAtTime(t, newValue), tr.samples.size() - 1);
+            int target = (int) min(findSampleAtTime(t, newValue), tr.samples.size() - 1);
+            int sample = target;
             for (; sample > 0 && !tr.samples.get(sample).isKeyframe; sample--) ;
-            tr.readIndex = sample;
+            readIndex[t] = sample;
+            seekIndex[t] = target;
         }
     }
 
@@ -372,7 +572,7 @@ public class AVIReader extends AVIInputStream implements MovieReader {
     }
 
     private TrackEncoder getTrackEncoder(int track) {
-        while (trackEncoders.size() < track) {
+        while (trackEncoders.size() <= track) {
             trackEncoders.add(new TrackEncoder());
         }
         return trackEncoders.get(track);
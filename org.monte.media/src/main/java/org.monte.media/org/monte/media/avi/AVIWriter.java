@@ -10,6 +10,7 @@ import org.monte.media.av.Codec;
 import org.monte.media.av.Format;
 import org.monte.media.av.MovieWriter;
 import org.monte.media.av.Registry;
+import org.monte.media.av.StreamCopySink;
 import org.monte.media.io.ByteArrayImageOutputStream;
 import org.monte.media.math.Rational;
 import org.monte.media.riff.RIFFParser;
@@ -19,6 +20,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -48,6 +50,7 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.CompressorNameKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.DataClassKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.DepthKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_DIB;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_DOSBOX_SCREEN_CAPTURE;
 import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_MJPG;
 import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_PNG;
 import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_RLE8;
@@ -66,7 +69,7 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  *
  * @author Werner Randelshofer
  */
-public class AVIWriter extends AVIOutputStream implements MovieWriter {
+public class AVIWriter extends AVIOutputStream implements StreamCopySink {
     private static class TrackEncoder {
         /**
          * The codec.
@@ -94,6 +97,9 @@ public class AVIWriter extends AVIOutputStream implements MovieWriter {
     public final static Format VIDEO_SCREEN_CAPTURE = new Format(
             MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
             EncodingKey, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE, CompressorNameKey, COMPRESSOR_NAME_QUICKTIME_RAW);
+    public final static Format VIDEO_DOSBOX_SCREEN_CAPTURE = new Format(
+            MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+            EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, CompressorNameKey, COMPRESSOR_NAME_QUICKTIME_RAW);
 
     /**
      * Creates a new AVI writer.
@@ -353,6 +359,55 @@ public class AVIWriter extends AVIOutputStream implements MovieWriter {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The sample duration is ignored, because AVI tracks have a fixed sample
+     * rate.
+     */
+    @Override
+    public void copySamples(int track, int sampleCount, FileChannel in, long position, long length, Rational sampleDuration, boolean isSync) throws IOException {
+        writeSamples(track, sampleCount, in, position, length, isSync);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The sample duration is ignored, because AVI tracks have a fixed sample
+     * rate.
+     */
+    @Override
+    public void copySamples(int track, int sampleCount, byte[] data, int off, int len, Rational sampleDuration, boolean isSync) throws IOException {
+        writeSamples(track, sampleCount, data, off, len, isSync);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * AVI tracks do not have headers. This method accepts only null.
+     */
+    @Override
+    public void setTrackHeader(int track, Object header) {
+        if (header != null) {
+            throw new IllegalArgumentException("Unsupported header " + header + " for track " + track);
+        }
+    }
+
+    @Override
+    public Rational getMediaEndTime(int track) {
+        return getDuration(track);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * AVI files do not support edit lists. This method always returns false.
+     */
+    @Override
+    public boolean addEdit(int track, Rational mediaTime, Rational duration) {
+        return false;
+    }
+
     private TrackEncoder getTrackEncoder(int track) {
         while (trackEncoders.size() <= track) {
             trackEncoders.add(new TrackEncoder());
@@ -491,10 +491,6 @@ public abstract class AbstractAVIStream {
          */
         protected String name;
 
-        /**
-         * The current chunk index of the reader.
-         */
-        public int readIndex = 0;
         /**
          * List of additional header chunks.
          */
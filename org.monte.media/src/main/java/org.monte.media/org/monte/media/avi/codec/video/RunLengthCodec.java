@@ -7,6 +7,7 @@ package org.monte.media.avi.codec.video;
 import org.monte.media.av.Buffer;
 import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys.MediaType;
+import org.monte.media.av.RestorableCodec;
 import org.monte.media.av.codec.video.AbstractVideoCodec;
 import org.monte.media.io.ByteArrayImageOutputStream;
 import org.monte.media.util.ArrayUtil;
@@ -118,7 +119,7 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  *
  * @author Werner Randelshofer
  */
-public class RunLengthCodec extends AbstractVideoCodec {
+public class RunLengthCodec extends AbstractVideoCodec implements RestorableCodec {
 
     private byte[] previousPixels;
     private int frameCounter;
@@ -166,6 +167,24 @@ public class RunLengthCodec extends AbstractVideoCodec {
         frameCounter = 0;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The snapshot holds the previously decoded pixels.
+     */
+    @Override
+    public Object createSnapshot() {
+        return ArrayUtil.copyOfArray(newPixels);
+    }
+
+    @Override
+    public void restoreSnapshot(Object snapshot) {
+        if (!(snapshot instanceof byte[])) {
+            throw new IllegalArgumentException("Not a snapshot of this codec: " + snapshot);
+        }
+        newPixels = ArrayUtil.copyOfArray(snapshot);
+    }
+
     @Override
     public int process(Buffer in, Buffer out) {
         if (outputFormat == null) return CODEC_FAILED;
@@ -9,20 +9,34 @@ import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys.MediaType;
 import org.monte.media.av.codec.video.AbstractVideoCodec;
 import org.monte.media.image.BufferedImageWithColorModel;
+import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ZlibCompressor;
+import org.monte.media.util.ArrayUtil;
 
+import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
 import java.awt.image.DataBufferUShort;
 import java.awt.image.DirectColorModel;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.zip.Deflater;
 
 import static java.lang.Math.abs;
+import static java.lang.Math.min;
 import static org.monte.media.av.BufferFlag.DISCARD;
 import static org.monte.media.av.BufferFlag.KEYFRAME;
 import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.KeyFrameIntervalKey;
+import static org.monte.media.av.FormatKeys.MIME_AVI;
 import static org.monte.media.av.FormatKeys.MIME_JAVA;
 import static org.monte.media.av.FormatKeys.MediaTypeKey;
 import static org.monte.media.av.FormatKeys.MimeTypeKey;
@@ -32,16 +46,30 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_DOSBOX
 import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
 import static org.monte.media.av.codec.video.VideoFormatKeys.FixedFrameRateKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.MotionSearchRangeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.QualityKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
 
 
 /**
  * Implements the DosBox Capture Codec {@code "ZMBV"}.
  * <p>
- * This codec currently only supports decoding from the file format into
- * a {@code BufferedImage}. Encoding support may be added in the future.
+ * This codec supports encoding from a {@code BufferedImage} into the file
+ * format, and decoding from the file format to a {@code BufferedImage}.
  * <p>
- * For details seee {@link ZMBVCodecCore}.
+ * The encoder supports images with 8, 15, 16 or 32 bits per pixel. It
+ * divides a frame into blocks of 16 x 16 pixels, and searches for each block
+ * a motion vector into the previous frame. This compresses scrolling screen
+ * content much better than the {@code TechSmithCodec}. The
+ * {@code MotionSearchRangeKey} limits the motion vectors, a range of 0
+ * disables the motion search. The {@code QualityKey} selects the zlib
+ * compression level, see {@link ZlibCompressor#forQuality}.
+ * <p>
+ * Images with RGB 555 pixels are encoded in the 15-bit video mode, and
+ * images with RGB 565 pixels in the 16-bit video mode, whatever the depth of
+ * the output format is.
+ * <p>
+ * For details see {@link ZMBVCodecCore}.
  * </p>
  *
  * @author Werner Randelshofer
@@ -51,15 +79,40 @@ public class ZMBVCodec extends AbstractVideoCodec {
     private ZMBVCodecCore state;
     private Object oldPixels;
     private Object newPixels;
+    private int frameCounter;
+    /**
+     * The zlib compression level and strategy, selected by the quality of
+     * the output format.
+     */
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+    /**
+     * Converts images with 15-bit or 16-bit pixels in another layout.
+     */
+    private BufferedImage converter16;
 
     public ZMBVCodec() {
         super(new Format[]{
                         new Format(MediaTypeKey, MediaType.VIDEO,
                                 EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class, FixedFrameRateKey, true), //
+                        new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                                EncodingKey, ENCODING_BUFFERED_IMAGE, FixedFrameRateKey, true), //
                 },
                 new Format[]{
                         new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
                                 EncodingKey, ENCODING_BUFFERED_IMAGE, FixedFrameRateKey, true), //
+                        new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                                EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                                FixedFrameRateKey, true, DepthKey, 8), //
+                        new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                                EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                                FixedFrameRateKey, true, DepthKey, 15), //
+                        new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                                EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                                FixedFrameRateKey, true, DepthKey, 16), //
+                        new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                                EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                                FixedFrameRateKey, true, DepthKey, 32), //
                 });
         name = "ZMBV Codec";
     }
@@ -72,16 +125,35 @@ public class ZMBVCodec extends AbstractVideoCodec {
         // Enforce these properties
         if (outputFormat != null) {
             if (inputFormat != null) {
-                outputFormat = outputFormat.prepend(inputFormat.intersectKeys(WidthKey, HeightKey, DepthKey));
+                if (ENCODING_AVI_DOSBOX_SCREEN_CAPTURE.equals(outputFormat.get(EncodingKey))) {
+                    outputFormat = outputFormat.prepend(inputFormat.intersectKeys(WidthKey, HeightKey));
+                } else {
+                    outputFormat = outputFormat.prepend(inputFormat.intersectKeys(WidthKey, HeightKey, DepthKey));
+                }
             }
+
+            // The quality selects the zlib compression level, like in the
+            // TechSmith codec.
+            ZlibCompressor compression = ZlibCompressor.forQuality(outputFormat.get(QualityKey, 1f));
+            compressionLevel = compression.getLevel();
+            compressionStrategy = compression.getStrategy();
         }
         return this.outputFormat;
     }
 
+    @Override
+    public void reset() {
+        state = null;
+        frameCounter = 0;
+    }
 
     @Override
     public int process(Buffer in, Buffer out) {
-        return decode(in, out);
+        if (ENCODING_AVI_DOSBOX_SCREEN_CAPTURE.equals(outputFormat.get(EncodingKey))) {
+            return encode(in, out);
+        } else {
+            return decode(in, out);
+        }
     }
 
     public int decode(Buffer in, Buffer out) {
@@ -116,17 +188,17 @@ public class ZMBVCodec extends AbstractVideoCodec {
         switch (depth) {
             case 8: {
                 int imgType = BufferedImage.TYPE_BYTE_INDEXED;
+                // BufferedImage.getRGB() uses the color model that is passed
+                // to the constructor, therefore the image is created with the
+                // current palette.
+                int[] cmap = state.getPalette();
+                IndexColorModel icm = new IndexColorModel(8, 256, cmap, 0, false, -1, DataBuffer.TYPE_BYTE);
                 if (img == null || img.getWidth() != width || img.getHeight() != height || img.getType() != imgType) {
-                    int[] cmap = new int[256];
-                    IndexColorModel icm = new IndexColorModel(8, 256, cmap, 0, false, -1, DataBuffer.TYPE_BYTE);
                     img = new BufferedImageWithColorModel(width, height, imgType, icm);
                 } else {
                     BufferedImageWithColorModel oldImg = img;
-                    img = new BufferedImageWithColorModel(oldImg.getColorModel(), oldImg.getRaster(), oldImg.isAlphaPremultiplied(), null);
+                    img = new BufferedImageWithColorModel(icm, oldImg.getRaster(), oldImg.isAlphaPremultiplied(), null);
                 }
-                int[] cmap = state.getPalette();
-                IndexColorModel icm = new IndexColorModel(8, 256, cmap, 0, false, -1, DataBuffer.TYPE_BYTE);
-                img.setColorModel(icm);
                 byte[] pixels = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
                 System.arraycopy((byte[]) newPixels, 0, pixels, 0, width * height);
             }
@@ -147,7 +219,7 @@ public class ZMBVCodec extends AbstractVideoCodec {
             case 16: {
                 int imgType = BufferedImage.TYPE_USHORT_565_RGB;
                 if (img == null || img.getWidth() != width || img.getHeight() != height || img.getType() != imgType) {
-                    DirectColorModel cm = new DirectColorModel(15, 0x1f << 11, 0x3f << 5, 0x1f << 0);
+                    DirectColorModel cm = new DirectColorModel(16, 0x1f << 11, 0x3f << 5, 0x1f << 0);
                     img = new BufferedImageWithColorModel(cm, Raster.createWritableRaster(cm.createCompatibleSampleModel(width, height), new Point(0, 0)), false);
                 } else {
                     BufferedImageWithColorModel oldImg = img;
@@ -157,7 +229,19 @@ public class ZMBVCodec extends AbstractVideoCodec {
                 System.arraycopy((short[]) newPixels, 0, pixels, 0, width * height);
             }
             break;
-            case 32:
+            case 32: {
+                int imgType = BufferedImage.TYPE_INT_RGB;
+                if (img == null || img.getWidth() != width || img.getHeight() != height || img.getType() != imgType) {
+                    DirectColorModel cm = new DirectColorModel(24, 0xff << 16, 0xff << 8, 0xff);
+                    img = new BufferedImageWithColorModel(cm, Raster.createWritableRaster(cm.createCompatibleSampleModel(width, height), new Point(0, 0)), false);
+                } else {
+                    BufferedImageWithColorModel oldImg = img;
+                    img = new BufferedImageWithColorModel(oldImg.getColorModel(), oldImg.getRaster(), oldImg.isAlphaPremultiplied(), null);
+                }
+                int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+                System.arraycopy((int[]) newPixels, 0, pixels, 0, width * height);
+            }
+            break;
             default:
                 throw new UnsupportedOperationException("Unsupported depth:" + depth);
         }
@@ -171,4 +255,165 @@ public class ZMBVCodec extends AbstractVideoCodec {
         return CODEC_OK;
     }
 
+    public int encode(Buffer in, Buffer out) {
+        out.setMetaTo(in);
+        out.format = outputFormat;
+        if (in.isFlag(DISCARD)) {
+            return CODEC_OK;
+        }
+        if (state == null) {
+            state = new ZMBVCodecCore();
+        }
+
+        ByteArrayImageOutputStream tmp = new ByteArrayImageOutputStream(ArrayUtil.reuseByteArray(out.data, 32));
+        tmp.clear();
+
+        boolean isKeyframe = frameCounter++ % outputFormat.get(KeyFrameIntervalKey, 60) == 0;
+
+        // A negative motion search range selects the default.
+        state.setCompression(compressionLevel, compressionStrategy);
+        int motionSearchRange = outputFormat.get(MotionSearchRangeKey, ZMBVCodecCore.MAX_MOTION_SEARCH_RANGE);
+        state.setMotionSearchRange(motionSearchRange < 0 ? ZMBVCodecCore.MAX_MOTION_SEARCH_RANGE
+                : min(motionSearchRange, ZMBVCodecCore.MAX_MOTION_SEARCH_RANGE));
+
+        // Handle sub-image
+        Rectangle r;
+        int scanlineStride;
+        if (in.data instanceof BufferedImage) {
+            BufferedImage image = (BufferedImage) in.data;
+            WritableRaster raster = image.getRaster();
+            scanlineStride = raster.getSampleModel().getWidth();
+            r = raster.getBounds();
+            r.x -= raster.getSampleModelTranslateX();
+            r.y -= raster.getSampleModelTranslateY();
+        } else {
+            r = new Rectangle(0, 0, outputFormat.get(WidthKey), outputFormat.get(HeightKey));
+            scanlineStride = outputFormat.get(WidthKey);
+        }
+        int offset = r.x + r.y * scanlineStride;
+        int width = outputFormat.get(WidthKey);
+        int height = outputFormat.get(HeightKey);
+
+        try {
+            switch (outputFormat.get(DepthKey)) {
+                case 8: {
+                    byte[] pixels = getIndexed8(in);
+                    ColorModel cm = getColorModel(in);
+                    if (pixels == null || !(cm instanceof IndexColorModel)) {
+                        out.setFlag(DISCARD);
+                        return CODEC_FAILED;
+                    }
+                    IndexColorModel icm = (IndexColorModel) cm;
+                    int[] palette = new int[256];
+                    icm.getRGBs(palette);
+                    isKeyframe = state.encode8(tmp, pixels, palette, width, height, offset, scanlineStride, isKeyframe);
+                    break;
+                }
+                case 15:
+                case 16: {
+                    // The pixels are encoded in the layout of the image, so
+                    // that 555 images are not converted to 565 or vice versa.
+                    // Images with another layout are converted into the
+                    // layout of the output format.
+                    short[] pixels = null;
+                    int videoMode = getVideoMode16(in.data);
+                    if (videoMode == ZMBVCodecCore.VIDEOMODE_NONE) {
+                        videoMode = outputFormat.get(DepthKey) == 15
+                                ? ZMBVCodecCore.VIDEOMODE_15_BIT_BGR : ZMBVCodecCore.VIDEOMODE_16_BIT_BGR;
+                        if (in.data instanceof BufferedImage) {
+                            pixels = convert16((BufferedImage) in.data, videoMode);
+                            offset = 0;
+                            scanlineStride = width;
+                        }
+                    }
+                    if (pixels == null) {
+                        pixels = videoMode == ZMBVCodecCore.VIDEOMODE_15_BIT_BGR ? getRGB15(in) : getRGB16(in);
+                    }
+                    if (pixels == null) {
+                        out.setFlag(DISCARD);
+                        return CODEC_FAILED;
+                    }
+                    isKeyframe = state.encode16(tmp, pixels, videoMode, width, height, offset, scanlineStride, isKeyframe);
+                    break;
+                }
+                case 32: {
+                    int[] pixels = getRGB24(in);
+                    if (pixels == null) {
+                        out.setFlag(DISCARD);
+                        return CODEC_FAILED;
+                    }
+                    isKeyframe = state.encode32(tmp, pixels, width, height, offset, scanlineStride, isKeyframe);
+                    break;
+                }
+                default: {
+                    out.setFlag(DISCARD);
+                    return CODEC_FAILED;
+                }
+            }
+
+            // The palette is part of the encoded data
+            out.header = null;
+            out.setFlag(KEYFRAME, isKeyframe);
+            out.format = outputFormat;
+            out.data = tmp.getBuffer();
+            out.offset = 0;
+            out.sampleCount = 1;
+            out.length = (int) tmp.length();
+            return CODEC_OK;
+        } catch (IOException ex) {
+            out.exception = ex;
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
+    }
+
+    /**
+     * Returns the video mode that matches the layout of the pixels of a
+     * 15-bit or 16-bit image.
+     *
+     * @param data the data of the input buffer
+     * @return {@link ZMBVCodecCore#VIDEOMODE_15_BIT_BGR} for RGB 555 pixels,
+     * {@link ZMBVCodecCore#VIDEOMODE_16_BIT_BGR} for RGB 565 pixels, and
+     * {@link ZMBVCodecCore#VIDEOMODE_NONE} for all other data
+     */
+    private static int getVideoMode16(Object data) {
+        if (data instanceof BufferedImage) {
+            BufferedImage image = (BufferedImage) data;
+            DataBuffer db = image.getRaster().getDataBuffer();
+            if (image.getColorModel() instanceof DirectColorModel
+                    && (db instanceof DataBufferUShort || db instanceof DataBufferShort)) {
+                DirectColorModel dcm = (DirectColorModel) image.getColorModel();
+                if (dcm.getBlueMask() == 0x1f && dcm.getAlphaMask() == 0) {
+                    if (dcm.getRedMask() == 0x7c00 && dcm.getGreenMask() == 0x3e0) {
+                        return ZMBVCodecCore.VIDEOMODE_15_BIT_BGR;
+                    }
+                    if (dcm.getRedMask() == 0xf800 && dcm.getGreenMask() == 0x7e0) {
+                        return ZMBVCodecCore.VIDEOMODE_16_BIT_BGR;
+                    }
+                }
+            }
+        }
+        return ZMBVCodecCore.VIDEOMODE_NONE;
+    }
+
+    /**
+     * Converts an image into RGB 555 or RGB 565 pixels.
+     *
+     * @param image     the image
+     * @param videoMode {@link ZMBVCodecCore#VIDEOMODE_15_BIT_BGR} or
+     *                  {@link ZMBVCodecCore#VIDEOMODE_16_BIT_BGR}
+     * @return the pixels, with a scanline stride of the width of the image
+     */
+    private short[] convert16(BufferedImage image, int videoMode) {
+        int type = videoMode == ZMBVCodecCore.VIDEOMODE_15_BIT_BGR
+                ? BufferedImage.TYPE_USHORT_555_RGB : BufferedImage.TYPE_USHORT_565_RGB;
+        if (converter16 == null || converter16.getType() != type
+                || converter16.getWidth() != image.getWidth() || converter16.getHeight() != image.getHeight()) {
+            converter16 = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        }
+        Graphics2D g = converter16.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return ((DataBufferUShort) converter16.getRaster().getDataBuffer()).getData();
+    }
 }
@@ -8,12 +8,17 @@ import org.monte.media.io.AppendableByteArrayInputStream;
 import org.monte.media.io.ByteArrayImageInputStream;
 import org.monte.media.io.UncachedImageInputStream;
 import org.monte.media.util.ArrayUtil;
+import org.monte.media.util.stream.RangeStream;
 
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Deflater;
 import java.util.zip.InflaterInputStream;
 
+import static java.lang.Math.abs;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
@@ -156,6 +161,35 @@ public class ZMBVCodecCore {
     private byte[] blockDataBuf;
     private byte[] blockHeaderBuf;
 
+    /**
+     * The width and height of the blocks that the encoder writes.
+     */
+    public final static int BLOCK_SIZE = 16;
+    /**
+     * The largest motion vector component that the encoder writes. The
+     * block info has 7 bits for each component.
+     */
+    public final static int MAX_MOTION_SEARCH_RANGE = 63;
+    private Deflater deflater;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+    private int motionSearchRange = MAX_MOTION_SEARCH_RANGE;
+    private int encodedVideoFormat;
+    private int encodedWidth, encodedHeight;
+    /**
+     * The pixels of the current and of the previous frame. One int per pixel.
+     */
+    private int[] encodedPixels, previousEncodedPixels;
+    private int[] rowHashes, previousRowHashes;
+    /**
+     * The block info of the current frame. Two bytes per block, padded to
+     * four bytes.
+     */
+    private byte[] blockInfo;
+    private int[] encodedPalette;
+    private byte[] frameBuf;
+    private byte[] deflateBuf;
+
     /**
      * Decodes to 32-bit RGB.
      * Returns true if a key-frame was decoded.
@@ -1121,6 +1155,451 @@ public class ZMBVCodecCore {
         }
     }
 
+    /**
+     * Sets the zlib compression level and strategy of the encoder. The new
+     * values take effect with the next key frame.
+     *
+     * @param level    the compression level, 0-9 or
+     *                 {@link Deflater#DEFAULT_COMPRESSION}
+     * @param strategy the compression strategy
+     */
+    public void setCompression(int level, int strategy) {
+        compressionLevel = level;
+        compressionStrategy = strategy;
+    }
+
+    /**
+     * Sets the range of the motion search of the encoder. A range of 0
+     * disables the motion search.
+     *
+     * @param range the largest motion vector component, 0 to
+     *              {@value #MAX_MOTION_SEARCH_RANGE}
+     */
+    public void setMotionSearchRange(int range) {
+        if (range < 0 || range > MAX_MOTION_SEARCH_RANGE) {
+            throw new IllegalArgumentException("Motion search range must be between 0 and " + MAX_MOTION_SEARCH_RANGE + ", range=" + range);
+        }
+        motionSearchRange = range;
+    }
+
+    /**
+     * Encodes an 8-bit frame with a palette.
+     *
+     * @param out            the output stream
+     * @param data           the palette indices
+     * @param palette        the palette, 256 RGB values
+     * @param width          the width of the image
+     * @param height         the height of the image
+     * @param offset         the offset to the first pixel in the data array
+     * @param scanlineStride the number to add to offset to get to the next
+     *                       scanline
+     * @param isKeyframe     whether a key frame is requested
+     * @return true if a key frame was encoded
+     */
+    public boolean encode8(ImageOutputStream out, byte[] data, int[] palette, int width, int height, int offset, int scanlineStride, boolean isKeyframe)
+            throws IOException {
+        isKeyframe |= prepareEncoding(VIDEOMODE_8_BIT_PALETTIZED, width, height);
+        int[] pixels = encodedPixels;
+        RangeStream.range(0, height).parallel().forEach((lo, hi) -> {
+            for (int y = lo; y < hi; y++) {
+                for (int x = 0, i = y * width, j = offset + y * scanlineStride; x < width; x++) {
+                    pixels[i++] = data[j++] & 0xff;
+                }
+            }
+        });
+        encodeFrame(out, palette, isKeyframe);
+        return isKeyframe;
+    }
+
+    /**
+     * Encodes a 15-bit or a 16-bit frame.
+     *
+     * @param out            the output stream
+     * @param data           the RGB 555 or RGB 565 pixels
+     * @param videoFormat    {@link #VIDEOMODE_15_BIT_BGR} or
+     *                       {@link #VIDEOMODE_16_BIT_BGR}
+     * @param width          the width of the image
+     * @param height         the height of the image
+     * @param offset         the offset to the first pixel in the data array
+     * @param scanlineStride the number to add to offset to get to the next
+     *                       scanline
+     * @param isKeyframe     whether a key frame is requested
+     * @return true if a key frame was encoded
+     */
+    public boolean encode16(ImageOutputStream out, short[] data, int videoFormat, int width, int height, int offset, int scanlineStride, boolean isKeyframe)
+            throws IOException {
+        if (videoFormat != VIDEOMODE_15_BIT_BGR && videoFormat != VIDEOMODE_16_BIT_BGR) {
+            throw new IllegalArgumentException("Illegal video format for 16-bit data: " + videoFormat);
+        }
+        isKeyframe |= prepareEncoding(videoFormat, width, height);
+        int[] pixels = encodedPixels;
+        RangeStream.range(0, height).parallel().forEach((lo, hi) -> {
+            for (int y = lo; y < hi; y++) {
+                for (int x = 0, i = y * width, j = offset + y * scanlineStride; x < width; x++) {
+                    pixels[i++] = data[j++] & 0xffff;
+                }
+            }
+        });
+        encodeFrame(out, null, isKeyframe);
+        return isKeyframe;
+    }
+
+    /**
+     * Encodes a 32-bit frame.
+     *
+     * @param out            the output stream
+     * @param data           the RGB pixels, the alpha channel is ignored
+     * @param width          the width of the image
+     * @param height         the height of the image
+     * @param offset         the offset to the first pixel in the data array
+     * @param scanlineStride the number to add to offset to get to the next
+     *                       scanline
+     * @param isKeyframe     whether a key frame is requested
+     * @return true if a key frame was encoded
+     */
+    public boolean encode32(ImageOutputStream out, int[] data, int width, int height, int offset, int scanlineStride, boolean isKeyframe)
+            throws IOException {
+        isKeyframe |= prepareEncoding(VIDEOMODE_32_BIT_BGR, width, height);
+        int[] pixels = encodedPixels;
+        RangeStream.range(0, height).parallel().forEach((lo, hi) -> {
+            for (int y = lo; y < hi; y++) {
+                for (int x = 0, i = y * width, j = offset + y * scanlineStride; x < width; x++) {
+                    pixels[i++] = data[j++] & 0xffffff;
+                }
+            }
+        });
+        encodeFrame(out, null, isKeyframe);
+        return isKeyframe;
+    }
+
+    /**
+     * Prepares the encoder buffers for a frame.
+     *
+     * @return true if a key frame must be encoded
+     */
+    private boolean prepareEncoding(int videoFormat, int width, int height) {
+        boolean mustBeKeyframe = previousEncodedPixels == null || deflater == null
+                || videoFormat != encodedVideoFormat || width != encodedWidth || height != encodedHeight;
+        if (mustBeKeyframe) {
+            encodedVideoFormat = videoFormat;
+            encodedWidth = width;
+            encodedHeight = height;
+            encodedPixels = new int[width * height];
+            previousEncodedPixels = new int[width * height];
+            rowHashes = new int[height];
+            previousRowHashes = new int[height];
+            int nbx = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int nby = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            blockInfo = new byte[(nbx * nby * 2 + 3) & ~3];
+            frameBuf = new byte[768 + blockInfo.length + width * height * getBytesPerPixel(videoFormat)];
+            deflateBuf = new byte[64 * 1024];
+        }
+        return mustBeKeyframe;
+    }
+
+    private static int getBytesPerPixel(int videoFormat) {
+        return switch (videoFormat) {
+            case VIDEOMODE_8_BIT_PALETTIZED -> 1;
+            case VIDEOMODE_15_BIT_BGR, VIDEOMODE_16_BIT_BGR -> 2;
+            case VIDEOMODE_32_BIT_BGR -> 4;
+            default -> throw new IllegalArgumentException("Unsupported video format " + videoFormat);
+        };
+    }
+
+    /**
+     * Encodes the pixels in {@link #encodedPixels}.
+     */
+    private void encodeFrame(ImageOutputStream out, int[] palette, boolean isKeyframe) throws IOException {
+        int width = encodedWidth, height = encodedHeight;
+        int bpp = getBytesPerPixel(encodedVideoFormat);
+        int[] cur = encodedPixels, prev = previousEncodedPixels;
+        byte[] buf = frameBuf;
+        int n = 0;
+
+        if (motionSearchRange > 0) {
+            computeRowHashes(cur, rowHashes, width, height);
+        }
+        if (isKeyframe) {
+            // A key frame starts a new zlib stream
+            if (deflater == null) {
+                deflater = new Deflater();
+            } else {
+                deflater.reset();
+            }
+            deflater.setLevel(compressionLevel);
+            deflater.setStrategy(compressionStrategy);
+            out.write(1); // flags: intraframe
+            out.write(0); // major version
+            out.write(1); // minor version
+            out.write(COMPRESSION_ZLIB);
+            out.write(encodedVideoFormat);
+            out.write(BLOCK_SIZE); // block width
+            out.write(BLOCK_SIZE); // block height
+
+            if (palette != null) {
+                encodedPalette = palette.clone();
+                for (int i = 0; i < 256; i++) {
+                    int rgb = palette[i];
+                    buf[n++] = (byte) (rgb >>> 16);
+                    buf[n++] = (byte) (rgb >>> 8);
+                    buf[n++] = (byte) rgb;
+                }
+            }
+            int start = n;
+            RangeStream.range(0, height).parallel().forEach((lo, hi) -> {
+                writePixels(cur, lo * width, hi * width, buf, start + lo * width * bpp, bpp);
+            });
+            n += width * height * bpp;
+        } else {
+            boolean isPaletteChange = false;
+            if (palette != null) {
+                for (int i = 0; i < 256; i++) {
+                    if (((palette[i] ^ encodedPalette[i]) & 0xffffff) != 0) {
+                        isPaletteChange = true;
+                        break;
+                    }
+                }
+            }
+            out.write(isPaletteChange ? 2 : 0); // flags: interframe, palette change
+            if (isPaletteChange) {
+                for (int i = 0; i < 256; i++) {
+                    int xor = palette[i] ^ encodedPalette[i];
+                    buf[n++] = (byte) (xor >>> 16);
+                    buf[n++] = (byte) (xor >>> 8);
+                    buf[n++] = (byte) xor;
+                }
+                encodedPalette = palette.clone();
+            }
+
+            // Find the motion vectors
+            searchMotion(cur, prev, width, height);
+            System.arraycopy(blockInfo, 0, buf, n, blockInfo.length);
+            n += blockInfo.length;
+
+            // Compute the offsets of the block differences, and write them
+            int nbx = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int nby = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int[] rowOffsets = new int[nby + 1];
+            rowOffsets[0] = n;
+            for (int by = 0, block = 0; by < nby; by++) {
+                int bh = min(height - by * BLOCK_SIZE, BLOCK_SIZE);
+                int size = 0;
+                for (int bx = 0; bx < nbx; bx++, block++) {
+                    if ((blockInfo[block * 2] & 1) != 0) {
+                        size += min(width - bx * BLOCK_SIZE, BLOCK_SIZE) * bh * bpp;
+                    }
+                }
+                rowOffsets[by + 1] = rowOffsets[by] + size;
+            }
+            RangeStream.range(0, nby).parallel(1).forEach(by -> {
+                int i = rowOffsets[by];
+                int y0 = by * BLOCK_SIZE;
+                int bh = min(height - y0, BLOCK_SIZE);
+                for (int bx = 0, block = by * nbx; bx < nbx; bx++, block++) {
+                    int a = blockInfo[block * 2];
+                    if ((a & 1) != 0) {
+                        int x0 = bx * BLOCK_SIZE;
+                        int bw = min(width - x0, BLOCK_SIZE);
+                        int d = (a >> 1) + (blockInfo[block * 2 + 1] >> 1) * width;
+                        for (int y = 0; y < bh; y++) {
+                            for (int x = 0, xy = x0 + (y0 + y) * width; x < bw; x++, xy++) {
+                                int v = cur[xy] ^ prev[xy + d];
+                                for (int b = 0; b < bpp; b++) {
+                                    buf[i++] = (byte) (v >>> (b * 8));
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            n = rowOffsets[nby];
+        }
+
+        // Compress the data. The zlib stream continues until the next key frame.
+        // After a change of the level or the strategy, the deflater may
+        // return before it has consumed all input, so we also loop until it
+        // needs input.
+        deflater.setInput(buf, 0, n);
+        int count;
+        do {
+            count = deflater.deflate(deflateBuf, 0, deflateBuf.length, Deflater.SYNC_FLUSH);
+            out.write(deflateBuf, 0, count);
+        } while (count == deflateBuf.length || !deflater.needsInput());
+
+        encodedPixels = prev;
+        previousEncodedPixels = cur;
+        int[] swap = rowHashes;
+        rowHashes = previousRowHashes;
+        previousRowHashes = swap;
+    }
+
+    /**
+     * Writes pixels as little-endian values into a byte array.
+     */
+    private static void writePixels(int[] pixels, int from, int to, byte[] buf, int off, int bpp) {
+        switch (bpp) {
+            case 1 -> {
+                for (int i = from; i < to; i++) {
+                    buf[off++] = (byte) pixels[i];
+                }
+            }
+            case 2 -> {
+                for (int i = from; i < to; i++) {
+                    int v = pixels[i];
+                    buf[off++] = (byte) v;
+                    buf[off++] = (byte) (v >>> 8);
+                }
+            }
+            default -> {
+                for (int i = from; i < to; i++) {
+                    int v = pixels[i];
+                    buf[off++] = (byte) v;
+                    buf[off++] = (byte) (v >>> 8);
+                    buf[off++] = (byte) (v >>> 16);
+                    buf[off++] = (byte) (v >>> 24);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a hash code for each scanline. The encoder compares the hash
+     * codes of the current and the previous frame to detect vertical
+     * scrolling.
+     */
+    private static void computeRowHashes(int[] pixels, int[] hashes, int width, int height) {
+        RangeStream.range(0, height).parallel().forEach((lo, hi) -> {
+            for (int y = lo; y < hi; y++) {
+                int h = 1;
+                for (int i = y * width, end = i + width; i < end; i++) {
+                    h = 31 * h + pixels[i];
+                }
+                hashes[y] = h;
+            }
+        });
+    }
+
+    /**
+     * Estimates the vertical motion of the entire frame. Returns the offset
+     * at which the most scanlines of the previous frame match the current
+     * frame.
+     */
+    private int estimateVerticalMotion(int height) {
+        int bestDy = 0, bestCount = -1;
+        for (int dy = 0; dy <= motionSearchRange; dy = dy > 0 ? -dy : 1 - dy) {
+            int count = 0;
+            for (int y = max(0, -dy), ymax = min(height, height - dy); y < ymax; y++) {
+                if (rowHashes[y] == previousRowHashes[y + dy]) {
+                    count++;
+                }
+            }
+            if (count > bestCount) {
+                bestDy = dy;
+                bestCount = count;
+            }
+        }
+        return bestDy;
+    }
+
+    /**
+     * Finds a motion vector for each block and stores it in
+     * {@link #blockInfo}.
+     * <p>
+     * The search tries the zero vector, the vector of the block to the left,
+     * the vector of the same block in the previous frame, and the vertical
+     * motion of the entire frame. Then it refines the best candidate with a
+     * small diamond search, if some of the pixels match. The search of a
+     * block stops as soon as a vector with an exact match is found. The rows
+     * of blocks are searched in parallel.
+     */
+    private void searchMotion(int[] cur, int[] prev, int width, int height) {
+        int nbx = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int nby = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int range = motionSearchRange;
+        int globalDy = range > 0 ? estimateVerticalMotion(height) : 0;
+        byte[] info = blockInfo;
+        RangeStream.range(0, nby).parallel(1).forEach(by -> {
+            int y0 = by * BLOCK_SIZE;
+            int bh = min(height - y0, BLOCK_SIZE);
+            int leftDx = 0, leftDy = 0;
+            for (int bx = 0, block = by * nbx; bx < nbx; bx++, block++) {
+                int x0 = bx * BLOCK_SIZE;
+                int bw = min(width - x0, BLOCK_SIZE);
+                int bestDx = 0, bestDy = 0;
+                int best = getBlockCost(cur, prev, width, x0, y0, bw, bh, 0, 0, Integer.MAX_VALUE);
+                if (best > 0 && range > 0) {
+                    int[] candidates = {leftDx, leftDy, info[block * 2] >> 1, info[block * 2 + 1] >> 1, 0, globalDy};
+                    for (int c = 0; c < candidates.length && best > 0; c += 2) {
+                        int dx = candidates[c], dy = candidates[c + 1];
+                        if ((dx != bestDx || dy != bestDy) && isInside(x0 + dx, y0 + dy, bw, bh, dx, dy, width, height, range)) {
+                            int cost = getBlockCost(cur, prev, width, x0, y0, bw, bh, dx, dy, best);
+                            if (cost < best) {
+                                best = cost;
+                                bestDx = dx;
+                                bestDy = dy;
+                            }
+                        }
+                    }
+                    // Refine the vector only if it matches the block
+                    // at least partially. This avoids a futile search in
+                    // noisy content.
+                    for (int step = 0; step < range && best > 0 && best < bw * bh * 7 / 8; step++) {
+                        int centerDx = bestDx, centerDy = bestDy;
+                        for (int d = 0; d < 4 && best > 0; d++) {
+                            int dx = centerDx + (d == 0 ? -1 : d == 1 ? 1 : 0);
+                            int dy = centerDy + (d == 2 ? -1 : d == 3 ? 1 : 0);
+                            if (isInside(x0 + dx, y0 + dy, bw, bh, dx, dy, width, height, range)) {
+                                int cost = getBlockCost(cur, prev, width, x0, y0, bw, bh, dx, dy, best);
+                                if (cost < best) {
+                                    best = cost;
+                                    bestDx = dx;
+                                    bestDy = dy;
+                                }
+                            }
+                        }
+                        if (bestDx == centerDx && bestDy == centerDy) {
+                            break;
+                        }
+                    }
+                }
+                info[block * 2] = (byte) ((bestDx << 1) | (best > 0 ? 1 : 0));
+                info[block * 2 + 1] = (byte) (bestDy << 1);
+                leftDx = bestDx;
+                leftDy = bestDy;
+            }
+        });
+    }
+
+    private static boolean isInside(int x, int y, int bw, int bh, int dx, int dy, int width, int height, int range) {
+        return abs(dx) <= range && abs(dy) <= range
+                && x >= 0 && y >= 0 && x + bw <= width && y + bh <= height;
+    }
+
+    /**
+     * Returns the number of pixels of a block that differ from the block at
+     * the offset dx, dy in the previous frame. Stops counting when the
+     * limit is reached.
+     */
+    private static int getBlockCost(int[] cur, int[] prev, int width, int x0, int y0, int bw, int bh, int dx, int dy, int limit) {
+        int cost = 0;
+        for (int y = 0; y < bh; y++) {
+            int i = x0 + (y0 + y) * width;
+            int j = i + dx + dy * width;
+            int m = Arrays.mismatch(cur, i, i + bw, prev, j, j + bw);
+            if (m >= 0) {
+                for (int x = m; x < bw; x++) {
+                    if (cur[i + x] != prev[j + x]) {
+                        cost++;
+                    }
+                }
+                if (cost >= limit) {
+                    return cost;
+                }
+            }
+        }
+        return cost;
+    }
+
     public int[] getPalette() {
         if (palette == null) {
             palette = new int[256];
@@ -0,0 +1,762 @@
+/*
+ * @(#)ColorQuantizer.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.color;
+
+import org.monte.media.util.stream.RangeStream;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reduces the colors of true-color images to a palette with up to 256
+ * colors.
+ * <p>
+ * The palette is computed with Xiaolin Wu's color quantizer on a histogram
+ * with 5 bits per channel. The pixels are mapped to the palette through an
+ * inverse color table with 32768 entries, one for each 15-bit color.
+ * Optionally, the pixels are dithered with an ordered 4x4 Bayer matrix or
+ * with Floyd-Steinberg error diffusion.
+ * <p>
+ * When a sequence of frames is quantized, the palette of the previous frame
+ * is reused as long as it represents the new frame nearly as well as the
+ * frame it was computed for. When a new palette is computed, colors that
+ * are also in the previous palette keep their index. This keeps the
+ * indices of unchanged pixels stable, which is important for delta
+ * encoders.
+ * <p>
+ * Histograms, dithering and mapping are computed in parallel bands of rows.
+ * Error diffusion starts anew in each band. The histogram has one partial
+ * histogram per thread, which are merged in parallel ranges of cells.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Werner Randelshofer
+ */
+public class ColorQuantizer {
+    /**
+     * Dithering methods.
+     */
+    public enum Dither {
+        /**
+         * Maps each pixel to the nearest palette color.
+         */
+        NONE,
+        /**
+         * Adds an ordered 4x4 Bayer matrix to the pixels. Pixels with a
+         * color that is in the palette are not dithered.
+         */
+        ORDERED,
+        /**
+         * Diffuses the quantization error with the Floyd-Steinberg weights.
+         */
+        ERROR_DIFFUSION
+    }
+
+    /**
+     * Number of cells per axis of the histogram, plus one for the zero
+     * plane of the cumulative moments.
+     */
+    private static final int SIDE = 33;
+    /**
+     * Number of entries of the inverse color table.
+     */
+    private static final int LUT_SIZE = 1 << 15;
+    /**
+     * Images with at least this number of pixels are processed in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    /**
+     * Minimal number of rows of a band.
+     */
+    private static final int MIN_BAND_HEIGHT = 16;
+    /**
+     * A new palette is computed, if the mean squared error of the current
+     * palette grows by this factor...
+     */
+    private static final double REBUILD_RATIO = 1.5;
+    /**
+     * ...and by at least this amount.
+     */
+    private static final double REBUILD_MIN_INCREASE = 4;
+    private static final int[] BAYER_4X4 = {
+            0, 8, 2, 10,
+            12, 4, 14, 6,
+            3, 11, 1, 9,
+            15, 7, 13, 5};
+
+    private int maxColors = 256;
+    private Dither dither = Dither.NONE;
+    private boolean reusePalette = true;
+
+    private int[] palette = new int[0];
+    private IndexColorModel colorModel;
+    private final byte[] lut = new byte[LUT_SIZE];
+    /**
+     * The mean squared error of the palette for the frame that it was
+     * computed for.
+     */
+    private double paletteError;
+
+    /**
+     * Partial histograms, one per thread: the number of pixels in each cell,
+     * and the sums of the offsets of the channel values from the cell
+     * origin.
+     */
+    private int[][] bandCounts = new int[0][];
+    private int[][] bandSums = new int[0][];
+    private final long[] counts = new long[LUT_SIZE];
+    private final long[] sums = new long[LUT_SIZE * 3];
+    private int[] argb = new int[0];
+
+    /**
+     * Creates a new instance, which computes palettes with up to 256 colors
+     * and does not dither.
+     */
+    public ColorQuantizer() {
+    }
+
+    public int getMaxColors() {
+        return maxColors;
+    }
+
+    /**
+     * Sets the maximal number of colors of the palette.
+     *
+     * @param maxColors the number of colors in the range [2, 256]
+     */
+    public void setMaxColors(int maxColors) {
+        if (maxColors < 2 || maxColors > 256) {
+            throw new IllegalArgumentException("maxColors must be in the range [2, 256], maxColors=" + maxColors);
+        }
+        if (this.maxColors != maxColors) {
+            this.maxColors = maxColors;
+            reset();
+        }
+    }
+
+    public Dither getDither() {
+        return dither;
+    }
+
+    public void setDither(Dither dither) {
+        if (dither == null) {
+            throw new IllegalArgumentException("dither must not be null");
+        }
+        this.dither = dither;
+    }
+
+    public boolean isReusePalette() {
+        return reusePalette;
+    }
+
+    /**
+     * Sets whether the palette of the previous frame is reused if it still
+     * represents the colors of the frame well.
+     */
+    public void setReusePalette(boolean reusePalette) {
+        this.reusePalette = reusePalette;
+    }
+
+    /**
+     * Forgets the palette.
+     */
+    public void reset() {
+        palette = new int[0];
+        colorModel = null;
+    }
+
+    /**
+     * Returns the color model of the last quantized image, or null.
+     */
+    public IndexColorModel getColorModel() {
+        return colorModel;
+    }
+
+    /**
+     * Quantizes an image.
+     *
+     * @param img            the image, alpha is ignored
+     * @param dst            the destination array for the palette indices
+     * @param offset         the index of the first pixel in the destination
+     *                       array
+     * @param scanlineStride the number of array elements to add to get to
+     *                       the next row
+     * @return true if the palette has changed
+     */
+    public boolean quantize(BufferedImage img, byte[] dst, int offset, int scanlineStride) {
+        int width = img.getWidth(), height = img.getHeight();
+        int[] pixels;
+        int pixelOffset, pixelStride;
+        if (img.getColorModel() instanceof DirectColorModel dcm && dcm.getRedMask() == 0xff0000
+                && dcm.getGreenMask() == 0xff00 && dcm.getBlueMask() == 0xff
+                && img.getRaster().getDataBuffer() instanceof DataBufferInt dbi
+                && img.getSampleModel() instanceof SinglePixelPackedSampleModel sppsm) {
+            pixels = dbi.getData();
+            pixelOffset = dbi.getOffset() + sppsm.getOffset(
+                    -img.getRaster().getSampleModelTranslateX(), -img.getRaster().getSampleModelTranslateY());
+            pixelStride = sppsm.getScanlineStride();
+        } else {
+            if (argb.length < width * height) {
+                argb = new int[width * height];
+            }
+            int[] a = argb;
+            forEachBand(getBandCount(width, height), height, (i, lo, hi) -> img.getRGB(0, lo, width, hi - lo, a, lo * width, width));
+            pixels = argb;
+            pixelOffset = 0;
+            pixelStride = width;
+        }
+
+        computeHistogram(pixels, pixelOffset, pixelStride, width, height);
+        boolean changed = false;
+        if (palette.length == 0 || !reusePalette
+                || computeError(palette) > Math.max(paletteError * REBUILD_RATIO, paletteError + REBUILD_MIN_INCREASE)) {
+            int[] newPalette = arrangePalette(computePalette(), palette);
+            changed = !Arrays.equals(newPalette, palette);
+            if (changed) {
+                palette = newPalette;
+                colorModel = new IndexColorModel(8, palette.length, palette, 0, false, -1, DataBuffer.TYPE_BYTE);
+                computeLut();
+            }
+            paletteError = computeError(palette);
+        }
+
+        int[] pal = palette;
+        Dither d = dither;
+        forEachBand(getBandCount(width, height), height, (band, lo, hi) -> {
+            switch (d) {
+                case NONE -> mapPixels(pixels, pixelOffset, pixelStride, dst, offset, scanlineStride, width, lo, hi);
+                case ORDERED ->
+                        mapPixelsOrdered(pal, pixels, pixelOffset, pixelStride, dst, offset, scanlineStride, width, lo, hi);
+                case ERROR_DIFFUSION ->
+                        mapPixelsDiffused(pal, pixels, pixelOffset, pixelStride, dst, offset, scanlineStride, width, lo, hi);
+            }
+        });
+        return changed;
+    }
+
+    /**
+     * Processes a band of rows.
+     */
+    private interface BandConsumer {
+        void accept(int band, int lo, int hi);
+    }
+
+    /**
+     * Splits the rows into bands, and processes the bands in parallel if
+     * there is more than one band.
+     *
+     * @param bandCount the number of bands, see {@link #getBandCount}
+     * @param height    the number of rows
+     * @param consumer  the consumer of the bands
+     */
+    private static void forEachBand(int bandCount, int height, BandConsumer consumer) {
+        if (bandCount < 2) {
+            consumer.accept(0, 0, height);
+        } else {
+            RangeStream.range(0, bandCount).parallel(1).forEach((int i) ->
+                    consumer.accept(i, height * i / bandCount, height * (i + 1) / bandCount));
+        }
+    }
+
+    private static int getBandCount(int width, int height) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (parallelism < 2 || (long) width * height < PARALLEL_THRESHOLD) {
+            return 1;
+        }
+        return Math.max(1, Math.min(height / MIN_BAND_HEIGHT, parallelism * 4));
+    }
+
+    private static int toLutIndex(int rgb) {
+        return (rgb >>> 9) & 0x7c00 | (rgb >>> 6) & 0x3e0 | (rgb >>> 3) & 0x1f;
+    }
+
+    private void computeHistogram(int[] pixels, int offset, int scanlineStride, int width, int height) {
+        // Counting pixels takes the same time for each row. Therefore, we
+        // only need one band per thread, and thus one partial histogram per
+        // thread, which keeps the time for clearing and merging them low.
+        int bandCount = Math.min(getBandCount(width, height), ForkJoinPool.getCommonPoolParallelism());
+        if (bandCounts.length < bandCount) {
+            bandCounts = new int[bandCount][LUT_SIZE];
+            bandSums = new int[bandCount][LUT_SIZE * 3];
+        }
+        forEachBand(bandCount, height, (band, lo, hi) -> {
+            int[] count = bandCounts[band];
+            int[] sum = bandSums[band];
+            Arrays.fill(count, 0);
+            Arrays.fill(sum, 0);
+            for (int y = lo; y < hi; y++) {
+                for (int xy = offset + y * scanlineStride, xymax = xy + width; xy < xymax; xy++) {
+                    int rgb = pixels[xy];
+                    int i = toLutIndex(rgb);
+                    count[i]++;
+                    sum[i * 3] += (rgb >>> 16) & 7;
+                    sum[i * 3 + 1] += (rgb >>> 8) & 7;
+                    sum[i * 3 + 2] += rgb & 7;
+                }
+            }
+        });
+
+        // Merge the partial histograms in parallel ranges of cells, and
+        // convert the offsets into channel values
+        RangeStream cells = RangeStream.range(0, LUT_SIZE);
+        if (bandCount > 1) {
+            cells.parallel(LUT_SIZE / 16);
+        }
+        int[][] partialCounts = bandCounts;
+        int[][] partialSums = bandSums;
+        cells.forEach((lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                long n = 0, r = 0, g = 0, b = 0;
+                for (int band = 0; band < bandCount; band++) {
+                    int[] sum = partialSums[band];
+                    n += partialCounts[band][i];
+                    r += sum[i * 3];
+                    g += sum[i * 3 + 1];
+                    b += sum[i * 3 + 2];
+                }
+                counts[i] = n;
+                sums[i * 3] = r + n * ((i >>> 10) << 3);
+                sums[i * 3 + 1] = g + n * (((i >>> 5) & 31) << 3);
+                sums[i * 3 + 2] = b + n * ((i & 31) << 3);
+            }
+        });
+    }
+
+    /**
+     * Computes the mean squared error of the palette for the histogram.
+     */
+    private double computeError(int[] pal) {
+        double error = 0;
+        long total = 0;
+        for (int i = 0; i < LUT_SIZE; i++) {
+            long n = counts[i];
+            if (n != 0) {
+                int p = pal[lut[i] & 0xff];
+                double dr = (double) sums[i * 3] / n - ((p >>> 16) & 0xff);
+                double dg = (double) sums[i * 3 + 1] / n - ((p >>> 8) & 0xff);
+                double db = (double) sums[i * 3 + 2] / n - (p & 0xff);
+                error += n * (dr * dr + dg * dg + db * db);
+                total += n;
+            }
+        }
+        return total == 0 ? 0 : error / total;
+    }
+
+    /**
+     * Computes a palette for the histogram with Wu's algorithm.
+     * <p>
+     * References:<br>
+     * Xiaolin Wu, Efficient statistical computations for optimal color
+     * quantization, Graphics Gems II, 1991, pp. 126-133.
+     */
+    private int[] computePalette() {
+        // cumulative moments, the zero planes stay zero
+        long[] wt = new long[SIDE * SIDE * SIDE];
+        long[] mr = new long[SIDE * SIDE * SIDE];
+        long[] mg = new long[SIDE * SIDE * SIDE];
+        long[] mb = new long[SIDE * SIDE * SIDE];
+        double[] m2 = new double[SIDE * SIDE * SIDE];
+        for (int i = 0; i < LUT_SIZE; i++) {
+            long n = counts[i];
+            if (n != 0) {
+                int j = index((i >>> 10) + 1, ((i >>> 5) & 31) + 1, (i & 31) + 1);
+                wt[j] = n;
+                mr[j] = sums[i * 3];
+                mg[j] = sums[i * 3 + 1];
+                mb[j] = sums[i * 3 + 2];
+                m2[j] = ((double) mr[j] * mr[j] + (double) mg[j] * mg[j] + (double) mb[j] * mb[j]) / n;
+            }
+        }
+        long[] area = new long[SIDE], areaR = new long[SIDE], areaG = new long[SIDE], areaB = new long[SIDE];
+        double[] area2 = new double[SIDE];
+        for (int r = 1; r < SIDE; r++) {
+            Arrays.fill(area, 0);
+            Arrays.fill(areaR, 0);
+            Arrays.fill(areaG, 0);
+            Arrays.fill(areaB, 0);
+            Arrays.fill(area2, 0);
+            for (int g = 1; g < SIDE; g++) {
+                long line = 0, lineR = 0, lineG = 0, lineB = 0;
+                double line2 = 0;
+                for (int b = 1; b < SIDE; b++) {
+                    int i = index(r, g, b);
+                    line += wt[i];
+                    lineR += mr[i];
+                    lineG += mg[i];
+                    lineB += mb[i];
+                    line2 += m2[i];
+                    area[b] += line;
+                    areaR[b] += lineR;
+                    areaG[b] += lineG;
+                    areaB[b] += lineB;
+                    area2[b] += line2;
+                    int j = i - SIDE * SIDE;
+                    wt[i] = wt[j] + area[b];
+                    mr[i] = mr[j] + areaR[b];
+                    mg[i] = mg[j] + areaG[b];
+                    mb[i] = mb[j] + areaB[b];
+                    m2[i] = m2[j] + area2[b];
+                }
+            }
+        }
+
+        Box[] boxes = new Box[maxColors];
+        double[] variances = new double[maxColors];
+        boxes[0] = new Box(0, SIDE - 1, 0, SIDE - 1, 0, SIDE - 1);
+        int count = maxColors;
+        int next = 0;
+        for (int i = 1; i < count; i++) {
+            boxes[i] = new Box();
+            if (cut(boxes[next], boxes[i], wt, mr, mg, mb)) {
+                variances[next] = boxes[next].volume() > 1 ? variance(boxes[next], wt, mr, mg, mb, m2) : 0;
+                variances[i] = boxes[i].volume() > 1 ? variance(boxes[i], wt, mr, mg, mb, m2) : 0;
+            } else {
+                variances[next] = 0;
+                i--;
+            }
+            next = 0;
+            double max = variances[0];
+            for (int k = 1; k <= i; k++) {
+                if (variances[k] > max) {
+                    max = variances[k];
+                    next = k;
+                }
+            }
+            if (max <= 0) {
+                count = i + 1;
+                break;
+            }
+        }
+
+        int[] colors = new int[count];
+        int n = 0;
+        for (int k = 0; k < count; k++) {
+            long weight = volume(boxes[k], wt);
+            if (weight > 0) {
+                int r = (int) (volume(boxes[k], mr) / weight);
+                int g = (int) (volume(boxes[k], mg) / weight);
+                int b = (int) (volume(boxes[k], mb) / weight);
+                colors[n++] = 0xff000000 | r << 16 | g << 8 | b;
+            }
+        }
+        return n == 0 ? new int[]{0xff000000} : Arrays.copyOf(colors, n);
+    }
+
+    /**
+     * A box in the histogram, the lower bounds are exclusive.
+     */
+    private static class Box {
+        int r0, r1, g0, g1, b0, b1;
+
+        Box() {
+        }
+
+        Box(int r0, int r1, int g0, int g1, int b0, int b1) {
+            this.r0 = r0;
+            this.r1 = r1;
+            this.g0 = g0;
+            this.g1 = g1;
+            this.b0 = b0;
+            this.b1 = b1;
+        }
+
+        int volume() {
+            return (r1 - r0) * (g1 - g0) * (b1 - b0);
+        }
+    }
+
+    private static final int RED = 0, GREEN = 1, BLUE = 2;
+
+    private static int index(int r, int g, int b) {
+        return (r * SIDE + g) * SIDE + b;
+    }
+
+    private static long volume(Box c, long[] m) {
+        return m[index(c.r1, c.g1, c.b1)] - m[index(c.r1, c.g1, c.b0)]
+                - m[index(c.r1, c.g0, c.b1)] + m[index(c.r1, c.g0, c.b0)]
+                - m[index(c.r0, c.g1, c.b1)] + m[index(c.r0, c.g1, c.b0)]
+                + m[index(c.r0, c.g0, c.b1)] - m[index(c.r0, c.g0, c.b0)];
+    }
+
+    private static double volume(Box c, double[] m) {
+        return m[index(c.r1, c.g1, c.b1)] - m[index(c.r1, c.g1, c.b0)]
+                - m[index(c.r1, c.g0, c.b1)] + m[index(c.r1, c.g0, c.b0)]
+                - m[index(c.r0, c.g1, c.b1)] + m[index(c.r0, c.g1, c.b0)]
+                + m[index(c.r0, c.g0, c.b1)] - m[index(c.r0, c.g0, c.b0)];
+    }
+
+    /**
+     * Computes the part of the volume that does not depend on the cutting
+     * position.
+     */
+    private static long bottom(Box c, int dir, long[] m) {
+        return switch (dir) {
+            case RED -> -m[index(c.r0, c.g1, c.b1)] + m[index(c.r0, c.g1, c.b0)]
+                    + m[index(c.r0, c.g0, c.b1)] - m[index(c.r0, c.g0, c.b0)];
+            case GREEN -> -m[index(c.r1, c.g0, c.b1)] + m[index(c.r1, c.g0, c.b0)]
+                    + m[index(c.r0, c.g0, c.b1)] - m[index(c.r0, c.g0, c.b0)];
+            default -> -m[index(c.r1, c.g1, c.b0)] + m[index(c.r1, c.g0, c.b0)]
+                    + m[index(c.r0, c.g1, c.b0)] - m[index(c.r0, c.g0, c.b0)];
+        };
+    }
+
+    /**
+     * Computes the part of the volume that depends on the cutting position.
+     */
+    private static long top(Box c, int dir, int pos, long[] m) {
+        return switch (dir) {
+            case RED -> m[index(pos, c.g1, c.b1)] - m[index(pos, c.g1, c.b0)]
+                    - m[index(pos, c.g0, c.b1)] + m[index(pos, c.g0, c.b0)];
+            case GREEN -> m[index(c.r1, pos, c.b1)] - m[index(c.r1, pos, c.b0)]
+                    - m[index(c.r0, pos, c.b1)] + m[index(c.r0, pos, c.b0)];
+            default -> m[index(c.r1, c.g1, pos)] - m[index(c.r1, c.g0, pos)]
+                    - m[index(c.r0, c.g1, pos)] + m[index(c.r0, c.g0, pos)];
+        };
+    }
+
+    /**
+     * Computes the weighted variance of the box.
+     */
+    private static double variance(Box c, long[] wt, long[] mr, long[] mg, long[] mb, double[] m2) {
+        double dr = volume(c, mr), dg = volume(c, mg), db = volume(c, mb);
+        return volume(c, m2) - (dr * dr + dg * dg + db * db) / volume(c, wt);
+    }
+
+    /**
+     * Finds the cutting position along the specified direction that
+     * minimizes the sum of the variances of the two halves.
+     *
+     * @return the score and the position in the lower and upper 32 bits,
+     * the position is -1 if the box can not be cut
+     */
+    private static double[] maximize(Box c, int dir, int first, int last,
+                                     long[] wt, long[] mr, long[] mg, long[] mb,
+                                     long wholeW, long wholeR, long wholeG, long wholeB) {
+        long baseR = bottom(c, dir, mr), baseG = bottom(c, dir, mg), baseB = bottom(c, dir, mb);
+        long baseW = bottom(c, dir, wt);
+        double max = 0;
+        int cut = -1;
+        for (int i = first; i < last; i++) {
+            double halfR = baseR + top(c, dir, i, mr);
+            double halfG = baseG + top(c, dir, i, mg);
+            double halfB = baseB + top(c, dir, i, mb);
+            long halfW = baseW + top(c, dir, i, wt);
+            if (halfW == 0 || halfW == wholeW) {
+                continue;
+            }
+            double temp = (halfR * halfR + halfG * halfG + halfB * halfB) / halfW;
+            halfR = wholeR - halfR;
+            halfG = wholeG - halfG;
+            halfB = wholeB - halfB;
+            temp += (halfR * halfR + halfG * halfG + halfB * halfB) / (wholeW - halfW);
+            if (temp > max) {
+                max = temp;
+                cut = i;
+            }
+        }
+        return new double[]{max, cut};
+    }
+
+    /**
+     * Cuts box {@code c1} into two halves, and stores the upper half in
+     * {@code c2}.
+     *
+     * @return false if the box can not be cut
+     */
+    private static boolean cut(Box c1, Box c2, long[] wt, long[] mr, long[] mg, long[] mb) {
+        long wholeR = volume(c1, mr), wholeG = volume(c1, mg), wholeB = volume(c1, mb);
+        long wholeW = volume(c1, wt);
+        double[] maxR = maximize(c1, RED, c1.r0 + 1, c1.r1, wt, mr, mg, mb, wholeW, wholeR, wholeG, wholeB);
+        double[] maxG = maximize(c1, GREEN, c1.g0 + 1, c1.g1, wt, mr, mg, mb, wholeW, wholeR, wholeG, wholeB);
+        double[] maxB = maximize(c1, BLUE, c1.b0 + 1, c1.b1, wt, mr, mg, mb, wholeW, wholeR, wholeG, wholeB);
+        int dir;
+        if (maxR[0] >= maxG[0] && maxR[0] >= maxB[0]) {
+            dir = RED;
+            if (maxR[1] < 0) {
+                return false;
+            }
+        } else if (maxG[0] >= maxR[0] && maxG[0] >= maxB[0]) {
+            dir = GREEN;
+        } else {
+            dir = BLUE;
+        }
+        c2.r1 = c1.r1;
+        c2.g1 = c1.g1;
+        c2.b1 = c1.b1;
+        switch (dir) {
+            case RED -> {
+                c2.r0 = c1.r1 = (int) maxR[1];
+                c2.g0 = c1.g0;
+                c2.b0 = c1.b0;
+            }
+            case GREEN -> {
+                c2.g0 = c1.g1 = (int) maxG[1];
+                c2.r0 = c1.r0;
+                c2.b0 = c1.b0;
+            }
+            default -> {
+                c2.b0 = c1.b1 = (int) maxB[1];
+                c2.r0 = c1.r0;
+                c2.g0 = c1.g0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Arranges the colors of a new palette, so that colors that are also in
+     * the old palette keep their index.
+     */
+    private static int[] arrangePalette(int[] colors, int[] oldPalette) {
+        int n = colors.length;
+        if (oldPalette.length == 0) {
+            return colors;
+        }
+        // match the closest pairs of new and old colors first
+        long[] pairs = new long[n * Math.min(n, oldPalette.length)];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < Math.min(n, oldPalette.length); j++) {
+                pairs[count++] = (long) distance(colors[i], oldPalette[j]) << 32 | i << 16 | j;
+            }
+        }
+        Arrays.sort(pairs, 0, count);
+        int[] arranged = new int[n];
+        boolean[] placed = new boolean[n];
+        boolean[] taken = new boolean[n];
+        for (int k = 0; k < count; k++) {
+            int i = (int) (pairs[k] >>> 16) & 0xffff, j = (int) pairs[k] & 0xffff;
+            if (!placed[i] && !taken[j]) {
+                arranged[j] = colors[i];
+                placed[i] = taken[j] = true;
+            }
+        }
+        for (int i = 0, j = 0; i < n; i++) {
+            if (!placed[i]) {
+                while (taken[j]) {
+                    j++;
+                }
+                arranged[j] = colors[i];
+                taken[j] = true;
+            }
+        }
+        return arranged;
+    }
+
+    private static int distance(int p, int q) {
+        int dr = ((p >>> 16) & 0xff) - ((q >>> 16) & 0xff);
+        int dg = ((p >>> 8) & 0xff) - ((q >>> 8) & 0xff);
+        int db = (p & 0xff) - (q & 0xff);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    /**
+     * Computes the index of the nearest palette color for the center of
+     * each cell of the inverse color table.
+     */
+    private void computeLut() {
+        int[] pal = palette;
+        RangeStream.range(0, 32).parallel(1).forEach((int r) -> {
+            for (int i = r << 10, end = i + 1024; i < end; i++) {
+                int rgb = (r << 19 | ((i >>> 5) & 31) << 11 | (i & 31) << 3) + 0x040404;
+                int best = 0, bestDistance = Integer.MAX_VALUE;
+                for (int k = 0; k < pal.length; k++) {
+                    int d = distance(rgb, pal[k]);
+                    if (d < bestDistance) {
+                        bestDistance = d;
+                        best = k;
+                    }
+                }
+                lut[i] = (byte) best;
+            }
+        });
+    }
+
+    private void mapPixels(int[] pixels, int offset, int scanlineStride,
+                           byte[] dst, int dstOffset, int dstStride, int width, int lo, int hi) {
+        for (int y = lo; y < hi; y++) {
+            int xy = offset + y * scanlineStride;
+            int dxy = dstOffset + y * dstStride;
+            for (int x = 0; x < width; x++) {
+                dst[dxy + x] = lut[toLutIndex(pixels[xy + x])];
+            }
+        }
+    }
+
+    private void mapPixelsOrdered(int[] pal, int[] pixels, int offset, int scanlineStride,
+                                  byte[] dst, int dstOffset, int dstStride, int width, int lo, int hi) {
+        for (int y = lo; y < hi; y++) {
+            int xy = offset + y * scanlineStride;
+            int dxy = dstOffset + y * dstStride;
+            int row = (y & 3) << 2;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[xy + x];
+                // a pixel that is in the palette is not dithered, so that an
+                // image that fits into the palette is reproduced exactly
+                byte nearest = lut[toLutIndex(rgb)];
+                if (((pal[nearest & 0xff] ^ rgb) & 0xffffff) == 0) {
+                    dst[dxy + x] = nearest;
+                    continue;
+                }
+                // spread the threshold over the range [-15, 15]
+                int t = BAYER_4X4[row | (x & 3)] * 2 - 15;
+                int r = clamp(((rgb >>> 16) & 0xff) + t);
+                int g = clamp(((rgb >>> 8) & 0xff) + t);
+                int b = clamp((rgb & 0xff) + t);
+                dst[dxy + x] = lut[(r >>> 3) << 10 | (g >>> 3) << 5 | b >>> 3];
+            }
+        }
+    }
+
+    private void mapPixelsDiffused(int[] pal, int[] pixels, int offset, int scanlineStride,
+                                   byte[] dst, int dstOffset, int dstStride, int width, int lo, int hi) {
+        // errors of the current and the next row, in 1/16, with one pixel
+        // of padding at both ends
+        int[] cur = new int[(width + 2) * 3];
+        int[] next = new int[(width + 2) * 3];
+        for (int y = lo; y < hi; y++) {
+            int xy = offset + y * scanlineStride;
+            int dxy = dstOffset + y * dstStride;
+            for (int x = 0, e = 3; x < width; x++, e += 3) {
+                int rgb = pixels[xy + x];
+                int r = clamp(((rgb >>> 16) & 0xff) + (cur[e] + 8 >> 4));
+                int g = clamp(((rgb >>> 8) & 0xff) + (cur[e + 1] + 8 >> 4));
+                int b = clamp((rgb & 0xff) + (cur[e + 2] + 8 >> 4));
+                int index = lut[(r >>> 3) << 10 | (g >>> 3) << 5 | b >>> 3] & 0xff;
+                dst[dxy + x] = (byte) index;
+                int p = pal[index];
+                int er = r - ((p >>> 16) & 0xff);
+                int eg = g - ((p >>> 8) & 0xff);
+                int eb = b - (p & 0xff);
+                cur[e + 3] += er * 7;
+                cur[e + 4] += eg * 7;
+                cur[e + 5] += eb * 7;
+                next[e - 3] += er * 3;
+                next[e - 2] += eg * 3;
+                next[e - 1] += eb * 3;
+                next[e] += er * 5;
+                next[e + 1] += eg * 5;
+                next[e + 2] += eb * 5;
+                next[e + 3] += er;
+                next[e + 4] += eg;
+                next[e + 5] += eb;
+            }
+            int[] swap = cur;
+            cur = next;
+            next = swap;
+            Arrays.fill(next, 0);
+        }
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(v, 255);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * @(#)ImageQuality.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.image;
+
+import org.monte.media.util.stream.RangeStream;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the quality of a distorted image compared to a reference image.
+ * <p>
+ * The measurements are computed in parallel over the rows of the images.
+ *
+ * @author Werner Randelshofer
+ */
+public class ImageQuality {
+  /**
+   * Size of the windows for the structural similarity.
+   */
+  private static final int SSIM_WINDOW = 8;
+  /**
+   * Distance between the windows for the structural similarity.
+   */
+  private static final int SSIM_STRIDE = 4;
+  private static final double SSIM_C1 = (0.01 * 255) * (0.01 * 255);
+  private static final double SSIM_C2 = (0.03 * 255) * (0.03 * 255);
+
+  /**
+   * Prevent instance creation.
+   */
+  private ImageQuality() {
+  }
+
+  /**
+   * Computes the peak signal-to-noise ratio (PSNR) over the red, green and
+   * blue channels.
+   *
+   * @param reference the reference image
+   * @param distorted the distorted image, must have the same size
+   * @return the PSNR in decibels, or {@link Double#POSITIVE_INFINITY} if
+   * the images are identical
+   */
+  public static double psnr(BufferedImage reference, BufferedImage distorted) {
+    int width = reference.getWidth();
+    int height = reference.getHeight();
+    int[] a = getRGB(reference, distorted);
+    int[] b = getRGB(distorted, reference);
+
+    LongAdder sum = new LongAdder();
+    RangeStream.range(0, height).parallel().forEach((lo, hi) -> {
+      long se = 0;
+      for (int i = lo * width, n = hi * width; i < n; i++) {
+        int p = a[i], q = b[i];
+        int dr = ((p >>> 16) & 0xff) - ((q >>> 16) & 0xff);
+        int dg = ((p >>> 8) & 0xff) - ((q >>> 8) & 0xff);
+        int db = (p & 0xff) - (q & 0xff);
+        se += dr * dr + dg * dg + db * db;
+      }
+      sum.add(se);
+    });
+
+    long se = sum.sum();
+    if (se == 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double mse = se / (3.0 * width * height);
+    return 10 * Math.log10(255 * 255 / mse);
+  }
+
+  /**
+   * Computes the mean structural similarity index (SSIM) of the luma.
+   * <p>
+   * The index is averaged over windows of 8 x 8 pixels, which overlap by
+   * 4 pixels.
+   *
+   * @param reference the reference image
+   * @param distorted the distorted image, must have the same size
+   * @return the SSIM, 1.0 if the images are identical
+   */
+  public static double ssim(BufferedImage reference, BufferedImage distorted) {
+    int width = reference.getWidth();
+    int height = reference.getHeight();
+    int[] a = getLuma(getRGB(reference, distorted));
+    int[] b = getLuma(getRGB(distorted, reference));
+    int window = Math.min(SSIM_WINDOW, Math.min(width, height));
+    int windowsX = (width - window) / SSIM_STRIDE + 1;
+    int windowsY = (height - window) / SSIM_STRIDE + 1;
+    double n = window * window;
+
+    DoubleAdder sum = new DoubleAdder();
+    RangeStream.range(0, windowsY).parallel().forEach((lo, hi) -> {
+      double s = 0;
+      for (int wy = lo; wy < hi; wy++) {
+        for (int wx = 0; wx < windowsX; wx++) {
+          long sa = 0, sb = 0, saa = 0, sbb = 0, sab = 0;
+          for (int y = wy * SSIM_STRIDE, ymax = y + window; y < ymax; y++) {
+            for (int i = y * width + wx * SSIM_STRIDE, imax = i + window; i < imax; i++) {
+              int p = a[i], q = b[i];
+              sa += p;
+              sb += q;
+              saa += p * p;
+              sbb += q * q;
+              sab += p * q;
+            }
+          }
+          double ma = sa / n, mb = sb / n;
+          double va = saa / n - ma * ma, vb = sbb / n - mb * mb, cov = sab / n - ma * mb;
+          s += ((2 * ma * mb + SSIM_C1) * (2 * cov + SSIM_C2))
+                  / ((ma * ma + mb * mb + SSIM_C1) * (va + vb + SSIM_C2));
+        }
+      }
+      sum.add(s);
+    });
+
+    return sum.sum() / ((double) windowsX * windowsY);
+  }
+
+  /**
+   * Returns the pixels of an image in the RGB color model.
+   *
+   * @param img   the image
+   * @param other the image that is compared with img
+   * @return the pixels
+   */
+  private static int[] getRGB(BufferedImage img, BufferedImage other) {
+    int width = img.getWidth();
+    int height = img.getHeight();
+    if (width != other.getWidth() || height != other.getHeight()) {
+      throw new IllegalArgumentException("The images must have the same size: "
+              + width + "x" + height + " != " + other.getWidth() + "x" + other.getHeight());
+    }
+    return img.getRGB(0, 0, width, height, null, 0, width);
+  }
+
+  /**
+   * Converts RGB pixels into luma values with the ITU-R BT.601 weights.
+   */
+  private static int[] getLuma(int[] rgb) {
+    int[] luma = new int[rgb.length];
+    RangeStream.range(0, rgb.length).parallel().forEach((lo, hi) -> {
+      for (int i = lo; i < hi; i++) {
+        int p = rgb[i];
+        luma[i] = (299 * ((p >>> 16) & 0xff) + 587 * ((p >>> 8) & 0xff) + 114 * (p & 0xff) + 500) / 1000;
+      }
+    });
+    return luma;
+  }
+}
@@ -0,0 +1,558 @@
+/*
+ * @(#)ImageResampler.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.image;
+
+import org.monte.media.util.stream.RangeStream;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Resamples an image to a different size with a separable filter.
+ * <p>
+ * The image is first filtered horizontally and then vertically. The filter
+ * weights are precomputed for each column and each row of the destination
+ * image, and applied with fixed-point arithmetic. Large images are resampled
+ * in parallel bands of rows.
+ * <p>
+ * Images with 8-bit samples that are stored in an {@code int} array with one
+ * pixel per element, or in a {@code byte} array with interleaved samples, are
+ * resampled directly on their rasters, if the source and the destination
+ * image have the same layout. All other images are converted to ARGB.
+ * Samples are filtered independently of each other, alpha is not
+ * premultiplied.
+ * <p>
+ * If the source image is exactly 2 or 4 times as large as the destination
+ * image, the {@link Filter#BOX} filter averages blocks of pixels without
+ * using the weights.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Werner Randelshofer
+ */
+public class ImageResampler {
+  /**
+   * Resampling filters.
+   */
+  public enum Filter {
+    /**
+     * Box filter. Averages the source pixels that are covered by a
+     * destination pixel. Is a nearest neighbor filter when upscaling.
+     */
+    BOX(0.5) {
+      @Override
+      double weight(double x) {
+        return x > -0.5 && x <= 0.5 ? 1 : 0;
+      }
+    },
+    /**
+     * Triangle filter.
+     */
+    BILINEAR(1) {
+      @Override
+      double weight(double x) {
+        x = Math.abs(x);
+        return x < 1 ? 1 - x : 0;
+      }
+    },
+    /**
+     * Cubic convolution filter with a = -0.5.
+     */
+    BICUBIC(2) {
+      @Override
+      double weight(double x) {
+        final double a = -0.5;
+        x = Math.abs(x);
+        if (x < 1) {
+          return ((a + 2) * x - (a + 3)) * x * x + 1;
+        }
+        if (x < 2) {
+          return ((a * x - 5 * a) * x + 8 * a) * x - 4 * a;
+        }
+        return 0;
+      }
+    },
+    /**
+     * Lanczos filter with 3 lobes.
+     */
+    LANCZOS3(3) {
+      @Override
+      double weight(double x) {
+        if (x == 0) {
+          return 1;
+        }
+        if (x <= -3 || x >= 3) {
+          return 0;
+        }
+        double px = Math.PI * x;
+        return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+      }
+    };
+
+    private final double support;
+
+    Filter(double support) {
+      this.support = support;
+    }
+
+    /**
+     * Returns the radius of the filter in source pixels, when the image is
+     * not downscaled.
+     */
+    public double getSupport() {
+      return support;
+    }
+
+    /**
+     * Returns the weight of a source pixel at the specified distance from
+     * the center of the destination pixel.
+     */
+    abstract double weight(double x);
+  }
+
+  /**
+   * Number of fraction bits of the filter weights.
+   */
+  private static final int WEIGHT_BITS = 14;
+  /**
+   * Number of fraction bits of the horizontally filtered samples.
+   */
+  private static final int TMP_BITS = 6;
+  /**
+   * Images with at least this number of pixels are resampled in parallel.
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+  /**
+   * Number of destination rows that are filtered vertically from one
+   * horizontally filtered band.
+   */
+  private static final int BAND_HEIGHT = 32;
+
+  /**
+   * The filter weights for one dimension of the image.
+   *
+   * @param starts    the index of the first source pixel for each
+   *                  destination pixel
+   * @param lengths   the number of source pixels for each destination pixel
+   * @param weights   the weights of the source pixels, {@code maxLength}
+   *                  weights per destination pixel
+   * @param maxLength the maximal number of source pixels
+   */
+  private record Kernel(Filter filter, int srcSize, int dstSize,
+                        int[] starts, int[] lengths, int[] weights, int maxLength) {
+  }
+
+  /**
+   * The samples of an image.
+   *
+   * @param data           an {@code int[]} or a {@code byte[]} array
+   * @param offset         the array index of the first pixel
+   * @param scanlineStride the number of array elements to add to get to the
+   *                       next scanline
+   * @param channels       the number of samples per pixel
+   */
+  private record Samples(Object data, int offset, int scanlineStride, int channels) {
+  }
+
+  /**
+   * Temporary arrays for resampling a range of bands.
+   */
+  private static class Scratch {
+    private short[] tmp = new short[0];
+    private int[] acc = new int[0];
+
+    short[] tmp(int length) {
+      return tmp.length < length ? tmp = new short[length] : tmp;
+    }
+
+    int[] acc(int length) {
+      return acc.length < length ? acc = new int[length] : acc;
+    }
+  }
+
+  private Filter filter;
+  private Kernel horizontal;
+  private Kernel vertical;
+  private int[] srcArgb = new int[0];
+  private int[] dstArgb = new int[0];
+
+  /**
+   * Creates a new instance with the {@link Filter#BICUBIC} filter.
+   */
+  public ImageResampler() {
+    this(Filter.BICUBIC);
+  }
+
+  public ImageResampler(Filter filter) {
+    setFilter(filter);
+  }
+
+  public Filter getFilter() {
+    return filter;
+  }
+
+  public void setFilter(Filter filter) {
+    if (filter == null) {
+      throw new IllegalArgumentException("filter must not be null");
+    }
+    this.filter = filter;
+  }
+
+  /**
+   * Resamples the source image into the destination image.
+   *
+   * @param src the source image
+   * @param dst the destination image, the size of the destination image
+   *            determines the scale factors
+   * @return the destination image
+   */
+  public BufferedImage resample(BufferedImage src, BufferedImage dst) {
+    int sw = src.getWidth(), sh = src.getHeight();
+    int dw = dst.getWidth(), dh = dst.getHeight();
+    if (sw == 0 || sh == 0 || dw == 0 || dh == 0) {
+      return dst;
+    }
+
+    Samples s = getSamples(src);
+    Samples d = getSamples(dst);
+    boolean direct = s != null && d != null
+        && s.data.getClass() == d.data.getClass() && s.channels == d.channels
+        && src.getColorModel().equals(dst.getColorModel())
+        && Arrays.equals(getSampleOffsets(src), getSampleOffsets(dst));
+    if (!direct) {
+      if (srcArgb.length < sw * sh) {
+        srcArgb = new int[sw * sh];
+      }
+      if (dstArgb.length < dw * dh) {
+        dstArgb = new int[dw * dh];
+      }
+      s = new Samples(src.getRGB(0, 0, sw, sh, srcArgb, 0, sw), 0, sw, 4);
+      d = new Samples(dstArgb, 0, dw, 4);
+    }
+
+    RangeStream rows = RangeStream.range(0, dh);
+    if (Math.max((long) sw * sh, (long) dw * dh) >= PARALLEL_THRESHOLD) {
+      rows.parallel(Math.max(BAND_HEIGHT, PARALLEL_THRESHOLD / 4 / dw));
+    }
+    int factor = sw / dw;
+    if (filter == Filter.BOX && (factor == 2 || factor == 4) && sw == dw * factor && sh == dh * factor) {
+      Samples fs = s, fd = d;
+      rows.forEach((lo, hi) -> boxDownscale(fs, fd, dw, factor, lo, hi));
+    } else {
+      Kernel kx = horizontal = getKernel(horizontal, sw, dw);
+      Kernel ky = vertical = getKernel(vertical, sh, dh);
+      Samples fs = s, fd = d;
+      rows.forEach((lo, hi) -> {
+        Scratch scratch = new Scratch();
+        for (int y = lo; y < hi; y += BAND_HEIGHT) {
+          resampleBand(fs, fd, kx, ky, y, Math.min(hi, y + BAND_HEIGHT), scratch);
+        }
+      });
+    }
+
+    if (!direct) {
+      dst.setRGB(0, 0, dw, dh, dstArgb, 0, dw);
+    }
+    return dst;
+  }
+
+  /**
+   * Returns the samples of the image, or null if the image can not be
+   * resampled directly on its raster.
+   */
+  private static Samples getSamples(BufferedImage img) {
+    if (img.getColorModel() instanceof IndexColorModel) {
+      return null;
+    }
+    WritableRaster raster = img.getRaster();
+    SampleModel sm = raster.getSampleModel();
+    int tx = raster.getSampleModelTranslateX();
+    int ty = raster.getSampleModelTranslateY();
+    if (raster.getDataBuffer() instanceof DataBufferInt dbi && sm instanceof SinglePixelPackedSampleModel sppsm) {
+      int lanes = 0;
+      for (int mask : sppsm.getBitMasks()) {
+        int shift = Integer.numberOfTrailingZeros(mask);
+        if (mask >>> shift != 0xff || shift % 8 != 0) {
+          return null;
+        }
+        lanes = Math.max(lanes, shift / 8 + 1);
+      }
+      return new Samples(dbi.getData(), dbi.getOffset() + sppsm.getOffset(-tx, -ty),
+          sppsm.getScanlineStride(), lanes < 4 ? 3 : 4);
+    }
+    if (raster.getDataBuffer() instanceof DataBufferByte dbb && sm instanceof ComponentSampleModel csm) {
+      int bands = csm.getNumBands();
+      if (csm.getPixelStride() != bands) {
+        return null;
+      }
+      boolean[] used = new boolean[bands];
+      for (int b = 0; b < bands; b++) {
+        int off = csm.getBandOffsets()[b];
+        if (csm.getBankIndices()[b] != 0 || csm.getSampleSize(b) != 8
+            || off < 0 || off >= bands || used[off]) {
+          return null;
+        }
+        used[off] = true;
+      }
+      return new Samples(dbb.getData(), dbb.getOffset() + csm.getOffset(-tx, -ty, 0) - csm.getBandOffsets()[0],
+          csm.getScanlineStride(), bands);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the position of the samples in a pixel.
+   */
+  private static int[] getSampleOffsets(BufferedImage img) {
+    SampleModel sm = img.getSampleModel();
+    if (sm instanceof SinglePixelPackedSampleModel sppsm) {
+      return sppsm.getBitMasks();
+    }
+    return ((ComponentSampleModel) sm).getBandOffsets();
+  }
+
+  /**
+   * Returns the kernel if it matches the filter and the sizes, or creates
+   * a new kernel.
+   */
+  private Kernel getKernel(Kernel kernel, int srcSize, int dstSize) {
+    if (kernel != null && kernel.filter == filter && kernel.srcSize == srcSize && kernel.dstSize == dstSize) {
+      return kernel;
+    }
+    return createKernel(filter, srcSize, dstSize);
+  }
+
+  private static Kernel createKernel(Filter filter, int srcSize, int dstSize) {
+    double scale = (double) srcSize / dstSize;
+    double filterScale = Math.max(1, scale);
+    double support = filter.support * filterScale;
+    int maxLength = (int) Math.ceil(2 * support) + 1;
+    int[] starts = new int[dstSize];
+    int[] lengths = new int[dstSize];
+    int[] weights = new int[dstSize * maxLength];
+    double[] w = new double[maxLength];
+    for (int i = 0; i < dstSize; i++) {
+      double center = (i + 0.5) * scale;
+      int min = Math.max(0, (int) (center - support + 0.5));
+      int max = Math.min(srcSize, (int) (center + support + 0.5));
+      int n = max - min;
+      double sum = 0;
+      for (int k = 0; k < n; k++) {
+        w[k] = filter.weight((min + k + 0.5 - center) / filterScale);
+        sum += w[k];
+      }
+      if (sum == 0) {
+        // fall back to the nearest source pixel
+        min = Math.min(srcSize - 1, (int) center);
+        n = 1;
+        w[0] = sum = 1;
+      }
+
+      // quantize the weights, and add the rounding error to the largest weight
+      int offset = i * maxLength;
+      int total = 0;
+      int largest = 0;
+      for (int k = 0; k < n; k++) {
+        int q = (int) Math.round(w[k] / sum * (1 << WEIGHT_BITS));
+        weights[offset + k] = q;
+        total += q;
+        if (Math.abs(q) > Math.abs(weights[offset + largest])) {
+          largest = k;
+        }
+      }
+      weights[offset + largest] += (1 << WEIGHT_BITS) - total;
+
+      // skip zero weights at both ends
+      int first = 0;
+      while (first < n - 1 && weights[offset + first] == 0) {
+        first++;
+      }
+      while (n > first + 1 && weights[offset + n - 1] == 0) {
+        n--;
+      }
+      if (first > 0) {
+        System.arraycopy(weights, offset + first, weights, offset, n - first);
+      }
+      starts[i] = min + first;
+      lengths[i] = n - first;
+    }
+    return new Kernel(filter, srcSize, dstSize, starts, lengths, weights, maxLength);
+  }
+
+  /**
+   * Resamples the destination rows from {@code y0} to {@code y1}.
+   * <p>
+   * The source rows that are needed for these destination rows are filtered
+   * horizontally into a temporary band, which then is filtered vertically.
+   */
+  private static void resampleBand(Samples s, Samples d, Kernel kx, Kernel ky, int y0, int y1, Scratch scratch) {
+    int top = ky.starts[y0];
+    int bottom = top;
+    for (int y = y0; y < y1; y++) {
+      bottom = Math.max(bottom, ky.starts[y] + ky.lengths[y]);
+    }
+    int rowLength = kx.dstSize * s.channels;
+    short[] tmp = scratch.tmp((bottom - top) * rowLength);
+    for (int sy = top; sy < bottom; sy++) {
+      if (s.data instanceof int[] data) {
+        filterRow(data, s.offset + sy * s.scanlineStride, s.channels, kx, tmp, (sy - top) * rowLength);
+      } else {
+        filterRow((byte[]) s.data, s.offset + sy * s.scanlineStride, s.channels, kx, tmp, (sy - top) * rowLength);
+      }
+    }
+
+    int[] acc = scratch.acc(rowLength);
+    final int rounding = 1 << (WEIGHT_BITS + TMP_BITS - 1);
+    final int shift = WEIGHT_BITS + TMP_BITS;
+    for (int y = y0; y < y1; y++) {
+      Arrays.fill(acc, 0, rowLength, rounding);
+      int start = ky.starts[y], n = ky.lengths[y], wOffset = y * ky.maxLength;
+      for (int k = 0; k < n; k++) {
+        int weight = ky.weights[wOffset + k];
+        for (int i = 0, t = (start + k - top) * rowLength; i < rowLength; i++, t++) {
+          acc[i] += tmp[t] * weight;
+        }
+      }
+
+      int xy = d.offset + y * d.scanlineStride;
+      if (d.data instanceof int[] data) {
+        if (d.channels == 4) {
+          for (int x = 0, i = 0; x < kx.dstSize; x++, i += 4) {
+            data[xy + x] = clamp(acc[i] >> shift) | clamp(acc[i + 1] >> shift) << 8
+                | clamp(acc[i + 2] >> shift) << 16 | clamp(acc[i + 3] >> shift) << 24;
+          }
+        } else {
+          for (int x = 0, i = 0; x < kx.dstSize; x++, i += 3) {
+            data[xy + x] = clamp(acc[i] >> shift) | clamp(acc[i + 1] >> shift) << 8
+                | clamp(acc[i + 2] >> shift) << 16;
+          }
+        }
+      } else {
+        byte[] data = (byte[]) d.data;
+        for (int i = 0; i < rowLength; i++) {
+          data[xy + i] = (byte) clamp(acc[i] >> shift);
+        }
+      }
+    }
+  }
+
+  /**
+   * Filters a source row horizontally.
+   *
+   * @param data     the source pixels, one pixel per element
+   * @param xy       the array index of the first pixel of the row
+   * @param channels the number of samples per pixel
+   * @param kx       the horizontal kernel
+   * @param tmp      the destination array
+   * @param t        the index of the first sample in the destination array
+   */
+  private static void filterRow(int[] data, int xy, int channels, Kernel kx, short[] tmp, int t) {
+    final int rounding = 1 << (WEIGHT_BITS - TMP_BITS - 1);
+    final int shift = WEIGHT_BITS - TMP_BITS;
+    for (int x = 0; x < kx.dstSize; x++) {
+      int start = xy + kx.starts[x], n = kx.lengths[x], wOffset = x * kx.maxLength;
+      int a0 = rounding, a1 = rounding, a2 = rounding, a3 = rounding;
+      for (int k = 0; k < n; k++) {
+        int p = data[start + k];
+        int weight = kx.weights[wOffset + k];
+        a0 += (p & 0xff) * weight;
+        a1 += ((p >>> 8) & 0xff) * weight;
+        a2 += ((p >>> 16) & 0xff) * weight;
+        a3 += (p >>> 24) * weight;
+      }
+      tmp[t++] = (short) (a0 >> shift);
+      tmp[t++] = (short) (a1 >> shift);
+      tmp[t++] = (short) (a2 >> shift);
+      if (channels == 4) {
+        tmp[t++] = (short) (a3 >> shift);
+      }
+    }
+  }
+
+  /**
+   * Filters a source row horizontally.
+   *
+   * @param data     the source samples, interleaved
+   * @param xy       the array index of the first sample of the row
+   * @param channels the number of samples per pixel
+   * @param kx       the horizontal kernel
+   * @param tmp      the destination array
+   * @param t        the index of the first sample in the destination array
+   */
+  private static void filterRow(byte[] data, int xy, int channels, Kernel kx, short[] tmp, int t) {
+    final int rounding = 1 << (WEIGHT_BITS - TMP_BITS - 1);
+    final int shift = WEIGHT_BITS - TMP_BITS;
+    for (int x = 0; x < kx.dstSize; x++) {
+      int start = xy + kx.starts[x] * channels, n = kx.lengths[x], wOffset = x * kx.maxLength;
+      for (int c = 0; c < channels; c++) {
+        int a = rounding;
+        for (int k = 0, i = start + c; k < n; k++, i += channels) {
+          a += (data[i] & 0xff) * kx.weights[wOffset + k];
+        }
+        tmp[t++] = (short) (a >> shift);
+      }
+    }
+  }
+
+  /**
+   * Downscales the destination rows from {@code y0} to {@code y1} by
+   * averaging blocks of {@code factor} by {@code factor} source pixels.
+   */
+  private static void boxDownscale(Samples s, Samples d, int dw, int factor, int y0, int y1) {
+    int shift = Integer.numberOfTrailingZeros(factor * factor);
+    if (s.data instanceof int[] src) {
+      // add two samples at once, the sums of up to 16 samples fit into 16 bits
+      final int mask = 0x00ff00ff;
+      int rounding = (factor * factor / 2) * 0x00010001;
+      int[] dst = (int[]) d.data;
+      for (int y = y0; y < y1; y++) {
+        int sxy = s.offset + y * factor * s.scanlineStride;
+        int dxy = d.offset + y * d.scanlineStride;
+        for (int x = 0; x < dw; x++, sxy += factor) {
+          int lo = rounding, hi = rounding;
+          for (int j = 0, row = sxy; j < factor; j++, row += s.scanlineStride) {
+            for (int i = 0; i < factor; i++) {
+              int p = src[row + i];
+              lo += p & mask;
+              hi += (p >>> 8) & mask;
+            }
+          }
+          dst[dxy + x] = ((lo >>> shift) & mask) | ((hi >>> shift) & mask) << 8;
+        }
+      }
+    } else {
+      byte[] src = (byte[]) s.data;
+      byte[] dst = (byte[]) d.data;
+      int channels = s.channels;
+      int rounding = factor * factor / 2;
+      for (int y = y0; y < y1; y++) {
+        int sxy = s.offset + y * factor * s.scanlineStride;
+        int dxy = d.offset + y * d.scanlineStride;
+        for (int x = 0; x < dw; x++, sxy += factor * channels) {
+          for (int c = 0; c < channels; c++) {
+            int sum = rounding;
+            for (int j = 0, row = sxy + c; j < factor; j++, row += s.scanlineStride) {
+              for (int i = 0; i < factor; i++) {
+                sum += src[row + i * channels] & 0xff;
+              }
+            }
+            dst[dxy++] = (byte) (sum >>> shift);
+          }
+        }
+      }
+    }
+  }
+
+  private static int clamp(int v) {
+    return v < 0 ? 0 : Math.min(v, 255);
+  }
+}
@@ -21,6 +21,7 @@ import org.monte.media.impl.jcodec.codecs.h264.io.model.RefPicMarkingIDR;
 import org.monte.media.impl.jcodec.codecs.h264.io.model.SeqParameterSet;
 import org.monte.media.impl.jcodec.codecs.h264.io.model.SliceHeader;
 import org.monte.media.impl.jcodec.codecs.h264.io.model.SliceType;
+import org.monte.media.impl.jcodec.codecs.h264.io.model.VUIParameters;
 import org.monte.media.impl.jcodec.codecs.h264.io.write.CAVLCWriter;
 import org.monte.media.impl.jcodec.codecs.h264.io.write.SliceHeaderWriter;
 import org.monte.media.impl.jcodec.common.Tuple._3;
@@ -305,6 +306,12 @@ public class H264Encoder extends VideoEncoder {
         sps.frameCropRightOffset = (codedWidth - sz.getWidth() + 1) >> 1;
         sps.frameCropBottomOffset = (codedHeight - sz.getHeight() + 1) >> 1;
 
+        // The pictures are encoded in YUV420J: signal the full range
+        sps.vuiParams = new VUIParameters();
+        sps.vuiParams.videoSignalTypePresentFlag = true;
+        sps.vuiParams.videoFormat = 5;// unspecified video format
+        sps.vuiParams.videoFullRangeFlag = true;
+
         return sps;
     }
 
@@ -201,8 +201,8 @@ public class ByteArrayImageInputStream extends ImageInputStreamImpl2 {
             throw new EOFException();
         }
         int v = (byteOrder == ByteOrder.BIG_ENDIAN)
-                ? ByteArrays.getIntBE(buf, (int) streamPos)
-                : ByteArrays.getIntLE(buf, (int) streamPos);
+                ? ByteArrays.getIntBE(buf, offset + (int) streamPos)
+                : ByteArrays.getIntLE(buf, offset + (int) streamPos);
         streamPos += 4;
         return v;
     }
@@ -213,8 +213,8 @@ public class ByteArrayImageInputStream extends ImageInputStreamImpl2 {
             throw new EOFException();
         }
         long v = (byteOrder == ByteOrder.BIG_ENDIAN)
-                ? ByteArrays.getLongBE(buf, (int) streamPos)
-                : ByteArrays.getLongLE(buf, (int) streamPos);
+                ? ByteArrays.getLongBE(buf, offset + (int) streamPos)
+                : ByteArrays.getLongLE(buf, offset + (int) streamPos);
         streamPos += 8;
         return v;
     }
@@ -225,8 +225,8 @@ public class ByteArrayImageInputStream extends ImageInputStreamImpl2 {
             throw new EOFException();
         }
         short v = (byteOrder == ByteOrder.BIG_ENDIAN)
-                ? ByteArrays.getShortBE(buf, (int) streamPos)
-                : ByteArrays.getShortLE(buf, (int) streamPos);
+                ? ByteArrays.getShortBE(buf, offset + (int) streamPos)
+                : ByteArrays.getShortLE(buf, offset + (int) streamPos);
         streamPos += 2;
         return v;
     }
@@ -0,0 +1,152 @@
+/*
+ * @(#)GatheringImageInputStream.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.io;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An image input stream that reads from a sequence of byte array segments,
+ * as if the segments were concatenated into a single array.
+ * <p>
+ * The segments are not copied. This allows to insert data into a stream,
+ * for example a table that has been omitted from a file format, without
+ * copying the entire stream.
+ * <p>
+ * The stream can be reused by calling {@link #clear()} and adding new
+ * segments.
+ *
+ * @author Werner Randelshofer
+ */
+public class GatheringImageInputStream extends ImageInputStreamImpl2 {
+    private byte[][] arrays = new byte[4][];
+    private int[] offsets = new int[4];
+    /**
+     * The stream position of the start of each segment. The element after
+     * the last segment holds the length of the stream.
+     */
+    private long[] starts = new long[5];
+    private int count;
+    /**
+     * The index of the segment that was read last.
+     */
+    private int segment;
+
+    public GatheringImageInputStream() {
+        this(ByteOrder.BIG_ENDIAN);
+    }
+
+    public GatheringImageInputStream(ByteOrder byteOrder) {
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * Appends a segment to the stream.
+     *
+     * @param b   the array
+     * @param off the offset of the segment in the array
+     * @param len the length of the segment
+     */
+    public void add(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", b.length=" + b.length);
+        }
+        if (count == arrays.length) {
+            arrays = Arrays.copyOf(arrays, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+            starts = Arrays.copyOf(starts, count * 2 + 1);
+        }
+        arrays[count] = b;
+        offsets[count] = off;
+        starts[count + 1] = starts[count] + len;
+        count++;
+    }
+
+    /**
+     * Removes all segments, and sets the stream position to 0.
+     */
+    public void clear() {
+        Arrays.fill(arrays, 0, count, null);
+        count = 0;
+        segment = 0;
+        streamPos = 0;
+        bitOffset = 0;
+        flushedPos = 0;
+    }
+
+    /**
+     * Returns the index of the segment that contains the specified stream
+     * position, or -1 if the position is at or after the end of the stream.
+     */
+    private int findSegment(long pos) {
+        if (pos >= starts[count]) {
+            return -1;
+        }
+        int i = segment;
+        if (i >= count || pos < starts[i]) {
+            i = 0;
+        }
+        while (pos >= starts[i + 1]) {
+            i++;
+        }
+        segment = i;
+        return i;
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        int i = findSegment(streamPos);
+        if (i < 0) {
+            return -1;
+        }
+        int v = arrays[i][offsets[i] + (int) (streamPos - starts[i])] & 0xff;
+        streamPos++;
+        return v;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", b.length=" + b.length);
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int i = findSegment(streamPos);
+        if (i < 0) {
+            return -1;
+        }
+        int total = 0;
+        while (len > 0 && i < count) {
+            int pos = (int) (streamPos - starts[i]);
+            int n = (int) Math.min(len, starts[i + 1] - streamPos);
+            System.arraycopy(arrays[i], offsets[i] + pos, b, off, n);
+            off += n;
+            len -= n;
+            total += n;
+            streamPos += n;
+            if (streamPos == starts[i + 1]) {
+                i++;
+            }
+        }
+        segment = Math.min(i, Math.max(0, count - 1));
+        return total;
+    }
+
+    @Override
+    public long length() {
+        return starts[count];
+    }
+
+    /**
+     * Closing a {@code GatheringImageInputStream} has no effect.
+     */
+    @Override
+    public void close() {
+        // does nothing
+    }
+}
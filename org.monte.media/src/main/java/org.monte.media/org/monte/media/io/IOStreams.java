@@ -5,9 +5,14 @@
 package org.monte.media.io;
 
 import javax.imageio.stream.ImageOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 
@@ -67,4 +72,56 @@ public class IOStreams {
         return count;
     }
 
+    /**
+     * Reads exactly {@code len} bytes from the specified position of the
+     * file channel into the provided array.
+     * <p>
+     * This method does not change the position of the channel. It can be
+     * invoked concurrently by multiple threads.
+     *
+     * @param channel  the source channel
+     * @param position the position in the channel
+     * @param b        the target array
+     * @param off      the offset in the target array
+     * @param len      the number of bytes to read
+     * @throws EOFException if the channel ends before all bytes have been read
+     * @throws IOException  if an I/O error occurs
+     */
+    public static void readFully(FileChannel channel, long position, byte[] b, int off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at position " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Copies a region of a file channel into the provided image output stream.
+     * <p>
+     * The data is transferred with {@link FileChannel#transferTo} in small
+     * blocks, so that large samples do not need to be read into an array
+     * of their full size.
+     *
+     * @param source   the source channel
+     * @param position the position in the source channel
+     * @param length   the number of bytes to copy
+     * @param target   the target stream
+     * @throws EOFException if the channel ends before all bytes have been copied
+     * @throws IOException  if an I/O error occurs
+     */
+    public static void copy(FileChannel source, long position, long length, ImageOutputStream target) throws IOException {
+        WritableByteChannel targetChannel = Channels.newChannel(new ImageOutputStreamAdapter(target));
+        while (length > 0) {
+            long transferred = source.transferTo(position, length, targetChannel);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of file at position " + position);
+            }
+            position += transferred;
+            length -= transferred;
+        }
+    }
+
 }
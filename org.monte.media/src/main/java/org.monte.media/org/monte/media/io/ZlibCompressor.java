@@ -0,0 +1,271 @@
+/*
+ * @(#)ZlibCompressor.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.io;
+
+import org.monte.media.util.stream.RangeStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses byte arrays into zlib streams (RFC 1950).
+ * <p>
+ * The compressor keeps a pool of {@link Deflater}s, so that compressing a
+ * video frame does not create a new native zlib context.
+ * <p>
+ * Large inputs are split up into blocks, which are compressed in parallel
+ * like pigz does. Each block is compressed independently and ends with a full
+ * flush, so that the compressed blocks can be concatenated into a single
+ * valid zlib stream. The compressed data is slightly larger than with serial
+ * compression, because a block can not refer to data in the preceding block.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Werner Randelshofer
+ */
+public class ZlibCompressor implements AutoCloseable {
+    /**
+     * The default size of a block for parallel compression.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    /**
+     * zlib compression method: deflate with a 32K window.
+     */
+    private static final int CMF = 0x78;
+
+    private final int level;
+    private final int strategy;
+    private volatile int blockSize = DEFAULT_BLOCK_SIZE;
+    private volatile boolean parallel = true;
+    /**
+     * Deflaters which write the zlib header and trailer.
+     */
+    private final ConcurrentLinkedQueue<Deflater> zlibDeflaters = new ConcurrentLinkedQueue<>();
+    /**
+     * Deflaters which write raw deflate data.
+     */
+    private final ConcurrentLinkedQueue<Deflater> rawDeflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a compressor with the default compression level and strategy.
+     */
+    public ZlibCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * Creates a compressor.
+     *
+     * @param level    the compression level, 0-9 or
+     *                 {@link Deflater#DEFAULT_COMPRESSION}
+     * @param strategy the compression strategy, for example
+     *                 {@link Deflater#DEFAULT_STRATEGY}
+     */
+    public ZlibCompressor(int level, int strategy) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Illegal compression level: " + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Illegal compression strategy: " + strategy);
+        }
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Creates a compressor for a lossless video codec with the specified
+     * quality.
+     * <p>
+     * The quality trades compression speed for the size of the compressed
+     * data. A quality of 1 yields the default compression level, lower
+     * qualities yield faster compression levels. A quality of 0 only applies
+     * Huffman coding.
+     *
+     * @param quality the quality, a value between 0 and 1
+     * @return a new compressor
+     */
+    public static ZlibCompressor forQuality(float quality) {
+        if (quality <= 0f) {
+            return new ZlibCompressor(Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY);
+        }
+        int level = Math.max(Deflater.BEST_SPEED, Math.min(6, Math.round(quality * 6)));
+        return new ZlibCompressor(level == 6 ? Deflater.DEFAULT_COMPRESSION : level, Deflater.DEFAULT_STRATEGY);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the size of a block for parallel compression. Inputs that are
+     * smaller than two blocks are compressed serially.
+     *
+     * @param blockSize the block size in bytes
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1024) {
+            throw new IllegalArgumentException("Block size must be at least 1024, blockSize=" + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Sets whether large inputs are compressed in parallel. Inputs are
+     * always compressed serially, if the common fork-join pool has only one
+     * thread.
+     *
+     * @param parallel true for parallel compression
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Compresses the specified bytes into a zlib stream.
+     *
+     * @param b   the data
+     * @param off the offset of the data
+     * @param len the length of the data
+     * @param out the output stream for the zlib stream
+     * @throws IOException if writing to the output stream fails
+     */
+    public void compress(byte[] b, int off, int len, OutputStream out) throws IOException {
+        int bs = blockSize;
+        if (parallel && len >= 2 * bs && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            compressParallel(b, off, len, bs, out);
+        } else {
+            compressSerial(b, off, len, out);
+        }
+    }
+
+    private void compressSerial(byte[] b, int off, int len, OutputStream out) throws IOException {
+        Deflater d = takeDeflater(zlibDeflaters, false);
+        byte[] buf = takeBuffer();
+        try {
+            d.setInput(b, off, len);
+            d.finish();
+            while (!d.finished()) {
+                int count = d.deflate(buf);
+                out.write(buf, 0, count);
+            }
+        } finally {
+            releaseDeflater(zlibDeflaters, d);
+            buffers.offer(buf);
+        }
+    }
+
+    /**
+     * Compresses the specified bytes in blocks of size {@code bs}. This
+     * method is package-private, so that it can be tested on machines with
+     * a single processor.
+     */
+    void compressParallel(byte[] b, int off, int len, int bs, OutputStream out) throws IOException {
+        int n = (len + bs - 1) / bs;
+        byte[][] blocks = new byte[n][];
+        int[] blockLengths = new int[n];
+        RangeStream.range(0, n).parallel(1).forEach(i -> {
+            int start = off + i * bs;
+            int end = Math.min(off + len, start + bs);
+            boolean last = i == n - 1;
+            Deflater d = takeDeflater(rawDeflaters, true);
+            byte[] buf = takeBuffer();
+            int count = 0;
+            try {
+                d.setInput(b, start, end - start);
+                if (last) {
+                    d.finish();
+                }
+                while (true) {
+                    if (count == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    int available = buf.length - count;
+                    int deflated = last ? d.deflate(buf, count, available)
+                            : d.deflate(buf, count, available, Deflater.FULL_FLUSH);
+                    count += deflated;
+                    // A deflater with a new strategy may return before it
+                    // has consumed all input, even if there is space left.
+                    if (last ? d.finished() : deflated < available && d.needsInput()) {
+                        break;
+                    }
+                }
+            } finally {
+                releaseDeflater(rawDeflaters, d);
+            }
+            blocks[i] = buf;
+            blockLengths[i] = count;
+        });
+
+        Adler32 adler = new Adler32();
+        adler.update(b, off, len);
+        int checksum = (int) adler.getValue();
+
+        int flevel = level == Deflater.DEFAULT_COMPRESSION || level == 6 ? 2
+                : level <= 1 ? 0 : level <= 5 ? 1 : 3;
+        int flg = flevel << 6;
+        flg |= (31 - (CMF << 8 | flg) % 31) % 31;
+        out.write(CMF);
+        out.write(flg);
+        for (int i = 0; i < n; i++) {
+            out.write(blocks[i], 0, blockLengths[i]);
+            buffers.offer(blocks[i]);
+        }
+        out.write(checksum >>> 24);
+        out.write(checksum >>> 16);
+        out.write(checksum >>> 8);
+        out.write(checksum);
+    }
+
+    private Deflater takeDeflater(ConcurrentLinkedQueue<Deflater> pool, boolean nowrap) {
+        Deflater d = pool.poll();
+        if (d == null) {
+            d = new Deflater(level, nowrap);
+            d.setStrategy(strategy);
+        }
+        return d;
+    }
+
+    private void releaseDeflater(ConcurrentLinkedQueue<Deflater> pool, Deflater d) {
+        d.reset();
+        pool.offer(d);
+    }
+
+    private byte[] takeBuffer() {
+        byte[] buf = buffers.poll();
+        return buf == null ? new byte[64 * 1024] : buf;
+    }
+
+    /**
+     * Releases the native resources of the pooled deflaters.
+     */
+    @Override
+    public void close() {
+        for (Deflater d; (d = zlibDeflaters.poll()) != null; ) {
+            d.end();
+        }
+        for (Deflater d; (d = rawDeflaters.poll()) != null; ) {
+            d.end();
+        }
+        buffers.clear();
+    }
+}
@@ -6,6 +6,7 @@ package org.monte.media.mjpg;
 
 import org.monte.media.av.MovieReader;
 import org.monte.media.av.codec.video.AVIBMPDIB;
+import org.monte.media.io.GatheringImageInputStream;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
@@ -37,13 +38,20 @@ public class MJPGImageReader extends ImageReader {
 
     private static final DirectColorModel RGB = new DirectColorModel(24, 0xff0000, 0xff00, 0xff, 0x0);
     /**
-     * When we read the header, we read the whole image.
+     * The JPEG image reader that decodes the images. The reader is reused
+     * for all inputs of this reader.
      */
-    private BufferedImage image;
+    private ImageReader jpegReader;
     /**
-     * This value is set to true, when we returned the image.
+     * The gathering stream that inserts the DHT segment into byte array
+     * inputs. The stream is reused for all inputs of this reader.
      */
-    private boolean didReturnImage;
+    private final GatheringImageInputStream gatheringInput = new GatheringImageInputStream();
+    /**
+     * This value is set to true, when the input has been passed on to the
+     * JPEG image reader.
+     */
+    private boolean didSetJPEGInput;
 
     private MovieReader reader;
 
@@ -51,6 +59,29 @@ public class MJPGImageReader extends ImageReader {
         super(originatingProvider);
     }
 
+    @Override
+    public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        didSetJPEGInput = false;
+    }
+
+    /**
+     * Sets the input of this reader to the specified bytes.
+     * <p>
+     * Unlike {@link #setInput(Object)}, this method does not require that the
+     * image starts at index 0 of the array. The bytes are not copied.
+     *
+     * @param b   the array that contains the image
+     * @param off the offset of the image in the array
+     * @param len the length of the image
+     */
+    public void setInput(byte[] b, int off, int len) {
+        super.setInput(b, false, false);
+        AVIBMPDIB.prependDHTSeg(b, off, len, gatheringInput);
+        getJPEGReader().setInput(gatheringInput);
+        didSetJPEGInput = true;
+    }
+
     @Override
     public int getNumImages(boolean allowSearch) throws IOException {
         return 1;
@@ -58,21 +89,19 @@ public class MJPGImageReader extends ImageReader {
 
     @Override
     public int getWidth(int imageIndex) throws IOException {
-        readHeader();
-        return image.getWidth();
+        return readHeader().getWidth(0);
     }
 
     @Override
     public int getHeight(int imageIndex) throws IOException {
-        readHeader();
-        return image.getHeight();
+        return readHeader().getHeight(0);
     }
 
     @Override
     public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
-        readHeader();
+        ImageReader r = readHeader();
         LinkedList<ImageTypeSpecifier> l = new LinkedList<>();
-        l.add(new ImageTypeSpecifier(RGB, RGB.createCompatibleSampleModel(image.getWidth(), image.getHeight())));
+        l.add(new ImageTypeSpecifier(RGB, RGB.createCompatibleSampleModel(r.getWidth(0), r.getHeight(0))));
         return l.iterator();
     }
 
@@ -86,35 +115,47 @@ public class MJPGImageReader extends ImageReader {
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The image is decoded into the destination of the read parameter, if
+     * the parameter specifies one. This allows to decode a sequence of
+     * images into the same {@code BufferedImage}.
+     */
     @Override
     public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
         if (imageIndex > 0) {
             throw new IndexOutOfBoundsException();
         }
-        readHeader();
-
-        return image;
+        return readHeader().read(0, param);
     }
 
     /**
-     * Reads the image header. Does nothing if the header has already been
-     * loaded.
+     * Passes the input on to the JPEG image reader, and returns the JPEG
+     * image reader. Does nothing if the input has already been passed on.
      */
-    private void readHeader() throws IOException {
-        if (image == null) {
-
-            ImageReader r = getBasicJPEGImageReader();
+    private ImageReader readHeader() throws IOException {
+        ImageReader r = getJPEGReader();
+        if (!didSetJPEGInput) {
             Object in = getInput();
-            if (in instanceof byte[]) {
-                r.setInput(AVIBMPDIB.prependDHTSeg((byte[]) in));
+            if (in instanceof byte[] b) {
+                AVIBMPDIB.prependDHTSeg(b, 0, b.length, gatheringInput);
+                r.setInput(gatheringInput);
             } else if (in instanceof ImageInputStream) {
                 r.setInput(AVIBMPDIB.prependDHTSeg((ImageInputStream) in));
             } else {
                 r.setInput(AVIBMPDIB.prependDHTSeg((InputStream) in));
             }
-            didReturnImage = false;
-            image = r.read(0);
+            didSetJPEGInput = true;
         }
+        return r;
+    }
+
+    private ImageReader getJPEGReader() {
+        if (jpegReader == null) {
+            jpegReader = getBasicJPEGImageReader();
+        }
+        return jpegReader;
     }
 
     /**
@@ -136,15 +177,10 @@ public class MJPGImageReader extends ImageReader {
      */
     @Override
     public void dispose() {
-        try {
-            if (image != null && !didReturnImage) {
-                image.flush();
-            }
-        } catch (Throwable ex) {
-            // we don't care about exceptions here, because we don't need the
-            // image anymore
-        } finally {
-            image = null;
+        if (jpegReader != null) {
+            jpegReader.dispose();
+            jpegReader = null;
         }
+        gatheringInput.clear();
     }
 }
@@ -28,9 +28,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Set;
@@ -57,6 +60,71 @@ import static org.monte.media.av.codec.audio.AudioFormatKeys.SignedKey;
  * @author Werner Randelshofer
  */
 public class MP4OutputStream extends AbstractQTFFMovieStream {
+    /**
+     * Sample flags of a sync sample in a track fragment run: the sample does
+     * not depend on other samples.
+     */
+    private final static int SYNC_SAMPLE_FLAGS = 0x02000000;
+    /**
+     * Sample flags of a non-sync sample in a track fragment run: the sample
+     * depends on other samples, and is a non-sync sample.
+     */
+    private final static int NON_SYNC_SAMPLE_FLAGS = 0x01010000;
+    /**
+     * The output stream of a fragmented movie. This is null if the movie is
+     * not fragmented.
+     */
+    private OutputStream fragmentOut;
+    /**
+     * The duration of a movie fragment in seconds.
+     */
+    private Rational fragmentDuration;
+    /**
+     * The number of bytes that have been written into {@link #fragmentOut}.
+     */
+    private long fragmentStreamPosition;
+    /**
+     * The sequence number of the last movie fragment.
+     */
+    private int fragmentSequenceNumber;
+    private boolean isFragmentedHeaderWritten;
+    /**
+     * The samples of the current movie fragment, indexed by track.
+     */
+    private final ArrayList<TrackFragment> trackFragments = new ArrayList<>();
+
+    /**
+     * Holds the samples of a track that have not been written into a movie
+     * fragment yet.
+     */
+    private static class TrackFragment {
+        /**
+         * The sample data.
+         */
+        final ByteArrayImageOutputStream data = new ByteArrayImageOutputStream();
+        /**
+         * The entries of the track fragment run. Holds the duration, the
+         * size and the flags of each sample.
+         */
+        final ByteArrayImageOutputStream runEntries = new ByteArrayImageOutputStream();
+        int sampleCount;
+        /**
+         * The duration of the samples in media time scale units.
+         */
+        long duration;
+        /**
+         * The decode time of the first sample in media time scale units.
+         */
+        long baseMediaDecodeTime;
+        boolean startsWithSyncSample;
+        /**
+         * The entries of the track fragment random access atom. Holds the
+         * time, the moof offset and the traf number of each fragment that
+         * starts with a sync sample.
+         */
+        final ByteArrayImageOutputStream randomAccessEntries = new ByteArrayImageOutputStream();
+        int randomAccessCount;
+    }
 
     /**
      * Creates a new instance.
@@ -83,6 +151,39 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         init();
     }
 
+    /**
+     * Creates a new instance that writes a fragmented movie into a
+     * non-seekable output stream.
+     * <p>
+     * A fragmented movie starts with a movie header that describes the
+     * tracks but contains no samples. The samples are written in movie
+     * fragments ('moof' + 'mdat'), each fragment holds approximately the
+     * specified duration of media. A new fragment is started at a sync
+     * sample of the first video track, or at any sync sample if the movie
+     * has no video track.
+     * <p>
+     * The movie header is written when the first fragment is written, so
+     * that the sample descriptions of all tracks are complete. The stream
+     * only keeps the samples of the current fragment in memory, regardless
+     * of the duration of the movie. The movie ends with a movie fragment
+     * random access atom ('mfra'), which allows readers to seek without
+     * scanning all fragments.
+     *
+     * @param out              the output stream
+     * @param fragmentDuration the duration of a fragment in seconds
+     */
+    public MP4OutputStream(OutputStream out, Rational fragmentDuration) throws IOException {
+        if (fragmentDuration.compareTo(Rational.ZERO) <= 0) {
+            throw new IllegalArgumentException("fragmentDuration must be greater 0, fragmentDuration=" + fragmentDuration);
+        }
+        this.fragmentOut = out;
+        this.fragmentDuration = fragmentDuration;
+        // All atoms are rendered into this buffer before they are written into the output stream
+        this.out = new ByteArrayImageOutputStream();
+        this.streamOffset = 0;
+        init();
+    }
+
     private void init() {
         creationTime = modificationTime = Instant.ofEpochMilli(0);
     }
@@ -601,12 +702,23 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
             throw new IOException("Can not write into finished movie.");
         }
         if (state != States.STARTED) {
-            writeProlog();
-            mdatAtom = new WideDataAtom("mdat", out);
+            if (!isFragmented()) {
+                writeProlog();
+                mdatAtom = new WideDataAtom("mdat", out);
+            }
             state = States.STARTED;
         }
     }
 
+    /**
+     * Returns true if this stream writes a fragmented movie.
+     *
+     * @see #MP4OutputStream(OutputStream, Rational)
+     */
+    public boolean isFragmented() {
+        return fragmentOut != null;
+    }
+
 
     /**
      * Writes an already encoded sample from a file into a track. <p> This
@@ -653,6 +765,11 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
         ensureOpen();
         ensureStarted();
+        if (isFragmented()) {
+            byte[] data = in.readAllBytes();
+            writeFragmentSamples(track, 1, data, 0, data.length, duration, isSync);
+            return;
+        }
         long offset = getRelativeStreamPosition();
         QTFFImageOutputStream mdatOut = mdatAtom.getOutputStream();
         IOStreams.copy(in, mdatOut);
@@ -698,6 +815,10 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
         ensureOpen();
         ensureStarted();
+        if (isFragmented()) {
+            writeFragmentSamples(track, 1, data, off, len, duration, isSync);
+            return;
+        }
         long offset = getRelativeStreamPosition();
         ImageOutputStream mdatOut = mdatAtom.getOutputStream();
         if (false) {
@@ -784,6 +905,10 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
         ensureOpen();
         ensureStarted();
+        if (isFragmented()) {
+            writeFragmentSamples(track, sampleCount, data, off, len, sampleDuration, isSync);
+            return;
+        }
         long offset = getRelativeStreamPosition();
         ImageOutputStream mdatOut = mdatAtom.getOutputStream();
         int sampleLength;
@@ -795,6 +920,54 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         t.addChunk(new Chunk(first, last, sampleCount, 1), isSync);
     }
 
+    /**
+     * Copies multiple already encoded samples from a file channel into a
+     * track. <p> This method does not inspect the contents of the data. The
+     * contents has to match the format and dimensions of the media in this
+     * track.
+     *
+     * @param track          The track index.
+     * @param sampleCount    The number of samples.
+     * @param in             The file channel which holds the encoded sample data.
+     * @param position       The position of the sample data in the file channel.
+     * @param length         The number of bytes to copy. Must be dividable by
+     *                       sampleCount.
+     * @param sampleDuration The duration of a sample. All samples must have the
+     *                       same duration.
+     * @param isSync         Whether the samples are sync samples. All samples must
+     *                       either be sync samples or non-sync samples.
+     * @throws IllegalArgumentException if the duration is less than 1.
+     * @throws IOException              if copying the sample data failed.
+     */
+    public void writeSamples(int track, int sampleCount, FileChannel in, long position, long length, long sampleDuration, boolean isSync) throws IOException {
+        ensureStarted();
+        if (sampleDuration <= 0) {
+            throw new IllegalArgumentException("sampleDuration must be greater 0, sampleDuration=" + sampleDuration + " track=" + track);
+        }
+        if (sampleCount <= 0) {
+            throw new IllegalArgumentException("sampleCount must be greater 0, sampleCount=" + sampleCount + " track=" + track);
+        }
+        if (length % sampleCount != 0) {
+            throw new IllegalArgumentException("length must be divisable by sampleCount length=" + length + " sampleCount=" + sampleCount + " track=" + track);
+        }
+        Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
+        ensureOpen();
+        ensureStarted();
+        if (isFragmented()) {
+            byte[] data = new byte[Math.toIntExact(length)];
+            IOStreams.readFully(in, position, data, 0, data.length);
+            writeFragmentSamples(track, sampleCount, data, 0, data.length, sampleDuration, isSync);
+            return;
+        }
+        long offset = getRelativeStreamPosition();
+        IOStreams.copy(in, position, length, mdatAtom.getOutputStream());
+        long sampleLength = length / sampleCount;
+
+        Sample first = new Sample(sampleDuration, offset, sampleLength);
+        Sample last = new Sample(sampleDuration, offset + sampleLength * (sampleCount - 1), sampleLength);
+        t.addChunk(new Chunk(first, last, sampleCount, 1), isSync);
+    }
+
     /**
      * Returns true if the limit for media samples has been reached. If this
      * limit is reached, no more samples should be added to the movie. <p>
@@ -830,6 +1003,9 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         } finally {
             if (state != States.CLOSED) {
                 out.close();
+                if (fragmentOut != null) {
+                    fragmentOut.close();
+                }
                 state = States.CLOSED;
             }
         }
@@ -846,6 +1022,16 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
      */
     public void finish() throws IOException {
         ensureOpen();
+        if (state != States.FINISHED && isFragmented()) {
+            writeFragment();
+            if (!isFragmentedHeaderWritten) {
+                writeFragmentedHeader();
+            }
+            writeMovieFragmentRandomAccessAtoms();
+            fragmentOut.flush();
+            state = States.FINISHED;
+            return;
+        }
         if (state != States.FINISHED) {
             for (int i = 0, n = tracks.size(); i < n; i++) {
             }
@@ -862,6 +1048,337 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         }
     }
 
+    /**
+     * Adds samples to the current movie fragment. Writes the current movie
+     * fragment first, if the samples are sync samples and the fragment has
+     * reached its duration.
+     */
+    private void writeFragmentSamples(int track, int sampleCount, byte[] data, int off, int len, long sampleDuration, boolean isSync) throws IOException {
+        Track t = tracks.get(track);
+        if (isSync && isFragmentBoundary(track)) {
+            writeFragment();
+        }
+        TrackFragment f = getTrackFragment(track);
+        if (f.sampleCount == 0) {
+            f.startsWithSyncSample = isSync;
+        }
+        f.data.write(data, off, len);
+        int sampleLength = len / sampleCount;
+        for (int i = 0; i < sampleCount; i++) {
+            f.runEntries.writeInt((int) sampleDuration);
+            f.runEntries.writeInt(sampleLength);
+            f.runEntries.writeInt(isSync ? SYNC_SAMPLE_FLAGS : NON_SYNC_SAMPLE_FLAGS);
+        }
+        f.sampleCount += sampleCount;
+        f.duration += sampleDuration * sampleCount;
+        t.sampleCount += sampleCount;
+        t.mediaDuration += sampleDuration * sampleCount;
+    }
+
+    private TrackFragment getTrackFragment(int track) {
+        while (trackFragments.size() <= track) {
+            trackFragments.add(new TrackFragment());
+        }
+        return trackFragments.get(track);
+    }
+
+    /**
+     * Returns true if a sync sample of the specified track may start a new
+     * movie fragment.
+     */
+    private boolean isFragmentBoundary(int track) {
+        int primaryTrack = -1;
+        for (int i = 0, n = tracks.size(); i < n; i++) {
+            if (tracks.get(i) instanceof VideoTrack) {
+                primaryTrack = i;
+                break;
+            }
+        }
+        if (primaryTrack != -1 && primaryTrack != track) {
+            return false;
+        }
+        for (int i = 0, n = trackFragments.size(); i < n; i++) {
+            TrackFragment f = trackFragments.get(i);
+            long timeScale = tracks.get(i).mediaTimeScale;
+            // f.duration / timeScale >= fragmentDuration
+            if (f.duration * fragmentDuration.getDenominator() >= fragmentDuration.getNumerator() * timeScale) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the file type atom and the movie header of a fragmented movie.
+     */
+    private void writeFragmentedHeader() throws IOException {
+        ByteArrayImageOutputStream buf = (ByteArrayImageOutputStream) out;
+        buf.clear();
+        writeProlog();
+        writeEpilog();
+        buf.toOutputStream(fragmentOut);
+        fragmentStreamPosition += buf.size();
+        buf.clear();
+        isFragmentedHeaderWritten = true;
+    }
+
+    /**
+     * Writes the current movie fragment, if it contains samples.
+     */
+    private void writeFragment() throws IOException {
+        if (!isFragmentedHeaderWritten) {
+            writeFragmentedHeader();
+        }
+        int trafCount = 0;
+        long dataSize = 0;
+        for (TrackFragment f : trackFragments) {
+            if (f.sampleCount > 0) {
+                trafCount++;
+                dataSize += f.data.size();
+            }
+        }
+        if (trafCount == 0) {
+            return;
+        }
+        fragmentSequenceNumber++;
+
+        ByteArrayImageOutputStream buf = (ByteArrayImageOutputStream) out;
+        buf.clear();
+        long moofOffset = fragmentStreamPosition;
+        long[] dataOffsetPositions = new long[trackFragments.size()];
+
+        /* Movie Fragment Atom ========= */
+        CompositeAtom moofAtom = new CompositeAtom("moof", out);
+
+        /* Movie Fragment Header Atom -------
+        typedef struct {
+            byte version;
+            byte[3] flags;
+            uint sequenceNumber;
+        } movieFragmentHeaderAtom;
+         */
+        DataAtom leaf = new DataAtom("mfhd", out);
+        moofAtom.add(leaf);
+        QTFFImageOutputStream d = leaf.getOutputStream();
+        d.writeInt(0); // version + flags
+        d.writeUInt(fragmentSequenceNumber);
+
+        int trafNumber = 0;
+        for (int i = 0, n = trackFragments.size(); i < n; i++) {
+            TrackFragment f = trackFragments.get(i);
+            if (f.sampleCount == 0) {
+                continue;
+            }
+            trafNumber++;
+
+            /* Track Fragment Atom ========= */
+            CompositeAtom trafAtom = new CompositeAtom("traf", out);
+            moofAtom.add(trafAtom);
+
+            /* Track Fragment Header Atom -------
+            typedef struct {
+                byte version;
+                byte[3] flags; // 0x020000 = default-base-is-moof
+                uint trackId;
+            } trackFragmentHeaderAtom;
+             */
+            leaf = new DataAtom("tfhd", out);
+            trafAtom.add(leaf);
+            d = leaf.getOutputStream();
+            d.writeInt(0x020000); // version + flags
+            d.writeUInt(i + 1); // trackId
+
+            /* Track Fragment Decode Time Atom -------
+            typedef struct {
+                byte version; // 1
+                byte[3] flags;
+                ulong baseMediaDecodeTime;
+            } trackFragmentBaseMediaDecodeTimeAtom;
+             */
+            leaf = new DataAtom("tfdt", out);
+            trafAtom.add(leaf);
+            d = leaf.getOutputStream();
+            d.writeInt(0x01000000); // version + flags
+            d.writeLong(f.baseMediaDecodeTime);
+
+            /* Track Fragment Run Atom -------
+            typedef struct {
+                byte version;
+                byte[3] flags; // 0x000001 = data-offset-present,
+                               // 0x000100 = sample-duration-present,
+                               // 0x000200 = sample-size-present,
+                               // 0x000400 = sample-flags-present
+                uint sampleCount;
+                int dataOffset;
+                trackRunEntry[sampleCount] entries;
+            } trackFragmentRunAtom;
+
+            typedef struct {
+                uint sampleDuration;
+                uint sampleSize;
+                uint sampleFlags;
+            } trackRunEntry;
+             */
+            leaf = new DataAtom("trun", out);
+            trafAtom.add(leaf);
+            d = leaf.getOutputStream();
+            d.writeInt(0x000701); // version + flags
+            d.writeUInt(f.sampleCount);
+            dataOffsetPositions[i] = buf.getStreamPosition();
+            d.writeInt(0); // dataOffset, we patch this when we know the size of the moof atom
+            d.write(f.runEntries.getBuffer(), 0, f.runEntries.size());
+
+            if (f.startsWithSyncSample) {
+                f.randomAccessEntries.writeLong(f.baseMediaDecodeTime);
+                f.randomAccessEntries.writeLong(moofOffset);
+                f.randomAccessEntries.writeByte(trafNumber);
+                f.randomAccessCount++;
+            }
+        }
+        moofAtom.finish();
+
+        // Patch the data offsets. They are relative to the start of the moof atom.
+        long moofSize = moofAtom.size();
+        boolean isLargeMdat = dataSize + 8 > 0xffffffffL;
+        long dataOffset = moofSize + (isLargeMdat ? 16 : 8);
+        long endOfMoof = buf.getStreamPosition();
+        for (int i = 0, n = trackFragments.size(); i < n; i++) {
+            TrackFragment f = trackFragments.get(i);
+            if (f.sampleCount == 0) {
+                continue;
+            }
+            buf.seek(dataOffsetPositions[i]);
+            buf.writeInt((int) dataOffset);
+            dataOffset += f.data.size();
+        }
+        buf.seek(endOfMoof);
+
+        /* Media Data Atom ========= */
+        if (isLargeMdat) {
+            buf.writeInt(1);
+            buf.writeInt(typeToInt("mdat"));
+            buf.writeLong(dataSize + 16);
+        } else {
+            buf.writeInt((int) (dataSize + 8));
+            buf.writeInt(typeToInt("mdat"));
+        }
+        buf.toOutputStream(fragmentOut);
+        fragmentStreamPosition += buf.size();
+        buf.clear();
+        for (TrackFragment f : trackFragments) {
+            if (f.sampleCount > 0) {
+                f.data.toOutputStream(fragmentOut);
+                fragmentStreamPosition += f.data.size();
+                f.baseMediaDecodeTime += f.duration;
+                f.data.clear();
+                f.runEntries.clear();
+                f.sampleCount = 0;
+                f.duration = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes the movie extends atom of a fragmented movie.
+     */
+    private void writeMovieExtendsAtoms(CompositeAtom moovAtom) throws IOException {
+        /* Movie Extends Atom ========= */
+        CompositeAtom mvexAtom = new CompositeAtom("mvex", out);
+        moovAtom.add(mvexAtom);
+
+        for (int i = 0, n = tracks.size(); i < n; i++) {
+            /* Track Extends Atom -------
+            typedef struct {
+                byte version;
+                byte[3] flags;
+                uint trackId;
+                uint defaultSampleDescriptionIndex;
+                uint defaultSampleDuration;
+                uint defaultSampleSize;
+                uint defaultSampleFlags;
+            } trackExtendsAtom;
+             */
+            DataAtom leaf = new DataAtom("trex", out);
+            mvexAtom.add(leaf);
+            QTFFImageOutputStream d = leaf.getOutputStream();
+            d.writeInt(0); // version + flags
+            d.writeUInt(i + 1); // trackId
+            d.writeUInt(1); // defaultSampleDescriptionIndex
+            d.writeUInt(0); // defaultSampleDuration
+            d.writeUInt(0); // defaultSampleSize
+            d.writeUInt(0); // defaultSampleFlags
+        }
+    }
+
+    /**
+     * Writes the movie fragment random access atom of a fragmented movie.
+     */
+    private void writeMovieFragmentRandomAccessAtoms() throws IOException {
+        ByteArrayImageOutputStream buf = (ByteArrayImageOutputStream) out;
+        buf.clear();
+
+        /* Movie Fragment Random Access Atom ========= */
+        CompositeAtom mfraAtom = new CompositeAtom("mfra", out);
+        for (int i = 0, n = trackFragments.size(); i < n; i++) {
+            TrackFragment f = trackFragments.get(i);
+            if (f.randomAccessCount == 0) {
+                continue;
+            }
+            /* Track Fragment Random Access Atom -------
+            typedef struct {
+                byte version; // 1
+                byte[3] flags;
+                uint trackId;
+                uint lengthSizes; // 0 = trafNumber, trunNumber and sampleNumber are 1 byte long
+                uint numberOfEntries;
+                trackFragmentRandomAccessEntry[numberOfEntries] entries;
+            } trackFragmentRandomAccessAtom;
+
+            typedef struct {
+                ulong time;
+                ulong moofOffset;
+                ubyte trafNumber;
+                ubyte trunNumber;
+                ubyte sampleNumber;
+            } trackFragmentRandomAccessEntry;
+             */
+            DataAtom leaf = new DataAtom("tfra", out);
+            mfraAtom.add(leaf);
+            QTFFImageOutputStream d = leaf.getOutputStream();
+            d.writeInt(0x01000000); // version + flags
+            d.writeUInt(i + 1); // trackId
+            d.writeInt(0); // lengthSizes
+            d.writeUInt(f.randomAccessCount);
+            ByteArrayImageOutputStream entries = f.randomAccessEntries;
+            entries.seek(0);
+            for (int j = 0; j < f.randomAccessCount; j++) {
+                d.writeLong(entries.readLong()); // time
+                d.writeLong(entries.readLong()); // moofOffset
+                d.writeByte(entries.readUnsignedByte()); // trafNumber
+                d.writeByte(1); // trunNumber
+                d.writeByte(1); // sampleNumber
+            }
+        }
+
+        /* Movie Fragment Random Access Offset Atom -------
+        typedef struct {
+            byte version;
+            byte[3] flags;
+            uint mfraSize;
+        } movieFragmentRandomAccessOffsetAtom;
+         */
+        DataAtom leaf = new DataAtom("mfro", out);
+        mfraAtom.add(leaf);
+        QTFFImageOutputStream d = leaf.getOutputStream();
+        d.writeInt(0); // version + flags
+        d.writeUInt(mfraAtom.size() + 4); // 4 bytes of the mfro atom have not been written yet
+        mfraAtom.finish();
+
+        buf.toOutputStream(fragmentOut);
+        fragmentStreamPosition += buf.size();
+        buf.clear();
+    }
+
     /**
      * Check to make sure that this stream has not been closed
      */
@@ -899,7 +1416,8 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
     }
 
     private void writeEpilog() throws IOException {
-        long duration = getMovieDuration();
+        // The duration of a fragmented movie is given by its fragments
+        long duration = isFragmented() ? 0 : getMovieDuration();
 
         DataAtom leaf;
 
@@ -1040,6 +1558,10 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         }
 
 
+        if (isFragmented()) {
+            writeMovieExtendsAtoms(moovAtom);
+        }
+
         //
         moovAtom.finish();
     }
@@ -1123,7 +1645,7 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         d.writeInt(0); // reserved;
         // A 32-bit integer that is reserved for use by Apple. Set this field to 0.
 
-        d.writeUInt(t.getTrackDuration(movieTimeScale)); // duration
+        d.writeUInt(isFragmented() ? 0 : t.getTrackDuration(movieTimeScale)); // duration
         // A time value that indicates the duration of this track (in the
         // movie’s time coordinate system). Note that this property is derived
         // from the track’s edits. The value of this field is equal to the sum
@@ -1261,7 +1783,7 @@ public class MP4OutputStream extends AbstractQTFFMovieStream {
         // the number of time units that pass per second in its time coordinate
         // system.
 
-        d.writeUInt(t.mediaDuration); // duration
+        d.writeUInt(isFragmented() ? 0 : t.mediaDuration); // duration
         // The duration of this media in units of its time scale.
 
         d.writeShort(0); // language;
@@ -11,6 +11,7 @@ import org.monte.media.av.FormatKeys;
 import org.monte.media.av.FormatKeys.MediaType;
 import org.monte.media.av.MovieWriter;
 import org.monte.media.av.Registry;
+import org.monte.media.av.StreamCopySink;
 import org.monte.media.av.codec.video.VideoFormatKeys;
 import org.monte.media.math.Rational;
 import org.monte.media.qtff.AbstractQTFFMovieStream;
@@ -20,8 +21,11 @@ import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.monte.media.av.BufferFlag.DISCARD;
@@ -57,7 +61,7 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  *
  * @author Werner Randelshofer
  */
-public class MP4Writer extends MP4OutputStream implements MovieWriter {
+public class MP4Writer extends MP4OutputStream implements StreamCopySink {
     private static class TrackEncoder {
         /**
          * The codec.
@@ -89,6 +93,18 @@ public class MP4Writer extends MP4OutputStream implements MovieWriter {
         super(out);
     }
 
+    /**
+     * Creates a new MP4 writer that writes a fragmented movie into a
+     * non-seekable output stream.
+     *
+     * @param out              the output stream.
+     * @param fragmentDuration the duration of a movie fragment in seconds.
+     * @see MP4OutputStream#MP4OutputStream(OutputStream, Rational)
+     */
+    public MP4Writer(OutputStream out, Rational fragmentDuration) throws IOException {
+        super(out, fragmentDuration);
+    }
+
 
     @Override
     public Format getFileFormat() throws IOException {
@@ -399,6 +415,54 @@ public class MP4Writer extends MP4OutputStream implements MovieWriter {
         write(track, buf);
     }
 
+    @Override
+    public void copySamples(int track, int sampleCount, FileChannel in, long position, long length, Rational sampleDuration, boolean isSync) throws IOException {
+        writeSamples(track, sampleCount, in, position, length, toMediaDuration(track, sampleDuration), isSync);
+    }
+
+    @Override
+    public void copySamples(int track, int sampleCount, byte[] data, int off, int len, Rational sampleDuration, boolean isSync) throws IOException {
+        writeSamples(track, sampleCount, data, off, len, toMediaDuration(track, sampleDuration), isSync);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * H.264 tracks accept an {@link AvcDecoderConfigurationRecord}.
+     */
+    @Override
+    public void setTrackHeader(int track, Object header) {
+        AbstractQTFFMovieStream.Track tr = tracks.get(track);
+        if (header instanceof AvcDecoderConfigurationRecord r && tr instanceof VideoTrack vtr) {
+            vtr.avcDecoderConfigurationRecord = r;
+        } else if (header != null) {
+            throw new IllegalArgumentException("Unsupported header " + header + " for track " + track);
+        }
+    }
+
+    @Override
+    public Rational getMediaEndTime(int track) {
+        return new Rational(getMediaDuration(track), getMediaTimeScale(track));
+    }
+
+    @Override
+    public boolean addEdit(int track, Rational mediaTime, Rational duration) {
+        AbstractQTFFMovieStream.Track tr = tracks.get(track);
+        Edit[] editList = tr.editList == null ? new Edit[1] : Arrays.copyOf(tr.editList, tr.editList.length + 1);
+        editList[editList.length - 1] = new Edit(
+                (int) duration.multiply(getMovieTimeScale()).round(1).longValue(),
+                (int) mediaTime.multiply(tr.mediaTimeScale).round(1).longValue(), 1.0);
+        setEditList(track, editList);
+        return true;
+    }
+
+    /**
+     * Converts a duration in seconds into the media time scale of a track.
+     */
+    private long toMediaDuration(int track, Rational duration) {
+        return Math.max(1, duration.multiply(tracks.get(track).mediaTimeScale).longValue());
+    }
+
     private TrackEncoder getTrackEncoder(int track) {
         while (trackEncoders.size() <= track) {
             trackEncoders.add(new TrackEncoder());
@@ -11,7 +11,9 @@ import org.monte.media.av.FormatKeys;
 import org.monte.media.av.codec.video.AbstractVideoCodec;
 import org.monte.media.impl.jcodec.api.transcode.PixelStore;
 import org.monte.media.impl.jcodec.api.transcode.VideoFrameWithPacket;
+import org.monte.media.impl.jcodec.codecs.h264.H264Decoder;
 import org.monte.media.impl.jcodec.codecs.h264.H264Utils;
+import org.monte.media.impl.jcodec.codecs.h264.io.model.Frame;
 import org.monte.media.impl.jcodec.codecs.h264.io.model.SeqParameterSet;
 import org.monte.media.impl.jcodec.common.VideoEncoder;
 import org.monte.media.impl.jcodec.common.io.NIOUtils;
@@ -43,16 +45,24 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVC1;
 import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
 import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.MotionSearchRangeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.RateDistortionOptimizationKey;
 import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
 import static org.monte.media.mp4.codec.video.JCodecPictureCodec.ENCODING_PICTURE;
 
 /**
- * Codec for {@link BufferedImage} or {@link Picture} to {@code H264} byte array.
+ * Codec for {@link BufferedImage} or {@link Picture} to {@code H264} byte array,
+ * and from {@code H264} byte array to {@link BufferedImage} or {@link Picture}.
+ * <p>
+ * The decoder needs the {@link AvcDecoderConfigurationRecord} in the
+ * {@link Buffer#header} of the first key frame.
  */
 public class H264Codec extends AbstractVideoCodec {
     private VideoEncoder videoEncoder = null;
     private ByteBuffer byteBuffer;
     private int frameCounter;
+    private H264Decoder videoDecoder;
+    private SeqParameterSet decoderSps;
+    private int nalLengthSize;
     public H264Codec() {
         super(new Format[]{
                         new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
@@ -61,12 +71,22 @@ public class H264Codec extends AbstractVideoCodec {
                         new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
                                 EncodingKey, ENCODING_PICTURE,
                                 DataClassKey, Picture.class), //
+                        new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
+                                EncodingKey, ENCODING_AVC1,
+                                DataClassKey, byte[].class), //
                 },
                 new Format[]{
                         new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
                                 DepthKey, 24,
                                 EncodingKey, ENCODING_AVC1,
                                 DataClassKey, byte[].class), //
+                        new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
+                                DepthKey, 24,
+                                EncodingKey, ENCODING_BUFFERED_IMAGE,
+                                DataClassKey, BufferedImage.class), //
+                        new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
+                                EncodingKey, ENCODING_PICTURE,
+                                DataClassKey, Picture.class), //
                 }//
         );
         name = "JCodec H264 Codec";
@@ -82,14 +102,16 @@ public class H264Codec extends AbstractVideoCodec {
                 outputFormat = outputFormat.prepend(inputFormat.intersectKeys(WidthKey, HeightKey, DepthKey));
             }
             // Suggest a keyframe rate and motion compensation
-            outputFormat = outputFormat.append(KeyFrameIntervalKey, 60, MotionSearchRangeKey, 16);
+            if (ENCODING_AVC1.equals(outputFormat.get(EncodingKey))) {
+                outputFormat = outputFormat.append(KeyFrameIntervalKey, 60, MotionSearchRangeKey, 16);
+            }
         }
         return this.outputFormat;
     }
 
     @Override
     public int process(Buffer in, Buffer out) {
-        if (ENCODING_PICTURE.equals(outputFormat.get(EncodingKey))) {
+        if (ENCODING_AVC1.equals(inputFormat.get(EncodingKey))) {
             return decode(in, out);
         } else {
             return encode(in, out);
@@ -102,16 +124,85 @@ public class H264Codec extends AbstractVideoCodec {
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
         }
+        if (in.header instanceof AvcDecoderConfigurationRecord r) {
+            setDecoderConfiguration(r);
+        }
+        if (videoDecoder == null) {
+            out.setException(new IllegalStateException("H264 decoder configuration record is missing"));
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+
+        Frame frame;
+        try {
+            // The decoder keeps references to the frames that it has decoded,
+            // therefore we can not reuse the pixel buffer.
+            int codedWidth = (decoderSps.picWidthInMbsMinus1 + 1) << 4;
+            int codedHeight = SeqParameterSet.getPicHeightInMbs(decoderSps) << 4;
+            frame = videoDecoder.decodeFrameFromNals(splitNalUnits(in), Picture.create(codedWidth, codedHeight, ColorSpace.YUV420).getData());
+        } catch (RuntimeException e) {
+            out.setException(e);
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        if (frame == null) {
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
+        if (decoderSps.vuiParams != null && decoderSps.vuiParams.videoSignalTypePresentFlag
+                && decoderSps.vuiParams.videoFullRangeFlag) {
+            frame.setColor(ColorSpace.YUV420J);
+        }
+
+        out.data = ENCODING_PICTURE.equals(outputFormat.get(EncodingKey)) ? frame : AWTUtil.toBufferedImage(frame);
+        out.offset = 0;
+        out.length = 1;
+        return CODEC_OK;
+    }
 
-        out.setException(new UnsupportedOperationException("decoding is not supported"));
-        out.setFlag(DISCARD);
-        return CODEC_FAILED;
+    private void setDecoderConfiguration(AvcDecoderConfigurationRecord r) {
+        if (r.sequenceParameterSetNALUnit().isEmpty() || r.pictureParameterSetNALUnit().isEmpty()) {
+            return;
+        }
+        Function<ByteArray, ByteBuffer> byteArrayFunction = b -> ByteBuffer.wrap(b.getArray());
+        if (videoDecoder == null) {
+            videoDecoder = new H264Decoder();
+        }
+        videoDecoder.addSps(r.sequenceParameterSetNALUnit().stream().map(byteArrayFunction).collect(Collectors.toList()));
+        videoDecoder.addPps(r.pictureParameterSetNALUnit().stream().map(byteArrayFunction).collect(Collectors.toList()));
+        decoderSps = SeqParameterSet.read(byteArrayFunction.apply(r.sequenceParameterSetNALUnit().iterator().next()));
+        nalLengthSize = r.nalLengthSize();
+    }
 
+    /**
+     * Splits the sample data into NAL units. Each NAL unit is preceded by
+     * its length.
+     */
+    private List<ByteBuffer> splitNalUnits(Buffer in) {
+        byte[] data = (byte[]) in.data;
+        List<ByteBuffer> nalUnits = new ArrayList<>();
+        for (int i = in.offset, end = in.offset + in.length; i + nalLengthSize <= end; ) {
+            int length = 0;
+            for (int j = 0; j < nalLengthSize; j++) {
+                length = (length << 8) | (data[i++] & 0xff);
+            }
+            if (length > end - i) {
+                throw new IllegalArgumentException("Illegal NAL unit length: " + length);
+            }
+            nalUnits.add(ByteBuffer.wrap(data, i, length).slice());
+            i += length;
+        }
+        return nalUnits;
     }
 
     @Override
     public void reset() {
         frameCounter = 0;
+        // The encoder decides on its own when it emits an IDR frame.
+        // Discard it, so that the next frame is encoded as an IDR frame.
+        videoEncoder = null;
+        videoDecoder = null;
+        decoderSps = null;
     }
 
     public int encode(Buffer in, Buffer out) {
@@ -187,6 +278,7 @@ public class H264Codec extends AbstractVideoCodec {
                 enc.setMotionSearchRange(motionSearchRange);
             }
             enc.setKeyInterval(outputFormat.get(KeyFrameIntervalKey));
+            enc.setEnableRdo(outputFormat.get(RateDistortionOptimizationKey, false));
 
             videoEncoder = enc;
         }
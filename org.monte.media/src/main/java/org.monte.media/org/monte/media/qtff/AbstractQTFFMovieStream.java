@@ -575,6 +575,13 @@ public class AbstractQTFFMovieStream {
          * The compressor name.
          */
         public String mediaCompressorName;
+        /**
+         * The sample description atom ('stsd') in encoded form. This field is
+         * null unless the track has been restored from a journal. If it is
+         * non-null, it is written instead of generating the sample
+         * description from the other fields of the track.
+         */
+        public byte[] sampleDescription;
         /**
          * The duration of the media in this track in media time units.
          */
@@ -7,7 +7,9 @@ package org.monte.media.quicktime;
 import org.monte.media.av.FormatKeys.MediaType;
 import org.monte.media.color.Colors;
 import org.monte.media.io.ByteArrayImageInputStream;
+import org.monte.media.qtff.AvcDecoderConfigurationRecord;
 import org.monte.media.qtff.QTFFImageInputStream;
+import org.monte.media.util.ByteArray;
 import org.monte.media.util.MathUtil;
 
 import javax.imageio.stream.FileImageInputStream;
@@ -15,12 +17,15 @@ import javax.imageio.stream.ImageInputStream;
 import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.zip.InflaterInputStream;
 
@@ -96,7 +101,14 @@ public class QuickTimeDeserializer {
     protected void parse(QTFFImageInputStream in, QuickTimeMeta m) throws IOException {
         parseRecursively(in, in.length(), m);
         for (QuickTimeMeta.Track track : m.tracks) {
-            track.buildSamplesTable(m.timeScale);
+            if (m.fragmented && track.media != null && track.media.sampleSizes.isEmpty()) {
+                track.buildFragmentedSamplesTable();
+            } else {
+                track.buildSamplesTable(m.timeScale);
+            }
+        }
+        if (m.fragmented && m.nextFragmentPosition >= 0) {
+            parseMovieFragmentRandomAccess(in, m);
         }
     }
 
@@ -149,12 +161,22 @@ public class QuickTimeDeserializer {
 
             String t = atom.type;
 
+            if ("moof".equals(t)) {
+                // Movie fragments are indexed lazily with parseNextMovieFragment.
+                // We stop here, because all atoms that we need for realizing
+                // the movie precede the first movie fragment.
+                m.nextFragmentPosition = atom.offset;
+                return;
+            }
+
             if (compositeAtoms.contains(atom.type)) {
                 // Perform pre-processing
                 if ("trak".equals(t)) {
                     m.tracks.add(new QuickTimeMeta.Track());
                 } else if ("mdia".equals(t)) {
                     m.tracks.get(m.getTrackCount() - 1).media = new QuickTimeMeta.Media();
+                } else if ("mvex".equals(t)) {
+                    m.fragmented = true;
                 }
                 // Perform recursion:
                 parseRecursively(in, atom.size - atom.headerSize, m);
@@ -168,6 +190,13 @@ public class QuickTimeDeserializer {
                             parseFileType(in, atom.size - atom.headerSize, m);
                             break;
                         case "wide":
+                        case "mfra":
+                            break;
+                        case "mehd":
+                            parseMovieExtendsHeader(in, atom.size - atom.headerSize, m);
+                            break;
+                        case "trex":
+                            parseTrackExtends(in, atom.size - atom.headerSize, m);
                             break;
                         case "mdat":
                             parseMovieData(in, atom.size - atom.headerSize, m);
@@ -1024,6 +1053,7 @@ public class QuickTimeDeserializer {
             final QuickTimeMeta.SampleDescription d = new QuickTimeMeta.SampleDescription();
             m.addSampleDescription(d);
 
+            long entryOffset = in.getStreamPosition();
             int size = in.readInt();
             remainingSize -= size;
             d.dataFormat = in.readType();
@@ -1073,9 +1103,78 @@ public class QuickTimeDeserializer {
             if (d.videoColorTableId == 0) {
                 d.videoColorTable = readVideoColorTable(in);
             }
+
+            // The sample description may be followed by extension atoms
+            long entryEnd = entryOffset + size;
+            while (in.getStreamPosition() + 8 <= entryEnd) {
+                long extOffset = in.getStreamPosition();
+                long extSize = in.readUnsignedInt();
+                String extType = in.readType();
+                if (extSize < 8 || extOffset + extSize > entryEnd) {
+                    break;
+                }
+                if ("avcC".equals(extType)) {
+                    d.avcDecoderConfigurationRecord = readAvcDecoderConfigurationRecord(in);
+                }
+                in.seek(extOffset + extSize);
+            }
+            in.seek(entryEnd);
         }
     }
 
+    /**
+     * Reads the body of an "avcC" atom.
+     * <pre>
+     * aligned(8) class AVCDecoderConfigurationRecord {
+     *     uint8 configurationVersion = 1;
+     *     uint8 AVCProfileIndication;
+     *     uint8 profile_compatibility;
+     *     uint8 AVCLevelIndication;
+     *     bit(6) reserved = '111111'b;
+     *     uint2 lengthSizeMinusOne;
+     *     bit(3) reserved = '111'b;
+     *     uint5 numOfSequenceParameterSets;
+     *     { uint16 sequenceParameterSetLength;
+     *       bit(8*sequenceParameterSetLength) sequenceParameterSetNALUnit;
+     *     } [numOfSequenceParameterSets];
+     *     uint8 numOfPictureParameterSets;
+     *     { uint16 pictureParameterSetLength;
+     *       bit(8*pictureParameterSetLength) pictureParameterSetNALUnit;
+     *     } [numOfPictureParameterSets];
+     * }
+     * </pre>
+     * The NAL unit header byte of the parameter sets is not included in the
+     * record, because {@code QuickTimeOutputStream} adds it when it writes
+     * the record.
+     */
+    private AvcDecoderConfigurationRecord readAvcDecoderConfigurationRecord(QTFFImageInputStream in) throws IOException {
+        in.readUnsignedByte(); // configurationVersion
+        int profile = in.readUnsignedByte();
+        int compatibility = in.readUnsignedByte();
+        int level = in.readUnsignedByte();
+        int nalLengthSize = (in.readUnsignedByte() & 0b11) + 1;
+        Set<ByteArray> spsList = new LinkedHashSet<>();
+        for (int i = 0, n = in.readUnsignedByte() & 0b11111; i < n; i++) {
+            spsList.add(readParameterSet(in));
+        }
+        Set<ByteArray> ppsList = new LinkedHashSet<>();
+        for (int i = 0, n = in.readUnsignedByte(); i < n; i++) {
+            ppsList.add(readParameterSet(in));
+        }
+        return new AvcDecoderConfigurationRecord(profile, compatibility, level, nalLengthSize, spsList, ppsList);
+    }
+
+    private ByteArray readParameterSet(QTFFImageInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length == 0) {
+            throw new IOException("avcC atom contains an empty parameter set");
+        }
+        in.readUnsignedByte(); // NAL unit header
+        byte[] b = new byte[length - 1];
+        in.readFully(b);
+        return new ByteArray(b);
+    }
+
     private IndexColorModel readVideoColorTable(QTFFImageInputStream in) throws IOException {
 
         in.readUnsignedInt(); // Color table seed. A 32-bit integer that must be set to 0.
@@ -1374,4 +1473,371 @@ public class QuickTimeDeserializer {
             }
         }
     }
+
+    /**
+     * The movie extends header ("mehd"-atom) gives the duration of a
+     * fragmented movie.
+     * <pre>
+     * typedef struct {
+     *     byte version;
+     *     byte[3] flags;
+     *     uint32_or_64 fragmentDuration; // 64 bit if version is 1
+     * } movieExtendsHeaderAtom;
+     * </pre>
+     */
+    protected void parseMovieExtendsHeader(QTFFImageInputStream in, long remainingSize, QuickTimeMeta m) throws IOException {
+        int version = in.readUnsignedByte();
+        in.skipBytes(3);
+        m.fragmentDuration = version == 1 ? in.readLong() : in.readUnsignedInt();
+    }
+
+    /**
+     * The track extends atom ("trex"-atom) sets up the default values for
+     * the samples in the movie fragments of a track.
+     * <pre>
+     * typedef struct {
+     *     byte version;
+     *     byte[3] flags;
+     *     uint trackId;
+     *     uint defaultSampleDescriptionIndex;
+     *     uint defaultSampleDuration;
+     *     uint defaultSampleSize;
+     *     uint defaultSampleFlags;
+     * } trackExtendsAtom;
+     * </pre>
+     */
+    protected void parseTrackExtends(QTFFImageInputStream in, long remainingSize, QuickTimeMeta m) throws IOException {
+        if (remainingSize < 24) return;
+        in.skipBytes(4);
+        QuickTimeMeta.Track t = m.findTrackById(in.readInt());
+        if (t == null) return;
+        t.defaultSampleDescriptionIndex = in.readInt();
+        t.defaultSampleDuration = in.readUnsignedInt();
+        t.defaultSampleSize = in.readUnsignedInt();
+        t.defaultSampleFlags = in.readInt();
+    }
+
+    /**
+     * Reads the movie fragment random access atom ("mfra"-atom) at the end of
+     * a fragmented movie. The atom is located with the movie fragment random
+     * access offset atom ("mfro"-atom), which must be the last atom in the
+     * file.
+     * <pre>
+     * typedef struct {
+     *     trackFragmentRandomAccessAtom[] tfra;
+     *     movieFragmentRandomAccessOffsetAtom mfro;
+     * } movieFragmentRandomAccessAtom;
+     *
+     * typedef struct {
+     *     byte version;
+     *     byte[3] flags;
+     *     uint size; // size of the enclosing mfra atom
+     * } movieFragmentRandomAccessOffsetAtom;
+     * </pre>
+     */
+    protected void parseMovieFragmentRandomAccess(QTFFImageInputStream in, QuickTimeMeta m) throws IOException {
+        long length = in.length();
+        if (length < m.nextFragmentPosition + 16) return;
+        in.seek(length - 16);
+        if (in.readInt() != 16 || !"mfro".equals(in.readType())) return;
+        in.skipBytes(4);
+        long mfraSize = in.readUnsignedInt();
+        long mfraOffset = length - mfraSize;
+        if (mfraSize < 24 || mfraOffset < m.nextFragmentPosition) return;
+        in.seek(mfraOffset);
+        if ((in.readInt() & 0xffffffffL) != mfraSize || !"mfra".equals(in.readType())) return;
+
+        m.fragmentsEnd = mfraOffset;
+        long offset = mfraOffset + 8;
+        while (offset + 8 <= length - 16) {
+            in.seek(offset);
+            long size = in.readInt() & 0xffffffffL;
+            String type = in.readType();
+            if (size < 8) break;
+            if ("tfra".equals(type)) {
+                parseTrackFragmentRandomAccess(in, size - 8, m);
+            }
+            offset += size;
+        }
+    }
+
+    /**
+     * The track fragment random access atom ("tfra"-atom) lists the sync
+     * samples of a track, and the movie fragments that contain them.
+     * <pre>
+     * typedef struct {
+     *     byte version;
+     *     byte[3] flags;
+     *     uint trackId;
+     *     uint reservedAndSizes; // the lower 6 bits hold the sizes - 1 of
+     *                            // trafNumber, trunNumber and sampleNumber
+     *     uint numberOfEntries;
+     *     randomAccessEntry[numberOfEntries] entries;
+     * } trackFragmentRandomAccessAtom;
+     *
+     * typedef struct {
+     *     uint32_or_64 time;      // 64 bit if version is 1
+     *     uint32_or_64 moofOffset; // 64 bit if version is 1
+     *     byte[] trafNumber;
+     *     byte[] trunNumber;
+     *     byte[] sampleNumber;
+     * } randomAccessEntry;
+     * </pre>
+     */
+    protected void parseTrackFragmentRandomAccess(QTFFImageInputStream in, long remainingSize, QuickTimeMeta m) throws IOException {
+        int version = in.readUnsignedByte();
+        in.skipBytes(3);
+        QuickTimeMeta.Track t = m.findTrackById(in.readInt());
+        int sizes = in.readInt();
+        long numberOfEntries = in.readUnsignedInt();
+        if (t == null) return;
+        int numberSizes = ((sizes >>> 4) & 3) + ((sizes >>> 2) & 3) + (sizes & 3) + 3;
+        t.randomAccessPoints = new TreeMap<>();
+        for (long i = 0; i < numberOfEntries; i++) {
+            long time = version == 1 ? in.readLong() : in.readUnsignedInt();
+            long moofOffset = version == 1 ? in.readLong() : in.readUnsignedInt();
+            in.skipBytes(numberSizes);
+            t.randomAccessPoints.put(time, moofOffset);
+        }
+    }
+
+    /**
+     * Indexes the next movie fragment ("moof"-atom) of a fragmented movie.
+     * <p>
+     * This method hops over the top-level atoms that follow the previously
+     * indexed movie fragment until it finds the next movie fragment. Only the
+     * headers of the atoms are read. If an atom header is damaged, the scan
+     * resumes at the next movie fragment that is listed in the movie fragment
+     * random access atom.
+     *
+     * @param in the input stream
+     * @param m  the movie meta-data
+     * @return true if a movie fragment was indexed, false if there are no
+     * more movie fragments
+     * @throws IOException if reading fails
+     */
+    public boolean parseNextMovieFragment(QTFFImageInputStream in, QuickTimeMeta m) throws IOException {
+        long length = m.fragmentsEnd >= 0 ? m.fragmentsEnd : in.length();
+        if (length < 0) {
+            length = Long.MAX_VALUE;
+        }
+        while (m.nextFragmentPosition >= 0 && m.nextFragmentPosition + 8 <= length) {
+            long offset = m.nextFragmentPosition;
+            long size;
+            long headerSize = 8;
+            String type;
+            try {
+                in.seek(offset);
+                size = in.readInt() & 0xffffffffL;
+                type = in.readType();
+                if (size == 1) {
+                    size = in.readLong();
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = length - offset;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            if (size < headerSize || (offset + size > length && "moof".equals(type))) {
+                // The atom header is damaged or the movie fragment is truncated.
+                Long next = m.findRandomAccessFragmentAfter(offset);
+                if (next == null) {
+                    break;
+                }
+                m.nextFragmentPosition = next;
+                continue;
+            }
+
+            m.nextFragmentPosition = offset + size;
+            if ("moof".equals(type)) {
+                parseMovieFragment(in, offset, headerSize, size, m);
+                return true;
+            }
+        }
+        m.nextFragmentPosition = -1;
+        return false;
+    }
+
+    /**
+     * The movie fragment atom ("moof"-atom) contains track fragments.
+     * <pre>
+     * typedef struct {
+     *     movieFragmentHeaderAtom mfhd;
+     *     trackFragmentAtom[] traf;
+     * } movieFragmentAtom;
+     * </pre>
+     */
+    protected void parseMovieFragment(QTFFImageInputStream in, long moofOffset, long headerSize, long moofSize, QuickTimeMeta m) throws IOException {
+        long offset = moofOffset + headerSize;
+        long end = moofOffset + moofSize;
+        long dataEnd = -1;
+        while (offset + 8 <= end) {
+            in.seek(offset);
+            long size = in.readInt() & 0xffffffffL;
+            String type = in.readType();
+            if (size < 8 || offset + size > end) break;
+            if ("traf".equals(type)) {
+                dataEnd = parseTrackFragment(in, offset + 8, offset + size, moofOffset, dataEnd, m);
+            }
+            offset += size;
+        }
+    }
+
+    /**
+     * Holds the state of a track fragment while it is being parsed.
+     */
+    private static class TrackFragment {
+        QuickTimeMeta.Track track;
+        long baseDataOffset;
+        long defaultSampleDuration;
+        long defaultSampleSize;
+        int defaultSampleFlags;
+        long decodeTime = -1;
+        long dataEnd;
+    }
+
+    /**
+     * The track fragment atom ("traf"-atom) contains the samples of a track
+     * in a movie fragment.
+     * <pre>
+     * typedef struct {
+     *     trackFragmentHeaderAtom tfhd;
+     *     trackFragmentDecodeTimeAtom tfdt; // optional
+     *     trackRunAtom[] trun;
+     * } trackFragmentAtom;
+     * </pre>
+     *
+     * @param moofOffset      the position of the enclosing "moof"-atom
+     * @param previousDataEnd the end of the sample data of the previous track
+     *                        fragment in the same movie fragment, or -1
+     * @return the end of the sample data of this track fragment
+     */
+    private long parseTrackFragment(QTFFImageInputStream in, long offset, long end, long moofOffset, long previousDataEnd, QuickTimeMeta m) throws IOException {
+        TrackFragment tf = null;
+        while (offset + 8 <= end) {
+            in.seek(offset);
+            long size = in.readInt() & 0xffffffffL;
+            String type = in.readType();
+            if (size < 8 || offset + size > end) break;
+            switch (type) {
+                case "tfhd":
+                    tf = parseTrackFragmentHeader(in, moofOffset, previousDataEnd, m);
+                    if (tf == null) {
+                        // unknown track
+                        return previousDataEnd;
+                    }
+                    break;
+                case "tfdt":
+                    if (tf != null) {
+                        int version = in.readUnsignedByte();
+                        in.skipBytes(3);
+                        tf.decodeTime = version == 1 ? in.readLong() : in.readUnsignedInt();
+                    }
+                    break;
+                case "trun":
+                    if (tf != null) {
+                        parseTrackRun(in, tf, m);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            offset += size;
+        }
+        return tf == null ? previousDataEnd : tf.dataEnd;
+    }
+
+    /**
+     * The track fragment header atom ("tfhd"-atom).
+     * <pre>
+     * typedef struct {
+     *     byte version;
+     *     byte[3] flags;
+     *     uint trackId;
+     *     ulong baseDataOffset;                // if flags &amp; 0x000001
+     *     uint sampleDescriptionIndex;         // if flags &amp; 0x000002
+     *     uint defaultSampleDuration;          // if flags &amp; 0x000008
+     *     uint defaultSampleSize;              // if flags &amp; 0x000010
+     *     uint defaultSampleFlags;             // if flags &amp; 0x000020
+     * } trackFragmentHeaderAtom;
+     * </pre>
+     * The flag 0x020000 (default-base-is-moof) indicates that the base data
+     * offset is the position of the enclosing "moof"-atom.
+     */
+    private TrackFragment parseTrackFragmentHeader(QTFFImageInputStream in, long moofOffset, long previousDataEnd, QuickTimeMeta m) throws IOException {
+        int flags = in.readInt() & 0xffffff;
+        QuickTimeMeta.Track t = m.findTrackById(in.readInt());
+        if (t == null || t.media == null || t.media.mediaSamples == null) {
+            return null;
+        }
+        TrackFragment tf = new TrackFragment();
+        tf.track = t;
+        if ((flags & 0x000001) != 0) {
+            tf.baseDataOffset = in.readLong();
+        } else if ((flags & 0x020000) != 0 || previousDataEnd < 0) {
+            tf.baseDataOffset = moofOffset;
+        } else {
+            tf.baseDataOffset = previousDataEnd;
+        }
+        if ((flags & 0x000002) != 0) {
+            in.skipBytes(4);
+        }
+        tf.defaultSampleDuration = (flags & 0x000008) != 0 ? in.readUnsignedInt() : t.defaultSampleDuration;
+        tf.defaultSampleSize = (flags & 0x000010) != 0 ? in.readUnsignedInt() : t.defaultSampleSize;
+        tf.defaultSampleFlags = (flags & 0x000020) != 0 ? in.readInt() : t.defaultSampleFlags;
+        tf.dataEnd = tf.baseDataOffset;
+        return tf;
+    }
+
+    /**
+     * The track run atom ("trun"-atom) lists a contiguous run of samples of a
+     * track fragment.
+     * <pre>
+     * typedef struct {
+     *     byte version;
+     *     byte[3] flags;
+     *     uint sampleCount;
+     *     int dataOffset;                     // if flags &amp; 0x000001
+     *     uint firstSampleFlags;              // if flags &amp; 0x000004
+     *     trackRunEntry[sampleCount] entries;
+     * } trackRunAtom;
+     *
+     * typedef struct {
+     *     uint sampleDuration;                // if flags &amp; 0x000100
+     *     uint sampleSize;                    // if flags &amp; 0x000200
+     *     uint sampleFlags;                   // if flags &amp; 0x000400
+     *     int sampleCompositionTimeOffset;    // if flags &amp; 0x000800
+     * } trackRunEntry;
+     * </pre>
+     * A sample is a sync sample if the sample-is-non-sync-sample bit
+     * (0x00010000) of its sample flags is not set.
+     */
+    private void parseTrackRun(QTFFImageInputStream in, TrackFragment tf, QuickTimeMeta m) throws IOException {
+        int flags = in.readInt() & 0xffffff;
+        long sampleCount = in.readUnsignedInt();
+        long offset = (flags & 0x000001) != 0 ? tf.baseDataOffset + in.readInt() : tf.dataEnd;
+        boolean hasFirstSampleFlags = (flags & 0x000004) != 0;
+        int firstSampleFlags = hasFirstSampleFlags ? in.readInt() : 0;
+
+        QuickTimeMeta.Track t = tf.track;
+        long time = tf.decodeTime >= 0 ? tf.decodeTime : t.media.mediaDuration;
+        for (long i = 0; i < sampleCount; i++) {
+            long duration = (flags & 0x000100) != 0 ? in.readUnsignedInt() : tf.defaultSampleDuration;
+            long size = (flags & 0x000200) != 0 ? in.readUnsignedInt() : tf.defaultSampleSize;
+            int sampleFlags = (flags & 0x000400) != 0 ? in.readInt()
+                    : i == 0 && hasFirstSampleFlags ? firstSampleFlags : tf.defaultSampleFlags;
+            if ((flags & 0x000800) != 0) {
+                in.skipBytes(4);
+            }
+            QuickTimeMeta.MediaSample sample = new QuickTimeMeta.MediaSample(duration, offset, size);
+            sample.timeStamp = time;
+            sample.isKeyframe = (sampleFlags & 0x00010000) == 0;
+            t.addFragmentSample(sample, m.timeScale);
+            time += duration;
+            offset += size;
+        }
+        tf.decodeTime = time;
+        tf.dataEnd = offset;
+    }
 }
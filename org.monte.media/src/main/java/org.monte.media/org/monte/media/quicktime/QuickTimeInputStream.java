@@ -4,18 +4,26 @@
  */
 package org.monte.media.quicktime;
 
+import org.monte.media.io.IOStreams;
 import org.monte.media.qtff.QTFFImageInputStream;
 
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.time.Instant;
 
 /**
  * Provides low-level support for reading encoded audio and video samples from a
  * QuickTime file.
+ * <p>
+ * An instance of this class is not thread-safe. However, multiple instances
+ * can share the same input and the same meta-data, see
+ * {@link #QuickTimeInputStream(QuickTimeInputStream)}. Each of these instances
+ * can be used by a different thread.
  *
  * @author Werner Randelshofer
  */
@@ -28,6 +36,8 @@ public class QuickTimeInputStream {
      * @throws IOException if reading the sample data failed.
      */
     public int getSampleCount(int track) throws IOException {
+        ensureRealized();
+        ensureAllFragmentsIndexed();
         QuickTimeMeta.Track tr = meta.tracks.get(track);
         return (int) tr.media.sampleCount;
     }
@@ -41,6 +51,8 @@ public class QuickTimeInputStream {
      * @throws IOException if reading the sample data failed.
      */
     public int getSampleSize(int track, int sample) throws IOException {
+        ensureRealized();
+        ensureSampleIndexed(track, sample);
         QuickTimeMeta.Track tr = meta.tracks.get(track);
         var ts = tr.trackSamplesList.get(sample);
         var ms = ts.mediaSample;
@@ -60,24 +72,66 @@ public class QuickTimeInputStream {
      * @throws IOException if reading the sample data failed.
      */
     public int readSample(int track, int sample, byte[] data, int off, int len) throws IOException {
+        ensureRealized();
+        ensureSampleIndexed(track, sample);
         QuickTimeMeta.Track tr = meta.tracks.get(track);
         var ts = tr.trackSamplesList.get(sample);
         var ms = ts.mediaSample;
-        in.seek(ms.offset);
         if (len < ms.length) throw new IOException("len=" + len + " is too small. Should be at least len=" + ms.length);
         int bytesRead = Math.min((int) ms.length, len);
-        in.readFully(data, off, bytesRead);
+        readFully(ms.offset, data, off, bytesRead);
         return bytesRead;
     }
 
+    /**
+     * Reads bytes from the specified position of the input.
+     * <p>
+     * If the input is a file, this method performs a positional read on the
+     * file channel. Otherwise, it seeks and reads on the image input stream
+     * while holding its lock, so that instances that share the stream do
+     * not interfere with each other.
+     *
+     * @param position the stream position
+     * @param b        the target array
+     * @param off      the offset in the target array
+     * @param len      the number of bytes to read
+     * @throws IOException if reading fails
+     */
+    protected void readFully(long position, byte[] b, int off, int len) throws IOException {
+        if (channel != null) {
+            IOStreams.readFully(channel, position, b, off, len);
+        } else {
+            synchronized (in) {
+                in.seek(position);
+                in.readFully(b, off, len);
+            }
+        }
+    }
+
     /**
      * The image input stream.
      */
     protected ImageInputStream in;
+    /**
+     * The file channel of the input file, or null if the input is not a file.
+     * The channel is used for reading sample data with positional reads.
+     */
+    protected FileChannel channel;
+    /**
+     * True, if this instance shares the input and the meta-data with another
+     * instance.
+     */
+    private final boolean isShared;
     /**
      * This variable is set to non-null, when the movie meta data has been read.
      */
     protected QuickTimeMeta meta = null;
+    /**
+     * The deserializer and its input stream are kept for indexing movie
+     * fragments on demand.
+     */
+    private QuickTimeDeserializer deserializer = null;
+    private QTFFImageInputStream qtffIn = null;
 
     protected long streamOffset = 0;
 
@@ -89,8 +143,10 @@ public class QuickTimeInputStream {
      * @param file the input file
      */
     public QuickTimeInputStream(File file) throws IOException {
-
-        this.in = new FileImageInputStream(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        this.in = new FileImageInputStream(raf);
+        this.channel = raf.getChannel();
+        this.isShared = false;
         in.setByteOrder(ByteOrder.BIG_ENDIAN);
         this.streamOffset = 0;
     }
@@ -102,10 +158,36 @@ public class QuickTimeInputStream {
      */
     public QuickTimeInputStream(ImageInputStream in) throws IOException {
         this.in = in;
+        this.isShared = false;
         this.streamOffset = in.getStreamPosition();
         in.setByteOrder(ByteOrder.BIG_ENDIAN);
     }
 
+    /**
+     * Creates a new instance that shares the input and the meta-data with the
+     * specified instance.
+     * <p>
+     * This constructor reads all meta-data of the specified instance,
+     * including the indices of all movie fragments. From then on, the
+     * meta-data is not changed anymore, and the instances only read sample
+     * data from the input.
+     * <p>
+     * Closing the new instance does not close the input. The new instance
+     * can not be used anymore after the specified instance has been closed.
+     *
+     * @param shared the instance that owns the input
+     * @throws IOException if reading the meta-data fails
+     */
+    public QuickTimeInputStream(QuickTimeInputStream shared) throws IOException {
+        shared.ensureRealized();
+        shared.ensureAllFragmentsIndexed();
+        this.in = shared.in;
+        this.channel = shared.channel;
+        this.meta = shared.meta;
+        this.streamOffset = shared.streamOffset;
+        this.isShared = true;
+    }
+
     public int getTrackCount() throws IOException {
         ensureRealized();
         return meta.getTrackCount();
@@ -113,6 +195,10 @@ public class QuickTimeInputStream {
 
     public long getMovieDurationInMovieTimeScale() throws IOException {
         ensureRealized();
+        if (meta.fragmentDuration > 0) {
+            return meta.fragmentDuration;
+        }
+        ensureAllFragmentsIndexed();
         long duration = 0;
         long movieTimeScale = meta.getTimeScale();
         for (QuickTimeMeta.Track t : meta.tracks) {
@@ -228,6 +314,7 @@ public class QuickTimeInputStream {
      */
     public long getMediaDuration(int track) throws IOException {
         ensureRealized();
+        ensureAllFragmentsIndexed();
         return meta.tracks.get(track).media.mediaDuration;
     }
 
@@ -257,14 +344,81 @@ public class QuickTimeInputStream {
 
     private void readAllMetadata() throws IOException {
         in.seek(streamOffset);
-        QuickTimeDeserializer d = new QuickTimeDeserializer();
-        d.parse(new QTFFImageInputStream(in), meta);
+        deserializer = new QuickTimeDeserializer();
+        qtffIn = new QTFFImageInputStream(in);
+        deserializer.parse(qtffIn, meta);
+    }
+
+    /**
+     * Indexes the next movie fragment of a fragmented movie.
+     * <p>
+     * The movie fragments are indexed lazily, so that a fragmented movie can
+     * be opened without reading the sample tables of all its fragments.
+     *
+     * @return true if a movie fragment was indexed, false if all movie
+     * fragments have been indexed
+     * @throws IOException if reading fails
+     */
+    protected boolean indexNextFragment() throws IOException {
+        if (!meta.hasUnindexedFragments()) {
+            return false;
+        }
+        return deserializer.parseNextMovieFragment(qtffIn, meta);
+    }
+
+    /**
+     * Ensures that the samples table of the specified track contains the
+     * specified sample, or that all movie fragments have been indexed.
+     *
+     * @param track  the track index
+     * @param sample the sample index
+     * @throws IOException if reading fails
+     */
+    protected void ensureSampleIndexed(int track, long sample) throws IOException {
+        QuickTimeMeta.Track tr = meta.tracks.get(track);
+        while (tr.trackSamplesList.size() <= sample && indexNextFragment()) {
+        }
+    }
+
+    /**
+     * Ensures that the samples tables of all tracks extend beyond the
+     * specified movie time, or that all movie fragments have been indexed.
+     *
+     * @param movieTime a time in the movie time scale
+     * @throws IOException if reading fails
+     */
+    protected void ensureTimeIndexed(long movieTime) throws IOException {
+        while (meta.hasUnindexedFragments()) {
+            boolean isIndexed = true;
+            for (QuickTimeMeta.Track tr : meta.tracks) {
+                if (tr.duration <= movieTime) {
+                    isIndexed = false;
+                    break;
+                }
+            }
+            if (isIndexed || !indexNextFragment()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Ensures that all movie fragments have been indexed.
+     *
+     * @throws IOException if reading fails
+     */
+    protected void ensureAllFragmentsIndexed() throws IOException {
+        while (indexNextFragment()) {
+        }
     }
 
     public void close() throws IOException {
         if (in != null) {
-            in.close();
+            if (!isShared) {
+                in.close();
+            }
             in = null;
+            channel = null;
         }
         if (meta != null) {
             meta = null;
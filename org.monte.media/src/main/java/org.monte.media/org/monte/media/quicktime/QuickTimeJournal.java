@@ -0,0 +1,176 @@
+/*
+ * @(#)QuickTimeJournal.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+package org.monte.media.quicktime;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar journal of a {@link QuickTimeOutputStream}.
+ * <p>
+ * The journal holds everything that is needed for writing the movie header
+ * of a movie that was not finished, for example because the application
+ * crashed during a long recording. The journal only holds the sample table,
+ * it does not hold any media data.
+ * <p>
+ * The journal consists of a sequence of checkpoints. Each checkpoint holds the
+ * changes since the previous checkpoint. A checkpoint is protected by a
+ * checksum, so that a checkpoint that was only partially written can be
+ * detected and ignored.
+ * <pre>
+ * journal     = magic:int, { checkpoint } ;
+ * checkpoint  = length:int, payload:byte[length], crc32:long ;
+ * payload     = movieRecord, { trackRecord }, { chunkRecord } ;
+ * </pre>
+ * The content of the records is defined by {@link QuickTimeOutputStream}.
+ *
+ * @author Werner Randelshofer
+ */
+class QuickTimeJournal implements AutoCloseable {
+    /**
+     * Magic number "MQJ1".
+     */
+    private final static int MAGIC = 0x4d514a31;
+    final static int MOVIE_RECORD = 1;
+    final static int TRACK_RECORD = 2;
+    final static int CHUNK_RECORD = 3;
+
+    private final FileChannel channel;
+    private final long intervalNanos;
+    private long lastCheckpointNanos;
+    /**
+     * Holds the chunk records since the last checkpoint.
+     */
+    private final ByteArrayOutputStream pendingBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream pending = new DataOutputStream(pendingBuffer);
+    private final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Creates a new journal file. An existing file is overwritten.
+     *
+     * @param file     the journal file
+     * @param interval the interval between checkpoints
+     * @throws IOException if the file can not be created
+     */
+    QuickTimeJournal(File file, Duration interval) throws IOException {
+        this.intervalNanos = interval.toNanos();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        channel.write(ByteBuffer.allocate(4).putInt(0, MAGIC));
+        channel.force(true);
+        lastCheckpointNanos = System.nanoTime();
+    }
+
+    /**
+     * Appends a chunk record. The record becomes durable with the next
+     * checkpoint.
+     */
+    void writeChunk(int track, long offset, long sampleLength, int sampleCount, long sampleDuration, boolean isSync) throws IOException {
+        pending.writeByte(CHUNK_RECORD);
+        pending.writeInt(track);
+        pending.writeLong(offset);
+        pending.writeLong(sampleLength);
+        pending.writeInt(sampleCount);
+        pending.writeLong(sampleDuration);
+        pending.writeBoolean(isSync);
+    }
+
+    /**
+     * Returns true if the checkpoint interval has elapsed since the last
+     * checkpoint.
+     */
+    boolean isCheckpointDue() {
+        return System.nanoTime() - lastCheckpointNanos >= intervalNanos;
+    }
+
+    /**
+     * Writes a checkpoint consisting of the provided header records and all
+     * pending chunk records, and forces it to the storage device.
+     *
+     * @param header the movie record and the track records
+     * @throws IOException if writing fails
+     */
+    void checkpoint(byte[] header) throws IOException {
+        payloadBuffer.reset();
+        payloadBuffer.write(header);
+        pendingBuffer.writeTo(payloadBuffer);
+        pendingBuffer.reset();
+        byte[] payload = payloadBuffer.toByteArray();
+        crc.reset();
+        crc.update(payload);
+
+        ByteBuffer buf = ByteBuffer.allocate(4 + payload.length + 8);
+        buf.putInt(payload.length).put(payload).putLong(crc.getValue()).flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        channel.force(false);
+        lastCheckpointNanos = System.nanoTime();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads all complete checkpoints from a journal file. Reading stops at the
+     * first checkpoint that is truncated or has a bad checksum.
+     *
+     * @param file the journal file
+     * @return the payloads of all complete checkpoints concatenated
+     * @throws IOException if the file is not a journal file
+     */
+    static DataInputStream read(File file) throws IOException {
+        ByteArrayOutputStream payloads = new ByteArrayOutputStream();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a QuickTime journal file: " + file);
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    payload = readFully(in, length);
+                    crc.reset();
+                    crc.update(payload);
+                    if (in.readLong() != crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                payloads.write(payload);
+            }
+        }
+        return new DataInputStream(new ByteArrayInputStream(payloads.toByteArray()));
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] b = in.readNBytes(length);
+        if (b.length != length) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
@@ -10,6 +10,7 @@ import org.monte.media.av.FormatKeys;
 import org.monte.media.av.MovieReader;
 import org.monte.media.color.Colors;
 import org.monte.media.math.Rational;
+import org.monte.media.qtff.AvcDecoderConfigurationRecord;
 
 import java.awt.image.IndexColorModel;
 import java.io.IOException;
@@ -224,6 +225,32 @@ public class QuickTimeMeta extends AbstractMovie {
      */
     protected long nextTrackId;
     // END Movie Header
+    // BEGIN Movie Extends
+    /**
+     * Whether the movie has a movie extends atom ("mvex"-atom). If this is
+     * true, the samples of the movie are stored in movie fragments.
+     */
+    protected boolean fragmented;
+    /**
+     * The duration of the fragmented movie in movie time scale units as given
+     * by the movie extends header ("mehd"-atom). The value 0 is used if the
+     * duration is unknown.
+     */
+    protected long fragmentDuration;
+    /**
+     * The stream position of the next top-level atom that must be scanned for
+     * movie fragments ("moof"-atoms). The value -1 is used if all movie
+     * fragments have been indexed.
+     */
+    protected long nextFragmentPosition = -1;
+    /**
+     * The stream position at which the scan for movie fragments stops. This is
+     * the position of the movie fragment random access atom ("mfra"-atom) if
+     * there is one. The value -1 is used if the scan stops at the end of the
+     * stream.
+     */
+    protected long fragmentsEnd = -1;
+    // END Movie Extends
     /**
      * The list of tracks in the movie.
      */
@@ -273,6 +300,8 @@ public class QuickTimeMeta extends AbstractMovie {
                 if (m.timeToSamples.size() == 1) {
                     TimeToSampleGroup ttsg = m.timeToSamples.get(0);
                     format = format.append(FrameRateKey, new Rational(ttsg.getSampleDuration(), m.mediaTimeScale));
+                } else if (m.timeToSamples.isEmpty() && track.defaultSampleDuration > 0) {
+                    format = format.append(FrameRateKey, new Rational(track.defaultSampleDuration, m.mediaTimeScale));
                 } else {
                     format = format.append(FrameRateKey, new Rational(1, m.mediaTimeScale));
                 }
@@ -431,8 +460,60 @@ public class QuickTimeMeta extends AbstractMovie {
         return tracks.size();
     }
 
+    /**
+     * Returns true if the samples of the movie are stored in movie fragments.
+     */
+    public boolean isFragmented() {
+        return fragmented;
+    }
+
+    /**
+     * Returns true if there are movie fragments that have not been indexed
+     * yet.
+     */
+    public boolean hasUnindexedFragments() {
+        return nextFragmentPosition >= 0;
+    }
+
+    /**
+     * Finds a track by its track id.
+     *
+     * @param trackId the track id
+     * @return the track or null
+     */
+    protected Track findTrackById(int trackId) {
+        for (Track t : tracks) {
+            if (t.trackId == trackId) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the position of the first movie fragment that is listed in a
+     * track fragment random access atom ("tfra"-atom) after the specified
+     * stream position.
+     *
+     * @param position a stream position
+     * @return the position of a "moof"-atom or null
+     */
+    protected Long findRandomAccessFragmentAfter(long position) {
+        Long result = null;
+        for (Track t : tracks) {
+            if (t.randomAccessPoints != null) {
+                for (Long offset : t.randomAccessPoints.values()) {
+                    if (offset > position && (result == null || offset < result)) {
+                        result = offset;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
-    public Format getFormat(int track) {
+    public synchronized Format getFormat(int track) {
         if (tracks.get(track).format == null) {
             deriveTrackFormat(track);
         }
@@ -854,7 +935,6 @@ public class QuickTimeMeta extends AbstractMovie {
          */
         public NavigableMap<Long, ArrayList<TrackSample>> trackSampleMap = null;
         public ArrayList<TrackSample> trackSamplesList = null;
-        public int readIndex;
         /**
          * The media type of the track.
          */
@@ -938,6 +1018,32 @@ public class QuickTimeMeta extends AbstractMovie {
          */
         protected ArrayList<Edit> editList = new ArrayList<>();
         // END Edit List
+        // BEGIN Track Extends
+        /**
+         * The default values for the samples in movie fragments of this track
+         * as given by the track extends atom ("trex"-atom).
+         */
+        protected int defaultSampleDescriptionIndex = 1;
+        protected long defaultSampleDuration;
+        protected long defaultSampleSize;
+        protected int defaultSampleFlags;
+        /**
+         * The media time that is shown at the start of the track, if the
+         * samples of the track are stored in movie fragments.
+         */
+        protected long fragmentMediaTimeOffset;
+        /**
+         * The random access points of this track as given by the track
+         * fragment random access atom ("tfra"-atom).
+         * <dl>
+         *     <dt>Map.key</dt><dd>media time of a sync sample</dd>
+         *     <dt>Map.value</dt><dd>stream position of the "moof"-atom that
+         *     contains the sync sample</dd>
+         * </dl>
+         * This value is null if the movie has no "tfra"-atom for this track.
+         */
+        protected NavigableMap<Long, Long> randomAccessPoints;
+        // END Track Extends
         // BEGIN Media List
         /**
          * The media of the track.
@@ -1025,8 +1131,6 @@ public class QuickTimeMeta extends AbstractMovie {
                 long editMediaEndTime = (long) (edit.mediaTime + edit.trackDuration * mediaRate * mediaTimeScale / movieTimeScale);
                 long sampleTrackTime = editTrackTime;
                 double invMediaRate = 1.0 / edit.mediaRate;
-                long mediaDuration = (long) (edit.trackDuration * mediaRate * mediaTimeScale);
-                //long mediaDurationInMovieTimeScale = (long) (edit.trackDuration * mediaRate * mediaTimeScale / movieTimeScale);
                 Long floorKey = mediaSamplesMap.floorKey(edit.mediaTime);
                 floorKey = media.syncSamples == null ? floorKey : media.syncSamples.floor(floorKey);
                 if (floorKey == null) {
@@ -1035,7 +1139,8 @@ public class QuickTimeMeta extends AbstractMovie {
                     continue;
                 }
 
-                for (var entry : mediaSamplesMap.subMap(floorKey, edit.mediaTime + mediaDuration).entrySet()) {
+                // samples that start at or after the end time of the edit are not presented
+                for (var entry : mediaSamplesMap.subMap(floorKey, editMediaEndTime).entrySet()) {
                     ArrayList<MediaSample> mediaSamples = entry.getValue();
                     if (mediaSamples.isEmpty()) {
                         continue;
@@ -1045,11 +1150,13 @@ public class QuickTimeMeta extends AbstractMovie {
                     // if multiple samples have the same timestamp, then only the last one has a duration >=0
                     MediaSample lastMediaSample = mediaSamples.get(mediaSamples.size() - 1);
                     long mediaSampleDuration = lastMediaSample.duration;
-                    // cut duration if the media sample ends after the end time of the edit
-                    long cutStart = Math.max(0, mediaSampleTime + mediaSampleDuration - editMediaEndTime);
                     // cut duration if the media sample starts before the start time of the edit
-                    long cutEnd = Math.max(0, edit.mediaTime - mediaSampleTime);
-                    mediaSampleDuration = Math.max(0, mediaSampleDuration - cutStart + cutEnd);
+                    long cutStart = Math.min(mediaSampleDuration, Math.max(0, edit.mediaTime - mediaSampleTime));
+                    // cut duration if the media sample ends after the end time of the edit
+                    long cutEnd = Math.max(0, mediaSampleTime + mediaSampleDuration - editMediaEndTime);
+                    // samples that end before the start time of the edit get a duration of 0,
+                    // they are only needed for decoding the following samples
+                    mediaSampleDuration = Math.max(0, mediaSampleDuration - cutStart - cutEnd);
 
                     long trackSampleDuration = Math.max(0, (long) (mediaSampleDuration * invMediaRate * movieTimeScale / mediaTimeScale));
 
@@ -1059,7 +1166,7 @@ public class QuickTimeMeta extends AbstractMovie {
                         trackSampleMap.computeIfAbsent(sampleTrackTime, k -> new ArrayList<>()).add(trackSample);
                         trackSamplesList.add(trackSample);
                     }
-                    TrackSample trackSample = new TrackSample(lastMediaSample, sampleTrackTime, trackSampleDuration, cutStart, mediaSampleDuration);
+                    TrackSample trackSample = new TrackSample(lastMediaSample, sampleTrackTime, trackSampleDuration, cutStart, cutStart + mediaSampleDuration);
                     trackSampleMap.computeIfAbsent(sampleTrackTime, k -> new ArrayList<>()).add(trackSample);
                     trackSamplesList.add(trackSample);
 
@@ -1069,6 +1176,51 @@ public class QuickTimeMeta extends AbstractMovie {
             }
         }
 
+        /**
+         * Prepares an empty samples table for a track that stores its samples
+         * in movie fragments. The samples are added with
+         * {@link #addFragmentSample} when the movie fragments are indexed.
+         * <p>
+         * Fragmented movies use the edit list only for shifting the media
+         * time of the first sample to the start of the track. Therefore, this
+         * method converts the edit list into a media time offset.
+         */
+        public void buildFragmentedSamplesTable() {
+            trackSampleMap = new TreeMap<>();
+            trackSamplesList = new ArrayList<>();
+            media.mediaSamples = new TreeMap<>();
+            media.sampleCount = 0;
+            media.mediaDuration = 0;
+            duration = 0;
+            for (Edit edit : editList) {
+                if (edit.mediaTime != -1) {
+                    fragmentMediaTimeOffset = edit.mediaTime;
+                    break;
+                }
+            }
+            editList.clear();
+        }
+
+        /**
+         * Adds a sample from a movie fragment to the samples table.
+         *
+         * @param sample         a media sample with a time stamp
+         * @param movieTimeScale the time scale of the movie
+         */
+        public void addFragmentSample(MediaSample sample, long movieTimeScale) {
+            Media m = media;
+            m.mediaSamples.computeIfAbsent(sample.timeStamp, k -> new ArrayList<>(1)).add(sample);
+            m.sampleCount++;
+            m.mediaDuration = Math.max(m.mediaDuration, sample.timeStamp + sample.duration);
+
+            long startTime = (sample.timeStamp - fragmentMediaTimeOffset) * movieTimeScale / m.mediaTimeScale;
+            long endTime = (sample.timeStamp + sample.duration - fragmentMediaTimeOffset) * movieTimeScale / m.mediaTimeScale;
+            TrackSample trackSample = new TrackSample(sample, startTime, endTime - startTime, 0, sample.duration);
+            trackSampleMap.computeIfAbsent(startTime, k -> new ArrayList<>()).add(trackSample);
+            trackSamplesList.add(trackSample);
+            duration = Math.max(duration, endTime);
+        }
+
         public void buildMediaSamplesTable(long movieTimeScale) throws IOException {
             // XXX For PCM audio media, we must create one sample per chunk
 
@@ -1406,6 +1558,10 @@ public class QuickTimeMeta extends AbstractMovie {
         protected int videoDepth = -1;
         protected IndexColorModel videoColorTable = null;
         protected byte[] extendData;
+        /**
+         * The decoder configuration of an H.264 video, or null.
+         */
+        protected AvcDecoderConfigurationRecord avcDecoderConfigurationRecord;
         // END Video Sample Description
         // BEGIN Sound Sample Description
         /**
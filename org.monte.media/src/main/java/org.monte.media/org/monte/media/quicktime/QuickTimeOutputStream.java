@@ -5,6 +5,7 @@
 package org.monte.media.quicktime;
 
 import org.monte.media.av.Format;
+import org.monte.media.av.FormatKeys.MediaType;
 import org.monte.media.av.codec.video.VideoFormatKeys;
 import org.monte.media.io.ByteArrayImageOutputStream;
 import org.monte.media.io.IOStreams;
@@ -24,12 +25,22 @@ import javax.imageio.stream.ImageOutputStream;
 import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.image.ColorModel;
 import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Set;
@@ -57,6 +68,22 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.PaletteKey;
  * @author Werner Randelshofer
  */
 public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
+    /**
+     * The file descriptor of the output file, if this stream writes into a
+     * file. The descriptor is used for forcing the media data to the storage
+     * device before a journal checkpoint is written.
+     */
+    private FileDescriptor fd;
+    /**
+     * The journal file, or null if journaling is disabled.
+     */
+    private File journalFile;
+    private Duration journalInterval;
+    private QuickTimeJournal journal;
+    /**
+     * The most recently journaled track records, indexed by track.
+     */
+    private final ArrayList<byte[]> journaledTracks = new ArrayList<>();
 
 
     /**
@@ -68,7 +95,9 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         if (file.exists()) {
             if (!file.delete()) throw new IOException("can not delete file " + file);
         }
-        this.out = new FileImageOutputStream(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        this.fd = raf.getFD();
+        this.out = new FileImageOutputStream(raf);
         this.streamOffset = 0;
         init();
     }
@@ -603,6 +632,65 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         return tracks.get(track).matrix.clone();
     }
 
+    /**
+     * Enables journaling of the sample table into a sidecar file.
+     * <p>
+     * The movie header of a QuickTime movie is only written when the movie is
+     * finished. If the application crashes during a long recording, the file
+     * contains all media data, but no movie header, and can not be played.
+     * <p>
+     * With journaling enabled, the changes of the sample table are
+     * periodically appended to the journal file. Each checkpoint forces the
+     * media data and the journal to the storage device. The overhead is
+     * bounded by the checkpoint interval, and does not grow with the length
+     * of the movie. The journal is deleted, when the movie is finished.
+     * <p>
+     * A movie that was not finished can be rebuilt from its journal with
+     * {@link #recover(File, File)}. Samples that were written after the last
+     * checkpoint are lost.
+     * <p>
+     * This method must be called before the first sample is written. It may
+     * be called after the tracks have been added. The journal file is created
+     * when the first sample is written.
+     *
+     * @param journalFile the journal file, or null to disable journaling
+     * @param interval    the interval between checkpoints
+     * @throws IllegalStateException if samples have already been written
+     */
+    public void setJournal(File journalFile, Duration interval) {
+        if (state == States.FINISHED || isSampleWritten()) {
+            throw new IllegalStateException("Journal must be set before the first sample is written.");
+        }
+        if (journalFile != null && (interval == null || interval.isNegative())) {
+            throw new IllegalArgumentException("interval must be >= 0, interval=" + interval);
+        }
+        this.journalFile = journalFile;
+        this.journalInterval = interval;
+    }
+
+    /**
+     * Gets the journal file.
+     *
+     * @return the journal file, or null if journaling is disabled
+     */
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Returns true if a sample has been written into a track, or if the
+     * media data atom is not empty.
+     */
+    private boolean isSampleWritten() {
+        for (Track t : tracks) {
+            if (!t.isEmpty()) {
+                return true;
+            }
+        }
+        // The header of the media data atom has 16 bytes
+        return mdatAtom != null && mdatAtom.size() > 16;
+    }
+
     /**
      * Sets the state of the MP4Writer to started. <p> If the state is
      * changed by this method, the prolog is written.
@@ -619,6 +707,315 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         }
     }
 
+    /**
+     * Journals a chunk of samples that has just been added to a track, and
+     * writes a checkpoint if the checkpoint interval has elapsed.
+     * <p>
+     * The journal is created with the first chunk, and the first chunk is
+     * immediately followed by a checkpoint.
+     */
+    private void journalChunk(int track, long offset, long sampleLength, int sampleCount, long sampleDuration, boolean isSync) throws IOException {
+        if (journalFile == null) {
+            return;
+        }
+        boolean isFirstChunk = journal == null;
+        if (isFirstChunk) {
+            journal = new QuickTimeJournal(journalFile, journalInterval);
+        }
+        journal.writeChunk(track, offset, sampleLength, sampleCount, sampleDuration, isSync);
+        if (isFirstChunk || journal.isCheckpointDue()) {
+            writeJournalCheckpoint();
+        }
+    }
+
+    /**
+     * Writes a checkpoint into the journal.
+     * <p>
+     * The checkpoint contains the movie header, the descriptions of all
+     * tracks that have changed since the previous checkpoint, and all
+     * samples that have been added since the previous checkpoint.
+     */
+    private void writeJournalCheckpoint() throws IOException {
+        // The media data must be durable before the journal refers to it.
+        // We must not flush the output stream, because we still need to
+        // seek back to the mdat header.
+        if (fd != null) {
+            fd.sync();
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(buf);
+        d.writeByte(QuickTimeJournal.MOVIE_RECORD);
+        d.writeLong(streamOffset);
+        d.writeLong(mdatAtom.getOffset());
+        d.writeLong(getRelativeStreamPosition());
+        d.writeLong(movieTimeScale);
+        d.writeLong(creationTime.toEpochMilli());
+        d.writeLong(modificationTime.toEpochMilli());
+        d.writeDouble(preferredRate);
+        d.writeDouble(preferredVolume);
+        d.writeLong(previewTime);
+        d.writeLong(previewDuration);
+        d.writeLong(posterTime);
+        d.writeLong(selectionTime);
+        d.writeLong(selectionDuration);
+        d.writeLong(currentTime);
+        for (double v : movieMatrix) {
+            d.writeDouble(v);
+        }
+
+        for (int i = 0, n = tracks.size(); i < n; i++) {
+            if (tracks.get(i).isEmpty()) {
+                // The sample description may be incomplete before the first sample has been written
+                continue;
+            }
+            byte[] record = encodeJournalTrack(i);
+            while (journaledTracks.size() <= i) {
+                journaledTracks.add(null);
+            }
+            if (!Arrays.equals(record, journaledTracks.get(i))) {
+                journaledTracks.set(i, record);
+                d.write(record);
+            }
+        }
+        d.flush();
+        journal.checkpoint(buf.toByteArray());
+    }
+
+    /**
+     * Encodes the description of a track into a journal record.
+     */
+    private byte[] encodeJournalTrack(int trackIndex) throws IOException {
+        Track t = tracks.get(trackIndex);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(buf);
+        d.writeByte(QuickTimeJournal.TRACK_RECORD);
+        d.writeInt(trackIndex);
+        d.writeUTF(t.mediaType.name());
+        d.writeInt(t.headerFlags);
+        d.writeDouble(t.width);
+        d.writeDouble(t.height);
+        for (double v : t.matrix) {
+            d.writeDouble(v);
+        }
+        d.writeLong(t.mediaTimeScale);
+        d.writeUTF(t.componentName);
+        d.writeUTF(t.componentManufacturer);
+        d.writeBoolean(t.startTime != null);
+        if (t.startTime != null) {
+            d.writeLong(t.startTime.getNumerator());
+            d.writeLong(t.startTime.getDenominator());
+        }
+        Edit[] elist = t.editList == null ? new Edit[0] : t.editList;
+        d.writeInt(elist.length);
+        for (Edit edit : elist) {
+            d.writeInt(edit.trackDuration);
+            d.writeInt(edit.mediaTime);
+            d.writeInt(edit.mediaRate);
+        }
+        if (t instanceof AudioTrack at) {
+            d.writeInt(at.soundCompressionId);
+            d.writeInt(at.soundSampleSize);
+            d.writeInt(at.soundNumberOfChannels);
+        }
+
+        // Render the sample description atom into a temporary buffer
+        ImageOutputStream originalOut = out;
+        ByteArrayImageOutputStream stsdBuf = new ByteArrayImageOutputStream();
+        try {
+            out = stsdBuf;
+            CompositeAtom stblAtom = new CompositeAtom("stbl", out);
+            writeSampleDescriptionAtom(t, stblAtom);
+            stblAtom.finish();
+        } finally {
+            out = originalOut;
+        }
+        // Skip the headers of the stbl atom and of the stsd atom
+        int stsdLength = max(0, stsdBuf.size() - 16);
+        d.writeInt(stsdLength);
+        d.write(stsdBuf.getBuffer(), 16, stsdLength);
+        d.flush();
+        return buf.toByteArray();
+    }
+
+    /**
+     * Rebuilds a movie that was not finished from its journal.
+     * <p>
+     * The journal is read in a single pass, the media data in the movie file
+     * is not scanned. The movie file is truncated after the media data of the
+     * last complete checkpoint, and then the movie header is appended to it.
+     * Afterwards the journal file is deleted.
+     *
+     * @param movieFile   the movie file that was not finished
+     * @param journalFile the journal file of the movie
+     * @throws IOException if the journal does not contain a complete
+     *                     checkpoint, or if an I/O error occurs
+     * @see #setJournal(File, Duration)
+     */
+    public static void recover(File movieFile, File journalFile) throws IOException {
+        DataInputStream d = QuickTimeJournal.read(journalFile);
+        if (d.available() == 0) {
+            throw new IOException("Journal does not contain a complete checkpoint: " + journalFile);
+        }
+
+        // The journal is replayed into an in-memory stream, because the movie
+        // record of the last checkpoint determines where the movie file ends.
+        QuickTimeOutputStream journaled = new QuickTimeOutputStream(new ByteArrayImageOutputStream());
+        long streamOffset = 0, mdatOffset = 0, dataEnd = 0;
+        ArrayList<Track> recovered = new ArrayList<>();
+        while (d.available() > 0) {
+            int recordType = d.readUnsignedByte();
+            switch (recordType) {
+                case QuickTimeJournal.MOVIE_RECORD -> {
+                    streamOffset = d.readLong();
+                    mdatOffset = d.readLong();
+                    dataEnd = d.readLong();
+                    journaled.movieTimeScale = d.readLong();
+                    journaled.creationTime = Instant.ofEpochMilli(d.readLong());
+                    journaled.modificationTime = Instant.ofEpochMilli(d.readLong());
+                    journaled.preferredRate = d.readDouble();
+                    journaled.preferredVolume = d.readDouble();
+                    journaled.previewTime = d.readLong();
+                    journaled.previewDuration = d.readLong();
+                    journaled.posterTime = d.readLong();
+                    journaled.selectionTime = d.readLong();
+                    journaled.selectionDuration = d.readLong();
+                    journaled.currentTime = d.readLong();
+                    for (int i = 0; i < 9; i++) {
+                        journaled.movieMatrix[i] = d.readDouble();
+                    }
+                }
+                case QuickTimeJournal.TRACK_RECORD -> {
+                    int trackIndex = d.readInt();
+                    Track t = journaled.readJournalTrack(d);
+                    while (recovered.size() <= trackIndex) {
+                        recovered.add(null);
+                    }
+                    Track old = recovered.get(trackIndex);
+                    if (old != null) {
+                        // Keep the sample table of the track
+                        t.chunks = old.chunks;
+                        t.timeToSamples = old.timeToSamples;
+                        t.sampleSizes = old.sampleSizes;
+                        t.syncSamples = old.syncSamples;
+                        t.sampleCount = old.sampleCount;
+                        t.mediaDuration = old.mediaDuration;
+                    }
+                    recovered.set(trackIndex, t);
+                }
+                case QuickTimeJournal.CHUNK_RECORD -> {
+                    int trackIndex = d.readInt();
+                    long offset = d.readLong();
+                    long sampleLength = d.readLong();
+                    int sampleCount = d.readInt();
+                    long sampleDuration = d.readLong();
+                    boolean isSync = d.readBoolean();
+                    Track t = recovered.get(trackIndex);
+                    if (sampleCount == 1) {
+                        t.addSample(new Sample(sampleDuration, offset, sampleLength), 1, isSync);
+                    } else {
+                        Sample first = new Sample(sampleDuration, offset, sampleLength);
+                        Sample last = new Sample(sampleDuration, offset + sampleLength * (sampleCount - 1), sampleLength);
+                        t.addChunk(new Chunk(first, last, sampleCount, 1), isSync);
+                    }
+                }
+                default -> throw new IOException("Illegal record type " + recordType + " in journal " + journalFile);
+            }
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(movieFile, "rw");
+        QuickTimeOutputStream qt = null;
+        try {
+            // Discard media data that is not covered by the journal
+            raf.setLength(streamOffset + dataEnd);
+            FileImageOutputStream out = new FileImageOutputStream(raf);
+            out.seek(streamOffset);
+            qt = new QuickTimeOutputStream(out);
+            qt.movieTimeScale = journaled.movieTimeScale;
+            qt.creationTime = journaled.creationTime;
+            qt.modificationTime = journaled.modificationTime;
+            qt.preferredRate = journaled.preferredRate;
+            qt.preferredVolume = journaled.preferredVolume;
+            qt.previewTime = journaled.previewTime;
+            qt.previewDuration = journaled.previewDuration;
+            qt.posterTime = journaled.posterTime;
+            qt.selectionTime = journaled.selectionTime;
+            qt.selectionDuration = journaled.selectionDuration;
+            qt.currentTime = journaled.currentTime;
+            qt.movieMatrix = journaled.movieMatrix;
+            for (Track t : recovered) {
+                // Tracks without samples have not been journaled
+                if (t != null) {
+                    qt.tracks.add(t);
+                }
+            }
+
+            // Rewrite the header of the mdat atom with the recovered size
+            final long mdatSize = streamOffset + dataEnd - mdatOffset;
+            out.seek(mdatOffset);
+            qt.mdatAtom = new WideDataAtom("mdat", out) {
+                @Override
+                public long size() {
+                    return mdatSize;
+                }
+            };
+            qt.mdatAtom.finish();
+            out.seek(streamOffset + dataEnd);
+            qt.writeEpilog();
+            qt.state = States.FINISHED;
+        } finally {
+            if (qt != null) {
+                qt.close();
+            } else {
+                raf.close();
+            }
+        }
+        Files.deleteIfExists(journalFile.toPath());
+    }
+
+    /**
+     * Decodes the description of a track from a journal record.
+     */
+    private Track readJournalTrack(DataInputStream d) throws IOException {
+        MediaType mediaType = MediaType.valueOf(d.readUTF());
+        Track t = switch (mediaType) {
+            case VIDEO -> new VideoTrack();
+            case AUDIO -> new AudioTrack();
+            default -> new GenericTrack(mediaType);
+        };
+        t.headerFlags = d.readInt();
+        t.width = d.readDouble();
+        t.height = d.readDouble();
+        for (int i = 0; i < 9; i++) {
+            t.matrix[i] = d.readDouble();
+        }
+        t.mediaTimeScale = d.readLong();
+        t.componentName = d.readUTF();
+        t.componentManufacturer = d.readUTF();
+        if (d.readBoolean()) {
+            t.startTime = new Rational(d.readLong(), d.readLong());
+        }
+        int editCount = d.readInt();
+        if (editCount > 0) {
+            t.editList = new Edit[editCount];
+            for (int i = 0; i < editCount; i++) {
+                int trackDuration = d.readInt();
+                int mediaTime = d.readInt();
+                int mediaRate = d.readInt();
+                t.editList[i] = new Edit(trackDuration, mediaTime, mediaRate);
+            }
+        }
+        if (t instanceof AudioTrack at) {
+            at.soundCompressionId = d.readInt();
+            at.soundSampleSize = d.readInt();
+            at.soundNumberOfChannels = d.readInt();
+        }
+        byte[] stsd = new byte[d.readInt()];
+        d.readFully(stsd);
+        t.sampleDescription = stsd;
+        return t;
+    }
+
     /**
      * Writes an already encoded sample from a file into a track. <p> This
      * method does not inspect the contents of the samples. The contents has to
@@ -669,6 +1066,7 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         IOStreams.copy(in, mdatOut);
         long length = getRelativeStreamPosition() - offset;
         t.addSample(new Sample(duration, offset, length), 1, isSync);
+        journalChunk(track, offset, length, 1, duration, isSync);
     }
 
     /**
@@ -713,6 +1111,7 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         ImageOutputStream mdatOut = mdatAtom.getOutputStream();
         mdatOut.write(data, off, len);
         t.addSample(new Sample(duration, offset, len), 1, isSync);
+        journalChunk(track, offset, len, 1, duration, isSync);
 
     }
 
@@ -796,6 +1195,50 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         Sample first = new Sample(sampleDuration, offset, sampleLength);
         Sample last = new Sample(sampleDuration, offset + (long) sampleLength * (sampleCount - 1), sampleLength);
         t.addChunk(new Chunk(first, last, sampleCount, 1), isSync);
+        journalChunk(track, offset, sampleLength, sampleCount, sampleDuration, isSync);
+    }
+
+    /**
+     * Copies multiple already encoded samples from a file channel into a
+     * track. <p> This method does not inspect the contents of the data. The
+     * contents has to match the format and dimensions of the media in this
+     * track.
+     *
+     * @param track          The track index.
+     * @param sampleCount    The number of samples.
+     * @param in             The file channel which holds the encoded sample data.
+     * @param position       The position of the sample data in the file channel.
+     * @param length         The number of bytes to copy. Must be dividable by
+     *                       sampleCount.
+     * @param sampleDuration The duration of a sample. All samples must have the
+     *                       same duration.
+     * @param isSync         Whether the samples are sync samples. All samples must
+     *                       either be sync samples or non-sync samples.
+     * @throws IllegalArgumentException if the duration is less than 1.
+     * @throws IOException              if copying the sample data failed.
+     */
+    public void writeSamples(int track, int sampleCount, FileChannel in, long position, long length, long sampleDuration, boolean isSync) throws IOException {
+        ensureStarted();
+        if (sampleDuration <= 0) {
+            throw new IllegalArgumentException("sampleDuration must be greater 0, sampleDuration=" + sampleDuration + " track=" + track);
+        }
+        if (sampleCount <= 0) {
+            throw new IllegalArgumentException("sampleCount must be greater 0, sampleCount=" + sampleCount + " track=" + track);
+        }
+        if (length % sampleCount != 0) {
+            throw new IllegalArgumentException("length must be divisable by sampleCount length=" + length + " sampleCount=" + sampleCount + " track=" + track);
+        }
+        Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
+        ensureOpen();
+        ensureStarted();
+        long offset = getRelativeStreamPosition();
+        IOStreams.copy(in, position, length, mdatAtom.getOutputStream());
+        long sampleLength = length / sampleCount;
+
+        Sample first = new Sample(sampleDuration, offset, sampleLength);
+        Sample last = new Sample(sampleDuration, offset + sampleLength * (sampleCount - 1), sampleLength);
+        t.addChunk(new Chunk(first, last, sampleCount, 1), isSync);
+        journalChunk(track, offset, sampleLength, sampleCount, sampleDuration, isSync);
     }
 
 
@@ -832,6 +1275,10 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
                 finish();
             }
         } finally {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
             if (state != States.CLOSED) {
                 out.close();
                 state = States.CLOSED;
@@ -856,6 +1303,12 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
             mdatAtom.finish();
             writeEpilog();
             state = States.FINISHED;
+            if (journal != null) {
+                // The movie is complete, we do not need the journal anymore
+                journal.close();
+                journal = null;
+                Files.deleteIfExists(journalFile.toPath());
+            }
             /*
              for (int i = 0, n = tracks.size(); i < n; i++) {
              if (tracks.get(i) instanceof VideoTrack) {
@@ -1652,13 +2105,7 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         minfAtom.add(stblAtom);
 
         /* Sample Description atom ------- */
-        if (Objects.requireNonNull(t) instanceof VideoTrack vt) {
-            writeVideoSampleDescriptionAtom(vt, stblAtom);
-        } else if (t instanceof AudioTrack at) {
-            writeAudioSampleDescriptionAtom(at, stblAtom);
-        } else {
-            writeGenericSampleDescriptionAtom(t, stblAtom);
-        }
+        writeSampleDescriptionAtom(Objects.requireNonNull(t), stblAtom);
 
 
         /* Time to Sample atom ---- */
@@ -1962,6 +2409,22 @@ public class QuickTimeOutputStream extends AbstractQTFFMovieStream {
         }
     }
 
+    private void writeSampleDescriptionAtom(Track t, CompositeAtom stblAtom) throws IOException {
+        if (t.sampleDescription != null) {
+            if (t.sampleDescription.length > 0) {
+                DataAtom leaf = new DataAtom("stsd", out);
+                stblAtom.add(leaf);
+                leaf.getOutputStream().write(t.sampleDescription);
+            }
+        } else if (t instanceof VideoTrack vt) {
+            writeVideoSampleDescriptionAtom(vt, stblAtom);
+        } else if (t instanceof AudioTrack at) {
+            writeAudioSampleDescriptionAtom(at, stblAtom);
+        } else {
+            writeGenericSampleDescriptionAtom(t, stblAtom);
+        }
+    }
+
     private void writeGenericSampleDescriptionAtom(Track t, CompositeAtom stblAtom) {
         // empty, for now
     }
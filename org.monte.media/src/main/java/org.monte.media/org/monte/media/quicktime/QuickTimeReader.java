@@ -7,11 +7,15 @@ package org.monte.media.quicktime;
 import org.monte.media.av.Buffer;
 import org.monte.media.av.BufferFlag;
 import org.monte.media.av.Codec;
+import org.monte.media.av.DecodedFrameCache;
 import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys.MediaType;
 import org.monte.media.av.MovieReader;
 import org.monte.media.av.Registry;
+import org.monte.media.av.RestorableCodec;
+import org.monte.media.av.StreamCopySource;
 import org.monte.media.math.Rational;
+import org.monte.media.qtff.AvcDecoderConfigurationRecord;
 import org.monte.media.util.ArrayUtil;
 import org.monte.media.util.MathUtil;
 
@@ -19,10 +23,14 @@ import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static org.monte.media.av.BufferFlag.DISCARD;
 import static org.monte.media.av.BufferFlag.END_OF_MEDIA;
@@ -38,13 +46,39 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_I
 
 /**
  * {@code QuickTimeReader}.
+ * <p>
+ * A reader is not thread-safe. For reading a movie concurrently with multiple
+ * threads, create one reader per thread with
+ * {@link #QuickTimeReader(QuickTimeReader)}. The readers share the open file
+ * and the meta-data, but each has its own read positions and codecs.
+ * <p>
+ * After {@link #setMovieReadTime}, {@link #read(int, BufferedImage)} decodes
+ * all samples from the preceding sync sample up to the requested time.
+ * A reader can keep recently decoded frames and snapshots of the codec state
+ * in a cache, see {@link #setFrameCacheSize}. This makes repeated seeks
+ * within the same group of pictures much cheaper.
  *
  * @author Werner Randelshofer
  */
-public class QuickTimeReader extends QuickTimeInputStream implements MovieReader {
+public class QuickTimeReader extends QuickTimeInputStream implements StreamCopySource {
 
     private Buffer[] inputBuffers = null;
     private Codec[] codecs = null;
+    /**
+     * The read index of each track.
+     */
+    private int[] readIndex = null;
+    /**
+     * The sample that {@link #read(int, BufferedImage)} must deliver after a
+     * seek, or -1.
+     */
+    private int[] seekIndex = null;
+    /**
+     * The sample that the codec state of each track reflects, or -1.
+     */
+    private int[] decodedIndex = null;
+    private final DecodedFrameCache frameCache = new DecodedFrameCache(0);
+    private boolean keyframesOnly;
     public final static Format QUICKTIME = new Format(MediaTypeKey, MediaType.FILE, MimeTypeKey, MIME_QUICKTIME);
 
     /**
@@ -65,11 +99,31 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
         super(in);
     }
 
+    /**
+     * Creates a new instance that shares the input and the meta-data with the
+     * specified reader.
+     * <p>
+     * The new reader has its own read positions and codecs. It can be used
+     * by a different thread than the specified reader. If the specified
+     * reader was created from a file, the readers read sample data with
+     * positional reads on the file channel, and thus do not block each other.
+     * <p>
+     * The new reader can not be used anymore after the specified reader has
+     * been closed.
+     *
+     * @param reader the reader that owns the input
+     * @throws IOException if reading the meta-data fails
+     */
+    public QuickTimeReader(QuickTimeReader reader) throws IOException {
+        super(reader);
+    }
+
     @Override
     public long findSampleAtTime(int track, Rational seconds) throws IOException {
         ensureRealized();
         QuickTimeMeta.Track tr = meta.tracks.get(track);
         long timeStamp = seconds.multiply(meta.timeScale).longValue();
+        ensureTimeIndexed(timeStamp);
         QuickTimeMeta.TrackSample key = new QuickTimeMeta.TrackSample(null, timeStamp, 0, timeStamp, 0);
         int result = Collections.binarySearch(tr.trackSamplesList, key, Comparator.comparingLong(a -> a.timeStamp));
         if (result < 0) result = ~result - 1;
@@ -80,6 +134,7 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
     @Override
     public Rational getSampleTime(int track, long sample) throws IOException {
         ensureRealized();
+        ensureSampleIndexed(track, sample);
         QuickTimeMeta.Track tr = meta.tracks.get(track);
         return new Rational(tr.trackSamplesList.get((int) sample).timeStamp, meta.timeScale);
     }
@@ -87,10 +142,53 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
     @Override
     public Rational getSampleDuration(int track, long sample) throws IOException {
         ensureRealized();
+        ensureSampleIndexed(track, sample);
         QuickTimeMeta.Track tr = meta.tracks.get(track);
         return new Rational(tr.trackSamplesList.get((int) sample).duration, meta.timeScale);
     }
 
+    @Override
+    public FileChannel getFileChannel() {
+        return channel;
+    }
+
+    @Override
+    public long getSampleOffset(int track, long sample) throws IOException {
+        return getMediaSample(track, sample).offset;
+    }
+
+    @Override
+    public long getSampleLength(int track, long sample) throws IOException {
+        return getMediaSample(track, sample).length;
+    }
+
+    @Override
+    public boolean isSyncSample(int track, long sample) throws IOException {
+        return getMediaSample(track, sample).isKeyframe;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns the {@link AvcDecoderConfigurationRecord} of H.264 tracks.
+     */
+    @Override
+    public Object getTrackHeader(int track) throws IOException {
+        ensureRealized();
+        return getAvcDecoderConfigurationRecord(meta.tracks.get(track));
+    }
+
+    private AvcDecoderConfigurationRecord getAvcDecoderConfigurationRecord(QuickTimeMeta.Track tr) {
+        var descriptions = tr.media.getSampleDescriptions();
+        return descriptions.size() == 1 ? descriptions.get(0).avcDecoderConfigurationRecord : null;
+    }
+
+    private QuickTimeMeta.MediaSample getMediaSample(int track, long sample) throws IOException {
+        ensureRealized();
+        ensureSampleIndexed(track, sample);
+        return meta.tracks.get(track).trackSamplesList.get((int) sample).mediaSample;
+    }
+
     @Override
     public Format getFileFormat() throws IOException {
         ensureRealized();
@@ -106,6 +204,7 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
     @Override
     public long getChunkCount(int track) throws IOException {
         ensureRealized();
+        ensureAllFragmentsIndexed();
         return meta.tracks.get(track).media.sampleCount;
     }
 
@@ -114,6 +213,11 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
             super.ensureRealized();
             inputBuffers = new Buffer[meta.getTrackCount()];
             codecs = new Codec[meta.getTrackCount()];
+            readIndex = new int[meta.getTrackCount()];
+            seekIndex = new int[meta.getTrackCount()];
+            decodedIndex = new int[meta.getTrackCount()];
+            Arrays.fill(seekIndex, -1);
+            Arrays.fill(decodedIndex, -1);
             for (int i = 0; i < inputBuffers.length; i++) {
                 inputBuffers[i] = new Buffer();
             }
@@ -135,38 +239,145 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
         if (codecs[track] == null) {
             createCodec(track);
         }
+        int target = keyframesOnly ? findNextKeyframe(track, readIndex[track]) : max(readIndex[track], seekIndex[track]);
+        seekIndex[track] = -1;
+        ensureSampleIndexed(track, target);
+        // Samples with a duration of 0 are decoded but not presented, for
+        // example the samples before the start of an edit
+        while (target + 1 < tr.trackSamplesList.size() && tr.trackSamplesList.get(target).duration == 0) {
+            ensureSampleIndexed(track, ++target);
+        }
+        if (target < tr.trackSamplesList.size()) {
+            DecodedFrameCache.Entry cached = frameCache.get(track, target);
+            if (cached != null) {
+                restoreCodec(track, target, cached.snapshot());
+                readIndex[track] = target + 1;
+                return DecodedFrameCache.copyImage(cached.image(), img);
+            }
+            readIndex[track] = findDecodeStart(track, target);
+        }
+
         Buffer buf = new Buffer();
         buf.data = img;
+        Buffer inBuf = inputBuffers[track];
         do {
-            read(track, inputBuffers[track]);
+            read(track, inBuf);
             // FIXME - We assume a one-step codec here!
-            codecs[track].process(inputBuffers[track], buf);
-        } while (buf.isFlag(DISCARD) && !buf.isFlag(END_OF_MEDIA));
+            codecs[track].process(inBuf, buf);
+            decodedIndex[track] = buf.isFlag(DISCARD) ? -1 : (int) inBuf.sequenceNumber;
+        } while ((buf.isFlag(DISCARD) || readIndex[track] <= target) && !buf.isFlag(END_OF_MEDIA));
 
         if (buf.isFlag(END_OF_MEDIA)) {
             return null;
         }
 
-        return (BufferedImage) buf.data;
+        BufferedImage image = (BufferedImage) buf.data;
+        if (frameCache.isEnabled()) {
+            frameCache.put(track, decodedIndex[track], image,
+                    codecs[track] instanceof RestorableCodec rc ? rc.createSnapshot() : null);
+        }
+        return image;
+    }
+
+    /**
+     * Returns the sample from which decoding must start, so that the codec
+     * state reflects the sample before the target sample. Restores the codec
+     * state from the frame cache if possible.
+     */
+    private int findDecodeStart(int track, int target) {
+        int decoded = decodedIndex[track];
+        if (decoded >= 0 && decoded == target - 1) {
+            return target;
+        }
+        List<QuickTimeMeta.TrackSample> samples = meta.tracks.get(track).trackSamplesList;
+        int keyframe = target;
+        while (keyframe > 0 && !samples.get(keyframe).mediaSample.isKeyframe) {
+            keyframe--;
+        }
+        if (decoded >= keyframe && decoded < target) {
+            return decoded + 1;
+        }
+        if (codecs[track] instanceof RestorableCodec) {
+            long cached = frameCache.findSnapshot(track, keyframe, target);
+            if (cached >= 0) {
+                restoreCodec(track, (int) cached, frameCache.get(track, cached).snapshot());
+                return (int) cached + 1;
+            }
+        }
+        return keyframe;
+    }
+
+    private void restoreCodec(int track, int sample, Object snapshot) {
+        if (snapshot != null && codecs[track] instanceof RestorableCodec rc) {
+            rc.restoreSnapshot(snapshot);
+            decodedIndex[track] = sample;
+        } else {
+            decodedIndex[track] = -1;
+        }
+    }
+
+    /**
+     * Returns the index of the first sync sample at or after the specified
+     * sample, or the number of samples if there is none.
+     */
+    private int findNextKeyframe(int track, int sample) throws IOException {
+        List<QuickTimeMeta.TrackSample> samples = meta.tracks.get(track).trackSamplesList;
+        for (; ; sample++) {
+            ensureSampleIndexed(track, sample);
+            if (sample >= samples.size() || samples.get(sample).mediaSample.isKeyframe) {
+                return sample;
+            }
+        }
+    }
+
+    @Override
+    public void setKeyframesOnly(boolean newValue) {
+        keyframesOnly = newValue;
+    }
+
+    @Override
+    public boolean isKeyframesOnly() {
+        return keyframesOnly;
+    }
+
+    /**
+     * Sets the maximal size of the cache for decoded frames and codec
+     * snapshots in bytes. The cache is disabled by default.
+     *
+     * @param newValue the maximal size in bytes, 0 disables the cache
+     */
+    public void setFrameCacheSize(long newValue) {
+        frameCache.setMaxSize(newValue);
+    }
+
+    /**
+     * Returns the maximal size of the cache for decoded frames and codec
+     * snapshots in bytes.
+     */
+    public long getFrameCacheSize() {
+        return frameCache.getMaxSize();
     }
 
     @Override
     public void read(int track, Buffer buffer) throws IOException {
         ensureRealized();
         QuickTimeMeta.Track tr = meta.tracks.get(track);
-        if (tr.readIndex >= tr.trackSamplesList.size()) {
+        if (keyframesOnly) {
+            readIndex[track] = findNextKeyframe(track, readIndex[track]);
+        }
+        ensureSampleIndexed(track, readIndex[track]);
+        if (readIndex[track] >= tr.trackSamplesList.size()) {
             buffer.setFlagsTo(END_OF_MEDIA, DISCARD);
             buffer.length = 0;
             return;
         }
-        buffer.sequenceNumber = tr.readIndex;
-        var ts = tr.trackSamplesList.get((int) tr.readIndex);
+        buffer.sequenceNumber = readIndex[track];
+        var ts = tr.trackSamplesList.get(readIndex[track]);
         var ms = ts.mediaSample;
 
-        in.seek(ms.offset);
         byte[] b;
         buffer.data = b = ArrayUtil.reuseByteArray(buffer.data, (int) ms.length);
-        in.readFully(b, 0, (int) ms.length);
+        readFully(ms.offset, b, 0, (int) ms.length);
         buffer.offset = 0;
         buffer.length = (int) ms.length;
 
@@ -183,7 +394,9 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
         buffer.sampleDuration = new Rational(ts.duration, meta.timeScale);
         buffer.timeStamp = new Rational(ts.timeStamp, meta.timeScale);
         buffer.flags = ms.isKeyframe ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
-        tr.readIndex++;
+        buffer.header = ms.isKeyframe ? getAvcDecoderConfigurationRecord(tr) : null;
+        readIndex[track]++;
+        seekIndex[track] = -1;
     }
 
     @Override
@@ -198,16 +411,28 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
         ensureRealized();
         for (int t = 0, n = meta.tracks.size(); t < n; t++) {
             QuickTimeMeta.Track tr = meta.tracks.get(t);
-            int sample = (int) min(findSampleAtTime(t, newValue), tr.media.sampleCount - 1);
+            int target = (int) min(findSampleAtTime(t, newValue), tr.media.sampleCount - 1);
+            int sample = target;
             for (; sample > 0 && !tr.trackSamplesList.get(sample).mediaSample.isKeyframe; sample--) ;
-            tr.readIndex = sample;
+            readIndex[t] = sample;
+            seekIndex[t] = target;
         }
     }
 
     @Override
     public Rational getReadTime(int track) throws IOException {
+        ensureRealized();
         QuickTimeMeta.Track tr = meta.tracks.get(track);
-        return getSampleTime(track, tr.readIndex);
+        ensureSampleIndexed(track, readIndex[track]);
+        if (readIndex[track] >= tr.trackSamplesList.size()) {
+            // we are at the end of the track
+            if (tr.trackSamplesList.isEmpty()) {
+                return Rational.ZERO;
+            }
+            var ts = tr.trackSamplesList.get(tr.trackSamplesList.size() - 1);
+            return new Rational(ts.timeStamp + ts.duration, meta.timeScale);
+        }
+        return getSampleTime(track, readIndex[track]);
     }
 
     @Override
@@ -218,6 +443,7 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
     @Override
     public Rational getTrackDuration(int track) throws IOException {
         ensureRealized();
+        ensureAllFragmentsIndexed();
         QuickTimeMeta.Track tr = meta.tracks.get(track);
         return new Rational(tr.duration, meta.timeScale);
     }
@@ -7,13 +7,16 @@ package org.monte.media.quicktime.codec.video;
 import org.monte.media.av.Buffer;
 import org.monte.media.av.Format;
 import org.monte.media.av.FormatKeys.MediaType;
+import org.monte.media.av.RestorableCodec;
 import org.monte.media.av.codec.video.AbstractVideoCodec;
 import org.monte.media.av.codec.video.AbstractVideoCodecCore;
+import org.monte.media.av.codec.video.DirtyRegionMap;
 import org.monte.media.color.Colors;
 import org.monte.media.io.ByteArrayImageInputStream;
 import org.monte.media.io.ByteArrayImageOutputStream;
 import org.monte.media.util.ArrayUtil;
 import org.monte.media.util.ByteArrays;
+import org.monte.media.util.stream.RangeStream;
 
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
@@ -27,8 +30,10 @@ import java.awt.image.DirectColorModel;
 import java.awt.image.WritableRaster;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.lang.Math.min;
 import static org.monte.media.av.BufferFlag.DISCARD;
@@ -159,15 +164,43 @@ import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
  *
  * @author Werner Randelshofer
  */
-public class AnimationCodec extends AbstractVideoCodec {
+public class AnimationCodec extends AbstractVideoCodec implements RestorableCodec {
 
     private Object previousPixels;
     private int frameCounter;
     private Object newPixels;
+    private final DirtyRegionMap dirtyRegions = new DirtyRegionMap();
     protected byte[] byteBuf = new byte[4];
 
     private final static int SKIP_CODE = 0;
     private final static int EOL_CODE = -1;
+    /**
+     * Frames with at least this number of pixels are encoded in parallel.
+     */
+    private final static int PARALLEL_THRESHOLD = 1 << 16;
+    /**
+     * The minimal number of scanlines in a band.
+     */
+    private final static int MIN_BAND_HEIGHT = 16;
+    /**
+     * The output buffers of the bands. The buffers are reused for the next
+     * frame.
+     */
+    private ByteArrayImageOutputStream[] bandBuffers = new ByteArrayImageOutputStream[0];
+
+    /**
+     * Encodes the scanlines of a band.
+     */
+    private interface BandEncoder {
+        /**
+         * Encodes the scanlines from ymin up to ymax.
+         *
+         * @param out  the output stream
+         * @param ymin the array index of the first scanline
+         * @param ymax the array index after the last scanline
+         */
+        void encode(ImageOutputStream out, int ymin, int ymax) throws IOException;
+    }
 
     public AnimationCodec() {
         super(new Format[]{
@@ -221,6 +254,24 @@ public class AnimationCodec extends AbstractVideoCodec {
         frameCounter = 0;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The snapshot holds the previously decoded pixels.
+     */
+    @Override
+    public Object createSnapshot() {
+        return ArrayUtil.copyOfArray(newPixels);
+    }
+
+    @Override
+    public void restoreSnapshot(Object snapshot) {
+        if (!(snapshot instanceof byte[]) && !(snapshot instanceof short[]) && !(snapshot instanceof int[])) {
+            throw new IllegalArgumentException("Not a snapshot of this codec: " + snapshot);
+        }
+        newPixels = ArrayUtil.copyOfArray(snapshot);
+    }
+
     @Override
     public int process(Buffer in, Buffer out) {
         if (outputFormat == null) return CODEC_FAILED;
@@ -575,8 +626,25 @@ public class AnimationCodec extends AbstractVideoCodec {
         out.writeShort(0x0000);
 
         // Encode each scanline
-        int ymax = offset + height * scanlineStride;
-        for (int y = offset; y < ymax; y += scanlineStride) {
+        encodeBands(out, width, offset, offset + height * scanlineStride, scanlineStride,
+                (o, ymin, ymax) -> encodeKey16Lines(o, data, width, ymin, ymax, scanlineStride));
+
+        // Complete the header
+        long pos = out.getStreamPosition();
+        out.seek(headerPos);
+        out.writeInt((int) (pos - headerPos));
+        out.seek(pos);
+    }
+
+    /**
+     * Encodes the scanlines of a band of a 16-bit key frame.
+     *
+     * @param ymin the array index of the first scanline of the band
+     * @param ymax the array index after the last scanline of the band
+     */
+    private void encodeKey16Lines(ImageOutputStream out, short[] data, int width, int ymin, int ymax, int scanlineStride)
+            throws IOException {
+        for (int y = ymin; y < ymax; y += scanlineStride) {
             int xy = y;
             int xymax = y + width;
 
@@ -622,12 +690,6 @@ public class AnimationCodec extends AbstractVideoCodec {
 
             out.write(EOL_CODE);// End of line OP-code
         }
-
-        // Complete the header
-        long pos = out.getStreamPosition();
-        out.seek(headerPos);
-        out.writeInt((int) (pos - headerPos));
-        out.seek(pos);
     }
 
     /**
@@ -646,26 +708,15 @@ public class AnimationCodec extends AbstractVideoCodec {
             throws IOException {
         out.setByteOrder(ByteOrder.BIG_ENDIAN);
 
-        // Determine whether we can skip lines at the beginning
-        int ymin = offset;
-        int ymax = offset + height * scanlineStride;
-        int mismatch = Arrays.mismatch(data, ymin, ymax, prev, ymin, ymax);
-        if (mismatch < 0) {
+        // Determine whether we can skip lines at the beginning and at the end
+        dirtyRegions.compute(data, prev, width, height, offset, scanlineStride);
+        if (dirtyRegions.isClean()) {
             // => Frame is identical to previous one
             out.writeInt(4);
             return;
         }
-        ymin = offset + mismatch - mismatch % scanlineStride;
-
-        // Determine whether we can skip lines at the end
-        for (; ymax > ymin; ymax -= scanlineStride) {
-            int xy = ymax - scanlineStride;
-            int xymax = ymax - scanlineStride + width;
-            mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-            if (mismatch >= 0) {
-                break;
-            }
-        }
+        int ymin = offset + dirtyRegions.getFirstDirtyRow() * scanlineStride;
+        int ymax = offset + (dirtyRegions.getLastDirtyRow() + 1) * scanlineStride;
 
         // Reserve space for the header
         long headerPos = out.getStreamPosition();
@@ -684,17 +735,31 @@ public class AnimationCodec extends AbstractVideoCodec {
         }
 
         // Encode each scanline
+        encodeBands(out, width, ymin, ymax, scanlineStride,
+                (o, bandYmin, bandYmax) -> encodeDelta16Lines(o, data, prev, width, bandYmin, bandYmax, scanlineStride));
+
+        // Complete the header
+        long pos = out.getStreamPosition();
+        out.seek(headerPos);
+        out.writeInt((int) (pos - headerPos));
+        out.seek(pos);
+    }
+
+    /**
+     * Encodes the scanlines of a band of a 16-bit delta frame.
+     *
+     * @param ymin the array index of the first scanline of the band
+     * @param ymax the array index after the last scanline of the band
+     */
+    private void encodeDelta16Lines(ImageOutputStream out, short[] data, short[] prev, int width, int ymin, int ymax, int scanlineStride)
+            throws IOException {
         for (int y = ymin; y < ymax; y += scanlineStride) {
             int xy = y;
             int xymax = y + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = dirtyRegions.getSkipCount(data, prev, xy, xymax);
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 out.write(0 + 1); // don't skip any pixels
@@ -712,13 +777,8 @@ public class AnimationCodec extends AbstractVideoCodec {
             int literalCount = 0;
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
-                // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                // determine skip count, a pixel that differs starts no skip run
+                skipCount = data[xy] != prev[xy] ? 0 : dirtyRegions.getSkipCount(data, prev, xy, xymax);
 
                 // determine repeat count
                 short v = data[xy];
@@ -770,12 +830,6 @@ public class AnimationCodec extends AbstractVideoCodec {
 
             out.write(EOL_CODE);// End of line OP-code
         }
-
-        // Complete the header
-        long pos = out.getStreamPosition();
-        out.seek(headerPos);
-        out.writeInt((int) (pos - headerPos));
-        out.seek(pos);
     }
 
     /**
@@ -799,8 +853,25 @@ public class AnimationCodec extends AbstractVideoCodec {
         out.writeShort(0x0000);
 
         // Encode each scanline
-        int ymax = offset + height * scanlineStride;
-        for (int y = offset; y < ymax; y += scanlineStride) {
+        encodeBands(out, width, offset, offset + height * scanlineStride, scanlineStride,
+                (o, ymin, ymax) -> encodeKey24Lines(o, data, width, ymin, ymax, scanlineStride));
+
+        // Complete the header
+        long pos = out.getStreamPosition();
+        out.seek(headerPos);
+        out.writeInt((int) (pos - headerPos));
+        out.seek(pos);
+    }
+
+    /**
+     * Encodes the scanlines of a band of a 24-bit key frame.
+     *
+     * @param ymin the array index of the first scanline of the band
+     * @param ymax the array index after the last scanline of the band
+     */
+    private void encodeKey24Lines(ImageOutputStream out, int[] data, int width, int ymin, int ymax, int scanlineStride)
+            throws IOException {
+        for (int y = ymin; y < ymax; y += scanlineStride) {
             int xy = y;
             int xymax = y + width;
 
@@ -832,7 +903,7 @@ public class AnimationCodec extends AbstractVideoCodec {
                         literalCount = 0;
                     }
                     out.write(-repeatCount); // Repeat OP-code
-                    writeInt24(out, v);
+                    writePixel24(out, v);
                     xy += repeatCount - 1;
                 }
             }
@@ -846,12 +917,6 @@ public class AnimationCodec extends AbstractVideoCodec {
 
             out.write(EOL_CODE);// End of line OP-code
         }
-
-        // Complete the header
-        long pos = out.getStreamPosition();
-        out.seek(headerPos);
-        out.writeInt((int) (pos - headerPos));
-        out.seek(pos);
     }
 
     /**
@@ -870,26 +935,15 @@ public class AnimationCodec extends AbstractVideoCodec {
             throws IOException {
         out.setByteOrder(ByteOrder.BIG_ENDIAN);
 
-        // Determine whether we can skip lines at the beginning
-        int ymin = offset;
-        int ymax = offset + height * scanlineStride;
-        int mismatch = Arrays.mismatch(data, ymin, ymax, prev, ymin, ymax);
-        if (mismatch < 0) {
+        // Determine whether we can skip lines at the beginning and at the end
+        dirtyRegions.compute(data, prev, width, height, offset, scanlineStride);
+        if (dirtyRegions.isClean()) {
             // => Frame is identical to previous one
             out.writeInt(4);
             return;
         }
-        ymin = offset + mismatch - mismatch % scanlineStride;
-
-        // Determine whether we can skip lines at the end
-        for (; ymax > ymin; ymax -= scanlineStride) {
-            int xy = ymax - scanlineStride;
-            int xymax = ymax - scanlineStride + width;
-            mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-            if (mismatch >= 0) {
-                break;
-            }
-        }
+        int ymin = offset + dirtyRegions.getFirstDirtyRow() * scanlineStride;
+        int ymax = offset + (dirtyRegions.getLastDirtyRow() + 1) * scanlineStride;
 
         // Reserve space for the header
         long headerPos = out.getStreamPosition();
@@ -908,17 +962,31 @@ public class AnimationCodec extends AbstractVideoCodec {
         }
 
         // Encode each scanline
+        encodeBands(out, width, ymin, ymax, scanlineStride,
+                (o, bandYmin, bandYmax) -> encodeDelta24Lines(o, data, prev, width, bandYmin, bandYmax, scanlineStride));
+
+        // Complete the header
+        long pos = out.getStreamPosition();
+        out.seek(headerPos);
+        out.writeInt((int) (pos - headerPos));
+        out.seek(pos);
+    }
+
+    /**
+     * Encodes the scanlines of a band of a 24-bit delta frame.
+     *
+     * @param ymin the array index of the first scanline of the band
+     * @param ymax the array index after the last scanline of the band
+     */
+    private void encodeDelta24Lines(ImageOutputStream out, int[] data, int[] prev, int width, int ymin, int ymax, int scanlineStride)
+            throws IOException {
         for (int y = ymin; y < ymax; y += scanlineStride) {
             int xy = y;
             int xymax = y + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = dirtyRegions.getSkipCount(data, prev, xy, xymax);
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 out.write(0 + 1); // don't skip any pixels
@@ -936,13 +1004,8 @@ public class AnimationCodec extends AbstractVideoCodec {
             int literalCount = 0;
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
-                // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                // determine skip count, a pixel that differs starts no skip run
+                skipCount = data[xy] != prev[xy] ? 0 : dirtyRegions.getSkipCount(data, prev, xy, xymax);
 
                 // determine repeat count
                 int v = data[xy];
@@ -979,7 +1042,7 @@ public class AnimationCodec extends AbstractVideoCodec {
                         }
                     } else {
                         out.write(-repeatCount); // Repeat OP-code
-                        writeInt24(out, v);
+                        writePixel24(out, v);
                         xy += repeatCount - 1;
                     }
                 }
@@ -994,12 +1057,6 @@ public class AnimationCodec extends AbstractVideoCodec {
 
             out.write(EOL_CODE);// End of line OP-code
         }
-
-        // Complete the header
-        long pos = out.getStreamPosition();
-        out.seek(headerPos);
-        out.writeInt((int) (pos - headerPos));
-        out.seek(pos);
     }
 
     /**
@@ -1023,8 +1080,25 @@ public class AnimationCodec extends AbstractVideoCodec {
         out.writeShort(0x0000);
 
         // Encode each scanline
-        int ymax = offset + height * scanlineStride;
-        for (int y = offset; y < ymax; y += scanlineStride) {
+        encodeBands(out, width, offset, offset + height * scanlineStride, scanlineStride,
+                (o, ymin, ymax) -> encodeKey32Lines(o, data, width, ymin, ymax, scanlineStride));
+
+        // Complete the header
+        long pos = out.getStreamPosition();
+        out.seek(headerPos);
+        out.writeInt((int) (pos - headerPos));
+        out.seek(pos);
+    }
+
+    /**
+     * Encodes the scanlines of a band of a 32-bit key frame.
+     *
+     * @param ymin the array index of the first scanline of the band
+     * @param ymax the array index after the last scanline of the band
+     */
+    private void encodeKey32Lines(ImageOutputStream out, int[] data, int width, int ymin, int ymax, int scanlineStride)
+            throws IOException {
+        for (int y = ymin; y < ymax; y += scanlineStride) {
             int xy = y;
             int xymax = y + width;
 
@@ -1070,12 +1144,6 @@ public class AnimationCodec extends AbstractVideoCodec {
 
             out.write(EOL_CODE);// End of line OP-code
         }
-
-        // Complete the header
-        long pos = out.getStreamPosition();
-        out.seek(headerPos);
-        out.writeInt((int) (pos - headerPos));
-        out.seek(pos);
     }
 
     /**
@@ -1094,26 +1162,15 @@ public class AnimationCodec extends AbstractVideoCodec {
             throws IOException {
         out.setByteOrder(ByteOrder.BIG_ENDIAN);
 
-        // Determine whether we can skip lines at the beginning
-        int ymin = offset;
-        int ymax = offset + height * scanlineStride;
-        int mismatch = Arrays.mismatch(data, ymin, ymax, prev, ymin, ymax);
-        if (mismatch < 0) {
+        // Determine whether we can skip lines at the beginning and at the end
+        dirtyRegions.compute(data, prev, width, height, offset, scanlineStride);
+        if (dirtyRegions.isClean()) {
             // => Frame is identical to previous one
             out.writeInt(4);
             return;
         }
-        ymin = offset + mismatch - mismatch % scanlineStride;
-
-        // Determine whether we can skip lines at the end
-        for (; ymax > ymin; ymax -= scanlineStride) {
-            int xy = ymax - scanlineStride;
-            int xymax = ymax - scanlineStride + width;
-            mismatch = Arrays.mismatch(data, xy, xymax, prev, xy, xymax);
-            if (mismatch >= 0) {
-                break;
-            }
-        }
+        int ymin = offset + dirtyRegions.getFirstDirtyRow() * scanlineStride;
+        int ymax = offset + (dirtyRegions.getLastDirtyRow() + 1) * scanlineStride;
 
         // Reserve space for the header
         long headerPos = out.getStreamPosition();
@@ -1132,17 +1189,31 @@ public class AnimationCodec extends AbstractVideoCodec {
         }
 
         // Encode each scanline
+        encodeBands(out, width, ymin, ymax, scanlineStride,
+                (o, bandYmin, bandYmax) -> encodeDelta32Lines(o, data, prev, width, bandYmin, bandYmax, scanlineStride));
+
+        // Complete the header
+        long pos = out.getStreamPosition();
+        out.seek(headerPos);
+        out.writeInt((int) (pos - headerPos));
+        out.seek(pos);
+    }
+
+    /**
+     * Encodes the scanlines of a band of a 32-bit delta frame.
+     *
+     * @param ymin the array index of the first scanline of the band
+     * @param ymax the array index after the last scanline of the band
+     */
+    private void encodeDelta32Lines(ImageOutputStream out, int[] data, int[] prev, int width, int ymin, int ymax, int scanlineStride)
+            throws IOException {
         for (int y = ymin; y < ymax; y += scanlineStride) {
             int xy = y;
             int xymax = y + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = dirtyRegions.getSkipCount(data, prev, xy, xymax);
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 out.write(1); // don't skip any pixels
@@ -1164,13 +1235,8 @@ public class AnimationCodec extends AbstractVideoCodec {
             int literalCount = 0;
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
-                // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                // determine skip count, a pixel that differs starts no skip run
+                skipCount = data[xy] != prev[xy] ? 0 : dirtyRegions.getSkipCount(data, prev, xy, xymax);
 
                 // determine repeat count
                 int v = data[xy];
@@ -1225,14 +1291,73 @@ public class AnimationCodec extends AbstractVideoCodec {
 
             out.write(EOL_CODE);// End of line OP-code
         }
+    }
 
-        // Complete the header
-        long pos = out.getStreamPosition();
-        out.seek(headerPos);
-        out.writeInt((int) (pos - headerPos));
-        out.seek(pos);
+
+    /**
+     * Encodes scanlines in horizontal bands.
+     * <p>
+     * The op-codes of a scanline do not depend on other scanlines. Therefore,
+     * the bands of a large frame are encoded in parallel into separate
+     * buffers, and then the buffers are written into the output stream in
+     * the order of the bands. The encoded data is identical to the data of
+     * serial encoding.
+     *
+     * @param out            the output stream
+     * @param width          the width of a scanline in pixels
+     * @param ymin           the array index of the first scanline
+     * @param ymax           the array index after the last scanline
+     * @param scanlineStride the number to add to get to the next scanline
+     * @param encoder        the encoder for a band
+     */
+    private void encodeBands(ImageOutputStream out, int width, int ymin, int ymax, int scanlineStride, BandEncoder encoder)
+            throws IOException {
+        int lines = (ymax - ymin) / scanlineStride;
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int bandCount = Math.min(lines / MIN_BAND_HEIGHT, parallelism * 4);
+        if (parallelism < 2 || bandCount < 2 || (long) lines * width < PARALLEL_THRESHOLD) {
+            encoder.encode(out, ymin, ymax);
+            return;
+        }
+
+        if (bandBuffers.length < bandCount) {
+            ByteArrayImageOutputStream[] buffers = Arrays.copyOf(bandBuffers, bandCount);
+            for (int i = bandBuffers.length; i < bandCount; i++) {
+                buffers[i] = new ByteArrayImageOutputStream(ByteOrder.BIG_ENDIAN);
+            }
+            bandBuffers = buffers;
+        }
+        ByteArrayImageOutputStream[] buffers = bandBuffers;
+        try {
+            RangeStream.range(0, bandCount).parallel(1).forEach(i -> {
+                ByteArrayImageOutputStream buf = buffers[i];
+                buf.clear();
+                try {
+                    encoder.encode(buf, ymin + lines * i / bandCount * scanlineStride,
+                            ymin + lines * (i + 1) / bandCount * scanlineStride);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int i = 0; i < bandCount; i++) {
+            buffers[i].toImageOutputStream(out);
+        }
     }
 
+    /**
+     * Writes the red, green and blue component of a pixel.
+     * <p>
+     * Unlike {@link #writeInt24}, this method does not use a shared buffer,
+     * and can be used by bands that are encoded in parallel.
+     */
+    private static void writePixel24(ImageOutputStream out, int v) throws IOException {
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
 
     public void decode8(byte[] inArray, int off, int length, byte[] out, byte[] prev, int width, int height) throws IOException {
         if (prev != out) {
@@ -1403,9 +1528,7 @@ public class AnimationCodec extends AbstractVideoCodec {
             }
             assert i <= offset + (startingLine + l + 1) * scanlineStride;
         }
-        if (in.getStreamPosition() == in.length()) {
-            throw new IOException("did not consume all bytes of stream. consumed=" + in.getStreamPosition() + " stream length: " + in.length());
-        }
+        assert in.getStreamPosition() == in.length();
     }
 
     public void decode24(byte[] inArray, int off, int length, int[] out, int[] prev, int width, int height, boolean onlyDecodeIfKeyframe) throws IOException {
@@ -5,6 +5,8 @@
 
 package org.monte.media.util;
 
+import java.lang.reflect.Array;
+
 /**
  * Provides utility methods for byte arrays.
  */
@@ -73,4 +75,22 @@ public class ArrayUtil {
                 Math.min(original.length, newLength));
         return copy;
     }
+
+    /**
+     * Returns a copy of the specified array of primitive values.
+     *
+     * @param array an array of primitive values, for example a {@code byte}
+     *              or an {@code int} array
+     * @return a copy of the array, or null if the array is null
+     * @throws IllegalArgumentException if the object is not an array
+     */
+    public static Object copyOfArray(Object array) {
+        if (array == null) {
+            return null;
+        }
+        int length = Array.getLength(array);
+        Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
 }
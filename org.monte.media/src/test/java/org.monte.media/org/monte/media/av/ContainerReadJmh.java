@@ -0,0 +1,136 @@
+/*
+ * @(#)ContainerReadJmh.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av;
+
+import org.monte.media.av.ContainerWriteJmh.Container;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.math.Rational;
+import org.monte.media.quicktime.QuickTimeReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.av.BufferFlag.END_OF_MEDIA;
+
+/**
+ * Measures the time needed for opening a movie file, the latency of seeking,
+ * and the throughput of reading samples sequentially.
+ * <p>
+ * The movie files are created with {@link ContainerWriteJmh}. The samples
+ * are read without decoding them.
+ * <p>
+ * The setup prints the heap that is retained per sample by an open reader.
+ * This is the memory that is needed for the sample tables.
+ */
+@Measurement(iterations = 4, time = 2)
+@Warmup(iterations = 2, time = 2)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ContainerReadJmh {
+    @Param({"QUICKTIME", "AVI"})
+    public Container container;
+
+    @Param({"1000", "100000", "10000000"})
+    public int sampleCount;
+
+    private File file;
+    private MovieReader reader;
+    private Rational duration;
+    private final Random random = new Random(42);
+    private final Buffer buffer = new Buffer();
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ContainerReadJmh.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("ContainerReadJmh", container == Container.AVI ? ".avi" : ".mov").toFile();
+        ContainerWriteJmh.MovieStream stream = ContainerWriteJmh.createStream(container, file);
+        ContainerWriteJmh.writeSamples(stream, sampleCount);
+        stream.close();
+
+        long heap = ContainerWriteJmh.getUsedHeap();
+        reader = openReader();
+        duration = reader.getMovieDuration();
+        System.out.printf(" retained heap: %.1f bytes/sample%n", (ContainerWriteJmh.getUsedHeap() - heap) / (double) sampleCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private MovieReader openReader() throws IOException {
+        MovieReader r = container == Container.AVI ? new AVIReader(file) : new QuickTimeReader(file);
+        // Read the header of the movie
+        r.getFormat(0);
+        return r;
+    }
+
+    /**
+     * Opens the movie file, reads its header, and closes it.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int open() throws IOException {
+        try (MovieReader r = openReader()) {
+            return r.getTrackCount();
+        }
+    }
+
+    /**
+     * Seeks to a random time, and reads the sync sample that precedes it.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object seek() throws IOException {
+        reader.setMovieReadTime(duration.multiply(new Rational(random.nextInt(sampleCount), sampleCount)));
+        reader.read(0, buffer);
+        return buffer.data;
+    }
+
+    /**
+     * Reads the next sample. Starts over at the end of the movie.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object readSequential() throws IOException {
+        reader.read(0, buffer);
+        if (buffer.isFlag(END_OF_MEDIA)) {
+            reader.setMovieReadTime(Rational.ZERO);
+            reader.read(0, buffer);
+        }
+        return buffer.data;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * @(#)ContainerWriteJmh.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av;
+
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.mp4.MP4OutputStream;
+import org.monte.media.quicktime.QuickTimeOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+
+/**
+ * Measures the time needed for writing samples into a movie file, for
+ * finishing the movie file, and for creating a web-optimized copy of the
+ * movie file.
+ * <p>
+ * The samples are small, so that the benchmark measures the overhead of the
+ * container and not the speed of the file system. Every 30th sample is a
+ * sync sample.
+ * <p>
+ * The {@code writeSamples} benchmark also reports the heap that is retained
+ * per sample, before the movie is finished, as the secondary result
+ * {@code retainedHeapPerSample}. This is the memory that is needed for the
+ * sample tables. The heap is measured outside of the timed section.
+ * <p>
+ * Run a subset with, for example:
+ * <pre>
+ * java ... ContainerWriteJmh -p container=AVI -p sampleCount=1000000
+ * </pre>
+ */
+@Measurement(iterations = 4)
+@Warmup(iterations = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.SingleShotTime)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ContainerWriteJmh {
+    public enum Container {
+        QUICKTIME, MP4, AVI
+    }
+
+    /**
+     * The size of a sample in bytes.
+     */
+    static final int SAMPLE_SIZE = 16;
+    /**
+     * The interval of sync samples.
+     */
+    static final int SYNC_INTERVAL = 30;
+
+    @Param({"QUICKTIME", "MP4", "AVI"})
+    public Container container;
+
+    @Param({"1000", "100000", "10000000"})
+    public int sampleCount;
+
+    /**
+     * Writes samples into a movie file.
+     */
+    interface MovieStream {
+        void writeSample(byte[] data, boolean isSync) throws IOException;
+
+        void finish() throws IOException;
+
+        void toWebOptimizedMovie(File file) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ContainerWriteJmh.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Creates a movie file with a single video track.
+     */
+    static MovieStream createStream(Container container, File file) throws IOException {
+        Format format = new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO);
+        return switch (container) {
+            case QUICKTIME -> {
+                QuickTimeOutputStream out = new QuickTimeOutputStream(file);
+                int track = out.addVideoTrack("raw ", "None", 30, 4, 4, 8, SYNC_INTERVAL, format);
+                yield new MovieStream() {
+                    public void writeSample(byte[] data, boolean isSync) throws IOException {
+                        out.writeSample(track, data, 0, data.length, 1, isSync);
+                    }
+
+                    public void finish() throws IOException {
+                        out.finish();
+                    }
+
+                    public void toWebOptimizedMovie(File file) throws IOException {
+                        out.toWebOptimizedMovie(file, false);
+                    }
+
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+            case MP4 -> {
+                MP4OutputStream out = new MP4OutputStream(file);
+                int track = out.addVideoTrack("raw ", "None", 30, 4, 4, 8, SYNC_INTERVAL, format);
+                yield new MovieStream() {
+                    public void writeSample(byte[] data, boolean isSync) throws IOException {
+                        out.writeSample(track, data, 0, data.length, 1, isSync);
+                    }
+
+                    public void finish() throws IOException {
+                        out.finish();
+                    }
+
+                    public void toWebOptimizedMovie(File file) throws IOException {
+                        out.toWebOptimizedMovie(file, false);
+                    }
+
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+            case AVI -> {
+                AVIOutputStream out = new AVIOutputStream(file);
+                int track = out.addVideoTrack("DIB ", 1, 30, 4, 4, 8, SYNC_INTERVAL);
+                yield new MovieStream() {
+                    public void writeSample(byte[] data, boolean isSync) throws IOException {
+                        out.writeSample(track, data, 0, data.length, isSync);
+                    }
+
+                    public void finish() throws IOException {
+                        out.finish();
+                    }
+
+                    public void toWebOptimizedMovie(File file) {
+                        throw new UnsupportedOperationException("AVI files can not be web-optimized");
+                    }
+
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Writes samples into a movie stream.
+     */
+    static void writeSamples(MovieStream stream, int sampleCount) throws IOException {
+        byte[] data = new byte[SAMPLE_SIZE];
+        for (int i = 0; i < sampleCount; i++) {
+            data[0] = (byte) i;
+            stream.writeSample(data, i % SYNC_INTERVAL == 0);
+        }
+    }
+
+    /**
+     * Returns the number of bytes in use on the heap, after a garbage
+     * collection.
+     */
+    static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * A movie stream into which the benchmark writes the samples. Measures
+     * the heap that is retained by the movie stream.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class SampleWriter {
+        private File file;
+        private MovieStream stream;
+        private long usedHeap;
+        /**
+         * The number of bytes on the heap that are retained per sample.
+         */
+        public double retainedHeapPerSample;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            file = Files.createTempFile("ContainerWriteJmh", ".mov").toFile();
+            stream = null;
+            usedHeap = getUsedHeap();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(ContainerWriteJmh benchmark) throws IOException {
+            if (stream != null) {
+                retainedHeapPerSample = (getUsedHeap() - usedHeap) / (double) benchmark.sampleCount;
+                stream.close();
+            }
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Writes the samples, but does not finish the movie.
+     */
+    @Benchmark
+    public void writeSamples(SampleWriter writer) throws IOException {
+        writer.stream = createStream(container, writer.file);
+        writeSamples(writer.stream, sampleCount);
+    }
+
+    /**
+     * A movie stream into which the samples have been written, but which
+     * has not been finished yet.
+     */
+    @State(Scope.Thread)
+    public static class WrittenStream {
+        private File file;
+        private File webOptimizedFile;
+        private MovieStream stream;
+
+        @Setup(Level.Invocation)
+        public void setUp(ContainerWriteJmh benchmark) throws IOException {
+            file = Files.createTempFile("ContainerWriteJmh", ".mov").toFile();
+            webOptimizedFile = Files.createTempFile("ContainerWriteJmh", ".web.mov").toFile();
+            stream = createStream(benchmark.container, file);
+            writeSamples(stream, benchmark.sampleCount);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            stream.close();
+            Files.deleteIfExists(file.toPath());
+            Files.deleteIfExists(webOptimizedFile.toPath());
+        }
+    }
+
+    /**
+     * Finishes the movie: writes the sample tables and the movie header.
+     */
+    @Benchmark
+    public void finish(WrittenStream written) throws IOException {
+        written.stream.finish();
+    }
+
+    /**
+     * Finishes the movie, and writes a web-optimized copy of the movie.
+     * Does nothing for AVI files.
+     */
+    @Benchmark
+    public void toWebOptimizedMovie(WrittenStream written) throws IOException {
+        if (container != Container.AVI) {
+            written.stream.toWebOptimizedMovie(written.webOptimizedFile);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * @(#)AnimationEncoderScalingJmh.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av.codec.video;
+
+import org.monte.media.av.Buffer;
+import org.monte.media.av.Codec;
+import org.monte.media.av.Format;
+import org.monte.media.math.Rational;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+
+/**
+ * Measures how the encoding speed of the QuickTime Animation codec scales
+ * with the number of threads on high-resolution frames.
+ * <p>
+ * The codec encodes large frames in parallel bands. The benchmark is run
+ * once for each parallelism of the common fork-join pool. The score is the
+ * number of frames per second.
+ * <p>
+ * Usage:
+ * <pre>
+ * java ... AnimationEncoderScalingJmh [parallelism...]
+ * </pre>
+ * The default parallelisms are 1, 2, 4 and the number of available
+ * processors.
+ */
+@Measurement(iterations = 4, time = 2)
+@Warmup(iterations = 2, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+public class AnimationEncoderScalingJmh {
+    /**
+     * The number of frames in a sequence.
+     */
+    private static final int FRAME_COUNT = 30;
+
+    @Param({"rle-16", "rle-24", "rle-32"})
+    public String codec;
+
+    @Param({"UI", "NATURAL"})
+    public SyntheticVideo.Content content;
+
+    @Param({"1920x1080", "3840x2160"})
+    public String resolution;
+
+    /**
+     * Whether every frame is a key frame, or only the first frame of a
+     * sequence.
+     */
+    @Param({"true", "false"})
+    public boolean keyFrames;
+
+    private Codec encoder;
+    private BufferedImage[] frames;
+    private int index;
+    private final Buffer in = new Buffer();
+    private final Buffer out = new Buffer();
+
+    public static void main(String[] args) throws RunnerException {
+        int[] parallelisms = args.length == 0
+                ? new int[]{1, 2, 4, Runtime.getRuntime().availableProcessors()}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            parallelisms[i] = Integer.parseInt(args[i]);
+        }
+        for (int parallelism : parallelisms) {
+            System.out.println("Parallelism: " + parallelism);
+            Options options = new OptionsBuilder()
+                    .include(AnimationEncoderScalingJmh.class.getSimpleName())
+                    .jvmArgsAppend("-Djava.util.concurrent.ForkJoinPool.common.parallelism=" + parallelism)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]), height = Integer.parseInt(size[1]);
+        int depth = SyntheticVideo.getDepth(codec);
+        Format format = SyntheticVideo.createEncodedFormat(codec, width, height, keyFrames ? 1 : FRAME_COUNT);
+        frames = SyntheticVideo.createFrames(content, width, height, depth, FRAME_COUNT, 42);
+        encoder = SyntheticVideo.createCodec(format, true);
+        index = 0;
+    }
+
+    @Benchmark
+    public Object encode() {
+        if (index == FRAME_COUNT) {
+            index = 0;
+            encoder.reset();
+        }
+        in.format = encoder.getInputFormat();
+        in.data = frames[index];
+        in.sampleDuration = new Rational(1, 30);
+        in.sequenceNumber = index++;
+        encoder.process(in, out);
+        if (out.isFlag(DISCARD)) {
+            throw new IllegalStateException("Could not encode frame " + in.sequenceNumber, out.exception);
+        }
+        return out.data;
+    }
+}
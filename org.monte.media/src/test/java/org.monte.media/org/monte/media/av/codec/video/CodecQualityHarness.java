@@ -0,0 +1,261 @@
+/*
+ * @(#)CodecQualityHarness.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av.codec.video;
+
+import org.monte.media.av.Buffer;
+import org.monte.media.av.Codec;
+import org.monte.media.av.Format;
+import org.monte.media.av.FormatKeys;
+import org.monte.media.av.MovieReader;
+import org.monte.media.av.Registry;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.image.ImageQuality;
+import org.monte.media.math.Rational;
+import org.monte.media.quicktime.QuickTimeReader;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+import static org.monte.media.av.BufferFlag.KEYFRAME;
+import static org.monte.media.av.FormatKeys.KeyFrameIntervalKey;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.MotionSearchRangeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.QualityKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.RateDistortionOptimizationKey;
+
+/**
+ * Measures rate, distortion and speed of the video codecs, so that encoder
+ * settings can be chosen on measured data.
+ * <p>
+ * Each frame of a corpus is encoded and decoded again. The harness prints a
+ * table with the number of bytes per frame, the peak signal-to-noise ratio
+ * (PSNR) and the structural similarity (SSIM) of the decoded frames, and the
+ * encoding and decoding speed in frames per second. Lossless codecs have an
+ * infinite PSNR and a SSIM of 1.
+ * <p>
+ * The corpus consists of the synthetic videos of {@link SyntheticVideo}, and
+ * of the first frames of the movie files that are given on the command line.
+ * <p>
+ * Usage:
+ * <pre>
+ * java ... CodecQualityHarness [-size 640x480] [-frames 30] [movie files...]
+ * </pre>
+ */
+public class CodecQualityHarness {
+    /**
+     * Encoder settings.
+     *
+     * @param codec             the codec name, see {@link SyntheticVideo#createEncodedFormat}
+     * @param quality           the value for {@link VideoFormatKeys#QualityKey}
+     * @param keyFrameInterval  the value for {@link FormatKeys#KeyFrameIntervalKey}
+     * @param motionSearchRange the value for {@link VideoFormatKeys#MotionSearchRangeKey}
+     * @param rdo               the value for {@link VideoFormatKeys#RateDistortionOptimizationKey}
+     */
+    public record Setting(String codec, float quality, int keyFrameInterval, int motionSearchRange, boolean rdo) {
+        public Format createEncodedFormat(int width, int height) {
+            return SyntheticVideo.createEncodedFormat(codec, width, height, keyFrameInterval)
+                    .append(QualityKey, quality, MotionSearchRangeKey, motionSearchRange,
+                            RateDistortionOptimizationKey, rdo);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("q=%.2f k=%d m=%d rdo=%s", quality, keyFrameInterval, motionSearchRange, rdo);
+        }
+    }
+
+    /**
+     * Measurements of a round trip.
+     *
+     * @param bytesPerFrame the average number of bytes per encoded frame
+     * @param psnr          the PSNR over all frames in decibels
+     * @param ssim          the average SSIM of the frames
+     * @param encodeFps     the encoded frames per second
+     * @param decodeFps     the decoded frames per second
+     */
+    public record Result(double bytesPerFrame, double psnr, double ssim, double encodeFps, double decodeFps) {
+    }
+
+    private CodecQualityHarness() {
+    }
+
+    /**
+     * Returns the encoder settings that are swept by the harness.
+     */
+    public static List<Setting> createSettings() {
+        List<Setting> settings = new ArrayList<>();
+        for (String codec : new String[]{"tscc-24", "rle-24", "png"}) {
+            for (int keyFrameInterval : new int[]{1, 30}) {
+                settings.add(new Setting(codec, 1f, keyFrameInterval, 0, false));
+            }
+        }
+        for (int motionSearchRange : new int[]{0, 16, 63}) {
+            settings.add(new Setting("zmbv-32", 1f, 30, motionSearchRange, false));
+        }
+        for (float quality : new float[]{0.25f, 0.5f, 0.75f, 0.9f, 1f}) {
+            settings.add(new Setting("jpeg", quality, 1, 0, false));
+        }
+        for (int keyFrameInterval : new int[]{1, 30}) {
+            for (int motionSearchRange : new int[]{0, 16}) {
+                for (boolean rdo : new boolean[]{false, true}) {
+                    if (keyFrameInterval > 1 || motionSearchRange == 0) {
+                        settings.add(new Setting("avc1", 1f, keyFrameInterval, motionSearchRange, rdo));
+                    }
+                }
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Encodes and decodes the frames, and measures the result.
+     * <p>
+     * The frames are encoded and decoded twice. The first pass warms up the
+     * codecs, the second pass is measured.
+     *
+     * @param setting the encoder settings
+     * @param frames  the frames, all frames must have the same size
+     * @return the measurements
+     */
+    public static Result measure(Setting setting, BufferedImage[] frames) {
+        int width = frames[0].getWidth(), height = frames[0].getHeight();
+        Format format = setting.createEncodedFormat(width, height);
+        Codec encoder = SyntheticVideo.createCodec(format, true);
+        Codec decoder = SyntheticVideo.createCodec(format, false);
+        Buffer raw = new Buffer();
+        Buffer encoded = new Buffer();
+        Buffer in = new Buffer();
+        Buffer decoded = new Buffer();
+
+        Result result = null;
+        for (int pass = 0; pass < 2; pass++) {
+            encoder.reset();
+            decoder.reset();
+            long bytes = 0, encodeNanos = 0, decodeNanos = 0;
+            double mse = 0, ssim = 0;
+            for (int i = 0; i < frames.length; i++) {
+                raw.format = encoder.getInputFormat();
+                raw.data = frames[i];
+                raw.sampleDuration = new Rational(1, 30);
+                raw.sequenceNumber = i;
+                long t0 = System.nanoTime();
+                encoder.process(raw, encoded);
+                long t1 = System.nanoTime();
+                if (encoded.isFlag(DISCARD)) {
+                    throw new IllegalStateException("Could not encode frame " + i, encoded.exception);
+                }
+
+                // Copy the encoded data, because the encoder may reuse its buffer
+                byte[] data = new byte[encoded.length];
+                System.arraycopy((byte[]) encoded.data, encoded.offset, data, 0, encoded.length);
+                in.format = decoder.getInputFormat();
+                in.data = data;
+                in.offset = 0;
+                in.length = data.length;
+                in.header = encoded.header;
+                in.sampleDuration = encoded.sampleDuration;
+                in.sequenceNumber = i;
+                in.clearFlags();
+                in.setFlag(KEYFRAME, encoded.isFlag(KEYFRAME));
+                long t2 = System.nanoTime();
+                decoder.process(in, decoded);
+                long t3 = System.nanoTime();
+                if (decoded.isFlag(DISCARD)) {
+                    throw new IllegalStateException("Could not decode frame " + i, decoded.exception);
+                }
+
+                bytes += data.length;
+                encodeNanos += t1 - t0;
+                decodeNanos += t3 - t2;
+                BufferedImage img = (BufferedImage) decoded.data;
+                mse += 255 * 255 / Math.pow(10, ImageQuality.psnr(frames[i], img) / 10);
+                ssim += ImageQuality.ssim(frames[i], img);
+            }
+            int n = frames.length;
+            result = new Result(bytes / (double) n,
+                    mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / (mse / n)),
+                    ssim / n, n * 1e9 / encodeNanos, n * 1e9 / decodeNanos);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the first frames of the first video track of a movie file.
+     */
+    public static BufferedImage[] readFrames(File file, int count) throws IOException {
+        try (MovieReader reader = Registry.getInstance().getReader(file)) {
+            if (reader == null) {
+                throw new IOException("Unsupported file format: " + file);
+            }
+            int track = reader.findTrack(0, new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO));
+            if (track < 0) {
+                throw new IOException("No video track in: " + file);
+            }
+            List<BufferedImage> frames = new ArrayList<>();
+            while (frames.size() < count) {
+                BufferedImage img = switch (reader) {
+                    case QuickTimeReader r -> r.read(track, (BufferedImage) null);
+                    case AVIReader r -> r.read(track, (BufferedImage) null);
+                    default -> throw new IOException("Can not decode frames of: " + file);
+                };
+                if (img == null) {
+                    break;
+                }
+                frames.add(SyntheticVideo.convert(img, 24));
+            }
+            if (frames.isEmpty()) {
+                throw new IOException("No video frames in: " + file);
+            }
+            return frames.toArray(new BufferedImage[0]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int width = 640, height = 480, frameCount = 30;
+        Map<String, BufferedImage[]> corpus = new LinkedHashMap<>();
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-size" -> {
+                    String[] size = args[++i].split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                }
+                case "-frames" -> frameCount = Integer.parseInt(args[++i]);
+                default -> files.add(new File(args[i]));
+            }
+        }
+        for (SyntheticVideo.Content content : SyntheticVideo.Content.values()) {
+            corpus.put(content.name(), SyntheticVideo.createFrames(content, width, height, 24, frameCount, 42));
+        }
+        for (File file : files) {
+            corpus.put(file.getName(), readFrames(file, frameCount));
+        }
+
+        System.out.printf("%-12s %-8s %-28s %12s %8s %8s %8s %10s %10s%n",
+                "corpus", "codec", "setting", "bytes/frame", "bpp", "PSNR", "SSIM", "enc fps", "dec fps");
+        for (Map.Entry<String, BufferedImage[]> entry : corpus.entrySet()) {
+            BufferedImage[] frames = entry.getValue();
+            double pixels = frames[0].getWidth() * frames[0].getHeight();
+            for (Setting setting : createSettings()) {
+                try {
+                    Result r = measure(setting, frames);
+                    System.out.printf("%-12s %-8s %-28s %12.0f %8.3f %8.2f %8.4f %10.1f %10.1f%n",
+                            entry.getKey(), setting.codec(), setting, r.bytesPerFrame(), r.bytesPerFrame() * 8 / pixels,
+                            r.psnr(), r.ssim(), r.encodeFps(), r.decodeFps());
+                } catch (RuntimeException e) {
+                    System.out.printf("%-12s %-8s %-28s failed: %s%n", entry.getKey(), setting.codec(), setting, e);
+                }
+            }
+        }
+    }
+}
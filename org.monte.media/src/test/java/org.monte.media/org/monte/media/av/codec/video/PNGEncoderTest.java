@@ -0,0 +1,131 @@
+/*
+ * @(#)PNGEncoderTest.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av.codec.video;
+
+import org.junit.jupiter.api.Test;
+import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ZlibCompressor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class PNGEncoderTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    @Test
+    public void shouldDecodeGrayImage() throws IOException {
+        BufferedImage img = createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY));
+        BufferedImage actual = encodeDecode(img, new PNGEncoder());
+        assertEquals(1, actual.getRaster().getNumBands());
+        assertArrayEquals(img.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null),
+                actual.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null));
+    }
+
+    @Test
+    public void shouldDecodeRgbImages() throws IOException {
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB)));
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_BGR)));
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR)));
+    }
+
+    @Test
+    public void shouldDecodeArgbImages() throws IOException {
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB)));
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_4BYTE_ABGR)));
+    }
+
+    @Test
+    public void shouldDecodeIndexedImageWithTransparentColors() throws IOException {
+        byte[] r = new byte[256], g = new byte[256], b = new byte[256], a = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            r[i] = (byte) i;
+            g[i] = (byte) (i * 3);
+            b[i] = (byte) (255 - i);
+            // Only the first colors are transparent, so that the tRNS chunk
+            // is shorter than the palette
+            a[i] = (byte) (i < 16 ? i * 16 : 255);
+        }
+        IndexColorModel icm = new IndexColorModel(8, 256, r, g, b, a);
+        BufferedImage img = createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED, icm));
+        BufferedImage actual = assertDecodedEquals(img);
+        assertArrayEquals(img.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null),
+                actual.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null));
+    }
+
+    @Test
+    public void shouldDecodeImagesThatAreConvertedToArgb() throws IOException {
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_565_RGB)));
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE)));
+    }
+
+    @Test
+    public void shouldDecodeSubimages() throws IOException {
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB)).getSubimage(3, 5, 20, 11));
+        assertDecodedEquals(createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_4BYTE_ABGR)).getSubimage(3, 5, 20, 11));
+    }
+
+    @Test
+    public void shouldDecodeImagesWithoutFiltering() throws IOException {
+        PNGEncoder encoder = new PNGEncoder();
+        encoder.setAdaptiveFiltering(false);
+        BufferedImage img = createImage(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB));
+        assertArrayEquals(getRGB(img), getRGB(encodeDecode(img, encoder)));
+    }
+
+    @Test
+    public void shouldDecodeLargeImagesWithEveryQuality() throws IOException {
+        // The image is large enough to be filtered and compressed in parallel
+        BufferedImage img = createImage(new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB));
+        for (float quality = 0f; quality <= 1f; quality += 0.5f) {
+            PNGEncoder encoder = new PNGEncoder();
+            encoder.setCompressor(ZlibCompressor.forQuality(quality));
+            assertArrayEquals(getRGB(img), getRGB(encodeDecode(img, encoder)), "quality " + quality);
+        }
+    }
+
+    private static BufferedImage assertDecodedEquals(BufferedImage img) throws IOException {
+        BufferedImage actual = encodeDecode(img, new PNGEncoder());
+        assertArrayEquals(getRGB(img), getRGB(actual), "image type " + img.getType());
+        return actual;
+    }
+
+    private static BufferedImage encodeDecode(BufferedImage img, PNGEncoder encoder) throws IOException {
+        ByteArrayImageOutputStream out = new ByteArrayImageOutputStream();
+        encoder.write(img, out);
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(out.getBuffer(), 0, out.size()));
+        assertNotNull(actual);
+        assertEquals(img.getWidth(), actual.getWidth());
+        assertEquals(img.getHeight(), actual.getHeight());
+        return actual;
+    }
+
+    private static int[] getRGB(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    /**
+     * Fills an image with a pattern that uses all filter types, and with
+     * varying alpha values.
+     */
+    private static BufferedImage createImage(BufferedImage img) {
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int alpha = (x * 7 + y * 11) & 0xff;
+                int rgb = ((x / 4 + y / 3) & 1) == 0 ? x * 0x030507 + y * 0x0b0d11 : 0x123456 + y;
+                img.setRGB(x, y, alpha << 24 | rgb & 0xffffff);
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * @(#)SyntheticVideo.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av.codec.video;
+
+import org.monte.media.av.Buffer;
+import org.monte.media.av.Codec;
+import org.monte.media.av.Format;
+import org.monte.media.av.FormatKeys;
+import org.monte.media.avi.codec.video.DIBCodec;
+import org.monte.media.avi.codec.video.RunLengthCodec;
+import org.monte.media.avi.codec.video.ZMBVCodec;
+import org.monte.media.math.Rational;
+import org.monte.media.mp4.codec.video.H264Codec;
+import org.monte.media.quicktime.codec.video.AnimationCodec;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.FrameRateKey;
+import static org.monte.media.av.FormatKeys.KeyFrameIntervalKey;
+import static org.monte.media.av.FormatKeys.MIME_AVI;
+import static org.monte.media.av.FormatKeys.MIME_JAVA;
+import static org.monte.media.av.FormatKeys.MIME_QUICKTIME;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.FormatKeys.MimeTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DataClassKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DepthKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVC1;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_DIB;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_DOSBOX_SCREEN_CAPTURE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_RLE8;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_QUICKTIME_ANIMATION;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_QUICKTIME_JPEG;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_QUICKTIME_PNG;
+import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
+
+/**
+ * Helper for benchmarks: creates reproducible synthetic video frames, and
+ * creates video codecs by name.
+ * <p>
+ * The frames do not depend on installed fonts. Text is drawn as rows of
+ * small rectangles with the size of glyphs.
+ */
+public class SyntheticVideo {
+    /**
+     * The content of the synthetic frames.
+     */
+    public enum Content {
+        /**
+         * A text document, in which a few words change from frame to frame.
+         */
+        TEXT,
+        /**
+         * A desktop with windows, buttons and gradients, in which a window
+         * and the mouse cursor move.
+         */
+        UI,
+        /**
+         * A text document, which scrolls up by a few lines per frame.
+         */
+        SCROLLING,
+        /**
+         * Camera content: smooth gradients with noise, which move a little
+         * from frame to frame.
+         */
+        NATURAL
+    }
+
+    private SyntheticVideo() {
+    }
+
+    /**
+     * Creates a sequence of frames.
+     *
+     * @param content the content
+     * @param width   the width of the frames
+     * @param height  the height of the frames
+     * @param depth   the depth of the frames: 8 for an indexed color model
+     *                with the default palette, 16 for 555 RGB, or 24 for RGB
+     * @param count   the number of frames
+     * @param seed    the seed of the random number generator
+     * @return the frames
+     */
+    public static BufferedImage[] createFrames(Content content, int width, int height, int depth, int count, long seed) {
+        Random rnd = new Random(seed);
+        BufferedImage[] frames = new BufferedImage[count];
+        BufferedImage page = switch (content) {
+            case TEXT, SCROLLING -> createPage(width, height * 2, rnd);
+            default -> null;
+        };
+        for (int i = 0; i < count; i++) {
+            BufferedImage rgb = switch (content) {
+                case TEXT -> createTextFrame(page, width, height, i, rnd);
+                case UI -> createUiFrame(width, height, i);
+                case SCROLLING -> createScrollingFrame(page, width, height, i);
+                case NATURAL -> createNaturalFrame(width, height, i, seed);
+            };
+            frames[i] = convert(rgb, depth);
+        }
+        return frames;
+    }
+
+    /**
+     * Converts an RGB image into the specified depth.
+     */
+    public static BufferedImage convert(BufferedImage rgb, int depth) {
+        int type = switch (depth) {
+            case 8 -> BufferedImage.TYPE_BYTE_INDEXED;
+            case 15, 16 -> BufferedImage.TYPE_USHORT_555_RGB;
+            case 24, 32 -> BufferedImage.TYPE_INT_RGB;
+            default -> throw new IllegalArgumentException("Unsupported depth:" + depth);
+        };
+        if (rgb.getType() == type) {
+            return rgb;
+        }
+        BufferedImage img = new BufferedImage(rgb.getWidth(), rgb.getHeight(), type);
+        Graphics2D g = img.createGraphics();
+        g.drawImage(rgb, 0, 0, null);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Creates a page with lines of words.
+     */
+    private static BufferedImage createPage(int width, int height, Random rnd) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLACK);
+        for (int y = 8; y + 12 < height; y += 16) {
+            drawWords(g, 8, y, width - 8, rnd);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static void drawWords(Graphics2D g, int x, int y, int maxX, Random rnd) {
+        while (x < maxX) {
+            int letters = 1 + rnd.nextInt(9);
+            for (int i = 0; i < letters && x + 6 < maxX; i++) {
+                int h = rnd.nextInt(4) == 0 ? 11 : 7;
+                g.fillRect(x, y + 11 - h, 5, h);
+                x += 7;
+            }
+            x += 7;
+        }
+    }
+
+    private static BufferedImage createTextFrame(BufferedImage page, int width, int height, int frame, Random rnd) {
+        // Change a few words on the page, as if somebody is typing
+        Graphics2D g = page.createGraphics();
+        int y = 8 + 16 * ((frame * 3) % Math.max(1, (height - 20) / 16));
+        int x = 8 + 7 * rnd.nextInt(Math.max(1, (width - 80) / 7));
+        g.setColor(Color.WHITE);
+        g.fillRect(x, y, 70, 12);
+        g.setColor(Color.BLACK);
+        drawWords(g, x, y, x + 70, rnd);
+        g.dispose();
+        return copy(page, 0, width, height);
+    }
+
+    private static BufferedImage createScrollingFrame(BufferedImage page, int width, int height, int frame) {
+        int maxScroll = page.getHeight() - height;
+        int scroll = (frame * 48) % (2 * maxScroll);
+        return copy(page, scroll < maxScroll ? scroll : 2 * maxScroll - scroll, width, height);
+    }
+
+    private static BufferedImage copy(BufferedImage page, int y, int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.drawImage(page, 0, -y, null);
+        g.dispose();
+        return img;
+    }
+
+    private static BufferedImage createUiFrame(int width, int height, int frame) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        // Desktop background with a gradient
+        g.setPaint(new java.awt.GradientPaint(0, 0, new Color(0x3a6ea5), 0, height, new Color(0x0c2340)));
+        g.fillRect(0, 0, width, height);
+        // A static window with buttons, and a window that moves
+        drawWindow(g, width / 10, height / 10, width / 2, height / 2);
+        drawWindow(g, width / 3 + (frame * 4) % (width / 3), height / 3 + (frame * 2) % (height / 3), width / 2, height / 2);
+        // Task bar and mouse cursor
+        g.setColor(new Color(0xd4d0c8));
+        g.fillRect(0, height - 24, width, 24);
+        g.setColor(Color.BLACK);
+        int cx = (frame * 13) % width, cy = (frame * 7) % height;
+        g.fillPolygon(new int[]{cx, cx, cx + 8}, new int[]{cy, cy + 14, cy + 10}, 3);
+        g.dispose();
+        return img;
+    }
+
+    private static void drawWindow(Graphics2D g, int x, int y, int w, int h) {
+        g.setColor(new Color(0xd4d0c8));
+        g.fillRect(x, y, w, h);
+        g.setPaint(new java.awt.GradientPaint(x, y, new Color(0x0a246a), x + w, y, new Color(0xa6caf0)));
+        g.fillRect(x + 2, y + 2, w - 4, 18);
+        g.setColor(Color.WHITE);
+        g.fillRect(x + 6, y + 26, w - 12, h - 66);
+        for (int bx = x + w - 90; bx > x + 6; bx -= 90) {
+            g.setColor(new Color(0xd4d0c8));
+            g.fill3DRect(bx, y + h - 34, 80, 24, true);
+            g.setColor(Color.BLACK);
+            g.fillRect(bx + 20, y + h - 26, 40, 7);
+        }
+    }
+
+    private static BufferedImage createNaturalFrame(int width, int height, int frame, long seed) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        // Sensor noise differs from frame to frame
+        Random rnd = new Random(seed * 31 + frame);
+        double dx = frame * 0.7, dy = frame * 0.3;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double u = (x + dx) / width, v = (y + dy) / height;
+                double s = Math.sin(u * 7.1 + Math.cos(v * 5.3)) * Math.cos(v * 4.7 - u * 2.9);
+                int noise = rnd.nextInt(9) - 4;
+                int r = clamp((int) (128 + 100 * s + 40 * u) + noise);
+                int gr = clamp((int) (110 + 90 * Math.sin(v * 6.0 + s)) + noise);
+                int b = clamp((int) (90 + 80 * v - 50 * s) + noise);
+                data[y * width + x] = r << 16 | gr << 8 | b;
+            }
+        }
+        return img;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    /**
+     * Returns the format of the frames, for use as input format of an
+     * encoder, or as output format of a decoder.
+     */
+    public static Format createImageFormat(int width, int height, int depth) {
+        return new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_BUFFERED_IMAGE, DataClassKey, BufferedImage.class,
+                WidthKey, width, HeightKey, height, DepthKey, depth,
+                FrameRateKey, new Rational(30, 1));
+    }
+
+    /**
+     * Creates an encoded format by codec name.
+     *
+     * @param name             the name of the codec, optionally followed by a
+     *                         dash and the depth, for example {@code "tscc-24"}.
+     *                         Supported names are
+     *                         {@code tscc, rle, RLE8, DIB, zmbv, png, jpeg, avc1}.
+     * @param width            the width of the frames
+     * @param height           the height of the frames
+     * @param keyFrameInterval the key frame interval
+     * @return the encoded format
+     */
+    public static Format createEncodedFormat(String name, int width, int height, int keyFrameInterval) {
+        String[] parts = name.split("-");
+        int depth = parts.length > 1 ? Integer.parseInt(parts[1]) : 24;
+        String mimeType, encoding;
+        switch (parts[0]) {
+            case "tscc" -> {
+                mimeType = MIME_AVI;
+                encoding = ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+            }
+            case "rle" -> {
+                mimeType = MIME_QUICKTIME;
+                encoding = ENCODING_QUICKTIME_ANIMATION;
+            }
+            case "RLE8" -> {
+                mimeType = MIME_AVI;
+                encoding = ENCODING_AVI_RLE8;
+            }
+            case "DIB" -> {
+                mimeType = MIME_AVI;
+                encoding = ENCODING_AVI_DIB;
+            }
+            case "zmbv" -> {
+                mimeType = MIME_AVI;
+                encoding = ENCODING_AVI_DOSBOX_SCREEN_CAPTURE;
+            }
+            case "png" -> {
+                mimeType = MIME_QUICKTIME;
+                encoding = ENCODING_QUICKTIME_PNG;
+            }
+            case "jpeg" -> {
+                mimeType = MIME_QUICKTIME;
+                encoding = ENCODING_QUICKTIME_JPEG;
+            }
+            case "avc1" -> {
+                mimeType = MIME_QUICKTIME;
+                encoding = ENCODING_AVC1;
+            }
+            default -> throw new IllegalArgumentException("Unsupported codec:" + name);
+        }
+        return new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, MimeTypeKey, mimeType,
+                EncodingKey, encoding, DataClassKey, byte[].class,
+                WidthKey, width, HeightKey, height, DepthKey, depth,
+                FrameRateKey, new Rational(30, 1), KeyFrameIntervalKey, keyFrameInterval);
+    }
+
+    /**
+     * Returns the depth of the frames for the specified codec name.
+     */
+    public static int getDepth(String name) {
+        String[] parts = name.split("-");
+        return parts.length > 1 ? Integer.parseInt(parts[1]) : 24;
+    }
+
+    /**
+     * Creates a codec for the specified encoded format.
+     *
+     * @param encodedFormat the encoded format
+     * @param encode        true for an encoder, false for a decoder
+     * @return the codec
+     */
+    public static Codec createCodec(Format encodedFormat, boolean encode) {
+        Supplier<Codec> supplier = switch (encodedFormat.get(EncodingKey)) {
+            case ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE -> TechSmithCodec::new;
+            case ENCODING_QUICKTIME_ANIMATION -> AnimationCodec::new;
+            case ENCODING_AVI_RLE8 -> RunLengthCodec::new;
+            case ENCODING_AVI_DIB -> DIBCodec::new;
+            case ENCODING_AVI_DOSBOX_SCREEN_CAPTURE -> ZMBVCodec::new;
+            case ENCODING_QUICKTIME_PNG -> PNGCodec::new;
+            case ENCODING_QUICKTIME_JPEG -> JPEGCodec::new;
+            case ENCODING_AVC1 -> H264Codec::new;
+            default -> throw new IllegalArgumentException("Unsupported format:" + encodedFormat);
+        };
+        Codec codec = supplier.get();
+        Format imageFormat = createImageFormat(encodedFormat.get(WidthKey), encodedFormat.get(HeightKey),
+                encodedFormat.get(DepthKey));
+        if (encode) {
+            codec.setInputFormat(imageFormat);
+            codec.setOutputFormat(encodedFormat);
+        } else {
+            codec.setInputFormat(encodedFormat);
+            codec.setOutputFormat(imageFormat);
+        }
+        if (codec.getInputFormat() == null || codec.getOutputFormat() == null) {
+            throw new IllegalArgumentException("Codec " + codec + " does not support " + encodedFormat);
+        }
+        return codec;
+    }
+
+    /**
+     * Encodes the frames.
+     *
+     * @return the encoded frames
+     */
+    public static byte[][] encode(Codec encoder, BufferedImage[] frames) {
+        byte[][] encoded = new byte[frames.length][];
+        Buffer in = new Buffer();
+        Buffer out = new Buffer();
+        for (int i = 0; i < frames.length; i++) {
+            in.format = encoder.getInputFormat();
+            in.data = frames[i];
+            in.sampleDuration = new Rational(1, 30);
+            in.sequenceNumber = i;
+            encoder.process(in, out);
+            if (out.isFlag(DISCARD)) {
+                throw new IllegalStateException("Could not encode frame " + i, out.exception);
+            }
+            byte[] data = new byte[out.length];
+            System.arraycopy((byte[]) out.data, out.offset, data, 0, out.length);
+            encoded[i] = data;
+        }
+        return encoded;
+    }
+}
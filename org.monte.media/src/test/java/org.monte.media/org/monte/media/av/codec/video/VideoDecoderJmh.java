@@ -0,0 +1,138 @@
+/*
+ * @(#)VideoDecoderJmh.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.av.codec.video;
+
+import org.monte.media.av.Buffer;
+import org.monte.media.av.Codec;
+import org.monte.media.av.Format;
+import org.monte.media.math.Rational;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.av.BufferFlag.DISCARD;
+import static org.monte.media.av.BufferFlag.KEYFRAME;
+
+/**
+ * Measures the decoding speed of the video codecs on synthetic content.
+ * <p>
+ * The score is the number of frames per second. The auxiliary counters
+ * {@code inputBytes} and {@code outputBytes} are reported in bytes per
+ * second: {@code inputBytes} divided by the score is the number of bytes per
+ * encoded frame, and {@code outputBytes} is the throughput of uncompressed
+ * pixel data.
+ * <p>
+ * The frames are encoded with the encoder of the same codec. Each sequence
+ * of frames starts with a key frame, and has one key frame. H.264 is not
+ * included, because its decoder needs the decoder configuration record that
+ * the encoder emits with the key frame; use {@link CodecQualityHarness} for
+ * H.264.
+ */
+@Measurement(iterations = 4, time = 2)
+@Warmup(iterations = 2, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+public class VideoDecoderJmh {
+    /**
+     * The number of frames in a sequence.
+     */
+    private static final int FRAME_COUNT = 30;
+
+    @Param({"tscc-8", "tscc-16", "tscc-24", "rle-8", "rle-16", "rle-24", "RLE8-8", "DIB-8", "DIB-24",
+            "zmbv-8", "zmbv-15", "zmbv-32", "png", "jpeg"})
+    public String codec;
+
+    @Param({"TEXT", "UI", "SCROLLING", "NATURAL"})
+    public SyntheticVideo.Content content;
+
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    private Codec decoder;
+    private Format format;
+    private byte[][] encoded;
+    private long frameBytes;
+    private int index;
+    private final Buffer in = new Buffer();
+    private final Buffer out = new Buffer();
+
+    /**
+     * Counts the compressed and uncompressed bytes.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long inputBytes;
+        public long outputBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            inputBytes = 0;
+            outputBytes = 0;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VideoDecoderJmh.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]), height = Integer.parseInt(size[1]);
+        int depth = SyntheticVideo.getDepth(codec);
+        format = SyntheticVideo.createEncodedFormat(codec, width, height, FRAME_COUNT);
+        encoded = SyntheticVideo.encode(SyntheticVideo.createCodec(format, true),
+                SyntheticVideo.createFrames(content, width, height, depth, FRAME_COUNT, 42));
+        frameBytes = (long) width * height * depth / 8;
+        decoder = SyntheticVideo.createCodec(format, false);
+        index = 0;
+    }
+
+    @Benchmark
+    public Object decode(Bytes bytes) {
+        if (index == FRAME_COUNT) {
+            index = 0;
+        }
+        byte[] data = encoded[index];
+        in.format = format;
+        in.data = data;
+        in.offset = 0;
+        in.length = data.length;
+        in.sampleDuration = new Rational(1, 30);
+        in.clearFlags();
+        in.setFlag(KEYFRAME, index == 0);
+        in.sequenceNumber = index++;
+        decoder.process(in, out);
+        if (out.isFlag(DISCARD)) {
+            throw new IllegalStateException("Could not decode frame " + in.sequenceNumber, out.exception);
+        }
+        bytes.inputBytes += data.length;
+        bytes.outputBytes += frameBytes;
+        return out.data;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * @(#)ZMBVCodecTest.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.avi.codec.video;
+
+import org.junit.jupiter.api.Test;
+import org.monte.media.av.Buffer;
+import org.monte.media.av.Codec;
+import org.monte.media.av.Format;
+import org.monte.media.av.FormatKeys.MediaType;
+import org.monte.media.io.ByteArrayImageOutputStream;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.KeyFrameIntervalKey;
+import static org.monte.media.av.FormatKeys.MIME_AVI;
+import static org.monte.media.av.FormatKeys.MIME_JAVA;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.FormatKeys.MimeTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DataClassKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DepthKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_AVI_DOSBOX_SCREEN_CAPTURE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
+import static org.monte.media.av.codec.video.VideoFormatKeys.FixedFrameRateKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.QualityKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
+
+public class ZMBVCodecTest {
+    /**
+     * The frame size is not a multiple of the block size, so that the
+     * encoder has to handle partial blocks at the right and bottom edges.
+     */
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 50;
+    private static final int FRAME_COUNT = 8;
+
+    @Test
+    public void shouldEncodeDecode32BitFrames() throws IOException {
+        ZMBVCodecCore encoder = new ZMBVCodecCore();
+        ZMBVCodecCore decoder = new ZMBVCodecCore();
+        Object[] pixelHolders = new Object[2];
+        ByteArrayImageOutputStream encoded = new ByteArrayImageOutputStream();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            int[] pixels = createFrame(frame, 0xffffff);
+            encoded.clear();
+            boolean isKeyframe = encoder.encode32(encoded, pixels, WIDTH, HEIGHT, 0, WIDTH, frame == 0);
+            int result = decode(decoder, encoded, pixelHolders);
+            assertEquals(isKeyframe ? -32 : 32, result, "frame " + frame);
+            assertArrayEquals(pixels, (int[]) pixelHolders[0], "frame " + frame);
+        }
+    }
+
+    @Test
+    public void shouldEncodeDecode16BitFrames() throws IOException {
+        shouldEncodeDecode16BitFrames(ZMBVCodecCore.VIDEOMODE_15_BIT_BGR, 15, 0x7fff);
+        shouldEncodeDecode16BitFrames(ZMBVCodecCore.VIDEOMODE_16_BIT_BGR, 16, 0xffff);
+    }
+
+    private void shouldEncodeDecode16BitFrames(int videoFormat, int depth, int mask) throws IOException {
+        ZMBVCodecCore encoder = new ZMBVCodecCore();
+        ZMBVCodecCore decoder = new ZMBVCodecCore();
+        Object[] pixelHolders = new Object[2];
+        ByteArrayImageOutputStream encoded = new ByteArrayImageOutputStream();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            short[] pixels = toShorts(createFrame(frame, mask));
+            encoded.clear();
+            boolean isKeyframe = encoder.encode16(encoded, pixels, videoFormat, WIDTH, HEIGHT, 0, WIDTH, frame == 0);
+            int result = decode(decoder, encoded, pixelHolders);
+            assertEquals(isKeyframe ? -depth : depth, result, "depth " + depth + " frame " + frame);
+            assertArrayEquals(pixels, (short[]) pixelHolders[0], "depth " + depth + " frame " + frame);
+        }
+    }
+
+    @Test
+    public void shouldEncodeDecode8BitFramesWithPaletteChanges() throws IOException {
+        ZMBVCodecCore encoder = new ZMBVCodecCore();
+        ZMBVCodecCore decoder = new ZMBVCodecCore();
+        Object[] pixelHolders = new Object[2];
+        ByteArrayImageOutputStream encoded = new ByteArrayImageOutputStream();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            byte[] pixels = toBytes(createFrame(frame, 0xff));
+            int[] palette = new int[256];
+            for (int i = 0; i < palette.length; i++) {
+                // Change the palette every other frame
+                palette[i] = (i * 0x010203 + frame / 2 * 0x100000) & 0xffffff;
+            }
+            encoded.clear();
+            boolean isKeyframe = encoder.encode8(encoded, pixels, palette, WIDTH, HEIGHT, 0, WIDTH, frame == 0);
+            int result = decode(decoder, encoded, pixelHolders);
+            assertEquals(isKeyframe ? -8 : 8, result, "frame " + frame);
+            assertArrayEquals(pixels, (byte[]) pixelHolders[0], "frame " + frame);
+            assertArrayEquals(palette, maskPalette(decoder.getPalette()), "palette of frame " + frame);
+        }
+    }
+
+    @Test
+    public void shouldEncodeDecodeWithoutMotionSearchAndWithHuffmanOnly() throws IOException {
+        ZMBVCodecCore encoder = new ZMBVCodecCore();
+        encoder.setMotionSearchRange(0);
+        encoder.setCompression(Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY);
+        ZMBVCodecCore decoder = new ZMBVCodecCore();
+        Object[] pixelHolders = new Object[2];
+        ByteArrayImageOutputStream encoded = new ByteArrayImageOutputStream();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            int[] pixels = createFrame(frame, 0xffffff);
+            encoded.clear();
+            // Request a key frame in the middle of the sequence
+            encoder.encode32(encoded, pixels, WIDTH, HEIGHT, 0, WIDTH, frame % 5 == 0);
+            decode(decoder, encoded, pixelHolders);
+            assertArrayEquals(pixels, (int[]) pixelHolders[0], "frame " + frame);
+        }
+    }
+
+    @Test
+    public void shouldEncodeDecodeImagesWithEveryQuality() throws IOException {
+        for (float quality : new float[]{0f, 0.5f, 1f}) {
+            ZMBVCodec codec = new ZMBVCodec();
+            codec.setInputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                    EncodingKey, ENCODING_BUFFERED_IMAGE, FixedFrameRateKey, true,
+                    WidthKey, WIDTH, HeightKey, HEIGHT, DepthKey, 32));
+            codec.setOutputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                    EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                    FixedFrameRateKey, true, DepthKey, 32, QualityKey, quality, KeyFrameIntervalKey, 4));
+            ZMBVCodecCore decoder = new ZMBVCodecCore();
+            Object[] pixelHolders = new Object[2];
+            Buffer in = new Buffer();
+            Buffer out = new Buffer();
+            ByteArrayImageOutputStream encoded = new ByteArrayImageOutputStream();
+            for (int frame = 0; frame < FRAME_COUNT; frame++) {
+                BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+                int[] pixels = createFrame(frame, 0xffffff);
+                System.arraycopy(pixels, 0, ((DataBufferInt) img.getRaster().getDataBuffer()).getData(), 0, pixels.length);
+                in.data = img;
+                assertEquals(Codec.CODEC_OK, codec.process(in, out), "quality " + quality + " frame " + frame);
+                encoded.clear();
+                encoded.write((byte[]) out.data, out.offset, out.length);
+                decode(decoder, encoded, pixelHolders);
+                assertArrayEquals(pixels, (int[]) pixelHolders[0], "quality " + quality + " frame " + frame);
+            }
+        }
+    }
+
+    @Test
+    public void shouldEncodeDecode8BitImages() throws IOException {
+        shouldEncodeDecodeImages(BufferedImage.TYPE_BYTE_INDEXED, 8, BufferedImage.TYPE_BYTE_INDEXED);
+    }
+
+    @Test
+    public void shouldEncodeDecode15BitImages() throws IOException {
+        shouldEncodeDecodeImages(BufferedImage.TYPE_USHORT_555_RGB, 15, BufferedImage.TYPE_USHORT_555_RGB);
+        // A 565 image is encoded without converting its pixels
+        shouldEncodeDecodeImages(BufferedImage.TYPE_USHORT_565_RGB, 15, BufferedImage.TYPE_USHORT_565_RGB);
+        shouldEncodeDecodeImages(BufferedImage.TYPE_INT_RGB, 15, BufferedImage.TYPE_USHORT_555_RGB);
+    }
+
+    @Test
+    public void shouldEncodeDecode16BitImages() throws IOException {
+        shouldEncodeDecodeImages(BufferedImage.TYPE_USHORT_565_RGB, 16, BufferedImage.TYPE_USHORT_565_RGB);
+        // A 555 image is encoded without converting its pixels
+        shouldEncodeDecodeImages(BufferedImage.TYPE_USHORT_555_RGB, 16, BufferedImage.TYPE_USHORT_555_RGB);
+        shouldEncodeDecodeImages(BufferedImage.TYPE_INT_RGB, 16, BufferedImage.TYPE_USHORT_565_RGB);
+    }
+
+    @Test
+    public void shouldEncodeDecode32BitImages() throws IOException {
+        shouldEncodeDecodeImages(BufferedImage.TYPE_INT_RGB, 32, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Encodes images with a {@link ZMBVCodec}, decodes them with another
+     * {@link ZMBVCodec}, and compares the colors of the images.
+     *
+     * @param imageType    the type of the images
+     * @param depth        the depth of the output format of the encoder
+     * @param expectedType the type of an image that has the expected colors
+     */
+    private static void shouldEncodeDecodeImages(int imageType, int depth, int expectedType) throws IOException {
+        ZMBVCodec encoder = new ZMBVCodec();
+        encoder.setInputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_BUFFERED_IMAGE, FixedFrameRateKey, true,
+                WidthKey, WIDTH, HeightKey, HEIGHT, DepthKey, depth));
+        encoder.setOutputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                FixedFrameRateKey, true, DepthKey, depth, KeyFrameIntervalKey, 4));
+        ZMBVCodec decoder = new ZMBVCodec();
+        decoder.setInputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                FixedFrameRateKey, true, WidthKey, WIDTH, HeightKey, HEIGHT, DepthKey, depth));
+        decoder.setOutputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_BUFFERED_IMAGE, FixedFrameRateKey, true));
+        Buffer in = new Buffer();
+        Buffer encoded = new Buffer();
+        Buffer decoded = new Buffer();
+        String message = "image type " + imageType + ", depth " + depth;
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            int[] rgb = createFrame(frame, 0xffffff);
+            BufferedImage img = new BufferedImage(WIDTH, HEIGHT, imageType);
+            img.setRGB(0, 0, WIDTH, HEIGHT, rgb, 0, WIDTH);
+            BufferedImage expected = new BufferedImage(WIDTH, HEIGHT, expectedType);
+            expected.createGraphics().drawImage(img, 0, 0, null);
+
+            in.data = img;
+            assertEquals(Codec.CODEC_OK, encoder.process(in, encoded), message + ", frame " + frame);
+            assertEquals(Codec.CODEC_OK, decoder.process(encoded, decoded), message + ", frame " + frame);
+            BufferedImage actual = (BufferedImage) decoded.data;
+            assertArrayEquals(getRGB(expected), getRGB(actual), message + ", frame " + frame);
+        }
+    }
+
+    @Test
+    public void shouldDecodeUnchangedFrames() throws IOException {
+        ZMBVCodecCore encoder = new ZMBVCodecCore();
+        ZMBVCodecCore decoder = new ZMBVCodecCore();
+        Object[] pixelHolders = new Object[2];
+        ByteArrayImageOutputStream encoded = new ByteArrayImageOutputStream();
+        int[] pixels = createFrame(3, 0xffffff);
+        for (int frame = 0; frame < 3; frame++) {
+            encoded.clear();
+            encoder.encode32(encoded, pixels, WIDTH, HEIGHT, 0, WIDTH, frame == 0);
+            decode(decoder, encoded, pixelHolders);
+            assertArrayEquals(pixels, (int[]) pixelHolders[0], "frame " + frame);
+        }
+    }
+
+    /**
+     * Decodes a frame like {@link ZMBVCodec} does. The decoded pixels are
+     * returned in {@code pixelHolders[0]}, the pixels of the previous frame
+     * in {@code pixelHolders[1]}.
+     */
+    private static int decode(ZMBVCodecCore decoder, ByteArrayImageOutputStream encoded, Object[] pixelHolders) {
+        Object[] newPixels = {pixelHolders[1]};
+        Object[] oldPixels = {pixelHolders[0]};
+        int result = decoder.decode(encoded.getBuffer(), 0, (int) encoded.length(), newPixels, oldPixels, WIDTH, HEIGHT, false);
+        pixelHolders[0] = newPixels[0];
+        pixelHolders[1] = oldPixels[0];
+        return result;
+    }
+
+    /**
+     * Creates a frame with a pattern that scrolls diagonally, so that the
+     * encoder finds motion vectors, and with a rectangle that moves against
+     * the pattern, so that some blocks have no match in the previous frame.
+     *
+     * @param frame the frame number
+     * @param mask  the mask for the pixel values
+     * @return the pixels of the frame
+     */
+    private static int[] createFrame(int frame, int mask) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int px = x + frame * 2;
+                int py = y + frame * 3;
+                int v = ((px / 5 + py / 7) & 1) == 0 ? px * 0x030507 + py * 0x0b0d11 : 0x123456;
+                pixels[y * WIDTH + x] = v & mask;
+            }
+        }
+        for (int y = 20; y < 30; y++) {
+            for (int x = 40 - frame * 4; x < 52 - frame * 4; x++) {
+                if (x >= 0 && x < WIDTH) {
+                    pixels[y * WIDTH + x] = (0xa5a5a5 + frame) & mask;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] getRGB(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    private static short[] toShorts(int[] pixels) {
+        short[] shorts = new short[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            shorts[i] = (short) pixels[i];
+        }
+        return shorts;
+    }
+
+    private static byte[] toBytes(int[] pixels) {
+        byte[] bytes = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            bytes[i] = (byte) pixels[i];
+        }
+        return bytes;
+    }
+
+    private static int[] maskPalette(int[] palette) {
+        int[] masked = Arrays.copyOf(palette, 256);
+        for (int i = 0; i < masked.length; i++) {
+            masked[i] &= 0xffffff;
+        }
+        return masked;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * @(#)ColorQuantizerTest.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.color;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class ColorQuantizerTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /**
+     * The image has 256 colors with 5 bits per channel, which fit exactly
+     * into the palette. No dithering method may add noise to it.
+     */
+    @Test
+    public void shouldReproduceImageThatFitsIntoPalette() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_555_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int c = (x * 5 + y * 17) & 0xff;
+                int r = (c * 7) & 31, g = c >>> 3, b = (c * 11 + 5) & 31;
+                img.setRGB(x, y, r << 19 | g << 11 | b << 3);
+            }
+        }
+        int[] expected = getRGB(img);
+        for (ColorQuantizer.Dither dither : ColorQuantizer.Dither.values()) {
+            ColorQuantizer quantizer = new ColorQuantizer();
+            quantizer.setDither(dither);
+            byte[] dst = new byte[WIDTH * HEIGHT];
+            quantizer.quantize(img, dst, 0, WIDTH);
+            assertEquals(256, quantizer.getColorModel().getMapSize(), "palette size, " + dither);
+            assertArrayEquals(expected, toRGB(dst, quantizer.getColorModel()), dither.toString());
+        }
+    }
+
+    /**
+     * The gray ramp has more colors than the palette, the colors that are
+     * not in the palette are still dithered.
+     */
+    @Test
+    public void shouldDitherColorsThatAreNotInPalette() {
+        BufferedImage img = new BufferedImage(256, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < 256; x++) {
+                img.setRGB(x, y, x * 0x010101);
+            }
+        }
+        byte[][] dst = new byte[2][256 * HEIGHT];
+        ColorQuantizer.Dither[] dithers = {ColorQuantizer.Dither.NONE, ColorQuantizer.Dither.ORDERED};
+        for (int i = 0; i < dithers.length; i++) {
+            ColorQuantizer quantizer = new ColorQuantizer();
+            quantizer.setMaxColors(8);
+            quantizer.setDither(dithers[i]);
+            quantizer.quantize(img, dst[i], 0, 256);
+        }
+        assertFalse(Arrays.equals(dst[0], dst[1]), "ordered dither must differ from nearest color");
+    }
+
+    private static int[] getRGB(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    private static int[] toRGB(byte[] indices, IndexColorModel icm) {
+        int[] rgb = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            rgb[i] = icm.getRGB(indices[i] & 0xff);
+        }
+        return rgb;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * @(#)ZlibCompressorTest.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZlibCompressorTest {
+    private static final int BLOCK_SIZE = 4096;
+    private static final int[] LENGTHS = {0, 1, 1000, BLOCK_SIZE, 2 * BLOCK_SIZE, 5 * BLOCK_SIZE + 123};
+
+    @Test
+    public void shouldInflateEveryLevel() throws Exception {
+        for (int level = Deflater.DEFAULT_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            shouldInflate(new ZlibCompressor(level, Deflater.DEFAULT_STRATEGY), "level " + level);
+        }
+    }
+
+    @Test
+    public void shouldInflateEveryStrategy() throws Exception {
+        shouldInflate(new ZlibCompressor(Deflater.DEFAULT_COMPRESSION, Deflater.FILTERED), "filtered");
+        shouldInflate(new ZlibCompressor(Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY), "huffman only");
+    }
+
+    @Test
+    public void shouldInflateEveryQuality() throws Exception {
+        for (int i = 0; i <= 10; i++) {
+            shouldInflate(ZlibCompressor.forQuality(i / 10f), "quality " + i / 10f);
+        }
+    }
+
+    /**
+     * The compressed blocks are larger than the pooled output buffers.
+     */
+    @Test
+    public void shouldInflateIncompressibleBlocks() throws Exception {
+        byte[] data = new byte[3 * ZlibCompressor.DEFAULT_BLOCK_SIZE + 5];
+        new Random(0).nextBytes(data);
+        for (int level : new int[]{Deflater.NO_COMPRESSION, Deflater.DEFAULT_COMPRESSION}) {
+            try (ZlibCompressor compressor = new ZlibCompressor(level, Deflater.DEFAULT_STRATEGY)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                compressor.compressParallel(data, 0, data.length, ZlibCompressor.DEFAULT_BLOCK_SIZE, out);
+                assertArrayEquals(data, inflate(out.toByteArray(), data.length), "level " + level);
+            }
+        }
+    }
+
+    /**
+     * A deflater with a strategy that differs from the default strategy
+     * applies the strategy with its first call of deflate, and may return
+     * before it has consumed all input.
+     */
+    @Test
+    public void shouldInflateLargeBlocksWithEveryQuality() throws Exception {
+        byte[] data = createData(3 * ZlibCompressor.DEFAULT_BLOCK_SIZE + 5);
+        for (int i = 0; i <= 10; i++) {
+            try (ZlibCompressor compressor = ZlibCompressor.forQuality(i / 10f)) {
+                for (int pass = 0; pass < 2; pass++) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    compressor.compressParallel(data, 0, data.length, ZlibCompressor.DEFAULT_BLOCK_SIZE, out);
+                    assertArrayEquals(data, inflate(out.toByteArray(), data.length), "quality " + i / 10f + ", pass " + pass);
+                }
+            }
+        }
+    }
+
+    private static void shouldInflate(ZlibCompressor compressor, String message) throws IOException, DataFormatException {
+        try (compressor) {
+            compressor.setBlockSize(BLOCK_SIZE);
+            for (int length : LENGTHS) {
+                // the data starts at an offset, to check that the offset is respected
+                byte[] data = createData(length + 7);
+                byte[] expected = Arrays.copyOfRange(data, 7, data.length);
+
+                // compress() compresses serially, or in parallel if the input
+                // is large enough and the machine has multiple processors
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                compressor.compress(data, 7, length, out);
+                assertArrayEquals(expected, inflate(out.toByteArray(), length), message + ", length " + length);
+
+                // compressParallel() compresses in blocks on any machine
+                if (length > 0) {
+                    out.reset();
+                    compressor.compressParallel(data, 7, length, BLOCK_SIZE, out);
+                    assertArrayEquals(expected, inflate(out.toByteArray(), length), message + ", blocks, length " + length);
+                }
+
+                // reuse the pooled deflaters
+                out.reset();
+                compressor.compress(data, 7, length, out);
+                assertArrayEquals(expected, inflate(out.toByteArray(), length), message + ", reused, length " + length);
+            }
+        }
+    }
+
+    /**
+     * Inflates a zlib stream. The inflater checks the zlib header and the
+     * Adler-32 checksum.
+     */
+    private static byte[] inflate(byte[] compressed, int expectedLength) throws DataFormatException {
+        assertEquals(0, ((compressed[0] & 0xff) << 8 | (compressed[1] & 0xff)) % 31, "zlib header check bits");
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] result = new byte[expectedLength + 1];
+            int count = 0;
+            while (!inflater.finished() && count < result.length) {
+                int n = inflater.inflate(result, count, result.length - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+            assertTrue(inflater.finished(), "zlib stream must be complete");
+            assertEquals(0, inflater.getRemaining(), "no data after the zlib stream");
+            return Arrays.copyOf(result, count);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Creates data with runs and noise, like a video frame.
+     */
+    private static byte[] createData(int length) {
+        Random r = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ) {
+            int run = Math.min(length - i, 1 + r.nextInt(64));
+            if (r.nextBoolean()) {
+                Arrays.fill(data, i, i + run, (byte) r.nextInt(256));
+            } else {
+                for (int j = i; j < i + run; j++) {
+                    data[j] = (byte) r.nextInt(256);
+                }
+            }
+            i += run;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * @(#)QuickTimeEditListTest.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.quicktime;
+
+import org.junit.jupiter.api.Test;
+import org.monte.media.av.Format;
+import org.monte.media.av.FormatKeys;
+import org.monte.media.math.Rational;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DepthKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_QUICKTIME_ANIMATION;
+import static org.monte.media.av.codec.video.VideoFormatKeys.FrameRateKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.KeyFrameIntervalKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
+
+public class QuickTimeEditListTest {
+    private static final int FRAME_COUNT = 10;
+
+    /**
+     * The movie has 10 frames of 0.1 seconds with one sync sample at the
+     * start. The edit presents 0.5 seconds starting at 0.25 seconds, which
+     * is in the middle of frame 2.
+     */
+    @Test
+    public void shouldReadEditThatStartsInsideASample() throws IOException {
+        File file = Files.createTempFile("QuickTimeEditListTest", ".mov").toFile();
+        try {
+            writeMovie(file, new Rational(25, 100), new Rational(1, 2));
+
+            try (QuickTimeReader in = new QuickTimeReader(file)) {
+                assertEquals(new Rational(1, 2), in.getTrackDuration(0), "track duration");
+
+                // Frames 0 and 1 end before the edit, they are only needed
+                // for decoding. Frame 2 and frame 7 are cut by the edit.
+                // Frames 8 and 9 start after the edit.
+                Rational[] expectedTimes = {
+                        r(0), r(0), r(0), r(5), r(15), r(25), r(35), r(45)};
+                Rational[] expectedDurations = {
+                        r(0), r(0), r(5), r(10), r(10), r(10), r(10), r(5)};
+                for (int i = 0; i < expectedTimes.length; i++) {
+                    assertEquals(expectedTimes[i], in.getSampleTime(0, i), "time of sample " + i);
+                    assertEquals(expectedDurations[i], in.getSampleDuration(0, i), "duration of sample " + i);
+                }
+
+                // Only the frames in the edit are presented
+                List<Integer> frames = new ArrayList<>();
+                List<Rational> readTimes = new ArrayList<>();
+                BufferedImage img = null;
+                while ((img = in.read(0, img)) != null) {
+                    frames.add(frameNumber(img));
+                    readTimes.add(in.getReadTime(0));
+                }
+                assertEquals(List.of(2, 3, 4, 5, 6, 7), frames, "presented frames");
+                assertEquals(List.of(r(5), r(15), r(25), r(35), r(45), r(50)), readTimes, "read times");
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldReadAllSamplesWithoutEditList() throws IOException {
+        File file = Files.createTempFile("QuickTimeEditListTest", ".mov").toFile();
+        try {
+            writeMovie(file, null, null);
+
+            try (QuickTimeReader in = new QuickTimeReader(file)) {
+                assertEquals(new Rational(1, 1), in.getTrackDuration(0), "track duration");
+                for (int i = 0; i < FRAME_COUNT; i++) {
+                    assertEquals(r(i * 10), in.getSampleTime(0, i), "time of sample " + i);
+                    assertEquals(r(10), in.getSampleDuration(0, i), "duration of sample " + i);
+                }
+                List<Integer> frames = new ArrayList<>();
+                BufferedImage img = null;
+                while ((img = in.read(0, img)) != null) {
+                    frames.add(frameNumber(img));
+                }
+                assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), frames, "presented frames");
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the specified number of hundredths of a second.
+     */
+    private static Rational r(long hundredths) {
+        return new Rational(hundredths, 100);
+    }
+
+    private static void writeMovie(File file, Rational editMediaTime, Rational editDuration) throws IOException {
+        try (QuickTimeWriter out = new QuickTimeWriter(file)) {
+            int track = out.addTrack(new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
+                    EncodingKey, ENCODING_QUICKTIME_ANIMATION,
+                    WidthKey, 16, HeightKey, 8, DepthKey, 24,
+                    FrameRateKey, new Rational(100, 1),
+                    KeyFrameIntervalKey, FRAME_COUNT));
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                out.write(track, createFrame(i), 10);
+            }
+            if (editMediaTime != null) {
+                out.addEdit(track, editMediaTime, editDuration);
+            }
+        }
+    }
+
+    /**
+     * Creates a frame that is filled with a gray level that encodes the
+     * frame number.
+     */
+    private static BufferedImage createFrame(int frame) {
+        BufferedImage img = new BufferedImage(16, 8, BufferedImage.TYPE_INT_RGB);
+        int gray = frame * 20;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, gray << 16 | gray << 8 | gray);
+            }
+        }
+        return img;
+    }
+
+    private static int frameNumber(BufferedImage img) {
+        return ((img.getRGB(img.getWidth() / 2, img.getHeight() / 2) & 0xff) + 10) / 20;
+    }
+}
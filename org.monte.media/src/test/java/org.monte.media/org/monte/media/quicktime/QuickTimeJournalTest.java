@@ -0,0 +1,141 @@
+/*
+ * @(#)QuickTimeJournalTest.java
+ * Copyright © 2026 Werner Randelshofer, Switzerland. MIT License.
+ */
+
+package org.monte.media.quicktime;
+
+import org.junit.jupiter.api.Test;
+import org.monte.media.av.Format;
+import org.monte.media.av.FormatKeys;
+import org.monte.media.math.Rational;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.monte.media.av.FormatKeys.EncodingKey;
+import static org.monte.media.av.FormatKeys.MediaTypeKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.DepthKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.ENCODING_QUICKTIME_ANIMATION;
+import static org.monte.media.av.codec.video.VideoFormatKeys.FrameRateKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.HeightKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.KeyFrameIntervalKey;
+import static org.monte.media.av.codec.video.VideoFormatKeys.WidthKey;
+
+public class QuickTimeJournalTest {
+    private static final int FRAME_COUNT = 10;
+    /**
+     * The number of frames that are written before the crash.
+     */
+    private static final int JOURNALED_FRAME_COUNT = 6;
+
+    /**
+     * Writes a movie with a journal, and copies the movie file and the
+     * journal file in the state that they would have after a crash. The
+     * copy of the movie file ends in the middle of a sample that was written
+     * after the last checkpoint, and the copy of the journal file ends with a
+     * checkpoint that was only partially written.
+     */
+    @Test
+    public void shouldRecoverMovieAfterCrash() throws IOException {
+        File file = Files.createTempFile("QuickTimeJournalTest", ".mov").toFile();
+        File journalFile = new File(file.getPath() + ".journal");
+        File crashedFile = Files.createTempFile("QuickTimeJournalTest", ".crashed.mov").toFile();
+        File crashedJournalFile = new File(crashedFile.getPath() + ".journal");
+        try {
+            try (QuickTimeWriter out = new QuickTimeWriter(file)) {
+                int track = addTrack(out);
+                // The journal is set after the track has been added
+                out.setJournal(journalFile, Duration.ZERO);
+                for (int i = 0; i < FRAME_COUNT; i++) {
+                    if (i == JOURNALED_FRAME_COUNT) {
+                        // The journal has a checkpoint for each frame so far
+                        Files.copy(journalFile.toPath(), crashedJournalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        Files.write(crashedJournalFile.toPath(), new byte[]{0, 0, 1, 0, 3, 0, 0}, StandardOpenOption.APPEND);
+                    }
+                    out.write(track, createFrame(i), 10);
+                }
+                Files.copy(file.toPath(), crashedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                try (RandomAccessFile raf = new RandomAccessFile(crashedFile, "rw")) {
+                    raf.setLength(raf.length() - 3);
+                }
+            }
+            assertFalse(journalFile.exists(), "journal of finished movie");
+
+            QuickTimeOutputStream.recover(crashedFile, crashedJournalFile);
+            assertFalse(crashedJournalFile.exists(), "journal of recovered movie");
+
+            try (QuickTimeReader in = new QuickTimeReader(crashedFile)) {
+                assertEquals(new Rational(JOURNALED_FRAME_COUNT, 10), in.getTrackDuration(0), "track duration");
+                List<Integer> frames = new ArrayList<>();
+                BufferedImage img = null;
+                while ((img = in.read(0, img)) != null) {
+                    frames.add(frameNumber(img));
+                }
+                assertEquals(List.of(0, 1, 2, 3, 4, 5), frames, "recovered frames");
+            }
+        } finally {
+            file.delete();
+            journalFile.delete();
+            crashedFile.delete();
+            crashedJournalFile.delete();
+        }
+    }
+
+    @Test
+    public void shouldNotSetJournalAfterFirstSample() throws IOException {
+        File file = Files.createTempFile("QuickTimeJournalTest", ".mov").toFile();
+        File journalFile = new File(file.getPath() + ".journal");
+        try {
+            try (QuickTimeWriter out = new QuickTimeWriter(file)) {
+                int track = addTrack(out);
+                out.write(track, createFrame(0), 10);
+                assertThrows(IllegalStateException.class, () -> out.setJournal(journalFile, Duration.ZERO));
+            }
+            assertFalse(journalFile.exists(), "journal file");
+            assertTrue(file.length() > 0, "movie file");
+        } finally {
+            file.delete();
+            journalFile.delete();
+        }
+    }
+
+    private static int addTrack(QuickTimeWriter out) throws IOException {
+        return out.addTrack(new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
+                EncodingKey, ENCODING_QUICKTIME_ANIMATION,
+                WidthKey, 16, HeightKey, 8, DepthKey, 24,
+                FrameRateKey, new Rational(100, 1),
+                KeyFrameIntervalKey, FRAME_COUNT));
+    }
+
+    /**
+     * Creates a frame that is filled with a gray level that encodes the
+     * frame number.
+     */
+    private static BufferedImage createFrame(int frame) {
+        BufferedImage img = new BufferedImage(16, 8, BufferedImage.TYPE_INT_RGB);
+        int gray = frame * 20;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, gray << 16 | gray << 8 | gray);
+            }
+        }
+        return img;
+    }
+
+    private static int frameNumber(BufferedImage img) {
+        return ((img.getRGB(img.getWidth() / 2, img.getHeight() / 2) & 0xff) + 10) / 20;
+    }
+}